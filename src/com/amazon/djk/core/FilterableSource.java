@@ -0,0 +1,22 @@
+package com.amazon.djk.core;
+
+import java.io.IOException;
+
+import com.amazon.djk.record.FieldPredicate;
+
+/**
+ * RecordSources that implement FilterableSource can skip records rejected by
+ * a simple predicate before building them.  acceptIf: pushes its predicate to
+ * its source at expression parse time and still evaluates every record it
+ * receives.
+ */
+public interface FilterableSource {
+    /**
+     * restricts the records produced to those accepted by the predicate.  May be
+     * called more than once, in which case the predicates are combined.
+     *
+     * @param predicate
+     * @throws IOException
+     */
+    void pushPredicate(FieldPredicate predicate) throws IOException;
+}
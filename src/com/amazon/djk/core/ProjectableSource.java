@@ -0,0 +1,22 @@
+package com.amazon.djk.core;
+
+import java.io.IOException;
+
+import com.amazon.djk.record.FieldProjection;
+
+/**
+ * RecordSources that implement ProjectableSource can omit the top level fields
+ * their consumer does not need.  Pipes that only remove fields (keep:, rm:) push
+ * their projection to their source at expression parse time, before any record
+ * is read.
+ */
+public interface ProjectableSource {
+    /**
+     * restricts the fields produced to those wanted by projection.  May be called
+     * more than once, in which case the projections are combined.
+     *
+     * @param projection
+     * @throws IOException
+     */
+    void pushProjection(FieldProjection projection) throws IOException;
+}
@@ -14,6 +14,7 @@ import com.amazon.djk.core.RecordSource;
 import com.amazon.djk.file.FileSystem;
 import com.amazon.djk.format.FormatOperator;
 import com.amazon.djk.format.WriterOperator;
+import com.amazon.djk.java.ValueFunctionBatch;
 import com.amazon.djk.keyed.KeyedSink;
 import com.amazon.djk.keyed.LazyKeyedSource;
 import com.amazon.djk.processor.KnifeProperties.Namespace;
@@ -96,6 +97,24 @@ public class ExpressionParser {
      * @throws SyntaxError
      */
     public RecordSink getSink(RecordSource upstream, ExpressionChunks expressionChunks) throws IOException, SyntaxError {
+        // value functions of the expression are compiled together once it is parsed
+        ValueFunctionBatch.begin();
+        RecordSink sink = null;
+        try {
+            sink = parseSink(upstream, expressionChunks);
+        }
+
+        finally {
+            Exception e = ValueFunctionBatch.end(sink != null);
+            if (e != null) {
+                throw new SyntaxError(e.getMessage());
+            }
+        }
+
+        return sink;
+    }
+
+    private RecordSink parseSink(RecordSource upstream, ExpressionChunks expressionChunks) throws IOException, SyntaxError {
         // properties have been set in the ExecutionContext
         expressionChunks.resolveProperties(propertiesNamespace);
         Stack<ParseToken> tokStack = TokenResolver.getAsStack(expressionChunks);
@@ -0,0 +1,239 @@
+package com.amazon.djk.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+/**
+ * Block compressed gzip (a la BGZF).  A file is a sequence of independent gzip
+ * members and therefore readable by standard gunzip.  Each member carries an extra
+ * field so that a reader can find member boundaries without inflating.
+ *
+ * <pre>
+ *  file     := preamble? data* index* trailer
+ *  data     := member with extra subfield 'DJ' holding the member size
+ *  index    := empty member with extra subfield 'DX' holding member offsets (long)
+ *  trailer  := empty member with extra subfield 'DT' holding
+ *              indexOffset(long) numMembers(int) flags(byte)
+ * </pre>
+ *
+ * Members are cut at record boundaries when the writer is able to signal them,
+ * in which case the file can be split across readers.  The optional preamble
+ * (e.g. a tsv header line) is the first member and is prepended to each split.
+ */
+public class BlockGzip {
+    public static final int FLAG_PREAMBLE = 0x01;
+    public static final int FLAG_RECORD_ALIGNED = 0x02;
+
+    static final int HEADER_LEN = 10; // without extra field
+    static final int FOOTER_LEN = 8; // crc32 + isize
+    static final byte[] EMPTY_DEFLATE = {0x03, 0x00};
+    static final int MAX_INDEX_ENTRIES = 8000; // fits a 64K extra field
+    static final int TRAILER_DATA_LEN = 8 + 4 + 1;
+    static final int TRAILER_LEN = HEADER_LEN + 2 + 4 + TRAILER_DATA_LEN + EMPTY_DEFLATE.length + FOOTER_LEN;
+
+    /**
+     * the members of a block gzip file
+     */
+    public static class Index {
+        private final long[] offsets; // numMembers + 1, the last being the index offset
+        private final int flags;
+
+        Index(long[] offsets, int flags) {
+            this.offsets = offsets;
+            this.flags = flags;
+        }
+
+        public int numMembers() {
+            return offsets.length - 1;
+        }
+
+        public long getOffset(int member) {
+            return offsets[member];
+        }
+
+        public long getLength(int member) {
+            return offsets[member + 1] - offsets[member];
+        }
+
+        public boolean hasPreamble() {
+            return (flags & FLAG_PREAMBLE) != 0;
+        }
+
+        /**
+         *
+         * @return true if members are cut at record boundaries
+         */
+        public boolean isRecordAligned() {
+            return (flags & FLAG_RECORD_ALIGNED) != 0;
+        }
+
+        /**
+         *
+         * @return the first member holding records
+         */
+        public int firstDataMember() {
+            return hasPreamble() ? 1 : 0;
+        }
+    }
+
+    /**
+     * reads the index of a block gzip file.
+     *
+     * @param filesys
+     * @param leaf
+     * @return the index or null if the file is not block gzip
+     * @throws IOException
+     */
+    public static Index readIndex(FileSystem filesys, FileArgs leaf) throws IOException {
+        long size = filesys.getSize(leaf);
+        if (size < TRAILER_LEN) return null;
+
+        long indexOffset;
+        int numMembers;
+        int flags;
+        try (DataInputStream dis = new DataInputStream(filesys.getStream(leaf, size - TRAILER_LEN))) {
+            byte[] trailer = new byte[TRAILER_LEN];
+            dis.readFully(trailer);
+            int pos = getSubfieldData(trailer, 'D', 'T', TRAILER_DATA_LEN);
+            if (pos == -1) return null;
+            indexOffset = getLong(trailer, pos);
+            numMembers = getInt(trailer, pos + 8);
+            flags = trailer[pos + 12];
+        }
+
+        long[] offsets = new long[numMembers + 1];
+        offsets[numMembers] = indexOffset;
+        int num = 0;
+        try (DataInputStream dis = new DataInputStream(filesys.getStream(leaf, indexOffset))) {
+            while (num < numMembers) {
+                byte[] header = new byte[HEADER_LEN + 2];
+                dis.readFully(header);
+                int xlen = (header[HEADER_LEN] & 0xff) | ((header[HEADER_LEN + 1] & 0xff) << 8);
+                byte[] extra = new byte[xlen];
+                dis.readFully(extra);
+                if (extra[0] != 'D' || extra[1] != 'X') {
+                    throw new IOException("corrupt block gzip index in " + leaf.getPath());
+                }
+
+                int len = (extra[2] & 0xff) | ((extra[3] & 0xff) << 8);
+                for (int pos = 4; pos < 4 + len; pos += 8) {
+                    offsets[num++] = getLong(extra, pos);
+                }
+
+                dis.readFully(new byte[EMPTY_DEFLATE.length + FOOTER_LEN]);
+            }
+        }
+
+        return new Index(offsets, flags);
+    }
+
+    /**
+     * opens one of numSplits pieces of a record aligned file.  The preamble, if any,
+     * precedes the data members of the split.
+     *
+     * @param filesys
+     * @param leaf
+     * @param index
+     * @param splitNo
+     * @param numSplits
+     * @return the decompressed stream of the split
+     * @throws IOException
+     */
+    public static InputStream openSplit(FileSystem filesys, FileArgs leaf, Index index, int splitNo, int numSplits) throws IOException {
+        int firstData = index.firstDataMember();
+        int numData = index.numMembers() - firstData;
+        int first = firstData + (int)((long)numData * splitNo / numSplits);
+        int end = firstData + (int)((long)numData * (splitNo + 1) / numSplits);
+
+        InputStream data = end > first ?
+                new ParallelGzipInputStream(filesys.getStream(leaf, index.getOffset(first)),
+                        index.getOffset(end) - index.getOffset(first), leaf.getPath()) :
+                new ByteArrayInputStream(new byte[0]);
+
+        if (!index.hasPreamble()) return data;
+
+        InputStream preamble = new ParallelGzipInputStream(filesys.getStream(leaf, index.getOffset(0)),
+                index.getLength(0), leaf.getPath());
+        return new SequenceInputStream(preamble, data);
+    }
+
+    /**
+     *
+     * @param member bytes of a complete gzip member
+     * @return the offset of the data of the subfield or -1
+     */
+    private static int getSubfieldData(byte[] member, char si1, char si2, int dataLen) {
+        if ((member[0] & 0xff) != 0x1f || (member[1] & 0xff) != 0x8b || (member[3] & 0x04) == 0) return -1;
+        int pos = HEADER_LEN + 2;
+        if (member[pos] != si1 || member[pos + 1] != si2) return -1;
+        int len = (member[pos + 2] & 0xff) | ((member[pos + 3] & 0xff) << 8);
+        return len == dataLen ? pos + 4 : -1;
+    }
+
+    static long getLong(byte[] b, int pos) {
+        long v = 0;
+        for (int i = 7; i >= 0; i--) {
+            v = (v << 8) | (b[pos + i] & 0xff);
+        }
+
+        return v;
+    }
+
+    static int getInt(byte[] b, int pos) {
+        return (b[pos] & 0xff) | ((b[pos + 1] & 0xff) << 8) | ((b[pos + 2] & 0xff) << 16) | ((b[pos + 3] & 0xff) << 24);
+    }
+
+    static void putLong(byte[] b, int pos, long v) {
+        for (int i = 0; i < 8; i++) {
+            b[pos + i] = (byte)(v >>> (8 * i));
+        }
+    }
+
+    static void putInt(byte[] b, int pos, int v) {
+        for (int i = 0; i < 4; i++) {
+            b[pos + i] = (byte)(v >>> (8 * i));
+        }
+    }
+
+    /**
+     * writes a gzip header with a single extra subfield
+     *
+     * @param out buffer of at least HEADER_LEN + 2 + 4 bytes
+     * @param si1
+     * @param si2
+     * @param subfieldLen length of the subfield data which is to follow
+     * @return the position after the subfield header
+     */
+    static int putHeader(byte[] out, char si1, char si2, int subfieldLen) {
+        out[0] = (byte)0x1f;
+        out[1] = (byte)0x8b;
+        out[2] = 8; // deflate
+        out[3] = 0x04; // FEXTRA
+        out[4] = out[5] = out[6] = out[7] = 0; // mtime
+        out[8] = 0; // xfl
+        out[9] = (byte)0xff; // os unknown
+        int xlen = 4 + subfieldLen;
+        out[10] = (byte)(xlen & 0xff);
+        out[11] = (byte)((xlen >>> 8) & 0xff);
+        out[12] = (byte)si1;
+        out[13] = (byte)si2;
+        out[14] = (byte)(subfieldLen & 0xff);
+        out[15] = (byte)((subfieldLen >>> 8) & 0xff);
+        return 16;
+    }
+
+    /**
+     *
+     * @param is
+     * @param buf
+     * @param off
+     * @param len
+     * @throws IOException
+     */
+    static void readFully(InputStream is, byte[] buf, int off, int len) throws IOException {
+        new DataInputStream(is).readFully(buf, off, len);
+    }
+}
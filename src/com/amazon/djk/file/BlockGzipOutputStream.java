@@ -0,0 +1,227 @@
+package com.amazon.djk.file;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes block compressed gzip, see BlockGzip.  Blocks are compressed on a shared
+ * pool and written in order.  Callers cut blocks at record boundaries via endBlock()
+ * when isBlockFull().  If a block grows well beyond the block size without being
+ * cut, it is cut anyway and the file is no longer marked as record aligned.
+ */
+public class BlockGzipOutputStream extends OutputStream {
+    private static final int FORCED_CUT_FACTOR = 4;
+    private static final ThreadLocal<Deflater> deflaters =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+    private final OutputStream out;
+    private final int blockSize;
+    private final int maxPending;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private byte[] block;
+    private int blockLen = 0;
+    private long position = 0;
+    private long[] offsets = new long[64];
+    private int numMembers = 0;
+    private int flags = BlockGzip.FLAG_RECORD_ALIGNED;
+    private boolean closed = false;
+
+    /**
+     *
+     * @param out the stored file
+     * @param blockSize uncompressed size of a block
+     */
+    public BlockGzipOutputStream(OutputStream out, int blockSize) {
+        this.out = out;
+        this.blockSize = blockSize;
+        this.block = new byte[blockSize + blockSize / 4];
+        this.maxPending = CodecPool.size() * 2;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (blockLen == block.length) {
+            grow(blockLen + 1);
+        }
+
+        block[blockLen++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (blockLen + len > block.length) {
+            grow(blockLen + len);
+        }
+
+        System.arraycopy(b, off, block, blockLen, len);
+        blockLen += len;
+    }
+
+    private void grow(int needed) throws IOException {
+        if (blockLen >= blockSize * FORCED_CUT_FACTOR) { // the writer is not cutting blocks
+            flags &= ~BlockGzip.FLAG_RECORD_ALIGNED;
+            needed -= blockLen;
+            endBlock();
+            if (needed <= block.length) return;
+        }
+
+        block = Arrays.copyOf(block, Math.max(needed, block.length * 2));
+    }
+
+    /**
+     *
+     * @return true if the current block should be cut at the next record boundary
+     */
+    public boolean isBlockFull() {
+        return blockLen >= blockSize;
+    }
+
+    /**
+     * ends the current block, which must end at a record boundary
+     *
+     * @throws IOException
+     */
+    public void endBlock() throws IOException {
+        if (blockLen == 0) return;
+
+        final byte[] raw = block;
+        final int rawLen = blockLen;
+        block = new byte[block.length];
+        blockLen = 0;
+
+        while (pending.size() >= maxPending) {
+            writeMember(pending.removeFirst());
+        }
+
+        pending.addLast(CodecPool.get().submit(() -> compress(raw, rawLen)));
+    }
+
+    /**
+     * ends the preamble (e.g. a header line) which is prepended to each split of the file.
+     * Must be called before any other block has been ended.
+     *
+     * @throws IOException
+     */
+    public void endPreamble() throws IOException {
+        if (numMembers != 0 || !pending.isEmpty() || blockLen == 0) return;
+        endBlock();
+        flags |= BlockGzip.FLAG_PREAMBLE;
+    }
+
+    /**
+     * compressed data is written as blocks are ended.
+     */
+    @Override
+    public void flush() throws IOException { }
+
+    private void writeMember(Future<byte[]> future) throws IOException {
+        byte[] member;
+        try {
+            member = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+
+        if (numMembers == offsets.length) {
+            offsets = Arrays.copyOf(offsets, numMembers * 2);
+        }
+        offsets[numMembers++] = position;
+
+        out.write(member);
+        position += member.length;
+    }
+
+    /**
+     *
+     * @param raw
+     * @param rawLen
+     * @return a complete gzip member
+     */
+    private static byte[] compress(byte[] raw, int rawLen) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(raw, 0, rawLen);
+        deflater.finish();
+
+        byte[] member = new byte[rawLen + rawLen / 16 + 64];
+        int pos = BlockGzip.putHeader(member, 'D', 'J', 4) + 4;
+        while (!deflater.finished()) {
+            if (pos == member.length) {
+                member = Arrays.copyOf(member, member.length * 2);
+            }
+            pos += deflater.deflate(member, pos, member.length - pos);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, rawLen);
+        member = Arrays.copyOf(member, pos + BlockGzip.FOOTER_LEN);
+        BlockGzip.putInt(member, pos, (int)crc.getValue());
+        BlockGzip.putInt(member, pos + 4, rawLen);
+        BlockGzip.putInt(member, BlockGzip.HEADER_LEN + 2 + 4, member.length); // member size
+
+        return member;
+    }
+
+    /**
+     * writes the remaining blocks, the index and the trailer and closes the stream
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+
+        try {
+            endBlock();
+            while (!pending.isEmpty()) {
+                writeMember(pending.removeFirst());
+            }
+
+            long indexOffset = position;
+            for (int first = 0; first < numMembers; first += BlockGzip.MAX_INDEX_ENTRIES) {
+                int num = Math.min(BlockGzip.MAX_INDEX_ENTRIES, numMembers - first);
+                byte[] extra = new byte[BlockGzip.HEADER_LEN + 2 + 4 + num * 8];
+                int pos = BlockGzip.putHeader(extra, 'D', 'X', num * 8);
+                for (int i = 0; i < num; i++) {
+                    BlockGzip.putLong(extra, pos + i * 8, offsets[first + i]);
+                }
+                writeEmptyMember(extra);
+            }
+
+            byte[] trailer = new byte[BlockGzip.HEADER_LEN + 2 + 4 + BlockGzip.TRAILER_DATA_LEN];
+            int pos = BlockGzip.putHeader(trailer, 'D', 'T', BlockGzip.TRAILER_DATA_LEN);
+            BlockGzip.putLong(trailer, pos, indexOffset);
+            BlockGzip.putInt(trailer, pos + 8, numMembers);
+            trailer[pos + 12] = (byte)flags;
+            writeEmptyMember(trailer);
+        }
+
+        finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+            out.close();
+        }
+    }
+
+    /**
+     *
+     * @param header gzip header including the extra field
+     * @throws IOException
+     */
+    private void writeEmptyMember(byte[] header) throws IOException {
+        out.write(header);
+        out.write(BlockGzip.EMPTY_DEFLATE);
+        out.write(new byte[BlockGzip.FOOTER_LEN]); // crc32 and isize of nothing
+        position += header.length + BlockGzip.EMPTY_DEFLATE.length + BlockGzip.FOOTER_LEN;
+    }
+}
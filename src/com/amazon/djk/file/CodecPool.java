@@ -0,0 +1,38 @@
+package com.amazon.djk.file;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * small daemon pool shared by the parallel compressors and decompressors
+ * (see BlockGzipOutputStream, ParallelGzipInputStream, ParallelBZip2InputStream).
+ */
+public class CodecPool {
+    private static final int NUM_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    private static final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+            .setNameFormat(CodecPool.class.getSimpleName() + "-%d").setDaemon(true).build();
+    private static ExecutorService pool = null;
+
+    /**
+     *
+     * @return the shared pool
+     */
+    public static synchronized ExecutorService get() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(NUM_THREADS, threadFactory);
+        }
+
+        return pool;
+    }
+
+    /**
+     *
+     * @return the number of threads of the pool
+     */
+    public static int size() {
+        return NUM_THREADS;
+    }
+}
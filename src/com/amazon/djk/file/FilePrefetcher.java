@@ -0,0 +1,172 @@
+package com.amazon.djk.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazon.djk.file.FileQueue.LazyFile;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Opens upcoming files of a FileQueue in the background and reads the first
+ * bytes of each, so that a reader moving to the next file does not stall on
+ * the open and the first buffer fill.  The bytes held by prefetched files are
+ * bounded by a memory budget.
+ */
+public class FilePrefetcher {
+    private static final Logger LOG = LoggerFactory.getLogger(FilePrefetcher.class);
+    private static final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+            .setNameFormat(FilePrefetcher.class.getSimpleName() + "-%d").setDaemon(true).build();
+
+    private final int numFiles;
+    private final int headBytes;
+    private final long budgetBytes;
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * the open stream of a prefetched file and the bytes read from it
+     */
+    static class Head {
+        private final InputStream rest;
+        private final byte[] bytes;
+        private final int length;
+
+        Head(InputStream rest, byte[] bytes, int length) {
+            this.rest = rest;
+            this.bytes = bytes;
+            this.length = length;
+        }
+    }
+
+    /**
+     *
+     * @param numFiles number of upcoming files to prefetch
+     * @param headKB number of kilobytes to read ahead per file
+     * @param budgetMB maximum megabytes held by prefetched files
+     */
+    public FilePrefetcher(int numFiles, int headKB, int budgetMB) {
+        this.numFiles = numFiles;
+        this.headBytes = headKB * 1024;
+        this.budgetBytes = budgetMB * 1024L * 1024L;
+        this.pool = new ThreadPoolExecutor(numFiles, numFiles, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        pool.allowCoreThreadTimeOut(true); // idle once the queue drains
+    }
+
+    /**
+     *
+     * @return the number of upcoming files to prefetch
+     */
+    public int getNumFiles() {
+        return numFiles;
+    }
+
+    /**
+     * starts prefetching the file if the budget allows
+     *
+     * @param file
+     */
+    void prefetch(LazyFile file) {
+        if (file.isPrefetched()) return;
+
+        long reserved = reservedBytes.addAndGet(headBytes);
+        if (reserved > budgetBytes) {
+            reservedBytes.addAndGet(-headBytes);
+            return;
+        }
+
+        file.setPrefetch(this, pool.submit(() -> readHead(file)));
+    }
+
+    private Head readHead(LazyFile file) throws IOException {
+        InputStream is = file.openStream();
+        if (is == null) return new Head(null, new byte[0], 0);
+
+        byte[] bytes = new byte[headBytes];
+        int length = 0;
+        while (length < bytes.length) {
+            int num = is.read(bytes, length, bytes.length - length);
+            if (num == -1) break;
+            length += num;
+        }
+
+        return new Head(is, bytes, length);
+    }
+
+    /**
+     * waits for a prefetch to complete and releases its budget
+     *
+     * @param file
+     * @param future
+     * @return the stream of the file or null if prefetching failed or was cancelled
+     * @throws IOException
+     */
+    InputStream take(LazyFile file, Future<Head> future) throws IOException {
+        try {
+            Head head = future.get();
+            if (head.rest == null) return null;
+
+            InputStream bytes = new ByteArrayInputStream(head.bytes, 0, head.length);
+            return new SequenceInputStream(bytes, head.rest);
+        }
+
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+
+        catch (ExecutionException e) { // let the reader open the file itself
+            LOG.info("prefetch failed for " + file.getLeafArgs().getPath(), e.getCause());
+            return null;
+        }
+
+        catch (CancellationException e) { // closed before the prefetch ran
+            return null;
+        }
+
+        finally {
+            reservedBytes.addAndGet(-headBytes);
+        }
+    }
+
+    /**
+     * abandons a prefetch, closing its stream
+     *
+     * @param future
+     */
+    void cancel(Future<Head> future) {
+        if (!future.cancel(true)) {
+            try {
+                Head head = future.get();
+                if (head.rest != null) head.rest.close();
+            } catch (Exception e) {
+                // nothing to close
+            }
+        }
+
+        reservedBytes.addAndGet(-headBytes);
+    }
+
+    /**
+     * stops the prefetch threads.  Prefetches that never ran are cancelled so
+     * that readers waiting on them open their files themselves.
+     */
+    public void close() {
+        for (Runnable task : pool.shutdownNow()) {
+            ((Future<?>)task).cancel(false);
+        }
+    }
+}
@@ -5,45 +5,215 @@ import com.amazon.djk.expression.SyntaxError;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class FileQueue {
 	private final FileSystem filesys;
-	private final List<FileArgs> files;
-	private final int initialSize;
+	private final List<LazyFile> files;
+	private int initialSize;
 	private final String versionId;
-	
+	private FilePrefetcher prefetcher = null;
+	private int numOpenReaders = 0;
+
+	// for projecting the straggler time
+	private int numReaders = 1;
+	private final Map<LazyFile,Long> inFlight = new IdentityHashMap<>(); // start nanos
+	private long bytesDone = 0;
+	private long busyNanos = 0;
+	private boolean sized = false; // the sizes of the files were fetched to order them
+
+	private static final int MAX_SPLITS = 1024;
+	// beyond this many files per reader, the order hardly matters and is not worth a stat per file
+	private static final int MAX_ORDERED_FILES_PER_READER = 64;
+	private static final long SIZE_NOT_FETCHED = -2;
+
  	public static class LazyFile {
 		private final FileSystem filesys;
 		private final FileArgs leaf;
-		
+		private final int splitNo;
+		private final int numSplits;
+		private FilePrefetcher prefetcher = null;
+		private volatile Future<FilePrefetcher.Head> prefetch = null;
+		private long size = SIZE_NOT_FETCHED;
+
 		public LazyFile(FileSystem filesys, FileArgs leaf) {
+			this(filesys, leaf, 0, 1);
+		}
+
+		/**
+		 * constructor for one of numSplits pieces of a file
+		 *
+		 * @param filesys
+		 * @param leaf
+		 * @param splitNo
+		 * @param numSplits
+		 */
+		public LazyFile(FileSystem filesys, FileArgs leaf, int splitNo, int numSplits) {
 			this.filesys = filesys;
 			this.leaf = leaf;
+			this.splitNo = splitNo;
+			this.numSplits = numSplits;
 		}
-		
+
 		public FileArgs getLeafArgs() {
 		    return leaf;
 		}
 
+		/**
+		 *
+		 * @return the decompressed stream of the file or of this piece of it
+		 * @throws IOException
+		 */
 		public InputStream getStream() throws IOException {
-			return filesys.getStream(leaf);
+			Future<FilePrefetcher.Head> future = takePrefetch();
+			if (future != null) {
+				InputStream is = prefetcher.take(this, future);
+				if (is != null) return is;
+			}
+
+			return openStream();
+		}
+
+		InputStream openStream() throws IOException {
+			return isSplit() ? filesys.getStream(leaf, splitNo, numSplits) : filesys.getStream(leaf);
+		}
+
+		boolean isPrefetched() {
+			return prefetch != null;
+		}
+
+		synchronized void setPrefetch(FilePrefetcher prefetcher, Future<FilePrefetcher.Head> prefetch) {
+			this.prefetcher = prefetcher;
+			this.prefetch = prefetch;
+		}
+
+		void cancelPrefetch() {
+			Future<FilePrefetcher.Head> future = takePrefetch();
+			if (future != null) {
+				prefetcher.cancel(future);
+			}
+		}
+
+		/**
+		 *
+		 * @return the prefetch, to be taken or cancelled by one thread only, or null
+		 */
+		private synchronized Future<FilePrefetcher.Head> takePrefetch() {
+			Future<FilePrefetcher.Head> future = prefetch;
+			prefetch = null;
+			return future;
+		}
+
+		/**
+		 *
+		 * @return true if the file system can split the file, see FileSystem.isSplittable()
+		 * @throws IOException
+		 */
+		public boolean isSplittable() throws IOException {
+			return filesys.isSplittable(leaf);
+		}
+
+		/**
+		 *
+		 * @return false if the file system cannot split the file, judged without accessing it
+		 * @throws IOException
+		 */
+		public boolean mayBeSplittable() throws IOException {
+			return filesys.mayBeSplittable(leaf);
+		}
+
+		/**
+		 *
+		 * @param offset byte offset into the stored file
+		 * @return
+		 * @throws IOException
+		 */
+		public InputStream getStream(long offset) throws IOException {
+			return filesys.getStream(leaf, offset);
+		}
+
+		/**
+		 *
+		 * @return the stored size of the file or -1 if unknown
+		 * @throws IOException
+		 */
+		public long getSize() throws IOException {
+			if (size == SIZE_NOT_FETCHED) {
+				size = filesys.getSize(leaf);
+			}
+
+			return size;
+		}
+
+		/**
+		 *
+		 * @return the stored bytes of this piece of the file or -1 if unknown
+		 * @throws IOException
+		 */
+		public long getScheduledSize() throws IOException {
+			long total = getSize();
+			return total < 0 ? total : total / numSplits;
+		}
+
+		/**
+		 *
+		 * @return true if this is only a piece of the file
+		 */
+		public boolean isSplit() {
+			return numSplits > 1;
+		}
+
+		public int getSplitNo() {
+			return splitNo;
+		}
+
+		public int getNumSplits() {
+			return numSplits;
 		}
 	}
-	
+
+ 	/**
+ 	 * decides whether a file can be read in independent pieces
+ 	 */
+ 	public interface FileSplitter {
+ 		/**
+ 		 *
+ 		 * @param file
+ 		 * @return true if the file can be read as independent splits
+ 		 * @throws IOException
+ 		 */
+ 		boolean isSplittable(LazyFile file) throws IOException;
+
+ 		/**
+ 		 *
+ 		 * @param file
+ 		 * @return false if the file cannot be split, judged without accessing it, e.g. by name
+ 		 * @throws IOException
+ 		 */
+ 		default boolean mayBeSplittable(LazyFile file) throws IOException {
+ 			return true;
+ 		}
+ 	}
+
 	public FileQueue(FileSystem filesys, List<FileArgs> dirFiles, Pattern fileRegex) throws IOException {
 		this.filesys = filesys;
 		this.files = new ArrayList<>();
 		// If there is only 1 file, ignore the file-regex
 		if (dirFiles.size() == 1) {
-			files.add(dirFiles.get(0));
+			files.add(new LazyFile(filesys, dirFiles.get(0)));
 		} else {
 			for (FileArgs args : dirFiles) {
 				Matcher m = fileRegex.matcher(args.getPath());
 				if (m.find()) {
-					files.add(args);
+					files.add(new LazyFile(filesys, args));
 				}
 			}
 		}
@@ -54,24 +224,226 @@ public class FileQueue {
 		}
 
 		// version Ids are the same across all files
-		versionId = files.size() > 0 ? filesys.getVersionId(files.get(0)) : "none";
+		versionId = files.size() > 0 ? filesys.getVersionId(files.get(0).getLeafArgs()) : "none";
 
 		this.initialSize = files.size();
 	}
-	
+
+	/**
+	 * when there are fewer files than readers, replaces each splittable file
+	 * with pieces so that all readers can take part.  Must be called before
+	 * the first call to next().
+	 *
+	 * @param numReaders
+	 * @param splitter
+	 * @throws IOException
+	 */
+	public synchronized void split(int numReaders, FileSplitter splitter) throws IOException {
+		schedule(numReaders, splitter, 0);
+	}
+
 	/**
-	 * 
+	 * prepares the queue for numReaders.  Splittable files are replaced by pieces
+	 * when there are fewer files than readers or when they are larger than splitBytes.
+	 * The files are then ordered largest first (longest processing time first) so
+	 * that no reader is left with a large file after the others have finished.
+	 * Sizes cost a stat per file, so they are only fetched for files that may be
+	 * split by size and for ordering up to MAX_ORDERED_FILES_PER_READER files per reader.
+	 * Must be called before the first call to next().
+	 *
+	 * @param numReaders
+	 * @param splitter null if the format cannot be split
+	 * @param splitBytes the size above which files are split, 0 for none
+	 * @throws IOException
+	 */
+	public synchronized void schedule(int numReaders, FileSplitter splitter, long splitBytes) throws IOException {
+		this.numReaders = Math.max(1, numReaders);
+		if (files.isEmpty()) return;
+
+		int fewFilesSplits = files.size() < numReaders ? (numReaders + files.size() - 1) / files.size() : 1;
+		List<LazyFile> pieces = new ArrayList<>();
+		for (LazyFile file : files) {
+			if (file.isSplit() || splitter == null || !splitter.mayBeSplittable(file)) {
+				pieces.add(file);
+				continue;
+			}
+
+			int numSplits = fewFilesSplits;
+			if (splitBytes > 0) {
+				long size = file.getSize();
+				if (size > splitBytes) {
+					numSplits = (int)Math.max(numSplits, Math.min(MAX_SPLITS, (size + splitBytes - 1) / splitBytes));
+				}
+			}
+
+			if (numSplits <= 1 || !splitter.isSplittable(file)) {
+				pieces.add(file);
+				continue;
+			}
+
+			long size = file.getSize();
+			for (int i = 0; i < numSplits; i++) {
+				LazyFile piece = new LazyFile(filesys, file.getLeafArgs(), i, numSplits);
+				piece.size = size;
+				pieces.add(piece);
+			}
+		}
+
+		// next() takes from the end, so largest last.  Unknown sizes go first.
+		sized = pieces.size() <= (long)this.numReaders * MAX_ORDERED_FILES_PER_READER;
+		if (sized) {
+			Map<LazyFile,Long> sizes = new IdentityHashMap<>();
+			for (LazyFile piece : pieces) {
+				sizes.put(piece, piece.getScheduledSize());
+			}
+			pieces.sort(Comparator.comparingLong(sizes::get));
+		}
+
+		files.clear();
+		files.addAll(pieces);
+		initialSize = files.size();
+	}
+
+	/**
+	 *
 	 * @return the head of the queue or null if empty
 	 * @throws IOException
 	 */
 	public synchronized LazyFile next() throws IOException {
-		if (files == null || files.isEmpty()) return null;
-		FileArgs leaf = files.remove(files.size() - 1);
-		return new LazyFile(filesys, leaf);
+		return next(null);
+	}
+
+	/**
+	 *
+	 * @param finished the file the caller has finished reading or null
+	 * @return the head of the queue or null if empty
+	 * @throws IOException
+	 */
+	public synchronized LazyFile next(LazyFile finished) throws IOException {
+		long now = System.nanoTime();
+		if (finished != null) {
+			Long start = inFlight.remove(finished);
+			long size = sized ? finished.getScheduledSize() : -1;
+			if (start != null && size > 0) {
+				bytesDone += size;
+				busyNanos += now - start;
+			}
+		}
+
+		if (files == null || files.isEmpty()) {
+			return null;
+		}
+
+		LazyFile file = files.remove(files.size() - 1);
+		inFlight.put(file, now);
+
+		if (prefetcher != null) {
+			int last = Math.max(0, files.size() - prefetcher.getNumFiles());
+			for (int i = files.size() - 1; i >= last; i--) {
+				prefetcher.prefetch(files.get(i));
+			}
+		}
+
+		return file;
+	}
+
+	/**
+	 * prefetches upcoming files as files are taken from the queue.  Must be called
+	 * before the first call to next().
+	 *
+	 * @param prefetcher
+	 */
+	public synchronized void setPrefetcher(FilePrefetcher prefetcher) {
+		this.prefetcher = prefetcher;
+	}
+
+	/**
+	 * registers a reader of the queue, see closeReader()
+	 */
+	public synchronized void openReader() {
+		numOpenReaders++;
+	}
+
+	/**
+	 * unregisters a reader of the queue.  The last reader to close closes the
+	 * prefetcher, since other readers may still wait on prefetches of the files
+	 * they took.
+	 */
+	public synchronized void closeReader() {
+		if (--numOpenReaders <= 0) {
+			closePrefetcher();
+		}
+	}
+
+	/**
+	 * abandons outstanding prefetches, e.g. when readers terminate early
+	 */
+	public synchronized void closePrefetcher() {
+		if (prefetcher == null) return;
+
+		for (LazyFile file : files == null ? Collections.<LazyFile>emptyList() : files) {
+			file.cancelPrefetch();
+		}
+
+		for (LazyFile file : inFlight.keySet()) {
+			file.cancelPrefetch();
+		}
+
+		prefetcher.close();
+		prefetcher = null;
+	}
+
+	/**
+	 * Projects how long the last reader will continue after the work is evenly
+	 * spread, by placing the remaining files largest first onto the least loaded
+	 * reader at the read rate observed so far.  Unknown unless the files were
+	 * ordered by size, see schedule().
+	 *
+	 * @return the projected straggler seconds or -1 if not yet known
+	 * @throws IOException
+	 */
+	public synchronized double getProjectedStragglerSecs() throws IOException {
+		if (!sized || bytesDone == 0 || busyNanos == 0) return -1;
+		double bytesPerNano = (double)bytesDone / busyNanos; // per reader
+
+		long now = System.nanoTime();
+		PriorityQueue<Double> loads = new PriorityQueue<>();
+		double total = 0;
+		for (Map.Entry<LazyFile,Long> entry : inFlight.entrySet()) {
+			double size = Math.max(0, entry.getKey().getScheduledSize());
+			double remaining = Math.max(0, size - (now - entry.getValue()) * bytesPerNano);
+			loads.add(remaining);
+			total += remaining;
+		}
+
+		while (loads.size() < numReaders) {
+			loads.add(0.0);
+		}
+
+		for (int i = files.size() - 1; i >= 0; i--) {
+			double size = Math.max(0, files.get(i).getScheduledSize());
+			loads.add(loads.poll() + size);
+			total += size;
+		}
+
+		double makespan = 0;
+		for (double load : loads) {
+			makespan = Math.max(makespan, load);
+		}
+
+		double straggler = makespan - total / loads.size();
+		return straggler / bytesPerNano / 1.0e9;
 	}
-	
+
 	public List<FileArgs> getLeafFiles() {
-		return files;
+		List<FileArgs> leaves = new ArrayList<>();
+		for (LazyFile file : files) {
+			if (file.getSplitNo() == 0) {
+				leaves.add(file.getLeafArgs());
+			}
+		}
+
+		return leaves;
 	}
 
 	public String getVersionId() {
@@ -79,7 +451,7 @@ public class FileQueue {
 	}
 
 	/**
-	 * 
+	 *
 	 * @return the current number of files
 	 */
 	public int currentSize() {
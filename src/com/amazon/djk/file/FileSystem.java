@@ -2,6 +2,8 @@ package com.amazon.djk.file;
 
 import com.amazon.djk.expression.SyntaxError;
 
+import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
@@ -42,6 +44,83 @@ public abstract class FileSystem {
 	 * @throws IOException
 	 */
     public abstract InputStream getStream(FileArgs leafArgs) throws IOException;
+
+	/**
+	 * stream positioned at the given byte offset of the stored (i.e. not decompressed) file.
+	 * Implementations should override with a seek where possible. 
+	 * 
+	 * @param leafArgs
+	 * @param offset
+	 * @return
+	 * @throws IOException
+	 */
+	public InputStream getStream(FileArgs leafArgs, long offset) throws IOException {
+		InputStream is = getStream(leafArgs);
+		if (is == null) return null;
+		
+		long toSkip = offset;
+		while (toSkip > 0) {
+			long skipped = is.skip(toSkip);
+			if (skipped <= 0) {
+				is.close();
+				throw new EOFException(String.format("unable to skip to offset %d of %s", offset, leafArgs.getPath()));
+			}
+			toSkip -= skipped;
+		}
+		
+		return is;
+	}
+
+	/**
+	 * 
+	 * @param leafArgs
+	 * @return false if the file cannot be split, judged by its name alone, see isSplittable()
+	 * @throws IOException
+	 */
+	public boolean mayBeSplittable(FileArgs leafArgs) throws IOException {
+		return leafArgs.getPath().endsWith(".gz");
+	}
+
+	/**
+	 * 
+	 * @param leafArgs
+	 * @return true if the file is record aligned block gzip with more than one data member, see BlockGzip
+	 * @throws IOException
+	 */
+	public boolean isSplittable(FileArgs leafArgs) throws IOException {
+		if (!mayBeSplittable(leafArgs)) return false;
+		BlockGzip.Index index = BlockGzip.readIndex(this, leafArgs);
+		return index != null && index.isRecordAligned() && index.numMembers() - index.firstDataMember() > 1;
+	}
+
+	/**
+	 * decompressed stream of one of numSplits pieces of a splittable file
+	 * 
+	 * @param leafArgs
+	 * @param splitNo
+	 * @param numSplits
+	 * @return
+	 * @throws IOException
+	 */
+	public InputStream getStream(FileArgs leafArgs, int splitNo, int numSplits) throws IOException {
+		BlockGzip.Index index = BlockGzip.readIndex(this, leafArgs);
+		if (index == null) {
+			throw new IOException("unable to split " + leafArgs.getPath());
+		}
+		
+		InputStream is = BlockGzip.openSplit(this, leafArgs, index, splitNo, numSplits);
+		return new BufferedInputStream(is, bufferNumKilobytes * 1024);
+	}
+
+	/**
+	 * 
+	 * @param leafArgs
+	 * @return the size in bytes of the stored file or -1 if unknown 
+	 * @throws IOException
+	 */
+	public long getSize(FileArgs leafArgs) throws IOException {
+		return -1;
+	}
 	
 	/**
 	 * if rootArgs is a directory, method returns list of dir contents as FileArgs
@@ -5,6 +5,8 @@ import com.amazon.djk.expression.SyntaxError;
 import com.amazon.djk.format.FormatException;
 import com.amazon.djk.format.NV2FormatParser;
 import com.amazon.djk.format.PushbackLineReader;
+import com.amazon.djk.record.FieldPredicate;
+import com.amazon.djk.record.FieldProjection;
 import com.amazon.djk.record.Record;
 import com.amazon.djk.sink.FileSinkHelper;
 import org.slf4j.Logger;
@@ -36,6 +38,8 @@ public class FormatArgs extends FileArgs {
     private SourceProperties sourceProps;
     private final FileSystem filesys;
     private final String format;
+    private volatile FieldProjection projection = null;
+    private volatile FieldPredicate predicate = null;
 
     public static FormatArgs create(FileSystems fileSystems, ParseToken token, String formatHint, boolean asSource) throws SyntaxError, IOException {
         String scheme = token.isScheme() ? token.getOperator() : LocalFileSystem.LOCAL_SCHEME;
@@ -186,6 +190,40 @@ public class FormatArgs extends FileArgs {
     public String getFormat() {
     	return format;
     }
+
+    /**
+     * restricts the top level fields parsers need to produce, see ProjectableSource
+     * 
+     * @param projection
+     */
+    public synchronized void addProjection(FieldProjection projection) {
+        this.projection = this.projection == null ? projection : this.projection.and(projection);
+    }
+    
+    /**
+     * 
+     * @return the fields wanted from the parsers or null for all
+     */
+    public FieldProjection getProjection() {
+        return projection;
+    }
+
+    /**
+     * restricts the records parsers need to produce, see FilterableSource
+     * 
+     * @param predicate
+     */
+    public synchronized void addPredicate(FieldPredicate predicate) {
+        this.predicate = this.predicate == null ? predicate : this.predicate.and(predicate);
+    }
+
+    /**
+     * 
+     * @return the predicate records of the parsers must pass or null for all
+     */
+    public FieldPredicate getPredicate() {
+        return predicate;
+    }
         
     /**
      * 
@@ -1,24 +1,60 @@
 package com.amazon.djk.file;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.amazon.djk.expression.Arg;
 import com.amazon.djk.expression.ArgType;
+import com.amazon.djk.expression.Param;
 import com.amazon.djk.expression.ParseToken;
 import com.amazon.djk.expression.SyntaxError;
 import com.amazon.djk.manual.Description;
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class LocalFileSystem extends FileSystem {
+	private static final Logger LOG = LoggerFactory.getLogger(LocalFileSystem.class);
 	public final static String LOCAL_SCHEME = "file";
+	public final static String RECURSIVE_PARAM = "recursive";
+	public final static String MANIFEST_FILE = "files.manifest";
+	public final static String MANIFEST_DIR = ".manifest";
+	private final static String MANIFEST_HEADER = "#djk manifest v3 recursive=";
+	private final static String MANIFEST_END = "#end files=";
+	private final static int MANIFEST_MIN_FILES = 1000;
+	// directories changed this recently may change again within their timestamp granularity
+	private final static long MANIFEST_SETTLE_MILLIS = 2000;
+	private final static int LIST_THREADS = 8;
+	private final static int FILES_PER_TASK = 4096;
+	private static ExecutorService listPool = null;
 
+	/**
+	 * Lists the files of a directory, and of its subdirectories when recursive.
+	 * Directories are listed in parallel level by level, their entries checked in
+	 * parallel chunks.  For directories holding a source.properties file, listings
+	 * of at least MANIFEST_MIN_FILES files are cached in a manifest file that stays
+	 * valid while the listed directories keep their modification times.  The manifest
+	 * lives in the MANIFEST_DIR subdirectory, so that writing it leaves the root unchanged.
+	 */
 	@Override
 	public List<FileArgs> listDir(FileArgs args) throws IOException, SyntaxError {
         List<FileArgs> leaves = new ArrayList<>();
@@ -26,13 +62,16 @@ public class LocalFileSystem extends FileSystem {
 		File path = new File(args.getPath());
 		if (path.exists()) {
 			if (path.isDirectory()) {
-				for (File file : path.listFiles()) {
-					if (file.isDirectory()) { // no recursion now
-						continue;
-					}
-
-					leaves.add(createLeafFileArgs(file));
+				boolean recursive = (Boolean)args.getParam(RECURSIVE_PARAM, false);
+				List<File> files = readManifest(path, recursive);
+				if (files == null) {
+					Map<File,Long> dirs = new LinkedHashMap<>();
+					long listStart = System.currentTimeMillis();
+					files = listFiles(path, recursive, dirs);
+					writeManifest(path, recursive, files, dirs, listStart);
 				}
+
+				leaves.addAll(createLeafFileArgs(files));
 			}
 			
 			else {
@@ -42,6 +81,250 @@ public class LocalFileSystem extends FileSystem {
 		
 		return leaves;
 	}
+
+	private static synchronized ExecutorService getListPool() {
+		if (listPool == null) {
+			listPool = Executors.newFixedThreadPool(LIST_THREADS, new ThreadFactoryBuilder()
+					.setNameFormat(LocalFileSystem.class.getSimpleName() + "-%d").setDaemon(true).build());
+		}
+
+		return listPool;
+	}
+
+	/**
+	 * the entries of a chunk of a directory listing
+	 */
+	private static class Entries {
+		private final List<File> files = new ArrayList<>();
+		private final List<File> dirs = new ArrayList<>();
+	}
+
+	/**
+	 * 
+	 * @param root
+	 * @param recursive
+	 * @param dirs returns the listed directories with their modification time before listing
+	 * @return the files
+	 * @throws IOException
+	 * @throws SyntaxError
+	 */
+	private List<File> listFiles(File root, boolean recursive, Map<File,Long> dirs) throws IOException, SyntaxError {
+		List<File> files = new ArrayList<>();
+		List<File> level = new ArrayList<>();
+		level.add(root);
+
+		while (!level.isEmpty()) {
+			List<Future<File[]>> listings = new ArrayList<>();
+			for (File dir : level) {
+				dirs.put(dir, dir.lastModified());
+				listings.add(getListPool().submit(() -> dir.listFiles()));
+			}
+
+			// stat the entries in chunks, since a huge directory is mostly stats
+			List<Future<Entries>> chunks = new ArrayList<>();
+			for (int i = 0; i < listings.size(); i++) {
+				File[] entries = get(listings.get(i));
+				if (entries == null) {
+					throw new IOException("unable to list " + level.get(i));
+				}
+
+				for (int from = 0; from < entries.length; from += FILES_PER_TASK) {
+					int to = Math.min(entries.length, from + FILES_PER_TASK);
+					int first = from;
+					chunks.add(getListPool().submit(() -> getEntries(entries, first, to)));
+				}
+			}
+
+			List<File> next = new ArrayList<>();
+			for (Future<Entries> chunk : chunks) {
+				Entries entries = get(chunk);
+				files.addAll(entries.files);
+				if (recursive) next.addAll(entries.dirs);
+			}
+
+			level = next;
+		}
+
+		return files;
+	}
+
+	private static Entries getEntries(File[] listing, int from, int to) {
+		Entries entries = new Entries();
+		for (int i = from; i < to; i++) {
+			File entry = listing[i];
+			if (entry.isDirectory()) {
+				if (!entry.getName().equals(MANIFEST_DIR)) {
+					entries.dirs.add(entry);
+				}
+			}
+
+			else if (!entry.getName().startsWith(MANIFEST_FILE)) { // including manifests of older versions
+				entries.files.add(entry);
+			}
+		}
+
+		return entries;
+	}
+
+	/**
+	 * The manifest is valid while the root and the listed subdirectories have exactly
+	 * the modification times they had before they were listed.
+	 * 
+	 * @param root
+	 * @param recursive
+	 * @return the files of a valid manifest or null
+	 */
+	private List<File> readManifest(File root, boolean recursive) {
+		File manifest = new File(new File(root, MANIFEST_DIR), MANIFEST_FILE);
+		if (!manifest.exists()) return null;
+
+		List<File> files = new ArrayList<>();
+		try (BufferedReader reader = Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8)) {
+			String line = reader.readLine();
+			if (line == null || !line.equals(MANIFEST_HEADER + recursive)) return null;
+
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("R ")) { // R mtime
+					if (root.lastModified() != Long.parseLong(line.substring(2))) return null;
+				}
+
+				else if (line.startsWith("D ")) { // D mtime relative/subdir
+					int space = line.indexOf(' ', 2);
+					long mtime = Long.parseLong(line.substring(2, space));
+					File dir = new File(root, line.substring(space + 1));
+					if (!dir.isDirectory() || dir.lastModified() != mtime) return null;
+				}
+
+				else if (line.startsWith("F ")) { // F relative/file
+					files.add(new File(root, line.substring(2)));
+				}
+
+				else if (line.startsWith(MANIFEST_END)) { // complete
+					return Long.parseLong(line.substring(MANIFEST_END.length())) == files.size() ? files : null;
+				}
+			}
+		}
+
+		catch (IOException | RuntimeException e) {
+			LOG.info("ignoring unreadable manifest " + manifest, e);
+		}
+
+		return null;
+	}
+
+	/**
+	 * writes the manifest of a large listing of a store to a temp file renamed
+	 * into place, so that concurrent listers never read a partial manifest.
+	 * Small listings and directories without source.properties are left untouched.
+	 * Creating the MANIFEST_DIR changes the root, so the manifest of a store is
+	 * written by the listing following the one that creates it.
+	 * 
+	 * @param root
+	 * @param recursive
+	 * @param files
+	 * @param dirs the listed directories with their modification time before listing
+	 * @param listStart the time the listing started
+	 */
+	private void writeManifest(File root, boolean recursive, List<File> files, Map<File,Long> dirs, long listStart) {
+		if (files.size() < MANIFEST_MIN_FILES) return;
+		if (!new File(root, FormatArgs.SOURCE_PROP_FILE).exists()) return;
+		if (root.lastModified() != dirs.get(root)) return; // changed while listing
+
+		// a later change within the same timestamp would leave the modification time as listed
+		for (long mtime : dirs.values()) {
+			if (mtime > listStart - MANIFEST_SETTLE_MILLIS) return;
+		}
+
+		File manifestDir = new File(root, MANIFEST_DIR);
+		if (!manifestDir.isDirectory()) {
+			if (!manifestDir.mkdir()) {
+				LOG.info("unable to create manifest directory for " + root); // e.g. read only
+			}
+			return;
+		}
+
+		String rootPath = root.getPath() + File.separator;
+		File temp = null;
+		try {
+			temp = File.createTempFile(MANIFEST_FILE + ".", ".tmp", manifestDir);
+			try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8))) {
+				writer.println(MANIFEST_HEADER + recursive);
+				writer.println("R " + dirs.get(root));
+				for (Map.Entry<File,Long> dir : dirs.entrySet()) {
+					if (dir.getKey().equals(root)) continue;
+					writer.println("D " + dir.getValue() + " " + dir.getKey().getPath().substring(rootPath.length()));
+				}
+
+				for (File file : files) {
+					writer.println("F " + file.getPath().substring(rootPath.length()));
+				}
+
+				writer.println(MANIFEST_END + files.size());
+				if (writer.checkError()) {
+					throw new IOException("error writing " + temp);
+				}
+			}
+
+			Path manifest = new File(manifestDir, MANIFEST_FILE).toPath();
+			Files.move(temp.toPath(), manifest, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			temp = null;
+		}
+
+		catch (IOException | RuntimeException e) { // e.g. read only
+			LOG.info("unable to write manifest for " + root, e);
+		}
+
+		finally {
+			if (temp != null) temp.delete();
+		}
+	}
+
+	private List<FileArgs> createLeafFileArgs(List<File> files) throws IOException, SyntaxError {
+		List<FileArgs> leaves = new ArrayList<>(files.size());
+		if (files.size() < FILES_PER_TASK) {
+			for (File file : files) {
+				leaves.add(createLeafFileArgs(file));
+			}
+
+			return leaves;
+		}
+
+		List<Future<List<FileArgs>>> parts = new ArrayList<>();
+		for (int start = 0; start < files.size(); start += FILES_PER_TASK) {
+			List<File> part = files.subList(start, Math.min(files.size(), start + FILES_PER_TASK));
+			parts.add(getListPool().submit(() -> {
+				List<FileArgs> args = new ArrayList<>(part.size());
+				for (File file : part) {
+					args.add(createLeafFileArgs(file));
+				}
+				return args;
+			}));
+		}
+
+		for (Future<List<FileArgs>> part : parts) {
+			leaves.addAll(get(part));
+		}
+
+		return leaves;
+	}
+
+	private static <T> T get(Future<T> future) throws IOException, SyntaxError {
+		try {
+			return future.get();
+		}
+
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof SyntaxError) throw (SyntaxError)cause;
+			throw new IOException(cause);
+		}
+	}
 	
 	private FileArgs createLeafFileArgs(File file) throws IOException, SyntaxError {
 		String uri = String.format("%s://%s", LOCAL_SCHEME, file.getAbsolutePath());;
@@ -64,14 +347,20 @@ public class LocalFileSystem extends FileSystem {
 		
 		InputStream is = null;
 		if (file.getName().endsWith(".gz")) {
-			is = new FileInputStream(file);
-			is = new GZIPInputStream(is, 32 * 1024);
+			is = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+			if (ParallelGzipInputStream.isBlockGzip(is)) {
+				is = new ParallelGzipInputStream(is, -1, file.getPath());
+			}
+			
+			else {
+				is = new GZIPInputStream(is, 32 * 1024);
+			}
             is = new BufferedInputStream(is, bufferNumKilobytes * 1024);
 		}
 
 		else if (file.getName().endsWith(".bz2")) {
 			is = new FileInputStream(file);
-			is = new BZip2CompressorInputStream(is);
+			is = new ParallelBZip2InputStream(is, file.getPath());
 			is = new BufferedInputStream(is, bufferNumKilobytes * 1024);
 		}
 		
@@ -83,6 +372,24 @@ public class LocalFileSystem extends FileSystem {
 		return is;
 	}
 
+    @Override
+    public InputStream getStream(FileArgs leafArgs, long offset) throws IOException {
+        File file = new File(leafArgs.getPath());
+        if (!file.exists()) {
+            return null;
+        }
+
+        FileInputStream fis = new FileInputStream(file);
+        fis.getChannel().position(offset);
+        return new BufferedInputStream(fis, bufferNumKilobytes * 1024);
+    }
+
+    @Override
+    public long getSize(FileArgs leafArgs) throws IOException {
+        File file = new File(leafArgs.getPath());
+        return file.exists() ? file.length() : -1;
+    }
+
 	@Override
 	public String scheme() {
 		return "file";
@@ -99,6 +406,7 @@ public class LocalFileSystem extends FileSystem {
 
 	@Description(text = {"Local Filesystem. 'file://' is optional."}, contexts={"file://PATH", "PATH"})
 	@Arg(name=FileOperator.PATH_ARG, gloss="path to local format source.", type=ArgType.STRING)
+	@Param(name=LocalFileSystem.RECURSIVE_PARAM, gloss="if true, files of subdirectories are included.", type=ArgType.BOOLEAN, defaultValue="false")
     public static class Op extends FileSystemPathOperator {
 		public Op() {
 			super("file");
@@ -0,0 +1,373 @@
+package com.amazon.djk.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * Decodes bzip2 with the blocks decompressed concurrently on the shared pool.
+ * Bzip2 blocks are independent and begin with a 48 bit (not byte aligned) magic.
+ * The stream is scanned for block and end of stream magics, each block is
+ * re-framed as a single block bzip2 stream and decoded as such, and the
+ * decompressed blocks are delivered in order.  Concatenated streams (e.g. those
+ * written by pbzip2) are supported.  Each block is verified against its crc.
+ * A false magic match within compressed data splits a block, so a block that
+ * fails to decode is merged with the following segments of the stream and
+ * retried before the stream is considered corrupt.
+ */
+public class ParallelBZip2InputStream extends InputStream {
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long EOS_MAGIC = 0x177245385090L;
+    private static final long MAGIC_MASK = 0xffffffffffffL;
+    private static final byte[] STREAM_HEADER = {'B', 'Z', 'h', '9'};
+    private static final byte[] EMPTY = new byte[0];
+    // a compressed block of at most 900k bytes is well below this
+    private static final long MAX_BLOCK_BITS = 2L * 1024 * 1024 * 8;
+
+    private final InputStream in;
+    private final String path;
+    private final int maxPending;
+    private final Deque<Segment> pending = new ArrayDeque<>();
+    private final byte[] readBuffer = new byte[64 * 1024];
+    private boolean eof = false;
+    private boolean headerChecked = false;
+
+    // scanner state, positions are relative to the start of chunk
+    private byte[] chunk = new byte[1024 * 1024];
+    private int chunkLen = 0;
+    private int scanPos = 0; // bytes
+    private long segmentStart = -1; // bits
+    private boolean segmentIsBlock = false;
+    private long register = 0; // the last 64 bits scanned
+
+    private byte[] current = new byte[0];
+    private int pos = 0;
+
+    /**
+     *
+     * @param in the compressed stream
+     * @param path for messages
+     */
+    public ParallelBZip2InputStream(InputStream in, String path) {
+        this.in = in;
+        this.path = path;
+        this.maxPending = CodecPool.size() * 2;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos == current.length && !nextBlock()) return -1;
+        return current[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (pos == current.length && !nextBlock()) return -1;
+
+        int num = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, num);
+        pos += num;
+        return num;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current.length - pos;
+    }
+
+    /**
+     * a segment of the stream from one magic to the next, in stream order
+     */
+    private static class Segment {
+        private final RawBlock raw;
+        private final Future<byte[]> decoded; // null for the gap following an end of stream magic
+
+        Segment(RawBlock raw, Future<byte[]> decoded) {
+            this.raw = raw;
+            this.decoded = decoded;
+        }
+    }
+
+    private boolean nextBlock() throws IOException {
+        do {
+            fill();
+            if (pending.isEmpty()) return false;
+
+            Segment segment = pending.removeFirst();
+            current = segment.decoded != null ? take(segment) : EMPTY;
+            pos = 0;
+        } while (current.length == 0);
+
+        return true;
+    }
+
+    private void fill() throws IOException {
+        while (!eof && pending.size() < maxPending) {
+            RawBlock raw = scanBlock();
+            if (raw == null) break;
+            Future<byte[]> decoded = raw.isBlock ? CodecPool.get().submit(() -> decode(raw.reframe(), path)) : null;
+            pending.addLast(new Segment(raw, decoded));
+        }
+    }
+
+    private byte[] take(Segment segment) throws IOException {
+        try {
+            return segment.decoded.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            return decodeMerged(segment.raw, e.getCause());
+        }
+    }
+
+    /**
+     * merges a block that failed to decode with the following segments until
+     * it decodes, i.e. until the block split by a false magic match is whole
+     *
+     * @param raw the block
+     * @param cause the decode failure
+     * @return the decompressed block
+     * @throws IOException if the block is corrupt
+     */
+    private byte[] decodeMerged(RawBlock raw, Throwable cause) throws IOException {
+        while (true) {
+            fill();
+            if (pending.isEmpty() || raw.numBits > MAX_BLOCK_BITS) {
+                throw new IOException("corrupt bzip2 block in " + path, cause);
+            }
+
+            Segment next = pending.removeFirst();
+            if (next.decoded != null) {
+                next.decoded.cancel(true);
+            }
+
+            raw = raw.merge(next.raw);
+            try {
+                return decode(raw.reframe(), path);
+            } catch (IOException e) {
+                cause = e;
+            }
+        }
+    }
+
+    /**
+     *
+     * @return the next segment or null at the end
+     * @throws IOException
+     */
+    private RawBlock scanBlock() throws IOException {
+        while (true) {
+            // scan the unscanned bytes of the chunk, a magic ending at any bit of the byte
+            while (scanPos < chunkLen) {
+                register = (register << 8) | (chunk[scanPos++] & 0xff);
+
+                for (int k = 7; k >= 0; k--) {
+                    long bits = (register >>> k) & MAGIC_MASK;
+                    if (bits != BLOCK_MAGIC && bits != EOS_MAGIC) continue;
+
+                    long magicStart = (long)scanPos * 8 - k - 48;
+                    if (magicStart < 0) continue;
+
+                    RawBlock segment = segmentStart >= 0 ?
+                            new RawBlock(chunk, segmentStart, magicStart, segmentIsBlock) : null;
+                    segmentStart = magicStart;
+                    segmentIsBlock = bits == BLOCK_MAGIC;
+                    compact(magicStart);
+                    if (segment != null) return segment;
+                    break;
+                }
+            }
+
+            int num = in.read(readBuffer);
+            if (num == -1) {
+                eof = true;
+                if (!headerChecked) {
+                    throw new IOException("not a bzip2 stream " + path);
+                }
+                if (segmentStart < 0) {
+                    throw new IOException("no bzip2 block or end of stream in " + path);
+                }
+                if (segmentIsBlock) {
+                    throw new IOException("truncated bzip2 stream " + path);
+                }
+                return null;
+            }
+
+            if (chunkLen + num > chunk.length) {
+                chunk = Arrays.copyOf(chunk, Math.max(chunkLen + num, chunk.length * 2));
+            }
+            System.arraycopy(readBuffer, 0, chunk, chunkLen, num);
+            chunkLen += num;
+
+            if (!headerChecked && chunkLen >= STREAM_HEADER.length) {
+                checkHeader();
+            }
+        }
+    }
+
+    /**
+     * checks the BZh[1-9] header of the first stream, before any magic is scanned
+     *
+     * @throws IOException if the stream is not bzip2
+     */
+    private void checkHeader() throws IOException {
+        for (int i = 0; i < STREAM_HEADER.length - 1; i++) {
+            if (chunk[i] != STREAM_HEADER[i]) {
+                throw new IOException("not a bzip2 stream " + path);
+            }
+        }
+
+        byte blockSize = chunk[STREAM_HEADER.length - 1];
+        if (blockSize < '1' || blockSize > '9') {
+            throw new IOException("not a bzip2 stream " + path);
+        }
+
+        headerChecked = true;
+    }
+
+    /**
+     * drops the bytes of the chunk preceding the byte holding bit
+     */
+    private void compact(long bit) {
+        int shift = (int)(bit >>> 3);
+        System.arraycopy(chunk, shift, chunk, 0, chunkLen - shift);
+        chunkLen -= shift;
+        scanPos -= shift;
+        if (segmentStart >= 0) {
+            segmentStart -= (long)shift * 8;
+        }
+    }
+
+    /**
+     * the bytes holding a block as found in the stream, the bit shifting
+     * of reframe() being left to the pool
+     */
+    private static class RawBlock {
+        private final byte[] bytes;
+        private final int startBit;
+        private final long numBits;
+        private final boolean isBlock; // else follows an end of stream magic
+
+        /**
+         *
+         * @param chunk
+         * @param start bit position of the magic
+         * @param end bit position following the segment
+         * @param isBlock
+         */
+        RawBlock(byte[] chunk, long start, long end, boolean isBlock) {
+            int first = (int)(start >>> 3);
+            this.bytes = Arrays.copyOfRange(chunk, first, (int)((end + 7) >>> 3));
+            this.startBit = (int)(start & 7);
+            this.numBits = end - start;
+            this.isBlock = isBlock;
+        }
+
+        private RawBlock(byte[] bytes, long numBits, boolean isBlock) {
+            this.bytes = bytes;
+            this.startBit = 0;
+            this.numBits = numBits;
+            this.isBlock = isBlock;
+        }
+
+        /**
+         *
+         * @param next the segment following this one
+         * @return this segment extended by next
+         */
+        RawBlock merge(RawBlock next) {
+            byte[] out = new byte[(int)((numBits + next.numBits + 7) >>> 3) + 1];
+            long bit = copyBits(bytes, startBit, numBits, out, 0);
+            copyBits(next.bytes, next.startBit, next.numBits, out, bit);
+            return new RawBlock(out, numBits + next.numBits, isBlock);
+        }
+
+        /**
+         *
+         * @return a bzip2 stream holding only this block
+         */
+        byte[] reframe() {
+            // header + block + eos magic + combined crc (== block crc) + padding
+            byte[] out = new byte[STREAM_HEADER.length + (int)((numBits + 48 + 32 + 7) >>> 3)];
+            System.arraycopy(STREAM_HEADER, 0, out, 0, STREAM_HEADER.length);
+
+            long outBit = (long)STREAM_HEADER.length * 8;
+            outBit = copyBits(bytes, startBit, numBits, out, outBit);
+
+            byte[] eos = new byte[10];
+            for (int i = 0; i < 6; i++) {
+                eos[i] = (byte)(EOS_MAGIC >>> (40 - 8 * i));
+            }
+            copyBits(bytes, startBit + 48, 32, eos, 48); // block crc follows the block magic
+            copyBits(eos, 0, 80, out, outBit);
+
+            return out;
+        }
+    }
+
+    private static long copyBits(byte[] src, long srcBit, long numBits, byte[] dst, long dstBit) {
+        long i = 0;
+        if ((dstBit & 7) == 0) { // whole bytes
+            int d = (int)(dstBit >>> 3);
+            int s = (int)(srcBit >>> 3);
+            int shift = (int)(srcBit & 7);
+            for (; i + 8 <= numBits; i += 8, s++, d++) {
+                int hi = (src[s] & 0xff) << shift;
+                int lo = shift == 0 ? 0 : (src[s + 1] & 0xff) >>> (8 - shift);
+                dst[d] = (byte)(hi | lo);
+            }
+        }
+
+        for (; i < numBits; i++) {
+            long s = srcBit + i;
+            long d = dstBit + i;
+            int bit = (src[(int)(s >>> 3)] >>> (7 - (int)(s & 7))) & 1;
+            if (bit != 0) {
+                dst[(int)(d >>> 3)] |= (byte)(0x80 >>> (int)(d & 7));
+            }
+        }
+
+        return dstBit + numBits;
+    }
+
+    private static byte[] decode(byte[] block, String path) throws IOException {
+        try (BZip2CompressorInputStream bis = new BZip2CompressorInputStream(new ByteArrayInputStream(block))) {
+            byte[] out = new byte[1024 * 1024];
+            int len = 0;
+            while (true) {
+                if (len == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                int num = bis.read(out, len, out.length - len);
+                if (num == -1) break;
+                len += num;
+            }
+
+            return Arrays.copyOf(out, len);
+        }
+
+        catch (IOException e) {
+            throw new IOException("corrupt bzip2 block in " + path, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Segment segment : pending) {
+            if (segment.decoded != null) {
+                segment.decoded.cancel(true);
+            }
+        }
+        pending.clear();
+        in.close();
+    }
+}
@@ -0,0 +1,220 @@
+package com.amazon.djk.file;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the data members of a block compressed gzip file (see BlockGzip) in order,
+ * inflating members ahead of the reader on the shared pool.  Reading stops at the
+ * index or after the given number of stored bytes.
+ */
+public class ParallelGzipInputStream extends InputStream {
+    private static final ThreadLocal<Inflater> inflaters =
+            ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final InputStream in;
+    private final String path;
+    private final int maxPending;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private long remaining; // stored bytes, or -1 for until the index
+    private boolean eof = false;
+    private byte[] current = new byte[0];
+    private int pos = 0;
+
+    /**
+     *
+     * @param in stored bytes positioned at the beginning of a member
+     * @param numBytes number of stored bytes to read or -1 to read all data members
+     * @param path for messages
+     */
+    public ParallelGzipInputStream(InputStream in, long numBytes, String path) {
+        this.in = in;
+        this.remaining = numBytes;
+        this.path = path;
+        this.maxPending = CodecPool.size() * 2;
+    }
+
+    /**
+     *
+     * @param is stream supporting mark, positioned at the beginning of the file
+     * @return true if the stream is block compressed gzip.  The stream position is unchanged.
+     * @throws IOException
+     */
+    public static boolean isBlockGzip(InputStream is) throws IOException {
+        byte[] head = new byte[BlockGzip.HEADER_LEN + 2 + 2];
+        is.mark(head.length);
+        int num = 0;
+        while (num < head.length) {
+            int count = is.read(head, num, head.length - num);
+            if (count == -1) break;
+            num += count;
+        }
+        is.reset();
+
+        return num == head.length && getSubfieldId(head) != null;
+    }
+
+    /**
+     *
+     * @param head at least the header and first two bytes of the extra field
+     * @return the id of the first subfield if it is one of ours, else null
+     */
+    private static String getSubfieldId(byte[] head) {
+        if ((head[0] & 0xff) != 0x1f || (head[1] & 0xff) != 0x8b || (head[3] & 0x04) == 0) return null;
+        int p = BlockGzip.HEADER_LEN + 2;
+        if (head[p] != 'D') return null;
+
+        switch (head[p + 1]) {
+        case 'J': return "DJ";
+        case 'X': return "DX";
+        case 'T': return "DT";
+        default: return null;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos == current.length && !nextMember()) return -1;
+        return current[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (pos == current.length && !nextMember()) return -1;
+
+        int num = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, num);
+        pos += num;
+        return num;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current.length - pos;
+    }
+
+    private boolean nextMember() throws IOException {
+        do {
+            while (!eof && pending.size() < maxPending) {
+                byte[] member = readMember();
+                if (member == null) break;
+                pending.addLast(CodecPool.get().submit(() -> inflate(member, path)));
+            }
+
+            if (pending.isEmpty()) return false;
+
+            try {
+                current = pending.removeFirst().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+
+            pos = 0;
+        } while (current.length == 0);
+
+        return true;
+    }
+
+    /**
+     *
+     * @return the next complete data member or null at the end
+     * @throws IOException
+     */
+    private byte[] readMember() throws IOException {
+        if (remaining == 0) {
+            eof = true;
+            return null;
+        }
+
+        byte[] head = new byte[BlockGzip.HEADER_LEN + 2 + 4 + 4];
+        int num = 0;
+        while (num < head.length) {
+            int count = in.read(head, num, head.length - num);
+            if (count == -1) break;
+            num += count;
+        }
+
+        if (num == 0) {
+            eof = true;
+            return null;
+        }
+
+        if (num != head.length) {
+            throw new EOFException("truncated block gzip member in " + path);
+        }
+
+        String id = getSubfieldId(head);
+        if (id == null) {
+            throw new IOException("not a block gzip member in " + path);
+        }
+
+        if (!id.equals("DJ")) { // index or trailer
+            eof = true;
+            return null;
+        }
+
+        int size = BlockGzip.getInt(head, head.length - 4);
+        byte[] member = new byte[size];
+        System.arraycopy(head, 0, member, 0, head.length);
+        BlockGzip.readFully(in, member, head.length, size - head.length);
+
+        if (remaining > 0) {
+            remaining = Math.max(0, remaining - size);
+        }
+
+        return member;
+    }
+
+    private static byte[] inflate(byte[] member, String path) throws IOException {
+        int start = BlockGzip.HEADER_LEN + 2 + 4 + 4;
+        int end = member.length - BlockGzip.FOOTER_LEN;
+        int crc32 = BlockGzip.getInt(member, end);
+        int rawLen = BlockGzip.getInt(member, end + 4);
+        byte[] raw = new byte[rawLen];
+
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(member, start, end - start);
+        int num = 0;
+        try {
+            while (num < rawLen && !inflater.finished()) {
+                int count = inflater.inflate(raw, num, rawLen - num);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                num += count;
+            }
+        }
+
+        catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, num);
+        if (num != rawLen || (int)crc.getValue() != crc32) {
+            throw new IOException("corrupt block gzip member in " + path);
+        }
+
+        return raw;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        in.close();
+    }
+}
@@ -3,14 +3,19 @@ package com.amazon.djk.file;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 
+import com.amazon.djk.format.FieldTypeSchema;
+import com.amazon.djk.record.FieldType;
 import com.amazon.djk.record.Record;
 import com.amazon.djk.record.ThreadDefs;
 
@@ -24,12 +29,16 @@ public class SourceProperties {
     public final static String SOURCE_PROP_KEY_FIELDS = "keyFields";
     public final static String SOURCE_PROP_FIELD_LIST = "sourceFields";
     public final static String SOURCE_PROP_FORMAT_REGEX = "validRegex";
+    public final static String SOURCE_PROP_FILE_RECS = "fileRecs";
+    public final static String SOURCE_PROP_FIELD_TYPES = "fieldTypes";
 	
 	private long totalBytes;
 	private long totalRecs;
 	private String sourceFormat;
     private final String[] fieldList;
     private final String[] keyFields;
+    private final Map<String,Long> fileRecordCounts = new TreeMap<>();
+    private final Map<String,FieldType> fieldTypes;
     private final Map<String,String> extras = new HashMap<>();
 	
 	private final int numFiles;
@@ -60,6 +69,16 @@ public class SourceProperties {
         temp = (String)props.remove(SOURCE_PROP_KEY_FIELDS);
         keyFields = temp != null ? temp.split(",") : new String[0];
         
+        temp = (String)props.remove(SOURCE_PROP_FILE_RECS);
+        if (temp != null && !temp.isEmpty()) {
+            for (String entry : temp.split(",")) {
+                int colon = entry.lastIndexOf(':');
+                fileRecordCounts.put(entry.substring(0, colon), Long.parseLong(entry.substring(colon + 1)));
+            }
+        }
+        
+        fieldTypes = FieldTypeSchema.parse((String)props.remove(SOURCE_PROP_FIELD_TYPES));
+        
         temp = (String)props.remove(SOURCE_PROP_FORMAT_REGEX);
         formatRegex = temp != null ? Pattern.compile(temp) : null;
         
@@ -86,6 +105,7 @@ public class SourceProperties {
         totalRecs = 0;
         fieldList = new String[0];
         keyFields = new String[0];
+        fieldTypes = Collections.emptyMap();
         
         numFiles = 1;
         sourceURI = accessArgs.getURI();
@@ -118,11 +138,42 @@ public class SourceProperties {
     }
     
     public static void write(File dir, long totalRecs, String format, String formatRegex, List<String> keyFields, Map<String,String> extras) throws IOException {
+        write(dir, totalRecs, format, formatRegex, keyFields, extras, null);
+    }
+    
+    /**
+     * 
+     * @param dir
+     * @param totalRecs
+     * @param format
+     * @param formatRegex
+     * @param keyFields
+     * @param extras
+     * @param fileRecordCounts data file name to number of records, may be null
+     * @throws IOException
+     */
+    public static void write(File dir, long totalRecs, String format, String formatRegex, List<String> keyFields, Map<String,String> extras, Map<String,Long> fileRecordCounts) throws IOException {
+        write(dir, totalRecs, format, formatRegex, keyFields, extras, fileRecordCounts, ThreadDefs.get().getFieldList());
+    }
+    
+    /**
+     * 
+     * @param dir
+     * @param totalRecs
+     * @param format
+     * @param formatRegex
+     * @param keyFields
+     * @param extras
+     * @param fileRecordCounts data file name to number of records, may be null
+     * @param fields the field names by stored field id, if not the live ones
+     * @throws IOException
+     */
+    public static void write(File dir, long totalRecs, String format, String formatRegex, List<String> keyFields, Map<String,String> extras,
+            Map<String,Long> fileRecordCounts, List<String> fields) throws IOException {
 		File file = new File(dir, FormatArgs.SOURCE_PROP_FILE);
 		FileOutputStream fos = new FileOutputStream(file);
 		Properties props = new Properties();
 
-		List<String> fields = ThreadDefs.get().getFieldList();
 		props.setProperty(SOURCE_PROP_TOTAL_RECS, Long.toString(totalRecs));
         props.setProperty(SOURCE_PROP_SOURCE_FORMAT, format);
         props.setProperty(SOURCE_PROP_FORMAT_REGEX, formatRegex);
@@ -133,6 +184,14 @@ public class SourceProperties {
             props.setProperty(SOURCE_PROP_KEY_FIELDS, StringUtils.join(keyFields, ","));
         }
 
+        if (fileRecordCounts != null && fileRecordCounts.size() != 0) {
+            List<String> entries = new ArrayList<>();
+            for (Map.Entry<String, Long> e : fileRecordCounts.entrySet()) {
+                entries.add(e.getKey() + ":" + e.getValue());
+            }
+            props.setProperty(SOURCE_PROP_FILE_RECS, StringUtils.join(entries, ","));
+        }
+
         if (extras != null) {
             for (Map.Entry<String, String> e : extras.entrySet()) {
                 props.setProperty(e.getKey(), e.getValue());
@@ -192,4 +251,22 @@ public class SourceProperties {
 	public String[] getKeyFields() {
 	    return keyFields;
 	}
+	
+	/**
+	 * 
+	 * @return data file name to number of records if recorded in the 
+	 * SOURCE_PROPERTIES_FILE, otherwise empty
+	 */
+	public Map<String,Long> getFileRecordCounts() {
+	    return fileRecordCounts;
+	}
+	
+	/**
+	 * 
+	 * @return field name to primitive type if recorded in the 
+	 * SOURCE_PROPERTIES_FILE, otherwise empty, see FieldTypeSchema
+	 */
+	public Map<String,FieldType> getFieldTypes() {
+	    return fieldTypes;
+	}
 }
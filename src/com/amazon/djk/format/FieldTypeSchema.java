@@ -0,0 +1,288 @@
+package com.amazon.djk.format;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.amazon.djk.record.FieldIterator;
+import com.amazon.djk.record.FieldType;
+import com.amazon.djk.record.Record;
+import com.amazon.djk.record.ThreadDefs;
+
+/**
+ * Per field primitive types of a source, either from source.properties or
+ * inferred by sampling the first records.  A field is typed only if all its
+ * sampled values agree (longs mixed with doubles are doubles), so that values
+ * of a typed field are converted with a single routine instead of being guessed
+ * one by one.  Values that do not convert fall back to guessing.
+ */
+public class FieldTypeSchema {
+    public static final int DEFAULT_SAMPLE_RECS = 1000;
+    private final Map<String,FieldType> types = new LinkedHashMap<>();
+    private final Map<String,FieldType> conversions = new HashMap<>();
+    private final int sampleRecs;
+    private int numSampled = 0;
+
+    /**
+     *
+     * @param sampleRecs number of records to sample
+     */
+    public FieldTypeSchema(int sampleRecs) {
+        this.sampleRecs = sampleRecs;
+    }
+
+    /**
+     * constructor for parsers
+     *
+     * @param recorded the types from source.properties, if empty the first records are sampled
+     * @param sampleRecs number of records to sample
+     */
+    public FieldTypeSchema(Map<String,FieldType> recorded, int sampleRecs) {
+        this.types.putAll(recorded);
+        this.sampleRecs = recorded.isEmpty() ? sampleRecs : 0;
+    }
+
+    /**
+     *
+     * @return true while records are being sampled
+     */
+    public boolean isSampling() {
+        return numSampled < sampleRecs;
+    }
+
+    /**
+     * samples the primitive fields of a record
+     *
+     * @param rec
+     * @throws IOException
+     */
+    public void sample(Record rec) throws IOException {
+        FieldIterator fields = new FieldIterator();
+        fields.init(rec);
+        while (fields.next()) {
+            sample(fields.getName(), fields.getType());
+        }
+
+        numSampled++;
+    }
+
+    /**
+     * samples a value of a text format, as it would be guessed.  Call sampled()
+     * after each record.
+     *
+     * @param name
+     * @param value
+     */
+    public void sample(String name, String value) {
+        if (value.isEmpty()) return;
+
+        Object val = ReaderFormatParser.getMostSpecificPrimitive(value);
+        FieldType type = val instanceof Long ? FieldType.LONG :
+            val instanceof Double ? FieldType.DOUBLE :
+            val instanceof Boolean ? FieldType.BOOLEAN : FieldType.STRING;
+        sample(name, type);
+    }
+
+    /**
+     * marks the end of a sampled record of a text format
+     */
+    public void sampled() {
+        numSampled++;
+    }
+
+    private void sample(String name, FieldType type) {
+        FieldType prev = types.get(name);
+        types.put(name, prev == null ? type : merge(prev, type));
+    }
+
+    /**
+     *
+     * @param a
+     * @param b
+     * @return the type of a field having values of both types, ERROR if none
+     */
+    public static FieldType merge(FieldType a, FieldType b) {
+        if (a == b) return a;
+        if ((a == FieldType.LONG && b == FieldType.DOUBLE) || (a == FieldType.DOUBLE && b == FieldType.LONG)) {
+            return FieldType.DOUBLE;
+        }
+
+        return FieldType.ERROR;
+    }
+
+    /**
+     * merges the sampled types of another schema into this one
+     *
+     * @param other
+     */
+    public synchronized void merge(FieldTypeSchema other) {
+        for (Map.Entry<String,FieldType> entry : other.types.entrySet()) {
+            sample(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     *
+     * @return the typed fields
+     */
+    public synchronized Map<String,FieldType> getTypes() {
+        Map<String,FieldType> typed = new LinkedHashMap<>();
+        for (Map.Entry<String,FieldType> entry : types.entrySet()) {
+            switch (entry.getValue()) {
+            case STRING:
+            case LONG:
+            case DOUBLE:
+            case BOOLEAN:
+                typed.put(entry.getKey(), entry.getValue());
+                break;
+
+            default:
+                break;
+            }
+        }
+
+        return typed;
+    }
+
+    /**
+     *
+     * @param types
+     * @return as name:TYPE,...
+     */
+    public static String format(Map<String,FieldType> types) {
+        List<String> entries = new ArrayList<>();
+        for (Map.Entry<String,FieldType> entry : types.entrySet()) {
+            entries.add(entry.getKey() + ":" + entry.getValue().name());
+        }
+
+        return StringUtils.join(entries, ",");
+    }
+
+    /**
+     *
+     * @param spec as name:TYPE,...
+     * @return the types
+     */
+    public static Map<String,FieldType> parse(String spec) {
+        Map<String,FieldType> types = new LinkedHashMap<>();
+        if (spec == null || spec.isEmpty()) return types;
+
+        for (String entry : spec.split(",")) {
+            int colon = entry.lastIndexOf(':');
+            if (colon == -1) continue;
+
+            FieldType type = FieldType.getTypeByName(entry.substring(colon + 1));
+            if (type != FieldType.ERROR) {
+                types.put(entry.substring(0, colon), type);
+            }
+        }
+
+        return types;
+    }
+
+    /**
+     *
+     * @param name
+     * @param schemaType
+     * @return the type to convert values of the field with, or null to guess.  Declared
+     * field types take precedence.
+     * @throws IOException
+     */
+    public static FieldType getConversionType(String name, FieldType schemaType) throws IOException {
+        if (schemaType == null || ThreadDefs.get().getFieldType(name) != null) return null;
+        return schemaType;
+    }
+
+    /**
+     *
+     * @param name
+     * @return the type to convert values of the field with, or null to guess
+     * @throws IOException
+     */
+    public FieldType getConversionType(String name) throws IOException {
+        if (conversions.containsKey(name)) {
+            return conversions.get(name);
+        }
+
+        FieldType type = getConversionType(name, types.get(name));
+        if (type == FieldType.ERROR) {
+            type = null;
+        }
+
+        conversions.put(name, type);
+        return type;
+    }
+
+    /**
+     * adds a value of a text format, sampling it while sampling
+     *
+     * @param out
+     * @param name
+     * @param value
+     * @throws IOException
+     */
+    public void add(Record out, String name, String value) throws IOException {
+        if (isSampling()) {
+            sample(name, value);
+            ReaderFormatParser.addPrimitiveValue(out, name, value);
+        }
+
+        else {
+            addTyped(out, name, getConversionType(name), value);
+        }
+    }
+
+    /**
+     * adds a value of a text format converted to type
+     *
+     * @param out
+     * @param name
+     * @param type the conversion type or null to guess
+     * @param value
+     * @throws IOException
+     */
+    public static void addTyped(Record out, String name, FieldType type, String value) throws IOException {
+        if (type != null) {
+            try {
+                switch (type) {
+                case STRING:
+                    out.addField(name, value);
+                    return;
+
+                case LONG:
+                    out.addField(name, Long.parseLong(value));
+                    return;
+
+                case DOUBLE:
+                    double d = Double.parseDouble(value);
+                    if (!Double.isInfinite(d) && !Double.isNaN(d)) {
+                        out.addField(name, d);
+                        return;
+                    }
+                    break;
+
+                case BOOLEAN:
+                    if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
+                        out.addField(name, value.equalsIgnoreCase("true"));
+                        return;
+                    }
+                    break;
+
+                default:
+                    break;
+                }
+            }
+
+            catch (NumberFormatException e) {
+                // e.g. empty, fall through to guessing
+            }
+        }
+
+        ReaderFormatParser.addPrimitiveValue(out, name, value);
+    }
+}
@@ -13,6 +13,8 @@ import com.amazon.djk.expression.Param;
 import com.amazon.djk.expression.SyntaxError;
 import com.amazon.djk.file.FileOperator;
 import com.amazon.djk.file.FileQueue;
+import com.amazon.djk.file.FilePrefetcher;
+import com.amazon.djk.file.FileQueue.FileSplitter;
 import com.amazon.djk.file.FormatArgs;
 import com.amazon.djk.file.SourceProperties;
 import com.amazon.djk.record.ThreadDefs;
@@ -30,10 +32,20 @@ import com.amazon.djk.source.RecordProducer;
 @Param(name=FileOperator.FILE_VALID_REGEX_PARAM, gloss = "regex of valid record files. This parameter is only required if the input is a directory. Can be placed in source.properties file.", type=ArgType.STRING)
 @Param(name=FormatOperator.ALLOW_MISSING, gloss = "if true, a non-existent PATH is allowed yielding an empty source." , type=ArgType.BOOLEAN, defaultValue="false")
 @Param(name=FormatOperator.ALLOW_ERRORS, gloss = "number of allowable errors per file. File processing stops at N errors." , type=ArgType.INTEGER, defaultValue="0")
+@Param(name=FormatOperator.SPLIT_MB, gloss = "size above which files of splittable formats are read in pieces, 0 for never." , type=ArgType.INTEGER, defaultValue="256")
+@Param(name=FormatOperator.PREFETCH_FILES, gloss = "number of upcoming files opened and read ahead in the background, 0 for none." , type=ArgType.INTEGER, defaultValue="0")
+@Param(name=FormatOperator.PREFETCH_KB, gloss = "kilobytes read ahead per prefetched file." , type=ArgType.INTEGER, defaultValue="512")
+@Param(name=FormatOperator.PREFETCH_MB, gloss = "maximum megabytes held by prefetched files." , type=ArgType.INTEGER, defaultValue="64")
+@Param(name=FormatOperator.INFER_TYPES, gloss = "if true, text formats convert the values of each field with a single type, taken from source.properties or else from sampling the first records. Off, every value is guessed." , type=ArgType.BOOLEAN, defaultValue="false")
 public abstract class FormatOperator extends FileOperator {
     private final int DEFAULT_QUEUE_DEPTH = 200; // way more than threads
     public final static String ALLOW_MISSING = "allowMissing";
     public final static String ALLOW_ERRORS = "allowErrors";
+    public final static String SPLIT_MB = "splitMB";
+    public final static String PREFETCH_FILES = "prefetchFiles";
+    public final static String PREFETCH_KB = "prefetchKB";
+    public final static String PREFETCH_MB = "prefetchMB";
+    public final static String INFER_TYPES = "inferTypes";
 
     /**
      * 
@@ -74,11 +86,16 @@ public abstract class FormatOperator extends FileOperator {
         }
 
         int numAvailableReadThreads = ThreadDefs.get().getNumSourceThreads();
+        SourceProperties props = accessArgs.getSourceProperties();
+        FormatParser parser = getParser(props);
+
+        // split large files and files fewer than threads, largest first
+        scheduleFiles(fileQueue, numAvailableReadThreads, parser, accessArgs);
+        setPrefetcher(fileQueue, accessArgs);
+
         int numReadThreads = Math.min(numAvailableReadThreads, fileQueue.initialSize());
 
         List<RecordProducer> producers = new ArrayList<>();
-        SourceProperties props = accessArgs.getSourceProperties();
-        FormatParser parser = getParser(props);
         FileRecordProducer first = new FileRecordProducer(DEFAULT_QUEUE_DEPTH, fileQueue, parser, accessArgs);
         producers.add(first);
 
@@ -111,9 +128,41 @@ public abstract class FormatOperator extends FileOperator {
 		
         SourceProperties props = accessArgs.getSourceProperties();
         FormatParser parser = getParser(props);
+        scheduleFiles(streams, ThreadDefs.get().getNumSinkThreads(), parser, accessArgs);
+        setPrefetcher(streams, accessArgs);
+
     	return new FormatParserSource(parser, streams, props);
 	}
 	
+	/**
+	 * 
+	 * @param files
+	 * @param numReaders
+	 * @param parser
+	 * @param accessArgs
+	 * @throws IOException
+	 */
+	private void scheduleFiles(FileQueue files, int numReaders, FormatParser parser, FormatArgs accessArgs) throws IOException {
+		FileSplitter splitter = (parser instanceof FileSplitter) ? (FileSplitter)parser : null;
+		long splitBytes = (int)accessArgs.getParam(SPLIT_MB) * 1024L * 1024L;
+		files.schedule(numReaders, splitter, splitBytes);
+	}
+
+	/**
+	 * 
+	 * @param files
+	 * @param accessArgs
+	 * @throws IOException
+	 */
+	private void setPrefetcher(FileQueue files, FormatArgs accessArgs) throws IOException {
+		int numFiles = (int)accessArgs.getParam(PREFETCH_FILES);
+		if (numFiles <= 0 || files.initialSize() < 2) return;
+
+		int headKB = (int)accessArgs.getParam(PREFETCH_KB);
+		int budgetMB = (int)accessArgs.getParam(PREFETCH_MB);
+		files.setPrefetcher(new FilePrefetcher(numFiles, headKB, budgetMB));
+	}
+
 	/**
 	 * 
 	 * @param props
@@ -7,17 +7,72 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.zip.GZIPOutputStream;
 
+import com.amazon.djk.file.BlockGzipOutputStream;
 import com.amazon.djk.record.Record;
+import com.google.common.io.CountingOutputStream;
 
 public abstract class FormatWriter {
+	/**
+	 * size at which writers buffering their own output hand it to the stream
+	 */
+	protected final static int FLUSH_SIZE = 256 * 1024;
 	private final File dataFile;
+	private final int gzipBlockSize;
+	private BlockGzipOutputStream blockStream = null;
+	private CountingOutputStream countingStream = null;
 	
 	public FormatWriter(File dataFile) {
+		this(dataFile, 0);
+	}
+
+	/**
+	 * 
+	 * @param dataFile
+	 * @param gzipBlockKB if greater than zero, gzipped files are written as block gzip
+	 * with blocks of this many kilobytes, see BlockGzip 
+	 */
+	public FormatWriter(File dataFile, int gzipBlockKB) {
 		this.dataFile = dataFile;
+		this.gzipBlockSize = gzipBlockKB * 1024;
 	}
 
 	public abstract void writeRecord(Record rec) throws IOException;
 	
+	/**
+	 * writes the record, ending the gzip block at this record boundary if the block is full.
+	 * 
+	 * @param rec
+	 * @throws IOException
+	 */
+	public void write(Record rec) throws IOException {
+		writeRecord(rec);
+		if (blockStream != null && blockStream.isBlockFull()) {
+			flush();
+			blockStream.endBlock();
+		}
+	}
+	
+	/**
+	 * writers buffering their own output must hand it to the stream so that
+	 * blocks end at record boundaries.
+	 * 
+	 * @throws IOException
+	 */
+	protected void flush() throws IOException { }
+	
+	/**
+	 * marks what has been written so far (e.g. a header) as the preamble that is
+	 * prepended to each split of a block gzip file.
+	 * 
+	 * @throws IOException
+	 */
+	protected void endPreamble() throws IOException {
+		if (blockStream != null) {
+			flush();
+			blockStream.endPreamble();
+		}
+	}
+	
 	public abstract void close() throws IOException;
 	
 	 /**
@@ -28,13 +83,31 @@ public abstract class FormatWriter {
     protected OutputStream getStream() throws IOException {
         OutputStream os = new FileOutputStream(dataFile);
         os = new BufferedOutputStream(os, 512 * 1024 * 1);
+        countingStream = new CountingOutputStream(os); // stored bytes, ahead of the buffer
+        os = countingStream;
         if (isGzipped(dataFile)) {
-            os = new GZIPOutputStream(os);
+            if (gzipBlockSize > 0) {
+                blockStream = new BlockGzipOutputStream(os, gzipBlockSize);
+                os = blockStream;
+            }
+            
+            else {
+                os = new GZIPOutputStream(os);
+            }
         }
         
         return os;
     }
     
+    /**
+     * 
+     * @return the number of stored bytes written so far.  Output still being
+     * compressed is not yet counted.
+     */
+    public long getBytesWritten() {
+    	return countingStream != null ? countingStream.getCount() : 0;
+    }
+    
     private boolean isGzipped(File file) {
     	return file.getName().endsWith(".gz");
     }
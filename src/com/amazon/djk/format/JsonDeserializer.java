@@ -1,5 +1,7 @@
 package com.amazon.djk.format;
 
+import com.amazon.djk.record.FieldIterator;
+import com.amazon.djk.record.FieldProjection;
 import com.amazon.djk.record.Record;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonDeserializationContext;
@@ -7,11 +9,16 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
 import org.apache.commons.lang.Validate;
 
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 public class JsonDeserializer implements com.google.gson.JsonDeserializer<Record> {
 
@@ -24,6 +31,98 @@ public class JsonDeserializer implements com.google.gson.JsonDeserializer<Record
         return rec;
     }
 
+    /**
+     * reads the next record from the stream without building the json tree, skipping
+     * the top level fields not wanted by the projection.  Like the json tree, a repeated
+     * key keeps the position of its first and the value of its last occurrence.
+     *
+     * @param reader positioned before a json object
+     * @param projection
+     * @return the record
+     * @throws IOException
+     */
+    public static Record read(JsonReader reader, FieldProjection projection) throws IOException {
+        Record rec = new Record();
+        readObject(reader, rec, projection);
+        return rec;
+    }
+
+    private static void readObject(JsonReader reader, Record record, FieldProjection projection) throws IOException {
+        Set<String> names = new HashSet<>();
+        Map<String,Record> values = null; // by name, once a key repeats
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String fieldName = reader.nextName();
+            if (projection != null && !projection.wants(fieldName)) {
+                reader.skipValue();
+                continue;
+            }
+
+            if (values == null && !names.add(fieldName)) {
+                values = getValuesByName(record);
+            }
+
+            if (values == null) {
+                readValue(reader, record, fieldName);
+            } else {
+                Record value = new Record();
+                readValue(reader, value, fieldName);
+                values.put(fieldName, value); // replaces the earlier value in place
+            }
+        }
+        reader.endObject();
+
+        if (values != null) {
+            record.reset();
+            for (Record value : values.values()) {
+                record.addFields(value);
+            }
+        }
+    }
+
+    /**
+     * @return the fields of the record grouped by name, in order of first occurrence
+     */
+    private static Map<String,Record> getValuesByName(Record record) throws IOException {
+        Map<String,Record> values = new LinkedHashMap<>();
+        FieldIterator fields = new FieldIterator();
+        fields.init(record);
+        while (fields.next()) {
+            values.computeIfAbsent(fields.getName(), name -> new Record()).addField(fields);
+        }
+        return values;
+    }
+
+    private static void readValue(JsonReader reader, Record record, String fieldName) throws IOException {
+        switch (reader.peek()) {
+        case BEGIN_ARRAY:
+            reader.beginArray();
+            while (reader.hasNext()) {
+                readValue(reader, record, fieldName);
+            }
+            reader.endArray();
+            return;
+
+        case BEGIN_OBJECT:
+            Record rec = new Record();
+            readObject(reader, rec, null);
+            record.addField(fieldName, rec);
+            return;
+
+        case BOOLEAN:
+            record.addFieldTyped(fieldName, String.valueOf(reader.nextBoolean()));
+            return;
+
+        case NULL:
+            reader.nextNull();
+            return;
+
+        default:
+            record.addFieldTyped(fieldName, reader.nextString());
+            return;
+        }
+    }
+
     private void parseJsonObjectAndAddToRecord(Record record, JsonObject value) {
         value.getAsJsonObject().entrySet().stream()
                 .forEach(entry -> {
@@ -1,5 +1,6 @@
 package com.amazon.djk.format;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -10,8 +11,10 @@ import com.amazon.djk.expression.ArgType;
 import com.amazon.djk.expression.Param;
 
 import com.amazon.djk.file.FileQueue;
+import com.amazon.djk.file.FormatArgs;
 import com.amazon.djk.file.SourceProperties;
 import com.amazon.djk.manual.Description;
+import com.amazon.djk.record.FieldProjection;
 import com.amazon.djk.record.Record;
 import com.amazon.djk.record.RecordFIFO;
 import com.google.common.annotations.VisibleForTesting;
@@ -19,6 +22,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonParseException;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
 
 
 /**
@@ -40,14 +44,16 @@ public class JsonFormatParser extends FileFormatParser {
     public static final String FORMAT = "json";
     public static final int BUFFER_SIZE = 512 * 1024;
     private final Gson gson;
+    private final FormatArgs args;
     private JsonReader jsonReader;
 
     /**
      * Used by replicate and getParser method
+     * @param args the access args of the source, may carry a projection
      * @throws IOException
      */
-    JsonFormatParser() throws IOException {
-        this(null);
+    JsonFormatParser(FormatArgs args) throws IOException {
+        this(null, args);
     }
 
     /**
@@ -56,6 +62,11 @@ public class JsonFormatParser extends FileFormatParser {
      * @throws IOException
      */
     public JsonFormatParser(JsonReader jsonReader) throws IOException {
+        this(jsonReader, null);
+    }
+
+    private JsonFormatParser(JsonReader jsonReader, FormatArgs args) throws IOException {
+        this.args = args;
         this.jsonReader = jsonReader;
         if(jsonReader != null) {
             this.jsonReader.beginArray();
@@ -75,15 +86,20 @@ public class JsonFormatParser extends FileFormatParser {
             if(jsonReader == null) {
                 return null;
             }
-            return jsonReader.hasNext() ? gson.fromJson(jsonReader, Record.class) : null;
-        } catch (JsonParseException e) {
+            if (!jsonReader.hasNext()) {
+                return null;
+            }
+
+            FieldProjection projection = args != null ? args.getProjection() : null;
+            return projection != null ? JsonDeserializer.read(jsonReader, projection) : gson.fromJson(jsonReader, Record.class);
+        } catch (JsonParseException | IllegalStateException | MalformedJsonException | EOFException e) {
             throw new FormatException(e.getMessage());
         }
     }
 
     @Override
     public Object replicate() throws IOException {
-        return new JsonFormatParser();
+        return new JsonFormatParser(args);
     }
 
     @Override
@@ -168,11 +184,12 @@ public class JsonFormatParser extends FileFormatParser {
 
    		@Override
    		public FormatParser getParser(SourceProperties props) throws IOException {
-   		    Boolean jsonLines = (Boolean) props.getAccessArgs().getParam(JSON_LINES_PARAM);
+   		    FormatArgs args = props.getAccessArgs();
+   		    Boolean jsonLines = (Boolean) args.getParam(JSON_LINES_PARAM);
    		    if(jsonLines)
-   		        return new JsonLinesFormatParser();
+   		        return new JsonLinesFormatParser(args);
    		    else
-   			    return new JsonFormatParser();
+   			    return new JsonFormatParser(args);
    		}
    	}
 }
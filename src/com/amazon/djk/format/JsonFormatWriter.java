@@ -2,43 +2,59 @@ package com.amazon.djk.format;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 
 import com.amazon.djk.expression.ArgType;
 import com.amazon.djk.expression.Param;
 import com.amazon.djk.file.FormatArgs;
 import com.amazon.djk.manual.Description;
 import com.amazon.djk.record.Record;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.stream.JsonWriter;
 
 /**
  * Sink records to a Json file
  * @see {@JsonSerializer} for details
+ * @see {@StreamingJsonSerializer} for how records are written
  */
 public class JsonFormatWriter extends FormatWriter {
 	private final static String JSON_LINES_PARAM = "jsonLines";
 	public final static String FORMAT = "json";
-    private final Gson gson;
-    private JsonWriter writer = null;
+    private final StreamingJsonSerializer serializer = new StreamingJsonSerializer();
+    private final OutputStream outstream;
+    private boolean first = true;
 
     public JsonFormatWriter(File dataFile) throws IOException {
-    	super(dataFile);
-        writer = new JsonWriter(new PrintWriter(getStream()));
-        gson = new GsonBuilder().registerTypeAdapter(Record.class, new JsonSerializer()).create();
-        writer.beginArray();
+    	this(dataFile, 0);
+    }
+    
+    public JsonFormatWriter(File dataFile, int gzipBlockKB) throws IOException {
+    	super(dataFile, gzipBlockKB);
+        outstream = getStream();
+        serializer.append('[');
 	}
     
     @Override
 	public void writeRecord(Record rec) throws IOException {
-        gson.toJson(rec, Record.class, writer);
+        if (!first) {
+            serializer.append(',');
+        }
+        first = false;
+        
+        serializer.serialize(rec);
+        if (serializer.size() > FLUSH_SIZE) {
+            serializer.flushTo(outstream);
+        }
+	}
+
+	@Override
+	protected void flush() throws IOException {
+        serializer.flushTo(outstream);
 	}
 
 	@Override
 	public void close() throws IOException {
-        writer.endArray();
-        writer.close();
+        serializer.append(']');
+        serializer.flushTo(outstream);
+        outstream.close();
         //super.close();
 	}
 
@@ -56,9 +72,9 @@ public class JsonFormatWriter extends FormatWriter {
 		public FormatWriter getWriter(FormatArgs args, File dataFile) throws IOException {
     	    Boolean jsonLines = (Boolean) args.getParam(JSON_LINES_PARAM);
     	    if(jsonLines)
-    	    	return new JsonLinesFormatWriter(dataFile);
+    	    	return new JsonLinesFormatWriter(dataFile, getGzipBlockKB(args));
     	    else
-				return new JsonFormatWriter(dataFile);
+				return new JsonFormatWriter(dataFile, getGzipBlockKB(args));
 		}
     }
 }
@@ -1,22 +1,38 @@
 package com.amazon.djk.format;
 
+import com.amazon.djk.file.FormatArgs;
+import com.amazon.djk.record.FieldProjection;
 import com.amazon.djk.record.Record;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.StringReader;
 
 public class JsonLinesFormatParser extends ReaderFormatParser {
     private final Gson gson;
+    private final FormatArgs args;
 
     public JsonLinesFormatParser() {
+        this(null);
+    }
+
+    /**
+     *
+     * @param args the access args of the source, may carry a projection
+     */
+    public JsonLinesFormatParser(FormatArgs args) {
+        this.args = args;
         gson = new GsonBuilder().registerTypeAdapter(Record.class, new JsonDeserializer()).create();
     }
 
     @Override
     public Object replicate() throws IOException {
-        return new JsonLinesFormatParser();
+        return new JsonLinesFormatParser(args);
     }
 
     @Override
@@ -35,8 +51,15 @@ public class JsonLinesFormatParser extends ReaderFormatParser {
             }
 
             try {
+                FieldProjection projection = args != null ? args.getProjection() : null;
+                if (projection != null) {
+                    JsonReader jsonReader = new JsonReader(new StringReader(line));
+                    jsonReader.setLenient(true);
+                    return JsonDeserializer.read(jsonReader, projection);
+                }
+
                 return gson.fromJson(line, Record.class);
-            } catch (JsonParseException e) {
+            } catch (JsonParseException | IllegalStateException | MalformedJsonException | EOFException e) {
                 throw new FormatException(e.getMessage());
             }
         }
@@ -1,37 +1,48 @@
 package com.amazon.djk.format;
 
 import com.amazon.djk.record.Record;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 
 /**
  * Sink records to a Json file
  *
  * @see {@JsonSerializer} for details
+ * @see {@StreamingJsonSerializer} for how records are written
  */
 public class JsonLinesFormatWriter extends FormatWriter {
-    private final Gson gson;
-    private PrintWriter writer = null;
+    private final StreamingJsonSerializer serializer = new StreamingJsonSerializer();
+    private final OutputStream outstream;
 
     public JsonLinesFormatWriter(File dataFile) throws IOException {
-        super(dataFile);
-        writer = new PrintWriter(getStream());
-        gson = new GsonBuilder().registerTypeAdapter(Record.class, new JsonSerializer()).create();
+        this(dataFile, 0);
+    }
+
+    public JsonLinesFormatWriter(File dataFile, int gzipBlockKB) throws IOException {
+        super(dataFile, gzipBlockKB);
+        outstream = getStream();
     }
 
     @Override
     public void writeRecord(Record rec) throws IOException {
-        gson.toJson(rec, Record.class, writer);
-        writer.println();
+        serializer.serialize(rec);
+        serializer.append('\n');
+        if (serializer.size() > FLUSH_SIZE) {
+            serializer.flushTo(outstream);
+        }
+    }
+
+    @Override
+    protected void flush() throws IOException {
+        serializer.flushTo(outstream);
     }
 
     @Override
     public void close() throws IOException {
-        writer.close();
+        serializer.flushTo(outstream);
+        outstream.close();
         //super.close();
     }
 }
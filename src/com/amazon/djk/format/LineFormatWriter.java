@@ -15,7 +15,11 @@ public class LineFormatWriter extends FormatWriter {
 	private final FieldIterator fiter = new FieldIterator();
 	
 	public LineFormatWriter(File dataFile) throws IOException {
-		super(dataFile);
+		this(dataFile, 0);
+	}
+	
+	public LineFormatWriter(File dataFile, int gzipBlockKB) throws IOException {
+		super(dataFile, gzipBlockKB);
 		writer = new PrintWriter(getStream());
 	}
 	
@@ -32,6 +36,11 @@ public class LineFormatWriter extends FormatWriter {
 		writer.println();
 	}
 	
+	@Override
+	protected void flush() {
+		writer.flush();
+	}
+	
 	@Override
 	public void close() {
 		writer.close();
@@ -46,7 +55,7 @@ public class LineFormatWriter extends FormatWriter {
 
 		@Override
 		public FormatWriter getWriter(FormatArgs args, File dataFile) throws IOException {
-			return new LineFormatWriter(dataFile);
+			return new LineFormatWriter(dataFile, getGzipBlockKB(args));
 		}
 	}
 }
@@ -2,10 +2,13 @@ package com.amazon.djk.format;
 
 import com.amazon.djk.core.MinimalRecordSource;
 import com.amazon.djk.core.RecordSource;
+import com.amazon.djk.file.FormatArgs;
+import com.amazon.djk.file.ParallelBZip2InputStream;
 import com.amazon.djk.file.SourceProperties;
 import com.amazon.djk.manual.Description;
+import com.amazon.djk.record.FieldProjection;
+import com.amazon.djk.record.FieldType;
 import com.amazon.djk.record.Record;
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
@@ -18,6 +21,7 @@ import java.io.InputStream;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.GZIPInputStream;
 
 public class NV2FormatParser extends ReaderFormatParser {
@@ -26,6 +30,31 @@ public class NV2FormatParser extends ReaderFormatParser {
     private static final String END_OF_RECORD = "#";
     private final ArrayDeque<String> recLines = new ArrayDeque<>();
     private final List<Record> recs = new ArrayList<>();
+    private final Map<String,FieldType> recordedTypes;
+    private final FieldTypeSchema schema; // null to guess all values
+    private final FormatArgs args; // null for no projection
+    private FieldProjection projection = null;
+
+    /**
+     * constructor guessing the type of each value
+     */
+    public NV2FormatParser() {
+        this.recordedTypes = null;
+        this.schema = null;
+        this.args = null;
+    }
+
+    /**
+     * 
+     * @param recordedTypes field types from source.properties, if empty types are sampled,
+     * null to guess all values
+     * @param args the access args of the source, may carry a projection
+     */
+    public NV2FormatParser(Map<String,FieldType> recordedTypes, FormatArgs args) {
+        this.recordedTypes = recordedTypes;
+        this.schema = recordedTypes != null ? new FieldTypeSchema(recordedTypes, FieldTypeSchema.DEFAULT_SAMPLE_RECS) : null;
+        this.args = args;
+    }
 
     @Override
     public Record next(PushbackLineReader reader) throws IOException, FormatException {
@@ -49,7 +78,7 @@ public class NV2FormatParser extends ReaderFormatParser {
             if (line == null) {
                 // allow missing END_OF_RECORD, if valid
                 if (recLines.size() > 0) {
-                    return parse(0, recLines);
+                    return parseTop(recLines);
                 }
 
                 return null; // we're done
@@ -59,7 +88,7 @@ public class NV2FormatParser extends ReaderFormatParser {
             if (line.length() == 0) {
                 if (endsWithAFewEmpties(reader)) {
                     if (recLines.size() > 0) {
-                        return parse(0, recLines);
+                        return parseTop(recLines);
                     } else {
                         return null;
                     }
@@ -71,7 +100,7 @@ public class NV2FormatParser extends ReaderFormatParser {
             // END OF RECORD
             if (line.startsWith(END_OF_RECORD)) {
                 if (recLines.size() > 0) {
-                    return parse(0, recLines);
+                    return parseTop(recLines);
                 } else {
                     continue;  // cause initial #'s to be eaten
                 }
@@ -98,6 +127,28 @@ public class NV2FormatParser extends ReaderFormatParser {
         return false;
     }
 
+    private Record parseTop(ArrayDeque<String> recLines) throws IOException, FormatException {
+        boolean sampling = schema != null && schema.isSampling();
+        projection = args != null ? args.getProjection() : null;
+        Record rec = parse(0, recLines);
+        if (sampling) {
+            schema.sampled();
+        }
+
+        return rec;
+    }
+
+    /**
+     * adds a primitive value, typed by the schema at the top level
+     */
+    private void addValue(int level, Record rec, String name, String value) throws IOException {
+        if (level == 0 && schema != null) {
+            schema.add(rec, name, value);
+        } else {
+            rec.addFieldTyped(name, value);
+        }
+    }
+
     /**
      * @param level
      * @param recLines
@@ -143,10 +194,18 @@ public class NV2FormatParser extends ReaderFormatParser {
             String name = line.substring(numTabs, colon);
             String value = line.substring(colon + 1);
 
+            // unwanted top level field, skip its value and any subrecord lines
+            if (level == 0 && projection != null && !projection.wants(name)) {
+                while (!recLines.isEmpty() && getNumInitialTabs(recLines.peekFirst()) > level) {
+                    recLines.removeFirst();
+                }
+                continue;
+            }
+
             if (value.isEmpty()) { // either empty value or subrecord
                 if (recLines.isEmpty()) {
                     // no more recLines
-                    rec.addFieldTyped(name, value);
+                    addValue(level, rec, name, value);
                     continue;
                 }
 
@@ -157,10 +216,10 @@ public class NV2FormatParser extends ReaderFormatParser {
                     rec.addField(name, sub);
                 } else { // not subrecord must be zero length string.
                     recLines.addFirst(next);  // push back
-                    rec.addFieldTyped(name, value);
+                    addValue(level, rec, name, value);
                 }
             } else {
-                rec.addFieldTyped(name, value);
+                addValue(level, rec, name, value);
             }
         }
 
@@ -194,7 +253,7 @@ public class NV2FormatParser extends ReaderFormatParser {
             is = new BufferedInputStream(is, 3 * 1024);
         } else if (file.getName().endsWith(".bz2")) {
             is = new FileInputStream(file);
-            is = new BZip2CompressorInputStream(is);
+            is = new ParallelBZip2InputStream(is, file.getPath());
             is = new BufferedInputStream(is, 3 * 1024);
         } else { // not gzipped
             is = new FileInputStream(file);
@@ -224,7 +283,7 @@ public class NV2FormatParser extends ReaderFormatParser {
 
     @Override
     public Object replicate() throws IOException {
-        return new NV2FormatParser();
+        return new NV2FormatParser(recordedTypes, args);
     }
 
     @Description(text = {"reads nv2 file(s) as a source of records."})
@@ -235,7 +294,9 @@ public class NV2FormatParser extends ReaderFormatParser {
 
         @Override
         public FormatParser getParser(SourceProperties props) throws IOException {
-            return new NV2FormatParser();
+            FormatArgs args = props.getAccessArgs();
+            return (Boolean) args.getParam(FormatOperator.INFER_TYPES) ?
+                    new NV2FormatParser(props.getFieldTypes(), args) : new NV2FormatParser(null, args);
         }
     }
 }
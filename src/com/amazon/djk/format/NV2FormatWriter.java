@@ -12,7 +12,11 @@ public class NV2FormatWriter extends FormatWriter {
 	private final PrintWriter writer;
 	
 	public NV2FormatWriter(File dataFile) throws IOException {
-		super(dataFile);
+		this(dataFile, 0);
+	}
+	
+	public NV2FormatWriter(File dataFile, int gzipBlockKB) throws IOException {
+		super(dataFile, gzipBlockKB);
 		writer = new PrintWriter(getStream());
 	}
 	
@@ -22,6 +26,11 @@ public class NV2FormatWriter extends FormatWriter {
         writer.println("#"); // end of record marker		
 	}
 	
+	@Override
+	protected void flush() {
+		writer.flush();
+	}
+	
 	@Override
 	public void close() throws IOException {
 		writer.close();
@@ -37,7 +46,7 @@ public class NV2FormatWriter extends FormatWriter {
 
 		@Override
 		public FormatWriter getWriter(FormatArgs args, File dataFile) throws IOException {
-			return new NV2FormatWriter(dataFile);
+			return new NV2FormatWriter(dataFile, getGzipBlockKB(args));
 		}
 	}
 }
@@ -0,0 +1,383 @@
+package com.amazon.djk.format;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.amazon.djk.file.FileQueue.LazyFile;
+import com.amazon.djk.record.Record;
+import com.amazon.djk.record.RecordFIFO;
+import com.amazon.djk.record.RecordIO;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Block framing of the native format (version 2).  Version 1 files are a plain
+ * stream of length prefixed fifos which can only be read front to back.
+ *
+ * <pre>
+ *  file    := MAGIC block* END index trailer
+ *  block   := header payload
+ *  header  := numRecs(int) storedLen(int) rawLen(int) crc32c(int) codec(byte)
+ *  END     := header with numRecs=0 and no payload
+ *  index   := (offset(long) numRecs(int))* one entry per block
+ *  trailer := indexOffset(long) numBlocks(int) INDEX_MAGIC
+ * </pre>
+ *
+ * The payload of a block is the stored bytes of a RecordFIFO, optionally deflated.
+ * The crc32c is computed over the payload as stored.  Blocks can be read from any
+ * offset in the index, which allows a single file to be split across readers.
+ */
+public class NativeBlockFormat {
+    public static final byte[] MAGIC = {'D', 'J', 'K', 'N', 'A', 'T', '0', '2'};
+    public static final byte[] INDEX_MAGIC = {'D', 'J', 'K', 'N', 'I', 'D', 'X', '2'};
+    public static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 1;
+    public static final int TRAILER_SIZE = 8 + 4 + INDEX_MAGIC.length;
+    public static final byte CODEC_NONE = 0;
+    public static final byte CODEC_DEFLATE = 1;
+    private static final HashFunction CRC32C = Hashing.crc32c();
+
+    /**
+     *
+     * @param is stream supporting mark, positioned at the beginning of the file.
+     * @return true if the stream is a version 2 native file.  The stream position is unchanged.
+     * @throws IOException
+     */
+    public static boolean isBlockFormat(InputStream is) throws IOException {
+        byte[] head = new byte[MAGIC.length];
+        is.mark(MAGIC.length);
+        int num = 0;
+        while (num < head.length) {
+            int count = is.read(head, num, head.length - num);
+            if (count == -1) break;
+            num += count;
+        }
+        is.reset();
+
+        return num == MAGIC.length && Arrays.equals(head, MAGIC);
+    }
+
+    /**
+     * writes the blocks, index and trailer of a version 2 file
+     */
+    public static class BlockWriter {
+        private final DataOutputStream out;
+        private final byte codec;
+        private final Deflater deflater;
+        private byte[] compressed = new byte[0];
+        private long position = 0;
+        private long[] offsets = new long[64];
+        private int[] blockRecs = new int[64];
+        private int numBlocks = 0;
+
+        public BlockWriter(OutputStream os, byte codec) throws IOException {
+            this.out = new DataOutputStream(os);
+            this.codec = codec;
+            this.deflater = codec == CODEC_DEFLATE ? new Deflater() : null;
+            out.write(MAGIC);
+            position += MAGIC.length;
+        }
+
+        /**
+         *
+         * @param fifoStorage the stored bytes of a fifo, see RecordFIFO.getAsRecord()
+         * @param numRecs number of records held within the fifo
+         * @throws IOException
+         */
+        public void write(Record fifoStorage, int numRecs) throws IOException {
+            byte[] payload = fifoStorage.buffer();
+            int offset = fifoStorage.offset();
+            int rawLen = fifoStorage.size();
+            int storedLen = rawLen;
+
+            if (codec == CODEC_DEFLATE) {
+                storedLen = deflate(payload, offset, rawLen);
+                payload = compressed;
+                offset = 0;
+            }
+
+            if (numBlocks == offsets.length) {
+                offsets = Arrays.copyOf(offsets, numBlocks * 2);
+                blockRecs = Arrays.copyOf(blockRecs, numBlocks * 2);
+            }
+            offsets[numBlocks] = position;
+            blockRecs[numBlocks] = numRecs;
+            numBlocks++;
+
+            writeHeader(numRecs, storedLen, rawLen, CRC32C.hashBytes(payload, offset, storedLen).asInt(), codec);
+            out.write(payload, offset, storedLen);
+            position += HEADER_SIZE + storedLen;
+        }
+
+        private int deflate(byte[] raw, int offset, int length) {
+            deflater.reset();
+            deflater.setInput(raw, offset, length);
+            deflater.finish();
+
+            if (compressed.length < length + 64) {
+                compressed = new byte[length + 64];
+            }
+
+            int num = 0;
+            while (!deflater.finished()) {
+                if (num == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                num += deflater.deflate(compressed, num, compressed.length - num);
+            }
+
+            return num;
+        }
+
+        private void writeHeader(int numRecs, int storedLen, int rawLen, int crc32c, byte codec) throws IOException {
+            out.writeInt(numRecs);
+            out.writeInt(storedLen);
+            out.writeInt(rawLen);
+            out.writeInt(crc32c);
+            out.writeByte(codec);
+        }
+
+        /**
+         * writes the END header, index and trailer and closes the stream
+         *
+         * @throws IOException
+         */
+        public void close() throws IOException {
+            writeHeader(0, 0, 0, 0, CODEC_NONE); // END
+            position += HEADER_SIZE;
+
+            long indexOffset = position;
+            for (int i = 0; i < numBlocks; i++) {
+                out.writeLong(offsets[i]);
+                out.writeInt(blockRecs[i]);
+            }
+
+            out.writeLong(indexOffset);
+            out.writeInt(numBlocks);
+            out.write(INDEX_MAGIC);
+            out.close();
+
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * the block index of a version 2 file
+     */
+    public static class BlockIndex {
+        private final long[] offsets;
+        private final int[] numRecs;
+
+        private BlockIndex(long[] offsets, int[] numRecs) {
+            this.offsets = offsets;
+            this.numRecs = numRecs;
+        }
+
+        /**
+         * reads the index from the end of the file
+         *
+         * @param file
+         * @return
+         * @throws IOException
+         */
+        public static BlockIndex read(LazyFile file) throws IOException {
+            long size = file.getSize();
+            if (size < MAGIC.length + HEADER_SIZE + TRAILER_SIZE) {
+                throw new IOException("unable to determine size of native block file " + file.getLeafArgs().getPath());
+            }
+
+            long indexOffset;
+            int numBlocks;
+            try (DataInputStream dis = new DataInputStream(file.getStream(size - TRAILER_SIZE))) {
+                indexOffset = dis.readLong();
+                numBlocks = dis.readInt();
+                byte[] magic = new byte[INDEX_MAGIC.length];
+                dis.readFully(magic);
+                if (!Arrays.equals(magic, INDEX_MAGIC)) {
+                    throw new IOException("corrupt or truncated native block file " + file.getLeafArgs().getPath());
+                }
+            }
+
+            long[] offsets = new long[numBlocks];
+            int[] numRecs = new int[numBlocks];
+            try (DataInputStream dis = new DataInputStream(file.getStream(indexOffset))) {
+                for (int i = 0; i < numBlocks; i++) {
+                    offsets[i] = dis.readLong();
+                    numRecs[i] = dis.readInt();
+                }
+            }
+
+            return new BlockIndex(offsets, numRecs);
+        }
+
+        public int numBlocks() {
+            return offsets.length;
+        }
+
+        public long getOffset(int blockNo) {
+            return offsets[blockNo];
+        }
+
+        public int getNumRecs(int blockNo) {
+            return numRecs[blockNo];
+        }
+
+        public long totalRecs() {
+            long total = 0;
+            for (int num : numRecs) {
+                total += num;
+            }
+
+            return total;
+        }
+    }
+
+    /**
+     * reads consecutive blocks into RecordFIFOs, verifying checksums
+     */
+    public static class BlockReader {
+        private final DataInputStream dis;
+        private final String path;
+        private final Inflater inflater = new Inflater();
+        private byte[] stored = new byte[0];
+        private byte[] raw = new byte[0];
+        private int blocksRemaining;
+        private int blockNo;
+
+        /**
+         *
+         * @param is stream positioned at the header of block firstBlock
+         * @param firstBlock number of the first block to be read (for messages)
+         * @param numBlocks number of blocks to read or -1 to read until END
+         * @param path
+         */
+        public BlockReader(InputStream is, int firstBlock, int numBlocks, String path) {
+            this.dis = is != null ? new DataInputStream(is) : null;
+            this.blockNo = firstBlock;
+            this.blocksRemaining = numBlocks;
+            this.path = path;
+        }
+
+        /**
+         * reads the whole file sequentially, no index required
+         *
+         * @param is stream positioned at the beginning of the file
+         * @param file
+         * @return
+         * @throws IOException
+         */
+        public static BlockReader open(InputStream is, LazyFile file) throws IOException {
+            byte[] magic = new byte[MAGIC.length];
+            new DataInputStream(is).readFully(magic);
+            return new BlockReader(is, 0, -1, file.getLeafArgs().getPath());
+        }
+
+        /**
+         * reads numBlocks blocks beginning at firstBlock
+         *
+         * @param file
+         * @param index
+         * @param firstBlock
+         * @param numBlocks
+         * @return
+         * @throws IOException
+         */
+        public static BlockReader open(LazyFile file, BlockIndex index, int firstBlock, int numBlocks) throws IOException {
+            long offset = firstBlock < index.numBlocks() ? index.getOffset(firstBlock) : 0;
+            InputStream is = numBlocks > 0 ? file.getStream(offset) : null;
+            return new BlockReader(is, firstBlock, numBlocks, file.getLeafArgs().getPath());
+        }
+
+        /**
+         *
+         * @param recordIO
+         * @param fifo
+         * @return false if no more blocks
+         * @throws IOException
+         * @throws FormatException if the block fails its checksum.  The reader is positioned at the next block.
+         */
+        public boolean fill(RecordIO recordIO, RecordFIFO fifo) throws IOException, FormatException {
+            if (blocksRemaining == 0) return false;
+
+            int numRecs;
+            try {
+                numRecs = dis.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+
+            int storedLen = dis.readInt();
+            int rawLen = dis.readInt();
+            int crc32c = dis.readInt();
+            byte codec = dis.readByte();
+            if (numRecs == 0) return false; // END
+
+            if (stored.length < storedLen) {
+                stored = new byte[storedLen];
+            }
+            dis.readFully(stored, 0, storedLen);
+
+            int thisBlock = blockNo++;
+            if (blocksRemaining > 0) blocksRemaining--;
+
+            if (CRC32C.hashBytes(stored, 0, storedLen).asInt() != crc32c) {
+                throw new FormatException(String.format("checksum mismatch in block %d of %s", thisBlock, path));
+            }
+
+            switch (codec) {
+            case CODEC_NONE:
+                recordIO.fill(stored, 0, storedLen, fifo);
+                break;
+
+            case CODEC_DEFLATE:
+                inflate(storedLen, rawLen);
+                recordIO.fill(raw, 0, rawLen, fifo);
+                break;
+
+            default:
+                throw new IOException(String.format("unknown codec %d in block %d of %s", codec, thisBlock, path));
+            }
+
+            return true;
+        }
+
+        private void inflate(int storedLen, int rawLen) throws IOException {
+            if (raw.length < rawLen) {
+                raw = new byte[rawLen];
+            }
+
+            inflater.reset();
+            inflater.setInput(stored, 0, storedLen);
+            int num = 0;
+            try {
+                while (num < rawLen && !inflater.finished()) {
+                    int count = inflater.inflate(raw, num, rawLen - num);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    num += count;
+                }
+            }
+
+            catch (DataFormatException e) {
+                throw new IOException(e);
+            }
+
+            if (num != rawLen) {
+                throw new IOException(String.format("block inflated to %d bytes, expected %d in %s", num, rawLen, path));
+            }
+        }
+
+        public void close() throws IOException {
+            if (dis != null) dis.close();
+            inflater.end();
+        }
+    }
+}
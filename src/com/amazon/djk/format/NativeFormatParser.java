@@ -1,49 +1,111 @@
 package com.amazon.djk.format;
 
+import com.amazon.djk.file.FileQueue.FileSplitter;
 import com.amazon.djk.file.FileQueue.LazyFile;
 import com.amazon.djk.file.SourceProperties;
+import com.amazon.djk.format.NativeBlockFormat.BlockIndex;
+import com.amazon.djk.format.NativeBlockFormat.BlockReader;
 import com.amazon.djk.manual.Description;
+import com.amazon.djk.record.FieldProjection;
 import com.amazon.djk.record.RecordFIFO;
 import com.amazon.djk.record.RecordIO;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
-public class NativeFormatParser extends FileFormatParser {
+public class NativeFormatParser extends FileFormatParser implements FileSplitter {
     public final static String STREAM_FILE_REGEX = "\\.nat(\\.gz)?$";
 	public static final String FORMAT = "nat";
 	private final SourceProperties props;
 	private final RecordIO recordIO;
+	private FieldProjection projection = null;
     DataInputStream dis = null;
-	
+    BlockReader blocks = null; // version 2
+
 	public NativeFormatParser(SourceProperties props) throws IOException {
 		this.props = props;
 		recordIO = new RecordIO(props.getSourceFields());
 	}
-	
+
     @Override
-    public boolean fill(RecordFIFO fifo) throws IOException {
+    public boolean fill(RecordFIFO fifo) throws IOException, FormatException {
+        FieldProjection current = props.getAccessArgs().getProjection();
+        if (current != projection) {
+            recordIO.setProjection(current);
+            projection = current;
+        }
+
+        if (blocks != null) {
+            boolean notDone = blocks.fill(recordIO, fifo);
+            if (!notDone) {
+                blocks.close();
+                blocks = null;
+            }
+
+            return notDone;
+        }
+
         if (dis == null) return false;
         boolean notDone = recordIO.fill(dis, fifo);
         if (!notDone) {
             dis.close();
             dis = null;
         }
-        
+
         return notDone;
     }
-	
+
 	@Override
 	public Object replicate() throws IOException {
 		return new NativeFormatParser(props);
 	}
-	
+
     @Override
     public void initialize(LazyFile file) throws IOException {
-        dis = new DataInputStream(file.getStream());
+        if (file.isSplit() && !isGzipped(file)) {
+            // only block files are split, see isSplittable()
+            BlockIndex index = BlockIndex.read(file);
+            int numBlocks = index.numBlocks();
+            int first = (int)((long)numBlocks * file.getSplitNo() / file.getNumSplits());
+            int end = (int)((long)numBlocks * (file.getSplitNo() + 1) / file.getNumSplits());
+            blocks = BlockReader.open(file, index, first, end - first);
+            return;
+        }
+
+        InputStream is = file.getStream();
+        if (!is.markSupported()) {
+            is = new BufferedInputStream(is);
+        }
+
+        if (NativeBlockFormat.isBlockFormat(is)) {
+            blocks = BlockReader.open(is, file);
+        }
+
+        else { // version 1
+            dis = new DataInputStream(is);
+        }
+    }
+
+    /**
+     * version 2 block files which are not compressed as a whole can be split,
+     * as can version 1 files written as block gzip.
+     */
+    @Override
+    public boolean isSplittable(LazyFile file) throws IOException {
+        if (isGzipped(file)) return file.isSplittable();
+
+        try (InputStream is = new BufferedInputStream(file.getStream(), NativeBlockFormat.MAGIC.length)) {
+            return NativeBlockFormat.isBlockFormat(is);
+        }
+    }
+
+    private static boolean isGzipped(LazyFile file) throws IOException {
+        return file.getLeafArgs().getPath().endsWith(".gz");
     }
 
-	@Description(text={"reads djk native files from a directory."})
+	@Description(text={"reads djk native files from a directory.  Files of version 2 are split across read threads when there are fewer files than threads."})
 	public static class Op extends FormatOperator {
 		public Op() {
 			super(FORMAT, STREAM_FILE_REGEX);
@@ -4,7 +4,10 @@ import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 
+import com.amazon.djk.expression.ArgType;
+import com.amazon.djk.expression.Param;
 import com.amazon.djk.file.FormatArgs;
+import com.amazon.djk.format.NativeBlockFormat.BlockWriter;
 import com.amazon.djk.manual.Description;
 import com.amazon.djk.record.Record;
 import com.amazon.djk.record.RecordFIFO;
@@ -12,44 +15,120 @@ import com.amazon.djk.record.RecordIO;
 
 public class NativeFormatWriter extends FormatWriter {
 	private final DataOutputStream outstream;
+	private final BlockWriter blockWriter; // version 2
 	public final static int FIFO_BUFFER_SIZE = 512 * 1024;
 	private final RecordFIFO fifo = new RecordFIFO();
+	private int numFifoRecs = 0;
+
 
-	
 	public NativeFormatWriter(File dataFile) throws IOException {
-		super(dataFile);
+		this(dataFile, 0);
+	}
+
+	/**
+	 * version 1 constructor
+	 *
+	 * @param dataFile
+	 * @param gzipBlockKB see FormatWriter
+	 * @throws IOException
+	 */
+	public NativeFormatWriter(File dataFile, int gzipBlockKB) throws IOException {
+		super(dataFile, gzipBlockKB);
 		this.outstream = new DataOutputStream(getStream());
+		this.blockWriter = null;
+	}
+
+	/**
+	 * version 2 constructor
+	 *
+	 * @param dataFile
+	 * @param codec see NativeBlockFormat
+	 * @throws IOException
+	 */
+	public NativeFormatWriter(File dataFile, byte codec) throws IOException {
+		super(dataFile);
+		this.outstream = null;
+		this.blockWriter = new BlockWriter(getStream(), codec);
 	}
-	
+
 	@Override
 	public void writeRecord(Record rec) throws IOException {
 		fifo.add(rec);
+		numFifoRecs++;
 		if (fifo.byteSize() > FIFO_BUFFER_SIZE) {
-            RecordIO.write(outstream, fifo);
-		    fifo.reset();
+			flushFifo();
+		}
+	}
+
+	private void flushFifo() throws IOException {
+		if (blockWriter != null) {
+			blockWriter.write(fifo.getAsRecord(), numFifoRecs);
+		} else {
+			RecordIO.write(outstream, fifo);
+		}
+
+		fifo.reset();
+		numFifoRecs = 0;
+	}
+
+	@Override
+	protected void flush() throws IOException {
+		if (fifo.byteSize() > 0) {
+			flushFifo();
 		}
 	}
-	
+
 	@Override
 	public void close() throws IOException {
 		if (fifo.byteSize() > 0) { // remnant
-            RecordIO.write(outstream, fifo);
+			flushFifo();
 	    }
 
-		outstream.close();
+		if (blockWriter != null) {
+			blockWriter.close();
+		} else {
+			outstream.close();
+		}
 		//super.close();
 	}
-	
-	
-    @Description(text={"writes djk native files within a directory."})
+
+
+    @Description(text={"writes djk native files within a directory.",
+    		"Version 2 files consist of checksummed blocks with an index, allowing a file to be split across read threads.",
+    		"For version 2, gzip compresses each block rather than the whole file."})
+    @Param(name=Op.VERSION_PARAM, gloss="native format version, 1 or 2.", type=ArgType.INTEGER, defaultValue="1")
 	public static class Op extends WriterOperator {
+    	public final static String VERSION_PARAM = "version";
+
 		public Op() {
 			super("nat", NativeFormatParser.STREAM_FILE_REGEX);
 		}
 
 		@Override
 		public FormatWriter getWriter(FormatArgs args, File dataFile) throws IOException {
-			return new NativeFormatWriter(dataFile);
+			if (getVersion(args) == 2) {
+				boolean gzip = (Boolean)args.getParam(USE_GZIP_PARAM);
+				return new NativeFormatWriter(dataFile, gzip ? NativeBlockFormat.CODEC_DEFLATE : NativeBlockFormat.CODEC_NONE);
+			}
+
+			return new NativeFormatWriter(dataFile, getGzipBlockKB(args));
+		}
+
+		/**
+		 * version 2 files are never gzipped as a whole so that they remain seekable
+		 */
+		@Override
+		public boolean useFileGzip(FormatArgs args) throws IOException {
+			return getVersion(args) == 2 ? false : super.useFileGzip(args);
+		}
+
+		private int getVersion(FormatArgs args) throws IOException {
+			int version = (Integer)args.getParam(VERSION_PARAM);
+			if (version != 1 && version != 2) {
+				throw new IOException("unsupported native format version " + version);
+			}
+
+			return version;
 		}
 	}
 }
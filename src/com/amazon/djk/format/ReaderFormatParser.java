@@ -2,6 +2,8 @@ package com.amazon.djk.format;
 
 import java.io.IOException;
 
+import com.amazon.djk.file.FileQueue.FileSplitter;
+import com.amazon.djk.file.FileQueue.LazyFile;
 import com.amazon.djk.processor.CoreDefs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,7 +13,7 @@ import com.amazon.djk.record.RecordFIFO;
 import com.amazon.djk.record.ThreadDefs;
 import org.apache.commons.lang.math.NumberUtils;
 
-public abstract class ReaderFormatParser extends FormatParser {
+public abstract class ReaderFormatParser extends FormatParser implements FileSplitter {
 	private final static Logger LOGGER = LoggerFactory.getLogger(ReaderFormatParser.class);
 	private long numFormatExceptions = 0;
     public static final int BUFFER_SIZE = 512 * 1024;
@@ -83,6 +85,24 @@ public abstract class ReaderFormatParser extends FormatParser {
 	 */
 	public void initialize(PushbackLineReader reader) throws IOException { }
 
+    /**
+     * line oriented formats can be split wherever the file system can split the file,
+     * i.e. block gzip files written with record aligned blocks.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    @Override
+    public boolean isSplittable(LazyFile file) throws IOException {
+        return file.isSplittable();
+    }
+
+    @Override
+    public boolean mayBeSplittable(LazyFile file) throws IOException {
+        return file.mayBeSplittable();
+    }
+
     /**
      * called by DJK
      *
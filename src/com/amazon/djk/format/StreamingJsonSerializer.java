@@ -0,0 +1,356 @@
+package com.amazon.djk.format;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.amazon.djk.record.FieldIterator;
+import com.amazon.djk.record.FieldType;
+import com.amazon.djk.record.Record;
+import com.amazon.djk.record.ThreadDefs;
+import com.amazon.djk.record.UTF8BytesRef;
+
+/**
+ * Serialize records as UTF-8 Json directly into a byte buffer, without building
+ * an intermediate JsonElement tree.  The output is byte-for-byte the same as that
+ * of Gson with the {@link JsonSerializer}, i.e. duplicate keys are gathered into a
+ * JsonArray in the position of their first occurrence, sub-records are always
+ * represented as an array, html characters are escaped and single null values are
+ * omitted.
+ *
+ * Not threadsafe, use one instance per writer.
+ */
+public class StreamingJsonSerializer {
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] NULL = "null".getBytes();
+    private static final byte[] TRUE = "true".getBytes();
+    private static final byte[] FALSE = "false".getBytes();
+    private static final byte[] LINE_SEPARATOR = "\\u2028".getBytes();
+    private static final byte[] PARAGRAPH_SEPARATOR = "\\u2029".getBytes();
+    private static final byte[][] ESCAPES = new byte[128][];
+    static {
+        for (int i = 0; i < 0x20; i++) {
+            ESCAPES[i] = String.format("\\u%04x", i).getBytes();
+        }
+        ESCAPES['"'] = "\\\"".getBytes();
+        ESCAPES['\\'] = "\\\\".getBytes();
+        ESCAPES['\t'] = "\\t".getBytes();
+        ESCAPES['\b'] = "\\b".getBytes();
+        ESCAPES['\n'] = "\\n".getBytes();
+        ESCAPES['\r'] = "\\r".getBytes();
+        ESCAPES['\f'] = "\\f".getBytes();
+        // html safe, as Gson by default
+        ESCAPES['<'] = "\\u003c".getBytes();
+        ESCAPES['>'] = "\\u003e".getBytes();
+        ESCAPES['&'] = "\\u0026".getBytes();
+        ESCAPES['='] = "\\u003d".getBytes();
+        ESCAPES['\''] = "\\u0027".getBytes();
+    }
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int length = 0;
+
+    private final UTF8BytesRef utf8Ref = new UTF8BytesRef();
+    private final List<Level> levels = new ArrayList<>();
+    // quoted and escaped field names followed by a colon, by field id
+    private byte[][] nameBytes = new byte[256][];
+
+    /**
+     * per nesting level state, so that recursion into sub-records does not
+     * disturb the iteration of the enclosing record.
+     */
+    private static class Level {
+        final FieldIterator fields = new FieldIterator();
+        final FieldIterator others = new FieldIterator();
+        final Record subrec = new Record();
+        // occurrences by field id, valid only where stamps[fid] == stamp
+        int[] counts = new int[256];
+        int[] records = new int[256];
+        int[] stamps = new int[256];
+        int stamp = 0;
+
+        void ensure(short fid) {
+            if (fid >= counts.length) {
+                int newlen = Math.max(fid + 1, counts.length * 2);
+                counts = Arrays.copyOf(counts, newlen);
+                records = Arrays.copyOf(records, newlen);
+                stamps = Arrays.copyOf(stamps, newlen);
+            }
+        }
+    }
+
+    /**
+     * append the Json representation of the record to the buffer
+     *
+     * @param rec
+     * @throws IOException
+     */
+    public void serialize(Record rec) throws IOException {
+        serializeRecord(rec, 0);
+    }
+
+    /**
+     * append a single (ascii) byte to the buffer, e.g. a separator
+     *
+     * @param b
+     */
+    public void append(char b) {
+        ensure(1);
+        buffer[length++] = (byte)b;
+    }
+
+    /**
+     *
+     * @return number of bytes currently buffered
+     */
+    public int size() {
+        return length;
+    }
+
+    /**
+     * write the buffered bytes to the stream and reset the buffer
+     *
+     * @param os
+     * @throws IOException
+     */
+    public void flushTo(OutputStream os) throws IOException {
+        os.write(buffer, 0, length);
+        length = 0;
+    }
+
+    private Level getLevel(int level) {
+        while (levels.size() <= level) {
+            levels.add(new Level());
+        }
+
+        return levels.get(level);
+    }
+
+    private void serializeRecord(Record record, int level) throws IOException {
+        Level lev = getLevel(level);
+        FieldIterator fields = lev.fields;
+        int stamp = ++lev.stamp;
+
+        // first pass counts occurrences so duplicates can be gathered
+        fields.init(record);
+        while (fields.next()) {
+            short fid = fields.getId();
+            lev.ensure(fid);
+            if (lev.stamps[fid] != stamp) {
+                lev.stamps[fid] = stamp;
+                lev.counts[fid] = 0;
+                lev.records[fid] = 0;
+            }
+
+            lev.counts[fid]++;
+            if (fields.getType() == FieldType.RECORD) {
+                lev.records[fid]++;
+            }
+        }
+
+        append('{');
+        boolean first = true;
+        fields.init(record);
+        while (fields.next()) {
+            short fid = fields.getId();
+            int count = lev.counts[fid];
+            if (count == 0) continue; // already written as part of an array
+            lev.counts[fid] = 0;
+
+            boolean asArray = count > 1 || lev.records[fid] != 0;
+            if (!asArray && isNull(fields)) continue; // Gson drops single null values
+
+            if (!first) append(',');
+            first = false;
+            appendName(fid);
+
+            if (!asArray) {
+                appendValue(fields, level);
+                continue;
+            }
+
+            append('[');
+            appendValue(fields, level);
+            if (count > 1) {
+                // gather the remaining occurrences which follow the current position
+                FieldIterator others = lev.others;
+                others.init(record);
+                boolean past = false;
+                while (others.next()) {
+                    if (others.getId() != fid) continue;
+                    if (!past) { // skip the occurrence already written
+                        past = true;
+                        continue;
+                    }
+
+                    append(',');
+                    appendValue(others, level);
+                }
+            }
+
+            append(']');
+        }
+
+        append('}');
+    }
+
+    private boolean isNull(FieldIterator fields) {
+        switch (fields.getType()) {
+        case RECORD:
+        case LONG:
+        case DOUBLE:
+        case STRING:
+        case BOOLEAN:
+            return false;
+        default:
+            return true;
+        }
+    }
+
+    private void appendValue(FieldIterator fields, int level) throws IOException {
+        switch (fields.getType()) {
+        case RECORD:
+            // the sub-record is copied into the next level's record so the
+            // iterators of this level remain valid.
+            Record subrec = getLevel(level + 1).subrec;
+            fields.getValueAsRecord(subrec);
+            serializeRecord(subrec, level + 1);
+            break;
+        case LONG:
+            appendLong(fields.getValueAsLong());
+            break;
+        case DOUBLE:
+            appendDouble(fields.getValueAsDouble());
+            break;
+        case STRING:
+            fields.getValueAsUTF8BytesRef(utf8Ref);
+            appendString(utf8Ref.buffer(), utf8Ref.offset(), utf8Ref.size());
+            break;
+        case BOOLEAN:
+            appendBytes(fields.getValueAsBoolean() ? TRUE : FALSE);
+            break;
+        default:
+            appendBytes(NULL);
+        }
+    }
+
+    private void appendName(short fid) throws IOException {
+        if (fid >= nameBytes.length) {
+            nameBytes = Arrays.copyOf(nameBytes, Math.max(fid + 1, nameBytes.length * 2));
+        }
+
+        byte[] name = nameBytes[fid];
+        if (name == null) {
+            int start = length;
+            byte[] utf8 = ThreadDefs.get().getName(fid).getBytes("UTF-8");
+            appendString(utf8, 0, utf8.length);
+            append(':');
+            name = Arrays.copyOfRange(buffer, start, length);
+            nameBytes[fid] = name;
+            return;
+        }
+
+        appendBytes(name);
+    }
+
+    private void appendLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            appendAscii(Long.toString(value));
+            return;
+        }
+
+        ensure(20);
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+
+        int start = length;
+        do {
+            buffer[length++] = (byte)('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+
+        // reverse the digits in place
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte t = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = t;
+        }
+    }
+
+    private void appendDouble(double value) {
+        double abs = Math.abs(value);
+        // within this range Double.toString agrees with BigDecimal.toString
+        if (abs >= 1e-3 && abs < 1e7) {
+            appendAscii(Double.toString(value));
+        } else {
+            // Turn off scientific notation as JsonSerializer does
+            appendAscii(BigDecimal.valueOf(value).toString());
+        }
+    }
+
+    private void appendAscii(String s) {
+        int len = s.length();
+        ensure(len);
+        for (int i = 0; i < len; i++) {
+            buffer[length++] = (byte)s.charAt(i);
+        }
+    }
+
+    private void appendBytes(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    /**
+     * append quoted and escaped utf8 bytes
+     */
+    private void appendString(byte[] bytes, int offset, int len) {
+        ensure(len + 2);
+        buffer[length++] = '"';
+
+        int end = offset + len;
+        int run = offset; // start of bytes not yet copied
+        for (int i = offset; i < end; i++) {
+            int b = bytes[i] & 0xff;
+            byte[] escape = null;
+            int skip = 0;
+            if (b < 0x80) {
+                escape = ESCAPES[b];
+            } else if (b == 0xE2 && i + 2 < end && bytes[i + 1] == (byte)0x80 &&
+                    (bytes[i + 2] == (byte)0xA8 || bytes[i + 2] == (byte)0xA9)) {
+                // U+2028 and U+2029 are escaped by Gson
+                escape = bytes[i + 2] == (byte)0xA8 ? LINE_SEPARATOR : PARAGRAPH_SEPARATOR;
+                skip = 2;
+            }
+
+            if (escape == null) continue;
+
+            appendRun(bytes, run, i - run);
+            appendBytes(escape);
+            i += skip;
+            run = i + 1;
+        }
+
+        appendRun(bytes, run, end - run);
+        append('"');
+    }
+
+    private void appendRun(byte[] bytes, int offset, int len) {
+        if (len <= 0) return;
+        ensure(len);
+        System.arraycopy(bytes, offset, buffer, length, len);
+        length += len;
+    }
+
+    private void ensure(int add) {
+        if (length + add > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(length + add, buffer.length * 2));
+        }
+    }
+}
@@ -5,6 +5,9 @@ import com.amazon.djk.expression.Param;
 import com.amazon.djk.file.FormatArgs;
 import com.amazon.djk.file.SourceProperties;
 import com.amazon.djk.manual.Description;
+import com.amazon.djk.record.FieldPredicate;
+import com.amazon.djk.record.FieldProjection;
+import com.amazon.djk.record.FieldType;
 import com.amazon.djk.record.Fields;
 import com.amazon.djk.record.Record;
 import com.google.common.base.Strings;
@@ -12,6 +15,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 public class TSVFormatParser extends ReaderFormatParser {
@@ -23,9 +29,19 @@ public class TSVFormatParser extends ReaderFormatParser {
     public final static  String FORMAT = "tsv";
     public final static String DEFAULT_DELIMITER = "\t";
 
+    private final FormatArgs args;
+    private final String delim;
     private final String valueSplitRegex;
     private final Fields fields;
     private final Boolean noEmpty;
+    private final Map<String,FieldType> recordedTypes;
+    private final FieldTypeSchema schema; // null to guess all values
+    private FieldType[] columnTypes = null;
+    private FieldProjection projection = null;
+    private boolean[] wantedColumns = null; // null for all
+    private FieldPredicate predicate = null;
+    private int[] predicateColumns = null; // ascending, null for no predicate
+    private final Record probe = new Record();
 
     private final Record rec = new Record();
     private String[] fieldNames = null;
@@ -35,15 +51,20 @@ public class TSVFormatParser extends ReaderFormatParser {
      * root constructor
      *
      * @param args
+     * @param recordedTypes field types from source.properties, if empty types are sampled
+     * when the inferTypes param is set
      * @throws IOException
      */
-    public TSVFormatParser(FormatArgs args) throws IOException {
-        String delim = (String) args.getParam(DELIM_PARAM);
+    public TSVFormatParser(FormatArgs args, Map<String,FieldType> recordedTypes) throws IOException {
+        this.args = args;
+        this.delim = (String) args.getParam(DELIM_PARAM);
         // converting the delimiter to an actual regex so that we handle regex escape characters -
         // eg. \t => \Q    \E
         this.valueSplitRegex = Pattern.quote(delim);
         this.fields = (Fields) args.getParam(FIELDS_PARAM);
         this.noEmpty = (Boolean) args.getParam(NOEMPTY_PARAM);
+        this.recordedTypes = (Boolean) args.getParam(FormatOperator.INFER_TYPES) ? recordedTypes : null;
+        this.schema = this.recordedTypes != null ? new FieldTypeSchema(this.recordedTypes, FieldTypeSchema.DEFAULT_SAMPLE_RECS) : null;
     }
 
     /**
@@ -53,13 +74,22 @@ public class TSVFormatParser extends ReaderFormatParser {
      * @throws IOException
      */
     public TSVFormatParser(TSVFormatParser root) throws IOException {
+        this.args = root.args;
+        this.delim = root.delim;
         this.valueSplitRegex = root.valueSplitRegex;
         this.fields = root.fields;
         this.noEmpty = root.noEmpty;
+        this.recordedTypes = root.recordedTypes;
+        this.schema = recordedTypes != null ? new FieldTypeSchema(recordedTypes, FieldTypeSchema.DEFAULT_SAMPLE_RECS) : null;
     }
 
     @Override
     public void initialize(PushbackLineReader reader) throws IOException {
+        columnTypes = null;
+        projection = null;
+        wantedColumns = null;
+        predicate = null;
+        predicateColumns = null;
         if (fields != null) { // fields param?
             fieldNames = fields.getFieldNames().toArray(new String[] {});
         }
@@ -93,22 +123,186 @@ public class TSVFormatParser extends ReaderFormatParser {
                 continue;
             }
 
-            // -1, keep space at end
-            String[] values = line.split(valueSplitRegex, -1);
-            if (values.length != fieldNames.length) {
-                throw new FormatException(String.format("lineNumber=%d contains %d columns, header contains %d", lineNumber, values.length, fieldNames.length));
+            boolean sampling = schema != null && schema.isSampling();
+            if (schema != null && !sampling && columnTypes == null) {
+                columnTypes = new FieldType[fieldNames.length];
+                for (int i = 0; i < fieldNames.length; i++) {
+                    columnTypes[i] = schema.getConversionType(fieldNames[i]);
+                }
             }
 
-            for (int i = 0; i < fieldNames.length; i++) {
-                if (!noEmpty || values[i].length() != 0) {
-                    rec.addFieldTyped(fieldNames[i], values[i]);
+            FieldProjection current = args.getProjection();
+            if (current != projection) {
+                setProjection(current);
+            }
+
+            FieldPredicate currentPredicate = args.getPredicate();
+            if (currentPredicate != predicate) {
+                setPredicate(currentPredicate);
+            }
+
+            if (predicateColumns != null) {
+                // malformed lines are reported whether or not the predicate accepts them
+                int numColumns = countColumns(line);
+                if (numColumns != fieldNames.length) {
+                    throw new FormatException(String.format("lineNumber=%d contains %d columns, header contains %d", lineNumber, numColumns, fieldNames.length));
+                }
+
+                if (!accepts(line, sampling)) {
+                    if (sampling) {
+                        sample(line);
+                    }
+
+                    lineNumber++;
+                    continue;
+                }
+            }
+
+            if (wantedColumns != null) {
+                addProjected(line, sampling);
+            }
+
+            else {
+                // -1, keep space at end
+                String[] values = line.split(valueSplitRegex, -1);
+                if (values.length != fieldNames.length) {
+                    throw new FormatException(String.format("lineNumber=%d contains %d columns, header contains %d", lineNumber, values.length, fieldNames.length));
+                }
+
+                for (int i = 0; i < fieldNames.length; i++) {
+                    addValue(i, values[i], sampling);
                 }
             }
+
+            if (sampling) {
+                schema.sampled();
+            }
             
             return rec;
         }
     }
 
+    private void setProjection(FieldProjection projection) {
+        this.projection = projection;
+        wantedColumns = null;
+        if (projection == null) return;
+
+        wantedColumns = new boolean[fieldNames.length];
+        for (int i = 0; i < fieldNames.length; i++) {
+            wantedColumns[i] = projection.wants(fieldNames[i]);
+        }
+    }
+
+    private void setPredicate(FieldPredicate predicate) {
+        this.predicate = predicate;
+        predicateColumns = null;
+        if (predicate == null) return;
+
+        // the conditional sees the first of same named columns
+        List<Integer> columns = new ArrayList<>();
+        for (String name : predicate.getFieldNames()) {
+            for (int i = 0; i < fieldNames.length; i++) {
+                if (fieldNames[i].equals(name)) {
+                    columns.add(i);
+                    break;
+                }
+            }
+        }
+
+        predicateColumns = columns.stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    private int countColumns(String line) {
+        int count = 1;
+        int end = line.indexOf(delim);
+        while (end != -1) {
+            count++;
+            end = line.indexOf(delim, end + delim.length());
+        }
+
+        return count;
+    }
+
+    /**
+     * samples the types of a line the predicate rejected, so that the schema
+     * sees the same records with or without a predicate
+     */
+    private void sample(String line) {
+        String[] values = line.split(valueSplitRegex, -1);
+        for (int i = 0; i < fieldNames.length; i++) {
+            if (wantedColumns != null && !wantedColumns[i]) continue;
+            if (noEmpty && values[i].length() == 0) continue;
+            schema.sample(fieldNames[i], values[i]);
+        }
+
+        schema.sampled();
+    }
+
+    /**
+     * evaluates the predicate on the columns it references only, extracting no
+     * column past the last of them.
+     */
+    private boolean accepts(String line, boolean sampling) throws IOException {
+        probe.reset();
+        int start = 0;
+        int column = 0;
+        for (int predicateColumn : predicateColumns) {
+            while (column < predicateColumn) {
+                int end = line.indexOf(delim, start);
+                if (end == -1) return true; // columns are counted before
+                start = end + delim.length();
+                column++;
+            }
+
+            int end = line.indexOf(delim, start);
+            String value = line.substring(start, end == -1 ? line.length() : end);
+            if (noEmpty && value.length() == 0) continue;
+
+            // typed as the record itself will be
+            if (sampling || columnTypes == null) {
+                ReaderFormatParser.addPrimitiveValue(probe, fieldNames[column], value);
+            } else {
+                FieldTypeSchema.addTyped(probe, fieldNames[column], columnTypes[column], value);
+            }
+        }
+
+        return predicate.accepts(probe);
+    }
+
+    /**
+     * adds the wanted columns only, the others are not extracted
+     */
+    private void addProjected(String line, boolean sampling) throws FormatException, IOException {
+        int start = 0;
+        int column = 0;
+        while (true) {
+            int end = line.indexOf(delim, start);
+            if (column < fieldNames.length && wantedColumns[column]) {
+                addValue(column, line.substring(start, end == -1 ? line.length() : end), sampling);
+            }
+
+            column++;
+            if (end == -1) break;
+            start = end + delim.length();
+        }
+
+        if (column != fieldNames.length) {
+            throw new FormatException(String.format("lineNumber=%d contains %d columns, header contains %d", lineNumber, column, fieldNames.length));
+        }
+    }
+
+    private void addValue(int column, String value, boolean sampling) throws IOException {
+        if (noEmpty && value.length() == 0) return;
+
+        if (schema == null) {
+            rec.addFieldTyped(fieldNames[column], value);
+        } else if (sampling) {
+            schema.add(rec, fieldNames[column], value);
+        } else {
+            FieldTypeSchema.addTyped(rec, fieldNames[column], columnTypes[column], value);
+        }
+    }
+
     @Override
     public Object replicate() throws IOException {
         return new TSVFormatParser(this);
@@ -129,7 +323,7 @@ public class TSVFormatParser extends ReaderFormatParser {
         @Override
         public FormatParser getParser(SourceProperties props) throws IOException {
             FormatArgs args = props.getAccessArgs();
-            return new TSVFormatParser(args);
+            return new TSVFormatParser(args, props.getFieldTypes());
         }
     }
 }
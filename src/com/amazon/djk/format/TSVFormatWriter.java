@@ -26,7 +26,11 @@ public class TSVFormatWriter extends FormatWriter {
     protected final String delim;
 	
 	public TSVFormatWriter(String delim, File dataFile) throws IOException {
-		super(dataFile);
+		this(delim, dataFile, 0);
+	}
+	
+	public TSVFormatWriter(String delim, File dataFile, int gzipBlockKB) throws IOException {
+		super(dataFile, gzipBlockKB);
 		writer = new PrintWriter(getStream());
 		this.delim = delim;
 	}
@@ -69,6 +73,7 @@ public class TSVFormatWriter extends FormatWriter {
 	public void writeRecord(Record rec) throws IOException {
 		if (fieldNames == null) { // field names are written in the first line
 			writeHeader(rec);
+			endPreamble();
 		}
 
         Iterator<String> it = fieldNames.iterator();
@@ -81,6 +86,11 @@ public class TSVFormatWriter extends FormatWriter {
         writer.println();
 	}
 	
+	@Override
+	protected void flush() {
+		writer.flush();
+	}
+	
 	@Override
 	public void close() {
 		writer.close();
@@ -97,7 +107,7 @@ public class TSVFormatWriter extends FormatWriter {
 		@Override
 		public FormatWriter getWriter(FormatArgs args, File dataFile) throws IOException {
 			String delim = (String) args.getParam(DELIM_PARAM);
-			return new TSVFormatWriter(delim, dataFile);
+			return new TSVFormatWriter(delim, dataFile, getGzipBlockKB(args));
 		}
 	}
 }
@@ -11,13 +11,19 @@ import com.amazon.djk.file.FormatArgs;
 
 @Arg(name="PATH", gloss="the location of the data store.  Use an extension hint to specify the format.", type=ArgType.STRING, eg="tsv")
 @Param(name=WriterOperator.USE_GZIP_PARAM, gloss="If false, data written in clear text.", type=ArgType.BOOLEAN, defaultValue = "true")
+@Param(name=WriterOperator.GZIP_BLOCK_KB_PARAM, gloss="If greater than zero, gzipped files are written as independent blocks of this many kilobytes, compressed in parallel.  Such files can be decompressed in parallel and split across read threads.", type=ArgType.INTEGER, defaultValue = "0")
+@Param(name=WriterOperator.ASYNC_WRITE_PARAM, gloss="If true, records are formatted, compressed and written by a separate writer thread per sink thread.", type=ArgType.BOOLEAN, defaultValue = "false")
+@Param(name=WriterOperator.ROLL_MB_PARAM, gloss="If greater than zero, each sink thread closes its data file and continues with the next numbered file when the file reaches this many megabytes.", type=ArgType.INTEGER, defaultValue = "0")
 @Param(name=WriterOperator.AS_FILE_PARAM, gloss="If true, a single file will be created by a single thread.", type=ArgType.BOOLEAN, defaultValue = "false")
 @Param(name=WriterOperator.OVERWRITE_PARAM, gloss="If true, previous data will be overwritten.", type=ArgType.BOOLEAN, defaultValue = "false")
 @Param(name=WriterOperator.PATH_REDUCER_INSTANCE_PARAM, gloss="If a path-reducer-instance name is provided, a reducer producing a single record with a 'path' field is created", type=ArgType.STRING)
 public abstract class WriterOperator extends FileOperator {
 	public final static String AS_FILE_PARAM = "asFile";
 	public final static String USE_GZIP_PARAM = "gzip";
+	public final static String GZIP_BLOCK_KB_PARAM = "gzipBlockKB";
 	public final static String OVERWRITE_PARAM = "overwrite";
+	public final static String ASYNC_WRITE_PARAM = "asyncWrite";
+	public final static String ROLL_MB_PARAM = "rollMB";
 	public final static String PATH_REDUCER_INSTANCE_PARAM = "pri";
 	
 	public WriterOperator(String format, String streamFileRegex) {
@@ -25,4 +31,29 @@ public abstract class WriterOperator extends FileOperator {
 	}
 	
 	public abstract FormatWriter getWriter(FormatArgs args, File dataFile) throws IOException;
+	
+	/**
+	 * 
+	 * @param args
+	 * @return true if data files are to be gzipped as a whole (i.e. with the .gz suffix)
+	 * @throws IOException
+	 */
+	public boolean useFileGzip(FormatArgs args) throws IOException {
+		return (Boolean)args.getParam(USE_GZIP_PARAM, true);
+	}
+	
+	/**
+	 * 
+	 * @param args
+	 * @return the block size in kilobytes of block gzip files or 0 for whole file gzip
+	 * @throws IOException
+	 */
+	protected int getGzipBlockKB(FormatArgs args) throws IOException {
+		Integer blockKB = (Integer)args.getParam(GZIP_BLOCK_KB_PARAM, 0);
+		if (blockKB < 0) {
+			throw new IOException(GZIP_BLOCK_KB_PARAM + " must not be negative");
+		}
+		
+		return blockKB;
+	}
 }
@@ -13,6 +13,17 @@ public class CodeObject extends SimpleJavaFileObject {
         super(new URI(className), Kind.CLASS);
     }
 
+    /**
+     * 
+     * @param className
+     * @param byteCode previously compiled byte code
+     * @throws Exception
+     */
+    public CodeObject(String className, byte[] byteCode) throws Exception {
+        this(className);
+        baos.write(byteCode);
+    }
+
     @Override
 	public OutputStream openOutputStream() throws IOException {
         return baos;
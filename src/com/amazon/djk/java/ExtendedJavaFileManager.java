@@ -5,10 +5,12 @@ import javax.tools.ForwardingJavaFileManager;
 import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
 
 public class ExtendedJavaFileManager extends ForwardingJavaFileManager<JavaFileManager> {
 
-    private CodeObject compiledCode;
+    private final Map<String,CodeObject> compiledCodes;
     private DynamicClassLoader cl;
 
     /**
@@ -18,14 +20,31 @@ public class ExtendedJavaFileManager extends ForwardingJavaFileManager<JavaFileM
      * @param cl
      */
     protected ExtendedJavaFileManager(JavaFileManager fileManager, CodeObject compiledCode, DynamicClassLoader cl) {
+        this(fileManager, Collections.singletonMap(compiledCode.getName(), compiledCode), cl);
+    }
+
+    /**
+     * 
+     * @param fileManager delegate to this file manager
+     * @param compiledCodes the output of each class by class name
+     * @param cl
+     */
+    protected ExtendedJavaFileManager(JavaFileManager fileManager, Map<String,CodeObject> compiledCodes, DynamicClassLoader cl) {
         super(fileManager);
-        this.compiledCode = compiledCode;
+        this.compiledCodes = compiledCodes;
         this.cl = cl;
-        this.cl.setCode(compiledCode);
+        for (CodeObject compiledCode : compiledCodes.values()) {
+            this.cl.setCode(compiledCode);
+        }
     }
 
     @Override
 	public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+        CodeObject compiledCode = compiledCodes.get(className);
+        if (compiledCode == null) {
+            throw new IOException("unexpected class output: " + className);
+        }
+
         return compiledCode;
     }
 
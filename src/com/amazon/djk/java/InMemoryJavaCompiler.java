@@ -8,7 +8,9 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 
@@ -18,9 +20,49 @@ public class InMemoryJavaCompiler {
     static JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
 
     public static Class<?> compile(String className, String sourceCodeInText) throws Exception {
-        SourceCode sourceCode = new SourceCode(className, sourceCodeInText);
-        CodeObject compiledCode = new CodeObject(className);
-        Iterable<? extends JavaFileObject> compilationUnits = Arrays.asList(sourceCode);
+        return define(compileToCode(className, sourceCodeInText));
+    }
+
+    /**
+     * 
+     * @param compiledCode
+     * @return the class defined in a new class loader
+     * @throws ClassNotFoundException
+     */
+    public static Class<?> define(CodeObject compiledCode) throws ClassNotFoundException {
+        ClassLoader threadLoader = Thread.currentThread().getContextClassLoader();
+        DynamicClassLoader dcl = new DynamicClassLoader(threadLoader);
+        dcl.setCode(compiledCode);
+        return dcl.loadClass(compiledCode.getName());
+    }
+
+    /**
+     * 
+     * @param className
+     * @param sourceCodeInText
+     * @return the byte code of the class
+     * @throws Exception
+     */
+    public static CodeObject compileToCode(String className, String sourceCodeInText) throws Exception {
+        Map<String,String> sources = new LinkedHashMap<>();
+        sources.put(className, sourceCodeInText);
+        return compileToCode(sources).get(className);
+    }
+
+    /**
+     * compiles several classes with a single compilation task
+     * 
+     * @param sources source code by fully qualified class name
+     * @return the byte code by class name
+     * @throws Exception if any class fails to compile
+     */
+    public static Map<String,CodeObject> compileToCode(Map<String,String> sources) throws Exception {
+        List<JavaFileObject> compilationUnits = new ArrayList<>();
+        Map<String,CodeObject> compiledCodes = new LinkedHashMap<>();
+        for (Map.Entry<String,String> source : sources.entrySet()) {
+            compilationUnits.add(new SourceCode(source.getKey(), source.getValue()));
+            compiledCodes.put(source.getKey(), new CodeObject(source.getKey()));
+        }
         
         ClassLoader threadLoader = Thread.currentThread().getContextClassLoader();
         DynamicClassLoader dcl = new DynamicClassLoader(threadLoader);
@@ -40,16 +82,15 @@ public class InMemoryJavaCompiler {
         StringWriter stringWriter = new StringWriter();
         PrintWriter printWriter = new PrintWriter(stringWriter);
         
-        ExtendedJavaFileManager fileManager = new ExtendedJavaFileManager(javac.getStandardFileManager(null, null, null), compiledCode, dcl);
+        ExtendedJavaFileManager fileManager = new ExtendedJavaFileManager(javac.getStandardFileManager(null, null, null), compiledCodes, dcl);
         JavaCompiler.CompilationTask task = javac.getTask(printWriter, fileManager, null, options, null, compilationUnits);
         if (task.call()) {
-            Class<?> retClazz = dcl.loadClass(className);
-            return retClazz;
+            return compiledCodes;
         } 
         
         else {
             String errorOutput = stringWriter.getBuffer().toString();
-            throw new Exception("unable to compile: " + errorOutput + "\ndynamic code=\n"+sourceCodeInText);
+            throw new Exception("unable to compile: " + errorOutput + "\ndynamic code=\n"+String.join("\n", sources.values()));
         }
     }
 }
@@ -0,0 +1,707 @@
+package com.amazon.djk.java;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import com.amazon.djk.record.Record;
+
+/**
+ * A ValueFunction for simple DJK-Java, evaluated by a tree of nodes instead of
+ * a class compiled by javac.  The subset covers l. d. b. and s. field references,
+ * int, long, double, string and boolean literals, arithmetic, string concatenation,
+ * comparisons, boolean operators, parentheses and equals(), e.g. '{l.id == 2;}' or
+ * '{s.color.equals("blue") &amp;&amp; d.val &lt; 0.5;}'.  Evaluation follows java:
+ * the same typing, integer overflow and division, and a null field dereferenced
+ * or unboxed throws a NullPointerException.  Anything else is left to
+ * ValueFunctionClassFactory.
+ *
+ * Interpretation is disabled by setting the system property djk.value.interpret=false.
+ */
+public class InterpretedValueFunction extends ValueFunction {
+    public static final String INTERPRET_PROPERTY = "djk.value.interpret";
+    // as interpreted by ValueFunctionClassFactory, inside string literals too
+    private final static Pattern fieldPat = Pattern.compile("(?<=^|[^a-zA-Z0-9_])[PRldbsr]\\.\\w+");
+    private final static Set<String> keywords = new HashSet<>(Arrays.asList(
+        "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+        "continue", "default", "do", "double", "else", "enum", "extends", "final", "finally", "float",
+        "for", "goto", "if", "implements", "import", "instanceof", "int", "interface", "long", "native",
+        "new", "package", "private", "protected", "public", "return", "short", "static", "strictfp", "super",
+        "switch", "synchronized", "this", "throw", "throws", "transient", "try", "void", "volatile", "while",
+        "true", "false", "null", "var", "rec"));
+    private enum Type {INT, LONG, DOUBLE, BOOLEAN, STRING};
+
+    private final Node root;
+
+    /**
+     * thrown when the code is outside of the interpreted subset
+     */
+    private static class Unsupported extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private InterpretedValueFunction(Node root) {
+        this.root = root;
+    }
+
+    /**
+     *
+     * @param djkJavaRhs the code within the braces of a value
+     * @return the function or null if the code is not within the subset
+     */
+    public static InterpretedValueFunction create(String djkJavaRhs) {
+        if (!Boolean.parseBoolean(System.getProperty(INTERPRET_PROPERTY, "true"))) return null;
+
+        try {
+            Parser parser = new Parser(tokenize(djkJavaRhs));
+            return new InterpretedValueFunction(parser.parse());
+        } catch (Unsupported e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Object get(Record rec) throws IOException {
+        return root.eval(rec);
+    }
+
+    /**
+     * a node of the expression tree.  The typed methods unbox as java would.
+     */
+    private static abstract class Node {
+        final Type type;
+        final boolean boxed; // a field reference, i.e. a wrapper object that may be null
+
+        Node(Type type, boolean boxed) {
+            this.type = type;
+            this.boxed = boxed;
+        }
+
+        abstract Object eval(Record rec) throws IOException;
+
+        int asInt(Record rec) throws IOException {
+            return (Integer)eval(rec);
+        }
+
+        long asLong(Record rec) throws IOException {
+            return type == Type.INT ? asInt(rec) : (Long)eval(rec);
+        }
+
+        double asDouble(Record rec) throws IOException {
+            switch (type) {
+            case INT: return asInt(rec);
+            case LONG: return asLong(rec);
+            default: return (Double)eval(rec);
+            }
+        }
+
+        boolean asBoolean(Record rec) throws IOException {
+            return (Boolean)eval(rec);
+        }
+
+        boolean isNumeric() {
+            return type == Type.INT || type == Type.LONG || type == Type.DOUBLE;
+        }
+    }
+
+    /**
+     * a node computing a primitive, boxed only when its value is returned as an Object
+     */
+    private static abstract class PrimitiveNode extends Node {
+        PrimitiveNode(Type type) {
+            super(type, false);
+        }
+
+        @Override
+        Object eval(Record rec) throws IOException {
+            switch (type) {
+            case INT: return asInt(rec);
+            case LONG: return asLong(rec);
+            case DOUBLE: return asDouble(rec);
+            default: return asBoolean(rec);
+            }
+        }
+    }
+
+    private static class Literal extends Node {
+        private final Object value;
+
+        Literal(Type type, Object value) {
+            super(type, false);
+            this.value = value;
+        }
+
+        @Override
+        Object eval(Record rec) {
+            return value;
+        }
+    }
+
+    private static class FieldRef extends Node {
+        private final String name;
+
+        FieldRef(Type type, String name) {
+            super(type, true);
+            this.name = name;
+        }
+
+        @Override
+        Object eval(Record rec) throws IOException {
+            switch (type) {
+            case LONG: return rec.getFirstAsLong(name);
+            case DOUBLE: return rec.getFirstAsDouble(name);
+            case BOOLEAN: return rec.getFirstAsBoolean(name);
+            default: return rec.getFirstAsString(name);
+            }
+        }
+    }
+
+    private static class Parens extends Node {
+        private final Node inner;
+
+        Parens(Node inner) {
+            super(inner.type, inner.boxed);
+            this.inner = inner;
+        }
+
+        @Override
+        Object eval(Record rec) throws IOException {
+            return inner.eval(rec);
+        }
+    }
+
+    private static class Arithmetic extends PrimitiveNode {
+        private final char op;
+        private final Node left;
+        private final Node right;
+
+        Arithmetic(char op, Node left, Node right) {
+            super(promote(left, right));
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        int asInt(Record rec) throws IOException {
+            int a = left.asInt(rec);
+            int b = right.asInt(rec);
+            switch (op) {
+            case '+': return a + b;
+            case '-': return a - b;
+            case '*': return a * b;
+            case '/': return a / b;
+            default: return a % b;
+            }
+        }
+
+        @Override
+        long asLong(Record rec) throws IOException {
+            if (type == Type.INT) return asInt(rec);
+            long a = left.asLong(rec);
+            long b = right.asLong(rec);
+            switch (op) {
+            case '+': return a + b;
+            case '-': return a - b;
+            case '*': return a * b;
+            case '/': return a / b;
+            default: return a % b;
+            }
+        }
+
+        @Override
+        double asDouble(Record rec) throws IOException {
+            if (type != Type.DOUBLE) return asLong(rec);
+            double a = left.asDouble(rec);
+            double b = right.asDouble(rec);
+            switch (op) {
+            case '+': return a + b;
+            case '-': return a - b;
+            case '*': return a * b;
+            case '/': return a / b;
+            default: return a % b;
+            }
+        }
+    }
+
+    private static class Negate extends PrimitiveNode {
+        private final Node operand;
+
+        Negate(Node operand) {
+            super(operand.type);
+            this.operand = operand;
+        }
+
+        @Override
+        int asInt(Record rec) throws IOException {
+            return -operand.asInt(rec);
+        }
+
+        @Override
+        long asLong(Record rec) throws IOException {
+            return type == Type.INT ? asInt(rec) : -operand.asLong(rec);
+        }
+
+        @Override
+        double asDouble(Record rec) throws IOException {
+            return type != Type.DOUBLE ? asLong(rec) : -operand.asDouble(rec);
+        }
+    }
+
+    private static class Concat extends Node {
+        private final Node left;
+        private final Node right;
+
+        Concat(Node left, Node right) {
+            super(Type.STRING, false);
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object eval(Record rec) throws IOException {
+            String a = String.valueOf(left.eval(rec));
+            return a + String.valueOf(right.eval(rec));
+        }
+    }
+
+    private static class Compare extends PrimitiveNode {
+        private final String op;
+        private final Node left;
+        private final Node right;
+        private final Type operandType;
+
+        Compare(String op, Node left, Node right) {
+            super(Type.BOOLEAN);
+            this.op = op;
+            this.left = left;
+            this.right = right;
+            this.operandType = left.type == Type.BOOLEAN ? Type.BOOLEAN : promote(left, right);
+        }
+
+        @Override
+        boolean asBoolean(Record rec) throws IOException {
+            int cmp;
+            switch (operandType) {
+            case BOOLEAN:
+                boolean equal = left.asBoolean(rec) == right.asBoolean(rec);
+                return op.equals("==") ? equal : !equal;
+
+            case DOUBLE:
+                double da = left.asDouble(rec);
+                double db = right.asDouble(rec);
+                // NaN compares false, except for !=
+                switch (op) {
+                case "==": return da == db;
+                case "!=": return da != db;
+                case "<": return da < db;
+                case "<=": return da <= db;
+                case ">": return da > db;
+                default: return da >= db;
+                }
+
+            default:
+                cmp = Long.compare(left.asLong(rec), right.asLong(rec));
+            }
+
+            switch (op) {
+            case "==": return cmp == 0;
+            case "!=": return cmp != 0;
+            case "<": return cmp < 0;
+            case "<=": return cmp <= 0;
+            case ">": return cmp > 0;
+            default: return cmp >= 0;
+            }
+        }
+    }
+
+    private static class Logical extends PrimitiveNode {
+        private final boolean isAnd;
+        private final Node left;
+        private final Node right;
+
+        Logical(boolean isAnd, Node left, Node right) {
+            super(Type.BOOLEAN);
+            this.isAnd = isAnd;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean asBoolean(Record rec) throws IOException {
+            return isAnd ? left.asBoolean(rec) && right.asBoolean(rec) :
+                left.asBoolean(rec) || right.asBoolean(rec);
+        }
+    }
+
+    private static class Not extends PrimitiveNode {
+        private final Node operand;
+
+        Not(Node operand) {
+            super(Type.BOOLEAN);
+            this.operand = operand;
+        }
+
+        @Override
+        boolean asBoolean(Record rec) throws IOException {
+            return !operand.asBoolean(rec);
+        }
+    }
+
+    private static class Equals extends PrimitiveNode {
+        private final Node receiver;
+        private final Node argument;
+
+        Equals(Node receiver, Node argument) {
+            super(Type.BOOLEAN);
+            this.receiver = receiver;
+            this.argument = argument;
+        }
+
+        @Override
+        boolean asBoolean(Record rec) throws IOException {
+            Object obj = receiver.eval(rec);
+            if (obj == null) throw new NullPointerException();
+            return obj.equals(argument.eval(rec));
+        }
+    }
+
+    private static Type promote(Node left, Node right) {
+        if (left.type == Type.DOUBLE || right.type == Type.DOUBLE) return Type.DOUBLE;
+        if (left.type == Type.LONG || right.type == Type.LONG) return Type.LONG;
+        return Type.INT;
+    }
+
+    /**
+     * a lexical token: an operator, a literal, an identifier or a field reference
+     */
+    private static class Token {
+        final char kind; // o=operator, n=number, q=quoted string, i=identifier, f=field
+        final String text;
+        final char fieldType;
+
+        Token(char kind, String text, char fieldType) {
+            this.kind = kind;
+            this.text = text;
+            this.fieldType = fieldType;
+        }
+
+        boolean is(String operator) {
+            return kind == 'o' && text.equals(operator);
+        }
+    }
+
+    private static List<Token> tokenize(String code) throws Unsupported {
+        List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        int len = code.length();
+        while (i < len) {
+            char c = code.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            }
+
+            else if (c == '"') {
+                StringBuilder sb = new StringBuilder();
+                int start = ++i;
+                while (i < len && code.charAt(i) != '"') {
+                    char q = code.charAt(i++);
+                    if (q == '\\') {
+                        if (i == len) throw new Unsupported();
+                        switch (code.charAt(i++)) {
+                        case '"': sb.append('"'); break;
+                        case '\\': sb.append('\\'); break;
+                        case 'n': sb.append('\n'); break;
+                        case 't': sb.append('\t'); break;
+                        default: throw new Unsupported();
+                        }
+                    }
+
+                    else {
+                        sb.append(q);
+                    }
+                }
+
+                if (i == len || fieldPat.matcher(code.substring(start, i)).find()) throw new Unsupported();
+                i++;
+                tokens.add(new Token('q', sb.toString(), ' '));
+            }
+
+            else if (Character.isDigit(c)) {
+                int start = i;
+                while (i < len && (Character.isLetterOrDigit(code.charAt(i)) || code.charAt(i) == '.' ||
+                        ((code.charAt(i) == '-' || code.charAt(i) == '+') &&
+                         (code.charAt(i-1) == 'e' || code.charAt(i-1) == 'E')))) {
+                    i++;
+                }
+
+                tokens.add(new Token('n', code.substring(start, i), ' '));
+            }
+
+            else if (Character.isJavaIdentifierStart(c)) {
+                int start = i;
+                while (i < len && Character.isJavaIdentifierPart(code.charAt(i))) i++;
+                String ident = code.substring(start, i);
+
+                // a field reference, the name has no dots
+                if (ident.length() == 1 && i + 1 < len && code.charAt(i) == '.' && "PRldbsr".indexOf(c) != -1) {
+                    int nameStart = ++i;
+                    while (i < len && Character.isJavaIdentifierPart(code.charAt(i))) i++;
+                    String name = code.substring(nameStart, i);
+                    if (!name.matches("[a-zA-Z_]\\w*") || keywords.contains(name)) throw new Unsupported();
+                    tokens.add(new Token('f', name, c));
+                }
+
+                else {
+                    tokens.add(new Token('i', ident, ' '));
+                }
+            }
+
+            else {
+                String two = i + 1 < len ? code.substring(i, i + 2) : "";
+                switch (two) {
+                case "==": case "!=": case "<=": case ">=": case "&&": case "||":
+                    tokens.add(new Token('o', two, ' '));
+                    i += 2;
+                    continue;
+                }
+
+                if ("<>+-*/%!().;".indexOf(c) == -1) throw new Unsupported();
+                tokens.add(new Token('o', String.valueOf(c), ' '));
+                i++;
+            }
+        }
+
+        return tokens;
+    }
+
+    /**
+     * recursive descent parser with java precedence
+     */
+    private static class Parser {
+        private final List<Token> tokens;
+        private final Map<String,Character> fieldTypes = new HashMap<>();
+        private int pos = 0;
+
+        Parser(List<Token> tokens) {
+            this.tokens = tokens;
+        }
+
+        /**
+         *
+         * @return the root of the single expression statement
+         * @throws Unsupported
+         */
+        Node parse() throws Unsupported {
+            Node root = parseOr();
+            if (pos != tokens.size() - 1 || !peek(";")) throw new Unsupported();
+            return root;
+        }
+
+        private boolean peek(String operator) {
+            return pos < tokens.size() && tokens.get(pos).is(operator);
+        }
+
+        private boolean accept(String operator) {
+            if (!peek(operator)) return false;
+            pos++;
+            return true;
+        }
+
+        private void expect(String operator) throws Unsupported {
+            if (!accept(operator)) throw new Unsupported();
+        }
+
+        private Node parseOr() throws Unsupported {
+            Node left = parseAnd();
+            while (accept("||")) {
+                left = logical(false, left, parseAnd());
+            }
+
+            return left;
+        }
+
+        private Node parseAnd() throws Unsupported {
+            Node left = parseEquality();
+            while (accept("&&")) {
+                left = logical(true, left, parseEquality());
+            }
+
+            return left;
+        }
+
+        private Node logical(boolean isAnd, Node left, Node right) throws Unsupported {
+            if (left.type != Type.BOOLEAN || right.type != Type.BOOLEAN) throw new Unsupported();
+            return new Logical(isAnd, left, right);
+        }
+
+        private Node parseEquality() throws Unsupported {
+            Node left = parseRelational();
+            while (peek("==") || peek("!=")) {
+                String op = tokens.get(pos++).text;
+                Node right = parseRelational();
+
+                // two wrappers compare by reference
+                if (left.boxed && right.boxed) throw new Unsupported();
+                boolean numeric = left.isNumeric() && right.isNumeric();
+                boolean bool = left.type == Type.BOOLEAN && right.type == Type.BOOLEAN;
+                if (!numeric && !bool) throw new Unsupported();
+
+                left = new Compare(op, left, right);
+            }
+
+            return left;
+        }
+
+        private Node parseRelational() throws Unsupported {
+            Node left = parseAdditive();
+            while (peek("<") || peek("<=") || peek(">") || peek(">=")) {
+                String op = tokens.get(pos++).text;
+                Node right = parseAdditive();
+                if (!left.isNumeric() || !right.isNumeric()) throw new Unsupported();
+                left = new Compare(op, left, right);
+            }
+
+            return left;
+        }
+
+        private Node parseAdditive() throws Unsupported {
+            Node left = parseMultiplicative();
+            while (peek("+") || peek("-")) {
+                char op = tokens.get(pos++).text.charAt(0);
+                Node right = parseMultiplicative();
+                if (op == '+' && (left.type == Type.STRING || right.type == Type.STRING)) {
+                    left = new Concat(left, right);
+                }
+
+                else {
+                    left = arithmetic(op, left, right);
+                }
+            }
+
+            return left;
+        }
+
+        private Node parseMultiplicative() throws Unsupported {
+            Node left = parseUnary();
+            while (peek("*") || peek("/") || peek("%")) {
+                char op = tokens.get(pos++).text.charAt(0);
+                left = arithmetic(op, left, parseUnary());
+            }
+
+            return left;
+        }
+
+        private Node arithmetic(char op, Node left, Node right) throws Unsupported {
+            if (!left.isNumeric() || !right.isNumeric()) throw new Unsupported();
+            return new Arithmetic(op, left, right);
+        }
+
+        private Node parseUnary() throws Unsupported {
+            if (accept("!")) {
+                Node operand = parseUnary();
+                if (operand.type != Type.BOOLEAN) throw new Unsupported();
+                return new Not(operand);
+            }
+
+            if (accept("-")) {
+                // leave e.g. -2147483648 to javac
+                if (pos < tokens.size() && tokens.get(pos).kind == 'n') throw new Unsupported();
+                Node operand = parseUnary();
+                if (!operand.isNumeric()) throw new Unsupported();
+                return new Negate(operand);
+            }
+
+            return parsePostfix(parsePrimary());
+        }
+
+        private Node parsePostfix(Node node) throws Unsupported {
+            while (accept(".")) {
+                if (pos >= tokens.size() || !tokens.get(pos).text.equals("equals") || tokens.get(pos).kind != 'i') {
+                    throw new Unsupported();
+                }
+
+                pos++;
+                // primitives have no methods
+                if (!node.boxed && node.type != Type.STRING) throw new Unsupported();
+                expect("(");
+                Node argument = parseOr();
+                expect(")");
+                node = new Equals(node, argument);
+            }
+
+            return node;
+        }
+
+        private Node parsePrimary() throws Unsupported {
+            if (pos >= tokens.size()) throw new Unsupported();
+            Token token = tokens.get(pos++);
+
+            switch (token.kind) {
+            case 'n':
+                return getNumber(token.text);
+
+            case 'q':
+                return new Literal(Type.STRING, token.text);
+
+            case 'i':
+                if (token.text.equals("true")) return new Literal(Type.BOOLEAN, Boolean.TRUE);
+                if (token.text.equals("false")) return new Literal(Type.BOOLEAN, Boolean.FALSE);
+                throw new Unsupported();
+
+            case 'f':
+                return getField(token.fieldType, token.text);
+
+            default:
+                if (!token.is("(")) throw new Unsupported();
+                Node inner = parseOr();
+                expect(")");
+                return new Parens(inner);
+            }
+        }
+
+        private Node getField(char fieldType, String name) throws Unsupported {
+            // the same name declared with two types does not compile
+            Character previous = fieldTypes.put(name, fieldType);
+            if (previous != null && previous != fieldType) throw new Unsupported();
+
+            switch (fieldType) {
+            case 'l': return new FieldRef(Type.LONG, name);
+            case 'd': return new FieldRef(Type.DOUBLE, name);
+            case 'b': return new FieldRef(Type.BOOLEAN, name);
+            case 's': return new FieldRef(Type.STRING, name);
+            default: throw new Unsupported(); // system properties, records and Record methods
+            }
+        }
+
+        private Node getNumber(String text) throws Unsupported {
+            try {
+                if (text.matches("(0|[1-9]\\d*)")) {
+                    return new Literal(Type.INT, Integer.parseInt(text));
+                }
+
+                if (text.matches("(0|[1-9]\\d*)[lL]")) {
+                    return new Literal(Type.LONG, Long.parseLong(text.substring(0, text.length() - 1)));
+                }
+
+                if (text.matches("\\d+(\\.\\d*)?([eE][-+]?\\d+)?[dD]?") && !text.matches("\\d+[lL]?")) {
+                    double d = Double.parseDouble(text);
+                    if (Double.isInfinite(d)) throw new Unsupported();
+                    return new Literal(Type.DOUBLE, d);
+                }
+            }
+
+            catch (NumberFormatException e) {
+                // out of range, left to javac
+            }
+
+            throw new Unsupported();
+        }
+    }
+}
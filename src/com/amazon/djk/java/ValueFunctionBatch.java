@@ -0,0 +1,164 @@
+package com.amazon.djk.java;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the value functions created while an expression is parsed so that
+ * they are compiled together by a single javac task when parsing ends, rather
+ * than one task per function.  Functions created outside of a batch, or used
+ * before their batch ends, are compiled on demand.
+ */
+public class ValueFunctionBatch {
+    private static final ThreadLocal<ValueFunctionBatch> current = new ThreadLocal<>();
+    private final Map<String,Pending> pendings = new LinkedHashMap<>();
+    private int depth = 0;
+
+    /**
+     * a value function class that may not be compiled yet
+     */
+    public static class Pending {
+        private final String className;
+        private final String code;
+        private final ValueFunctionBatch batch;
+        private Class<?> clazz = null;
+        private Exception error = null;
+
+        private Pending(String className, String code, ValueFunctionBatch batch) {
+            this.className = className;
+            this.code = code;
+            this.batch = batch;
+        }
+
+        /**
+         *
+         * @return the compiled class, compiling the pending functions of its batch if need be
+         * @throws Exception if the function does not compile
+         */
+        public Class<?> get() throws Exception {
+            synchronized (batch) {
+                if (clazz == null && error == null) {
+                    batch.compile();
+                }
+
+                if (error != null) throw error;
+                return clazz;
+            }
+        }
+    }
+
+    /**
+     * begins a batch for the current thread, batches nest
+     */
+    public static void begin() {
+        ValueFunctionBatch batch = current.get();
+        if (batch == null) {
+            batch = new ValueFunctionBatch();
+            current.set(batch);
+        }
+
+        batch.depth++;
+    }
+
+    /**
+     * ends the batch of the current thread, compiling its functions once the
+     * outermost batch ends.
+     *
+     * @param compile false to leave the functions to be compiled on demand, e.g. after a parse error
+     * @return the first compilation error or null
+     */
+    public static Exception end(boolean compile) {
+        ValueFunctionBatch batch = current.get();
+        if (batch == null || --batch.depth != 0) return null;
+
+        current.remove();
+        if (!compile) return null;
+
+        synchronized (batch) {
+            batch.compile();
+            for (Pending pending : batch.pendings.values()) {
+                if (pending.error != null) return pending.error;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     *
+     * @param className fully qualified class name
+     * @param code
+     * @return the pending class, compiled later if a batch is active for the current thread
+     * @throws Exception if compiled now and the code does not compile
+     */
+    public static Pending add(String className, String code) throws Exception {
+        ValueFunctionBatch batch = current.get();
+        if (batch == null) {
+            batch = new ValueFunctionBatch();
+            Pending pending = batch.addPending(className, code);
+            pending.get(); // compile now, throwing any error
+            return pending;
+        }
+
+        synchronized (batch) {
+            return batch.addPending(className, code);
+        }
+    }
+
+    private Pending addPending(String className, String code) {
+        Pending pending = pendings.get(className);
+        if (pending == null) {
+            pending = new Pending(className, code, this);
+            pendings.put(className, pending);
+        }
+
+        return pending;
+    }
+
+    /**
+     * compiles the unresolved functions with one javac task, previously cached
+     * classes are not recompiled.
+     */
+    private void compile() {
+        Map<String,String> sources = new LinkedHashMap<>();
+        List<Pending> unresolved = new ArrayList<>();
+        for (Pending pending : pendings.values()) {
+            if (pending.clazz != null || pending.error != null) continue;
+
+            try {
+                pending.clazz = ValueFunctionClassCache.getCached(pending.className);
+            } catch (Exception e) {
+                pending.error = e;
+            }
+
+            if (pending.clazz == null && pending.error == null) {
+                sources.put(pending.className, pending.code);
+                unresolved.add(pending);
+            }
+        }
+
+        if (sources.isEmpty()) return;
+
+        try {
+            Map<String,CodeObject> compiled = InMemoryJavaCompiler.compileToCode(sources);
+            for (Pending pending : unresolved) {
+                pending.clazz = ValueFunctionClassCache.add(compiled.get(pending.className));
+            }
+        }
+
+        // compile individually to attribute the error to its function
+        catch (Exception batchError) {
+            for (Pending pending : unresolved) {
+                if (pending.clazz != null) continue;
+
+                try {
+                    pending.clazz = ValueFunctionClassCache.get(pending.className, pending.code);
+                } catch (Exception e) {
+                    pending.error = e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.amazon.djk.java;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.CodeSource;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Content addressed cache of compiled value function classes.  Class names are
+ * derived from a hash of the generated source, so the same DJK-Java always
+ * yields the same class name and its byte code can be reused instead of
+ * recompiled, both within a process and across processes by way of a cache
+ * directory.
+ *
+ * The directory defaults to ~/.djk/classcache and is set with the system property
+ * djk.compiler.cache.dir, an empty value disables it.  Byte code is kept in a sub
+ * directory per java version and djk build, since classes compiled against one
+ * need not link against another.  The cache is only used if the directory is
+ * private to the current user.
+ */
+public class ValueFunctionClassCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ValueFunctionClassCache.class);
+    public static final String CACHE_DIR_PROPERTY = "djk.compiler.cache.dir";
+    private static final String DEFAULT_SUBDIR = ".djk/classcache";
+    private static final String CLASS_PREFIX = "VC";
+    private static final Map<String,Class<?>> loaded = new ConcurrentHashMap<>();
+    private static volatile File cacheDir = null;
+    private static volatile boolean cacheDirResolved = false;
+
+    /**
+     *
+     * @param code the generated source with any class name
+     * @return the class name for the source
+     */
+    public static String getClassName(String code) {
+        return CLASS_PREFIX + Hashing.sha256().hashString(code, StandardCharsets.UTF_8).toString().substring(0, 32);
+    }
+
+    /**
+     *
+     * @param className fully qualified class name
+     * @param code source of the class
+     * @return the class, compiled only if not previously cached
+     * @throws Exception
+     */
+    public static Class<?> get(String className, String code) throws Exception {
+        Class<?> clazz = getCached(className);
+        if (clazz != null) return clazz;
+
+        return add(InMemoryJavaCompiler.compileToCode(className, code));
+    }
+
+    /**
+     *
+     * @param className fully qualified class name
+     * @return the class if previously compiled, else null
+     * @throws Exception
+     */
+    public static Class<?> getCached(String className) throws Exception {
+        Class<?> clazz = loaded.get(className);
+        if (clazz != null) return clazz;
+
+        clazz = load(className);
+        if (clazz != null) {
+            loaded.put(className, clazz);
+        }
+
+        return clazz;
+    }
+
+    /**
+     * defines and caches a newly compiled class
+     *
+     * @param compiled
+     * @return the class
+     * @throws Exception
+     */
+    public static Class<?> add(CodeObject compiled) throws Exception {
+        Class<?> clazz = InMemoryJavaCompiler.define(compiled);
+        store(compiled.getName(), compiled.getByteCode());
+        loaded.put(compiled.getName(), clazz);
+        return clazz;
+    }
+
+    private static Class<?> load(String className) throws Exception {
+        File file = getClassFile(className);
+        if (file == null || !file.exists()) return null;
+
+        try {
+            CodeObject code = new CodeObject(className, Files.readAllBytes(file.toPath()));
+            return InMemoryJavaCompiler.define(code);
+        }
+
+        catch (IOException | LinkageError | ClassNotFoundException e) {
+            LOG.warn("discarding unusable cached class " + file, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    private static void store(String className, byte[] byteCode) {
+        File file = getClassFile(className);
+        if (file == null) return;
+
+        // write then rename so concurrent processes never read a partial class
+        try {
+            File dir = file.getParentFile();
+            dir.mkdirs();
+            File temp = File.createTempFile(file.getName(), ".tmp", dir);
+            Files.write(temp.toPath(), byteCode);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        catch (IOException e) {
+            LOG.warn("unable to cache compiled class " + file, e);
+        }
+    }
+
+    private static File getClassFile(String className) {
+        File dir = getCacheDir();
+        return dir != null ? new File(dir, className + ".class") : null;
+    }
+
+    private static File getCacheDir() {
+        if (cacheDirResolved) return cacheDir;
+
+        synchronized (ValueFunctionClassCache.class) {
+            if (!cacheDirResolved) {
+                String path = System.getProperty(CACHE_DIR_PROPERTY);
+                if (path == null) {
+                    // no shared fallback such as /tmp, where others could plant byte code
+                    String userHome = System.getProperty("user.home");
+                    path = userHome == null || userHome.startsWith("/dev") ? "" :
+                        new File(userHome, DEFAULT_SUBDIR).getPath();
+                }
+
+                try {
+                    cacheDir = path.isEmpty() ? null : getPrivateDir(new File(path, getBuildKey()));
+                }
+
+                catch (IOException e) {
+                    LOG.warn("class cache disabled, unable to use " + path, e);
+                    cacheDir = null;
+                }
+
+                cacheDirResolved = true;
+            }
+        }
+
+        return cacheDir;
+    }
+
+    /**
+     * creates the directory and its parent as 0700 if missing, and verifies both are
+     * owned by the current user and not writable by others, since classes are loaded
+     * from it.
+     *
+     * @param dir
+     * @return the directory
+     * @throws IOException if the directory is not private
+     */
+    private static File getPrivateDir(File dir) throws IOException {
+        for (File d : new File[] {dir.getParentFile(), dir}) {
+            Path path = d.toPath();
+            boolean posix = path.getFileSystem().supportedFileAttributeViews().contains("posix");
+            if (!d.isDirectory()) {
+                if (posix) {
+                    Files.createDirectories(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+                } else {
+                    Files.createDirectories(path);
+                }
+            }
+
+            if (Files.isSymbolicLink(path)) {
+                throw new IOException(d + " is a symbolic link");
+            }
+
+            UserPrincipal user = path.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+            if (!Files.getOwner(path).equals(user)) {
+                throw new IOException(d + " is not owned by " + user.getName());
+            }
+
+            if (posix) {
+                Set<PosixFilePermission> perms = Files.getPosixFilePermissions(path);
+                if (perms.contains(PosixFilePermission.GROUP_WRITE) || perms.contains(PosixFilePermission.OTHERS_WRITE)) {
+                    throw new IOException(d + " is writable by others");
+                }
+            }
+        }
+
+        return dir;
+    }
+
+    /**
+     *
+     * @return identifies the java version and djk build classes are compiled against
+     * @throws IOException
+     */
+    private static String getBuildKey() throws IOException {
+        Hasher key = Hashing.sha256().newHasher();
+        key.putString(System.getProperty("java.specification.version"), StandardCharsets.UTF_8);
+
+        String version = ValueFunction.class.getPackage().getImplementationVersion();
+        key.putString(version != null ? version : "", StandardCharsets.UTF_8);
+
+        // path, size and modification time of the jar or of each class file, which
+        // are cheap to read at startup unlike the contents
+        CodeSource source = ValueFunction.class.getProtectionDomain().getCodeSource();
+        URL location = source != null ? source.getLocation() : null;
+        if (location != null && "file".equals(location.getProtocol())) {
+            Path root = new File(location.getPath()).toPath().toAbsolutePath();
+            key.putString(root.toString(), StandardCharsets.UTF_8);
+            if (Files.isDirectory(root)) {
+                Map<String,BasicFileAttributes> files = new TreeMap<>();
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (attrs.isRegularFile()) {
+                            files.put(root.relativize(file).toString(), attrs);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+
+                for (Map.Entry<String,BasicFileAttributes> file : files.entrySet()) {
+                    key.putString(file.getKey(), StandardCharsets.UTF_8);
+                    putSizeAndTime(key, file.getValue());
+                }
+            }
+
+            else if (Files.isRegularFile(root)) {
+                putSizeAndTime(key, Files.readAttributes(root, BasicFileAttributes.class));
+            }
+        }
+
+        return "java" + System.getProperty("java.specification.version") + "-" +
+            key.hash().toString().substring(0, 12);
+    }
+
+    private static void putSizeAndTime(Hasher key, BasicFileAttributes attrs) {
+        key.putLong(attrs.size());
+        key.putLong(attrs.lastModifiedTime().toMillis());
+    }
+}
@@ -4,7 +4,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -15,24 +14,41 @@ public class ValueFunctionClassFactory {
 	// these are positive-lookbehinds: http://www.regular-expressions.info/lookaround.html
     private final static String sysPropPatternString = "(?<=^|[^a-zA-Z0-9_])P\\.(?<name>[\\w.\\(]+)"; 
     private final static String fieldPatternString = "(?<=^|[^a-zA-Z0-9_])(?<type>[PRldbsr])\\.(?<name>\\w+)"; // no dots
+    private final static String CLASS_NAME_PLACEHOLDER = "__DJK_VALUE_FUNCTION_CLASS__";
     
     public static Class<?> getClass(String classCode) throws Exception {
+        String className = getClassName(classCode);
+        if (className == null) return null;
+        
+        Class<?> valueFunctionClass = ValueFunctionClassCache.get(className, classCode);
+        return valueFunctionClass;
+    }
+
+    /**
+     * 
+     * @param classCode
+     * @return the class, compiled with the other functions of the current ValueFunctionBatch
+     * @throws Exception
+     */
+    public static ValueFunctionBatch.Pending getPendingClass(String classCode) throws Exception {
+        String className = getClassName(classCode);
+        if (className == null) throw new Exception("no class in code");
+
+        return ValueFunctionBatch.add(className, classCode);
+    }
+
+    private static String getClassName(String classCode) {
         Pattern classNamePat = Pattern.compile("public class (?<name>[^\\s]+) ");
         Matcher m = classNamePat.matcher(classCode);
         if (!m.find()) return null;
-        
-        String className = m.group("name");
-        Class<?> valueFunctionClass = InMemoryJavaCompiler.compile("com.amazon.djk.java." + className, classCode);
-        return valueFunctionClass;
+
+        return "com.amazon.djk.java." + m.group("name");
     }
     
     public static String getCode(String djkJavaRightHandSide) throws Exception {
         Pattern sysPropPat = Pattern.compile(sysPropPatternString);
         StringBuilder code = new StringBuilder();
 
-        // get a random number                                                                                                         
-        int number = Math.abs(new Random().nextInt());
-        String className = "VC" + number;
         code.append("package com.amazon.djk.java;\n");
         code.append("import com.amazon.djk.java.ValueFunction;\n");
         code.append("import com.amazon.djk.record.*;\n");
@@ -40,7 +56,7 @@ public class ValueFunctionClassFactory {
         code.append("import java.util.concurrent.*;\n");
         code.append("import java.util.stream.*;\n");
         code.append("import java.io.IOException;\n");
-        code.append("public class " + className + " extends ValueFunction {\n");
+        code.append("public class " + CLASS_NAME_PLACEHOLDER + " extends ValueFunction {\n");
         
         Matcher m = sysPropPat.matcher(djkJavaRightHandSide);
         List<String> sysPropDotNames = new ArrayList<>();
@@ -69,7 +85,9 @@ public class ValueFunctionClassFactory {
         code.append("   }\n");
         code.append("}\n");
 
-        return code.toString();
+        // the class name is a hash of the code, so that compiled classes can be cached
+        String classCode = code.toString();
+        return classCode.replace(CLASS_NAME_PLACEHOLDER, ValueFunctionClassCache.getClassName(classCode));
     }
     
     private static void interpret(String djkJavaRhs, List<String> sysPropDotNames, StringBuilder out) {
@@ -59,4 +59,25 @@ public abstract class KeyedSource extends MinimalRecordSource {
      * @throws IOException
      */
     public abstract Record getValue(Record keyRecord) throws IOException;
+    
+    /**
+     * looks up the values of a batch of records.  The default looks them up one
+     * at a time, implementations may probe in any order, e.g. that of storage.
+     * 
+     * @param keyRecords records containing the key fields
+     * @param numKeys number of keyRecords of the batch
+     * @param values receives the value of the corresponding keyRecord, which excludes the key fields
+     * @param hits receives whether the corresponding keyRecord was found
+     * @throws IOException
+     */
+    public void getValues(Record[] keyRecords, int numKeys, Record[] values, boolean[] hits) throws IOException {
+        for (int i = 0; i < numKeys; i++) {
+            Record value = getValue(keyRecords[i]);
+            values[i].reset();
+            hits[i] = value != null;
+            if (value != null) {
+                values[i].addFields(value);
+            }
+        }
+    }
 }
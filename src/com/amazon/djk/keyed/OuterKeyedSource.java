@@ -3,6 +3,7 @@ package com.amazon.djk.keyed;
 import java.io.IOException;
 
 import com.amazon.djk.expression.OpArgs;
+import com.amazon.djk.expression.SyntaxError;
 import com.amazon.djk.record.Fields;
 import com.amazon.djk.record.Record;
 
@@ -19,8 +20,9 @@ public abstract class OuterKeyedSource extends KeyedSource {
 	/**
 	 * to be called before any data access occurs to enable the access of
 	 * outer/right records.
+	 * @throws SyntaxError if the source does not support outer access
 	 */
-	public abstract void enableOuterAccess();
+	public abstract void enableOuterAccess() throws SyntaxError;
 	
 	/**
 	 * to be called after all joining access occurs to prepare the access
@@ -2,6 +2,7 @@ package com.amazon.djk.natdb;
 
 import com.amazon.djk.file.FileArgs;
 import com.amazon.djk.file.FileSystem;
+import com.amazon.djk.file.SourceProperties;
 import com.amazon.djk.record.Record;
 import com.amazon.djk.record.RecordIO.IORecord;
 
@@ -11,10 +12,6 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 
 class BucketAccess {
     private static final Logger logger = LoggerFactory.getLogger(BucketAccess.class);
@@ -22,14 +19,37 @@ class BucketAccess {
     private static final String RECORDS = "records";
     private static final String OFFSETS = "offsets";
     private static final String BIN = "bin";
-    private final ByteBuffer recordMap;
-    private final ByteBuffer offsetMap;
+    // source property of the natdb format version, absent for version 1
+    static final String VERSION_EXTRA = "natdbVersion";
+    static final int CURRENT_VERSION = 2; // 2 = long offsets, 1 = int offsets
+    private final MappedFile recordMap;
+    private final MappedFile offsetMap;
+    private final int offsetBytes;
+    private final int numRecs;
+    private final BucketHashIndex hashIndex; // null to binary search
+    private final BucketBloomFilter bloomFilter; // null for none
     
 	private AtomicBitSet.ClearBitIterator outerIter = null;
     private AtomicBitSet accessedRecs = null;
     private int nextRecNo = 0;
     
-    public static BucketAccess create(FileArgs recordFileArgs) throws IOException {
+    /**
+     * 
+     * @param props of the natdb
+     * @return the size of an entry of the offsets files
+     * @throws IOException
+     */
+    public static int getOffsetBytes(SourceProperties props) throws IOException {
+        String version = props.getExtra(VERSION_EXTRA);
+        if (version == null) return 4;
+        
+        switch (Integer.parseInt(version)) {
+        case 2: return 8;
+        default: throw new IOException("unsupported natdb version=" + version);
+        }
+    }
+    
+    public static BucketAccess create(FileArgs recordFileArgs, int offsetBytes) throws IOException {
         String fullpath = recordFileArgs.getPath();
         
         File recs = new File(fullpath);
@@ -45,54 +65,56 @@ class BucketAccess {
             throw new FileNotFoundException(name);
         }
         
-        MappedByteBuffer recordMap = getMap(recs);
-        MappedByteBuffer offsetMap = getMap(offs);
+        MappedFile recordMap = MappedFile.map(recs);
+        MappedFile offsetMap = MappedFile.map(offs);
 
         // null accessedRecs because enableOuterAccess sets it before replication.
-        return new BucketAccess(recordMap, offsetMap, null);
+        return new BucketAccess(recordMap, offsetMap, offsetBytes, null, null, null);
     }
     
-    public static BucketAccess create(int bucketNo, File dbDir) throws IOException {
-        String name = FileSystem.getNumberedFileName(RECORDS, bucketNo, NDB);
-        File recs = new File(dbDir, name);
+    public static BucketAccess create(int bucketNo, File dbDir, int offsetBytes) throws IOException {
+        File recs = new File(dbDir, getRecordsFileName(bucketNo));
         if (!recs.exists()) return null; 
         
-        MappedByteBuffer recordMap = getMap(recs);
-        name = FileSystem.getNumberedFileName(OFFSETS, bucketNo, BIN);
-        MappedByteBuffer offsetMap = getMap(new File(dbDir, name));
+        MappedFile recordMap = MappedFile.map(recs);
+        MappedFile offsetMap = MappedFile.map(new File(dbDir, getOffsetsFileName(bucketNo)));
+        BucketHashIndex hashIndex = BucketHashIndex.open(bucketNo, dbDir);
+        BucketBloomFilter bloomFilter = BucketBloomFilter.open(bucketNo, dbDir);
         
-        return new BucketAccess(recordMap, offsetMap, null);
+        return new BucketAccess(recordMap, offsetMap, offsetBytes, hashIndex, bloomFilter, null);
     }
     
-    public BucketAccess replicate() throws IOException {
-    	ByteBuffer rmap = recordMap.asReadOnlyBuffer();
-    	ByteBuffer omap = offsetMap.asReadOnlyBuffer();
-    	return new BucketAccess(rmap, omap, accessedRecs);
+    static String getRecordsFileName(int bucketNo) {
+        return FileSystem.getNumberedFileName(RECORDS, bucketNo, NDB);
     }
     
-    /**
-     * 
-     * @param file
-     * @return
-     * @throws IOException
-     */
-    public static MappedByteBuffer getMap(File file) throws IOException {
-    	try (RandomAccessFile raf = new RandomAccessFile(file, "r");
-    		 FileChannel channel = raf.getChannel(); ) {
-    		MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, (int) channel.size());
-    		return map;
-    	}
+    static String getOffsetsFileName(int bucketNo) {
+        return FileSystem.getNumberedFileName(OFFSETS, bucketNo, BIN);
+    }
+    
+    public BucketAccess replicate() throws IOException {
+    	return new BucketAccess(recordMap.replicate(), offsetMap.replicate(), offsetBytes,
+    	        hashIndex != null ? hashIndex.replicate() : null, bloomFilter, accessedRecs);
     }
     
-    private BucketAccess(ByteBuffer recordMap, ByteBuffer offsetMap, AtomicBitSet accessedRecs) throws IOException {
+    private BucketAccess(MappedFile recordMap, MappedFile offsetMap, int offsetBytes, BucketHashIndex hashIndex,
+            BucketBloomFilter bloomFilter, AtomicBitSet accessedRecs) throws IOException {
         this.recordMap = recordMap;
         this.offsetMap = offsetMap;
+        this.offsetBytes = offsetBytes;
+        this.hashIndex = hashIndex;
+        this.bloomFilter = bloomFilter;
+        this.numRecs = (int)(offsetMap.size() / offsetBytes);
         this.accessedRecs = accessedRecs;
     }
     
     private BucketAccess() {
         this.recordMap = null;
         this.offsetMap = null;
+        this.offsetBytes = 0;
+        this.numRecs = 0;
+        this.hashIndex = null;
+        this.bloomFilter = null;
     }
 
     public static class Poison extends BucketAccess { }
@@ -109,62 +131,100 @@ class BucketAccess {
     }
     
     /**
-     * binary search the file.
-     * 
-     * IORecord passed in to reduce memory consumption
+     * look up the key by the hash index if any, else binary search the file.
+     * Keys rejected by the bloom filter are not looked up.
      * 
      * @param keyRecord
-     * @param valueRecord the untranslated (i.e RecordIO.translate()) value.
-     * @return true if the keyRecord is found otherwise false
+     * @param onlyOnce if true, only the first find of a given key succeeds
+     * @return the record number of the key, see getUndecodedValue(), or -1 if not found
      * @throws IOException 
      */
-    public boolean getUndecodedValue(Record keyRecord, IORecord valueRecord, boolean onlyOnce) throws IOException {
+    public int find(Record keyRecord, boolean onlyOnce) throws IOException {
+        long keyHash = hashIndex != null || bloomFilter != null ? BucketHashIndex.hash(keyRecord) : 0;
+        return find(keyRecord, keyHash, onlyOnce);
+    }
+    
+    /**
+     * 
+     * @param keyRecord
+     * @param keyHash BucketHashIndex.hash() of the keyRecord
+     * @param onlyOnce
+     * @return the record number of the key or -1 if not found
+     * @throws IOException
+     */
+    public int find(Record keyRecord, long keyHash, boolean onlyOnce) throws IOException {
+        if (bloomFilter != null && !bloomFilter.mightContain(keyHash)) return -1;
+        
+        int recNo = hashIndex != null ? hashIndex.find(keyRecord, keyHash, this) : binarySearch(keyRecord);
+        if (recNo == -1) return -1;
+        
+        if (accessedRecs != null) {
+            if (onlyOnce && accessedRecs.get(recNo)) {
+                return -1;
+            }
+            
+            accessedRecs.set(recNo);
+        }
+        
+        return recNo;
+    }
+    
+    /**
+     * 
+     * @param keyHash BucketHashIndex.hash() of a key
+     * @return the position of the first probe of the key within the index, 0 if none
+     */
+    public long getProbePosition(long keyHash) {
+        return hashIndex != null ? hashIndex.getSlot(keyHash) : 0;
+    }
+    
+    /**
+     * 
+     * @param keyRecord
+     * @return the record number of the key or -1 if not found
+     */
+    private int binarySearch(Record keyRecord) {
         int loIntPos = 0;
-        int hiIntPos = (offsetMap.limit() / 4) - 1; // inclusive
-        int midIntPos = -1;
+        int hiIntPos = numRecs - 1; // inclusive
         
         while (loIntPos <= hiIntPos) {
-            midIntPos = loIntPos + (hiIntPos - loIntPos) / 2;
+            int midIntPos = loIntPos + (hiIntPos - loIntPos) / 2;
             int cmpval = compareTo(keyRecord, midIntPos);
-            if (cmpval == 0) {
-            	if (accessedRecs != null) {
-            		if (onlyOnce && accessedRecs.get(midIntPos)) {
-            			return false;
-            		}
-            		
-            		accessedRecs.set(midIntPos);
-            	}
-            	
-            	return getUndecodedValue(midIntPos, false, valueRecord);
-            }
-            
+            if (cmpval == 0) return midIntPos;
             else if (cmpval < 0) hiIntPos = midIntPos - 1;
             else loIntPos = midIntPos + 1;
         }
         
-        midIntPos = -1; // fail
-        return false;
+        return -1; // fail
     }
 
     boolean getUndecodedValue(int intPos, boolean withKey, IORecord valueRecord) throws IOException {
-        int offsetOffset = intPos * 4;
-        if (offsetOffset >= offsetMap.limit()) return false;
+        if (intPos >= numRecs) return false;
         
-        //rec1.reset();
-        int keyoff = offsetMap.getInt(offsetOffset); // getInt(bytePos)
+        long keyoff = getOffset(intPos);
         //            [keyFields][compressedValueFields]
         // keyoff ----^
         
-        int nextKeyOffOff = (intPos + 1) * 4;
-        int reclen = (nextKeyOffOff < offsetMap.limit()) ? // is last entry in offset map ?
-                offsetMap.getInt(nextKeyOffOff) - keyoff :
-                recordMap.limit() - keyoff;
+        long reclen = (intPos + 1 < numRecs) ? // is last entry in offset map ?
+                getOffset(intPos + 1) - keyoff :
+                recordMap.size() - keyoff;
         
-        valueRecord.set(recordMap, keyoff, reclen);
+        recordMap.get(keyoff, (int)reclen, valueRecord);
         
         return true;
     }
     
+    /**
+     * 
+     * @param recNo
+     * @return the position of the record within the records file
+     */
+    private long getOffset(int recNo) {
+        return offsetBytes == 8 ?
+                offsetMap.getLong((long)recNo * 8) :
+                offsetMap.getInt((long)recNo * 4);
+    }
+    
     /**
      * must be called before first keyedAccess and before replicate()
      */
@@ -172,12 +232,12 @@ class BucketAccess {
     	accessedRecs = new AtomicBitSet(numRecs());
     }
 
-    private int compareTo(Record keyRecord, int midIntPos) {
-        int mapRecOff = offsetMap.getInt(midIntPos*4);
-        int mapRecLen = recordMap.limit() - mapRecOff;
+    int compareTo(Record keyRecord, int midIntPos) {
+        long mapRecOff = getOffset(midIntPos);
+        long mapRecLen = recordMap.size() - mapRecOff;
         byte[] keyBytes = keyRecord.buffer();
         
-        int lim = Math.min(keyRecord.length(), mapRecLen);
+        int lim = (int)Math.min(keyRecord.length(), mapRecLen);
         int i = 0;
         while (i < lim) {
             byte a = keyBytes[i];
@@ -196,7 +256,7 @@ class BucketAccess {
     }
 
 	public int numRecs() {
-		return offsetMap.limit() / 4;
+		return numRecs;
 	}
 
 	/**
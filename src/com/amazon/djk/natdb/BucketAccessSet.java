@@ -2,11 +2,13 @@ package com.amazon.djk.natdb;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ArrayBlockingQueue;
 
+import com.amazon.djk.file.FormatArgs;
 import com.amazon.djk.misc.Hashing;
 import com.amazon.djk.record.Record;
 import com.amazon.djk.record.RecordIO;
@@ -21,13 +23,24 @@ public class BucketAccessSet {
 	private final BucketAccess[] buckets; // one per thread
 	private final DiskEntryDecoder decoder;
 	private final RecordIO recordIO;
+	private final String[] bucketFields; // null to hash by recordIO
+	private final RecordIO bucketIO;
+	private final Record bucketKey = new Record();
 	private final int numBuckets;
 	
 	private final IORecord undecodedRec = new IORecord();
-    private final Record outRec = new Record();
+    private final IORecord outRec = new IORecord();
     private final BlockingQueue<BucketAccess> outerQueue;
+    private final DecodedValueCache valueCache; // null for none
     private BucketAccess currOuter = null;
     
+    // per key of a batch of getValues()
+    private Integer[] probeOrder = null;
+    private int[] probeBuckets = null;
+    private long[] probeHashes = null;
+    private long[] probePositions = null;
+    private int[] probeRecNos = null;
+    
 	static final ThreadLocal<Map<String,BucketAccess[]>> accessors =
 			new ThreadLocal<Map<String,BucketAccess[]>>() {
 		@Override protected Map<String,BucketAccess[]> initialValue() {
@@ -40,24 +53,33 @@ public class BucketAccessSet {
 	 * @param dbDir
 	 * @param numBuckets
 	 * @param decoder
+	 * @param offsetBytes size of an offsets file entry, see BucketAccess.getOffsetBytes()
+	 * @param valueCacheBytes size of the cache of decoded values shared by replicas, 0 for none
+	 * @param bucketFields stored field names by which keys are hashed to buckets, null for those of the decoder,
+	 * i.e. the source fields of the base natdb for a delta segment, see DeltaSegments
 	 * @return
 	 * @throws IOException
 	 */
-	public static BucketAccessSet create(File dbDir, int numBuckets, DiskEntryDecoder decoder) throws IOException {
+	public static BucketAccessSet create(File dbDir, int numBuckets, DiskEntryDecoder decoder, int offsetBytes, long valueCacheBytes,
+	        String[] bucketFields) throws IOException {
 		Map<String,BucketAccess[]> accmap = accessors.get();
-		BucketAccess[] buckets = accmap.get(dbDir.getAbsolutePath());
+		// compaction rewrites the natdb in place, so its properties version the files
+		File propsFile = new File(dbDir, FormatArgs.SOURCE_PROP_FILE);
+		String accKey = dbDir.getCanonicalPath() + "@" + propsFile.lastModified();
+		BucketAccess[] buckets = accmap.get(accKey);
 		
 		if (buckets == null) {
 			buckets = new BucketAccess[numBuckets];
 		
 			for (int i = 0; i < numBuckets; i++) {
-				buckets[i] = BucketAccess.create(i, dbDir);
+				buckets[i] = BucketAccess.create(i, dbDir, offsetBytes);
 			}
 			
-			accmap.put(dbDir.getCanonicalPath(), buckets);
+			accmap.put(accKey, buckets);
 		}
 		
-		return new BucketAccessSet(buckets, decoder, new ArrayBlockingQueue<>(numBuckets + 1)); // +1 = poison 
+		DecodedValueCache valueCache = valueCacheBytes > 0 ? new DecodedValueCache(valueCacheBytes) : null;
+		return new BucketAccessSet(buckets, decoder, new ArrayBlockingQueue<>(numBuckets + 1), valueCache, bucketFields); // +1 = poison 
 	}
 	
 	/**
@@ -65,12 +87,19 @@ public class BucketAccessSet {
 	 * @param buckets
 	 * @param decoder
 	 * @param outerAccessQueue
+	 * @param valueCache
+	 * @param bucketFields
+	 * @throws IOException
 	 */
-	private BucketAccessSet(BucketAccess[] buckets, DiskEntryDecoder decoder, BlockingQueue<BucketAccess> outerQueue) {
+	private BucketAccessSet(BucketAccess[] buckets, DiskEntryDecoder decoder, BlockingQueue<BucketAccess> outerQueue, DecodedValueCache valueCache,
+	        String[] bucketFields) throws IOException {
 		this.buckets = buckets;
 		this.decoder = decoder;
 		this.recordIO = decoder.getRecordIO();
 		this.outerQueue = outerQueue;
+		this.valueCache = valueCache;
+		this.bucketFields = bucketFields;
+		this.bucketIO = bucketFields != null ? new RecordIO(bucketFields) : null;
 		numBuckets = buckets.length;
 	}
 	
@@ -82,28 +111,133 @@ public class BucketAccessSet {
 	 * @throws IOException
 	 */
 	public Record getValue(Record keyMakerMadeRecord, boolean onlyOnce) throws IOException {
-		// hashing and sorting took place on stored fids, so translate
-        recordIO.translate(keyMakerMadeRecord, Direction.LIVE_TO_STORED);
-        int bucketNo = (int)(Hashing.hash63(keyMakerMadeRecord) % numBuckets);
+        int bucketNo = toStored(keyMakerMadeRecord);
         
         BucketAccess accessor = buckets[bucketNo];
         if (accessor == null) return null;
         
-        if (!accessor.getUndecodedValue(keyMakerMadeRecord, undecodedRec, onlyOnce)) {
-        	return null;
+        int recNo = accessor.find(keyMakerMadeRecord, onlyOnce);
+        if (recNo == -1) return null;
+        
+        return getDecodedValue(bucketNo, accessor, recNo);
+	}
+	
+	/**
+	 * hashing and sorting took place on stored fids, so translates the key
+	 * 
+	 * @param keyMakerMadeRecord
+	 * @return the bucket of the key
+	 * @throws IOException
+	 */
+	private int toStored(Record keyMakerMadeRecord) throws IOException {
+		if (bucketIO == null) {
+			recordIO.translate(keyMakerMadeRecord, Direction.LIVE_TO_STORED);
+			return (int)(Hashing.hash63(keyMakerMadeRecord) % numBuckets);
+		}
+		
+		bucketKey.reset();
+		bucketKey.addFields(keyMakerMadeRecord);
+		bucketIO.translate(bucketKey, Direction.LIVE_TO_STORED);
+		recordIO.translate(keyMakerMadeRecord, Direction.LIVE_TO_STORED);
+		return (int)(Hashing.hash63(bucketKey) % numBuckets);
+	}
+	
+	/**
+	 * looks up a batch of keys in the order of storage rather than that of the
+	 * batch: the probes sorted by bucket and index position, then the reads of
+	 * the found values sorted by bucket and record number, i.e. file position.
+	 * 
+	 * @param keyMakerMadeRecords
+	 * @param numKeys
+	 * @param values receives the value of the corresponding key
+	 * @param hits receives whether the corresponding key was found
+	 * @throws IOException
+	 */
+	public void getValues(Record[] keyMakerMadeRecords, int numKeys, Record[] values, boolean[] hits) throws IOException {
+		if (probeOrder == null || probeOrder.length < numKeys) {
+			probeOrder = new Integer[numKeys];
+			probeBuckets = new int[numKeys];
+			probeHashes = new long[numKeys];
+			probePositions = new long[numKeys];
+			probeRecNos = new int[numKeys];
+		}
+		
+		for (int i = 0; i < numKeys; i++) {
+			Record keyRecord = keyMakerMadeRecords[i];
+			int bucketNo = toStored(keyRecord);
+			BucketAccess accessor = buckets[bucketNo];
+			
+			probeOrder[i] = i;
+			probeBuckets[i] = bucketNo;
+			probeHashes[i] = BucketHashIndex.hash(keyRecord);
+			probePositions[i] = accessor != null ? accessor.getProbePosition(probeHashes[i]) : 0;
+			values[i].reset();
+			hits[i] = false;
+		}
+		
+		Arrays.sort(probeOrder, 0, numKeys, (a, b) -> probeBuckets[a] != probeBuckets[b] ?
+				Integer.compare(probeBuckets[a], probeBuckets[b]) : Long.compare(probePositions[a], probePositions[b]));
+		
+		for (int j = 0; j < numKeys; j++) {
+			int i = probeOrder[j];
+			BucketAccess accessor = buckets[probeBuckets[i]];
+			probeRecNos[i] = accessor != null ? accessor.find(keyMakerMadeRecords[i], probeHashes[i], false) : -1;
+		}
+		
+		Arrays.sort(probeOrder, 0, numKeys, (a, b) -> probeBuckets[a] != probeBuckets[b] ?
+				Integer.compare(probeBuckets[a], probeBuckets[b]) : Integer.compare(probeRecNos[a], probeRecNos[b]));
+		
+		for (int j = 0; j < numKeys; j++) {
+			int i = probeOrder[j];
+			if (probeRecNos[i] == -1) continue;
+			
+			int bucketNo = probeBuckets[i];
+			values[i].addFields(getDecodedValue(bucketNo, buckets[bucketNo], probeRecNos[i]));
+			hits[i] = true;
+		}
+	}
+	
+	/**
+	 * 
+	 * @param bucketNo
+	 * @param accessor of the bucket
+	 * @param recNo
+	 * @return the value of the record, from the cache if there
+	 * @throws IOException
+	 */
+	private Record getDecodedValue(int bucketNo, BucketAccess accessor, int recNo) throws IOException {
+        byte[] cached = valueCache != null ? valueCache.get(bucketNo, recNo) : null;
+        if (cached != null) {
+            outRec.reset();
+            outRec.putBytes(cached, 0, cached.length);
+            return outRec;
         }
         
+        accessor.getUndecodedValue(recNo, false, undecodedRec);
         decoder.decode(undecodedRec, outRec, false);
+        
+        if (valueCache != null) {
+            valueCache.put(bucketNo, recNo, Arrays.copyOfRange(outRec.buffer(), outRec.offset(), outRec.offset() + outRec.length()));
+        }
+        
         return outRec;
 	}
 	
+	/**
+	 * 
+	 * @return the cache of decoded values or null if none
+	 */
+	DecodedValueCache getValueCache() {
+	    return valueCache;
+	}
+	
 	public BucketAccessSet replicate() throws IOException {
 		BucketAccess[] newBuckets = new BucketAccess[numBuckets];		
 		for (int i = 0; i < numBuckets; i++) {
 			newBuckets[i] = buckets[i] != null ? buckets[i].replicate() : null;
 		}
 	
-		return new BucketAccessSet(newBuckets, decoder.replicate(), outerQueue);
+		return new BucketAccessSet(newBuckets, decoder.replicate(), outerQueue, valueCache, bucketFields);
 	}
 
 	public void enableOuterAccess() {
@@ -0,0 +1,121 @@
+package com.amazon.djk.natdb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.amazon.djk.file.FileSystem;
+
+/**
+ * Bloom filter of the keys of a bucket, written next to its offsets file and
+ * held in memory by readers, so that most lookups of absent keys are answered
+ * without touching the mapped records.  Bits are chosen by double hashing the
+ * key hash of the BucketHashIndex.
+ *
+ * format: [numHashes int][numBits long][bits long...]
+ */
+class BucketBloomFilter {
+    private static final String NAME = "bloom";
+    private static final String BIN = "bin";
+    private final long[] bits;
+    private final long numBits;
+    private final int numHashes;
+
+    private BucketBloomFilter(long[] bits, long numBits, int numHashes) {
+        this.bits = bits;
+        this.numBits = numBits;
+        this.numHashes = numHashes;
+    }
+
+    /**
+     *
+     * @param bucketNo
+     * @param dbDir
+     * @return the filter of the bucket or null if the natdb was written without one
+     * @throws IOException
+     */
+    public static BucketBloomFilter open(int bucketNo, File dbDir) throws IOException {
+        File file = new File(dbDir, getFileName(bucketNo));
+        if (!file.exists()) return null;
+
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024 * 1024))) {
+            int numHashes = stream.readInt();
+            long numBits = stream.readLong();
+            long[] bits = new long[(int)((numBits + 63) / 64)];
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] = stream.readLong();
+            }
+
+            return new BucketBloomFilter(bits, numBits, numHashes);
+        }
+    }
+
+    static String getFileName(int bucketNo) {
+        return FileSystem.getNumberedFileName(NAME, bucketNo, BIN);
+    }
+
+    /**
+     *
+     * @param keyHash BucketHashIndex.hash() of the key
+     * @return false if the key is definitely not in the bucket
+     */
+    public boolean mightContain(long keyHash) {
+        int h1 = (int)keyHash;
+        int h2 = (int)(keyHash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long bit = ((h1 + (long)i * h2) & Long.MAX_VALUE) % numBits;
+            if ((bits[(int)(bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * writes the filter of a bucket
+     *
+     * @param dbDir
+     * @param bucketNo
+     * @param hashes the key hashes
+     * @param fpp the false positive probability
+     * @param maxBytes the maximum size of the filter, limiting fpp for large buckets
+     * @throws IOException
+     */
+    public static void write(File dbDir, int bucketNo, KeyHashes hashes, double fpp, long maxBytes) throws IOException {
+        int numRecs = hashes.size();
+        int n = Math.max(numRecs, 1);
+        long numBits = (long)Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        numBits = Math.max(64, Math.min(numBits, maxBytes * 8));
+        numBits = Math.min(numBits, (long)Integer.MAX_VALUE * 64);
+        int numHashes = Math.max(1, (int)Math.round((double)numBits / n * Math.log(2)));
+
+        BucketBloomFilter filter = new BucketBloomFilter(new long[(int)((numBits + 63) / 64)], numBits, numHashes);
+        try (DataInputStream stream = hashes.open()) {
+            for (int i = 0; i < numRecs; i++) {
+                filter.put(stream.readLong());
+            }
+        }
+
+        File file = new File(dbDir, getFileName(bucketNo));
+        try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024))) {
+            stream.writeInt(numHashes);
+            stream.writeLong(numBits);
+            for (long word : filter.bits) {
+                stream.writeLong(word);
+            }
+        }
+    }
+
+    private void put(long keyHash) {
+        int h1 = (int)keyHash;
+        int h2 = (int)(keyHash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long bit = ((h1 + (long)i * h2) & Long.MAX_VALUE) % numBits;
+            bits[(int)(bit >>> 6)] |= 1L << bit;
+        }
+    }
+}
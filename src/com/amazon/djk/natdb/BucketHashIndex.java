@@ -0,0 +1,132 @@
+package com.amazon.djk.natdb;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import com.amazon.djk.file.FileSystem;
+import com.amazon.djk.misc.Hashing;
+import com.amazon.djk.record.Record;
+
+/**
+ * Open addressing hash index of the records of a bucket, written next to the
+ * records and offsets files.  A point lookup probes the index and then
+ * compares the key of the one (rarely more) candidate record, rather than
+ * comparing keys at log2(n) random positions of the records file.
+ *
+ * Each slot is a long of [high 32 bits of the key hash][record number + 1], 0
+ * for empty.  The number of slots is a power of two at least twice the number
+ * of records, probed linearly.
+ */
+class BucketHashIndex {
+    private static final String NAME = "hashindex";
+    private static final String BIN = "bin";
+    // differs from the seed of the bucket hash, whose low bits are the same for all keys of a bucket
+    private static final int SEED = 0x6b43a9b5;
+    // record numbers are ints, so at most a 32GB file
+    private static final long MAX_SLOTS = 1L << 32;
+    private final MappedFile slots;
+    private final long mask;
+
+    private BucketHashIndex(MappedFile slots) {
+        this.slots = slots;
+        this.mask = slots.size() / 8 - 1;
+    }
+
+    /**
+     *
+     * @param bucketNo
+     * @param dbDir
+     * @return the index of the bucket or null if the natdb was written without one
+     * @throws IOException
+     */
+    public static BucketHashIndex open(int bucketNo, File dbDir) throws IOException {
+        File file = new File(dbDir, getFileName(bucketNo));
+        if (!file.exists()) return null;
+        return new BucketHashIndex(MappedFile.map(file));
+    }
+
+    static String getFileName(int bucketNo) {
+        return FileSystem.getNumberedFileName(NAME, bucketNo, BIN);
+    }
+
+    public BucketHashIndex replicate() {
+        return new BucketHashIndex(slots.replicate());
+    }
+
+    public static long hash(byte[] keyBytes, int offset, int length) {
+        return Hashing.hash64(keyBytes, offset, length, SEED);
+    }
+
+    public static long hash(Record keyRecord) {
+        return hash(keyRecord.buffer(), keyRecord.offset(), keyRecord.length());
+    }
+
+    /**
+     *
+     * @param hash of a key
+     * @return the first slot probed for the key, for ordering lookups by position
+     */
+    public long getSlot(long hash) {
+        return hash & mask;
+    }
+
+    /**
+     *
+     * @param keyRecord
+     * @param hash of the keyRecord
+     * @param access of the bucket
+     * @return the record number of the key or -1 if not found
+     */
+    public int find(Record keyRecord, long hash, BucketAccess access) {
+        int tag = (int)(hash >>> 32);
+
+        for (long pos = hash & mask; ; pos = (pos + 1) & mask) {
+            long slot = slots.getLong(pos * 8);
+            if (slot == 0) return -1;
+
+            if ((int)(slot >>> 32) == tag) {
+                int recNo = (int)slot - 1;
+                if (access.compareTo(keyRecord, recNo) == 0) return recNo;
+            }
+        }
+    }
+
+    /**
+     *
+     * @param numRecs
+     * @return the number of slots, a power of two at least twice numRecs
+     */
+    static long getNumSlots(int numRecs) {
+        long numSlots = Long.highestOneBit(Math.max(numRecs, 1)) * 4L;
+        if (numSlots / 2 >= numRecs * 2L) numSlots /= 2; // exact powers of two
+        return Math.min(numSlots, MAX_SLOTS);
+    }
+
+    /**
+     * writes the index of a bucket, built in a mapping of the file rather than on-heap
+     *
+     * @param dbDir
+     * @param bucketNo
+     * @param hashes the key hashes by record number
+     * @throws IOException
+     */
+    public static void write(File dbDir, int bucketNo, KeyHashes hashes) throws IOException {
+        int numRecs = hashes.size();
+        long numSlots = getNumSlots(numRecs);
+        long slotMask = numSlots - 1;
+
+        MappedFile table = MappedFile.create(new File(dbDir, getFileName(bucketNo)), numSlots * 8);
+        try (DataInputStream stream = hashes.open()) {
+            for (int recNo = 0; recNo < numRecs; recNo++) {
+                long hash = stream.readLong();
+                long pos = hash & slotMask;
+                while (table.getLong(pos * 8) != 0) {
+                    pos = (pos + 1) & slotMask;
+                }
+
+                table.putLong(pos * 8, (hash >>> 32 << 32) | (recNo + 1));
+            }
+        }
+    }
+}
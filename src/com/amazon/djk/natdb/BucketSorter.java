@@ -3,15 +3,14 @@ package com.amazon.djk.natdb;
 import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,27 +24,45 @@ import com.amazon.djk.record.RecordIO.IOBytes;
 import com.amazon.djk.record.RecordIO.IORecord;
 import com.amazon.djk.record.ThreadDefs;
 import com.amazon.djk.record.VarLenNumberHelp;
+import com.google.common.io.CountingOutputStream;
 
 public class BucketSorter {
     private static final Logger logger = LoggerFactory.getLogger(BucketSorter.class);
     private final static float MEMORY_OVERHEAD_FACTOR = 1.1F;
+    // most runs merged at once, each holding a block of TempBlockWriter.BLOCK_BYTES
+    static final int MAX_FAN_IN = 64;
     private final File dbDir;
-    private final List<SortElem> elems = new ArrayList<>();
-    //private final int numKeyFields;
+    private final File mergeFile;
     private final boolean onePerKey;
     private final Field groupOut;
-    private final ByteBuffer buffer;
+    private final FileChannel channel;
     private final int bucketNo;
     private final boolean addCount;
-    
+    private final boolean hashIndex;
+    private final double bloomFpp;
+    private final long bloomMaxBytes;
+    private final int compressLevel;
+
+    // the sorted runs being merged
+    private TempBlockReader[] runs = new TempBlockReader[0];
+    // of runs with records left, the run of the smallest current key on top
+    private int[] heap;
+    private int heapSize = 0;
+
+    // the key and compressed value fields of the current group, copied out of the run blocks
+    private byte[] groupKey = new byte[64];
+    private byte[] groupBytes = new byte[64 * 1024];
+    private ByteBuffer groupBuf = ByteBuffer.wrap(groupBytes);
+    private int[] groupValueOffs = new int[16];
+
     private int maxGroupUncompressedByteSize = 0;
     private int maxGroupSize = 0;
     private int numWritten = 0;
-    
+
     public int getMaxGroupUncompressedByteSize() {
         return maxGroupUncompressedByteSize;
     }
-    
+
     public int getMaxGroupSize() {
         return maxGroupSize;
     }
@@ -54,352 +71,403 @@ public class BucketSorter {
         return numWritten;
     }
     /**
-     * 
+     *
      * @param dbDir
      * @param bucketNo
      * @param groupOut
-     * @param useCompression
+     * @param hashIndex if true, write a BucketHashIndex
+     * @param bloomFpp false positive probability of the BucketBloomFilter, 0 for none
+     * @param bloomMaxBytes maximum size of the BucketBloomFilter
+     * @param compressLevel Deflater level of the values
+     * @param compressTemp if true, deflate the blocks of intermediate merge passes
+     * @param runEnds end offsets of the sorted runs of the temp file, see TempFileWriter
      * @throws IOException
      */
-    public BucketSorter(File dbDir, Field groupOut, int numKeyFields, boolean addCount, int bucketNo) throws IOException {
+    public BucketSorter(File dbDir, Field groupOut, boolean addCount, boolean hashIndex,
+            double bloomFpp, long bloomMaxBytes, int compressLevel, boolean compressTemp, int bucketNo,
+            long[] runEnds) throws IOException {
         logger.debug("loading bucketNo="+bucketNo);
         this.dbDir = dbDir;
         this.groupOut = groupOut;
-        this.addCount = addCount;  
+        this.addCount = addCount;
+        this.hashIndex = hashIndex;
+        this.bloomFpp = bloomFpp;
+        this.bloomMaxBytes = bloomMaxBytes;
+        this.compressLevel = compressLevel;
         this.bucketNo = bucketNo;
-        
-        long maxSize = getMaxTempFileSize(dbDir);
-        if (maxSize > Integer.MAX_VALUE) {
-            // find out right away
-            throw new IOException("implementation does not handle file sizes > 2GB");
-        }
+
         onePerKey = groupOut.getName().equals(MemDBSource.NO_GROUP);
-        
-        String name = String.format("temp.%02d", bucketNo);
-        File file = new File(dbDir, name);
-        int fileLen = (int)file.length();
-        buffer = BucketAccess.getMap(file);
-
-        IORecord inrec = new IORecord();
-        // temp record format:
-        // [reclen][keyFields][compressedValueField]
-        
-        logger.debug("bucketNo="+bucketNo + "mapped");
-        
-        FieldIterator fiter = new FieldIterator();
-        
-        buffer.position(0);
-        while (buffer.position() < buffer.limit()) {
-            int recLen = buffer.getInt();
-            
-            int keyOff = buffer.position();
-            inrec.set(buffer, buffer.position(), recLen);
-            fiter.init(inrec);
-            
-            for (int i = 0; i < numKeyFields; i++) {
-                if (!fiter.next()) {
-                    throw new IOException("format error");
+
+        // merge groups of runs into fewer, longer runs until the final merge is within MAX_FAN_IN
+        File file = TempFileWriter.getTempFile(dbDir, bucketNo);
+        long[] ends = runEnds;
+        for (int pass = 1; ends.length > MAX_FAN_IN; pass++) {
+            File passFile = new File(dbDir, String.format("%s.pass%d", file.getName(), pass));
+            logger.info("bucketNo=" + bucketNo + " pass=" + pass + " merging runs=" + ends.length);
+            ends = mergePass(file, ends, passFile, compressTemp);
+            file.delete();
+            file = passFile;
+        }
+
+        mergeFile = file;
+        channel = FileChannel.open(mergeFile.toPath(), StandardOpenOption.READ);
+        openRuns(channel, ends, 0, ends.length);
+
+        logger.debug("bucketNo="+bucketNo + " opened runs=" + runs.length);
+    }
+
+    /**
+     * opens the runs [from,to) of a temp file for merging
+     *
+     * @param channel of the temp file
+     * @param ends end offsets of the runs of the temp file
+     * @param from
+     * @param to
+     * @throws IOException
+     */
+    private void openRuns(FileChannel channel, long[] ends, int from, int to) throws IOException {
+        runs = new TempBlockReader[to - from];
+        heap = new int[runs.length];
+        heapSize = 0;
+        for (int run = 0; run < runs.length; run++) {
+            long start = from + run == 0 ? 0 : ends[from + run - 1];
+            runs[run] = new TempBlockReader(channel, start, ends[from + run]);
+            if (runs[run].next()) {
+                heap[heapSize] = run;
+                siftUp(heapSize++);
+            }
+        }
+    }
+
+    private void closeRuns() {
+        for (TempBlockReader run : runs) {
+            if (run != null) {
+                run.close();
+            }
+        }
+    }
+
+    /**
+     * merges each group of MAX_FAN_IN consecutive runs into one run of the out file.
+     * The merged runs keep the order of their groups, so the final merge stays stable.
+     *
+     * @param in temp file of the runs
+     * @param ends end offsets of the runs of the in file
+     * @param out temp file of the merged runs
+     * @param compress if true, deflate the blocks of the out file
+     * @return end offsets of the merged runs of the out file
+     * @throws IOException
+     */
+    private long[] mergePass(File in, long[] ends, File out, boolean compress) throws IOException {
+        long[] merged = new long[(ends.length + MAX_FAN_IN - 1) / MAX_FAN_IN];
+        try (FileChannel inChannel = FileChannel.open(in.toPath(), StandardOpenOption.READ);
+             TempBlockWriter writer = new TempBlockWriter(out, compress)) {
+            for (int i = 0; i < merged.length; i++) {
+                int from = i * MAX_FAN_IN;
+                try {
+                    openRuns(inChannel, ends, from, Math.min(from + MAX_FAN_IN, ends.length));
+                    while (heapSize > 0) {
+                        TempBlockReader top = runs[heap[0]];
+                        writer.add(top.buffer(), top.recordOffset(), top.recordLength());
+                        advanceTop();
+                    }
+                }
+
+                finally {
+                    closeRuns();
                 }
+
+                merged[i] = writer.endRun();
             }
-            
-            int keyEnd = keyOff + fiter.offset() + fiter.length();
-            
-            // compressed value field
-            fiter.next();
-            int valEnd = keyOff + fiter.offset() + fiter.length();
-
-            elems.add(new SortElem(keyOff, keyEnd-keyOff, valEnd-keyEnd));
-            buffer.position(keyOff + recLen);
         }
-        
-        logger.debug("bucketNo="+bucketNo + " loaded");
+
+        catch (IOException e) {
+            out.delete();
+            throw e;
+        }
+
+        return merged;
     }
-    
+
     /**
-     * sort the temp files for a bucket
-     * 
+     * advances the run on top of the heap to its next record
+     *
      * @throws IOException
      */
-    public void sort() throws IOException {
-        Collections.sort(elems);
+    private void advanceTop() throws IOException {
+        if (!runs[heap[0]].next()) {
+            heap[0] = heap[--heapSize];
+        }
+
+        siftDown(0);
+    }
+
+    /**
+     *
+     * @return true if the current record of run a precedes that of run b.
+     * Equal keys keep the order of the runs, so the merge is stable.
+     */
+    private boolean precedes(int a, int b) {
+        TempBlockReader ra = runs[a];
+        TempBlockReader rb = runs[b];
+        int cmp = compare(ra.buffer(), ra.keyOffset(), ra.keyLength(), ra.keyPrefix(),
+                rb.buffer(), rb.keyOffset(), rb.keyLength(), rb.keyPrefix());
+        return cmp != 0 ? cmp < 0 : a < b;
+    }
+
+    private void siftUp(int i) {
+        int run = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!precedes(run, heap[parent])) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+
+        heap[i] = run;
+    }
+
+    private void siftDown(int i) {
+        if (heapSize == 0) return;
+
+        int run = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && precedes(heap[child + 1], heap[child])) {
+                child++;
+            }
+
+            if (!precedes(heap[child], run)) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+
+        heap[i] = run;
+    }
+
+    /**
+     * compares key bytes by their prefixes first, see SortRun
+     *
+     * @return
+     */
+    private static int compare(byte[] a, int offA, int lenA, long prefixA, byte[] b, int offB, int lenB, long prefixB) {
+        int cmp = Long.compareUnsigned(prefixA, prefixB);
+        if (cmp != 0) return cmp;
+
+        int lim = Math.min(lenA, lenB);
+        for (int i = Math.min(SortRun.PREFIX_BYTES, lim); i < lim; i++) {
+            byte x = a[offA + i];
+            byte y = b[offB + i];
+            if (x != y) {
+                return (x & 0xFF) - (y & 0xFF);
+            }
+        }
+
+        return lenA - lenB;
     }
-    
-    private DataOutputStream getFinalOutStream(String name, int buckeNo, String suffix) throws IOException {
+
+    private OutputStream getFinalOutStream(String name, int buckeNo, String suffix) throws IOException {
         String file = FileSystem.getNumberedFileName(name, bucketNo, suffix);
         OutputStream os = new FileOutputStream(new File(dbDir, file));
-        os = new BufferedOutputStream(os, 1024 * 1024 * 1);
-        return new DataOutputStream(os);
+        return new BufferedOutputStream(os, 1024 * 1024 * 1);
     }
-    
+
     /**
-     * writes the sorted records to disk
-     * 
-     * @return the number of records written
+     * merges the sorted runs of the temp file into the records of the bucket
+     *
      * @throws IOException
      */
     public void write() throws IOException {
         numWritten = 0;
         maxGroupSize = 0;
         maxGroupUncompressedByteSize = 0;
-        
-        if (elems.size() == 0) {
+
+        try {
+            if (heapSize != 0) {
+                merge();
+            }
+        }
+
+        finally {
+            closeRuns();
+
             // delete temp files
-            String name = String.format("temp.%02d", bucketNo);
-            File tempFile = new File(dbDir, name);
-            tempFile.delete();
-            return;
+            channel.close();
+            mergeFile.delete();
         }
-        
-        DataOutputStream stream = getFinalOutStream("records", bucketNo, "ndb");
-        DataOutputStream offStream = getFinalOutStream("offsets", bucketNo, "bin");
+    }
+
+    private void merge() throws IOException {
+        // DataOutputStream.size() saturates at 2GB, count the offsets as a long
+        CountingOutputStream counter = new CountingOutputStream(getFinalOutStream("records", bucketNo, "ndb"));
+        DataOutputStream stream = new DataOutputStream(counter);
+        DataOutputStream offStream = new DataOutputStream(getFinalOutStream("offsets", bucketNo, "bin"));
 
-        numWritten = 0;
-        maxGroupSize = 0;
-        SortElem curr = null;
-        int i = 0;
         IORecord valuesRec = new IORecord();
         IOBytes tempVal = new IOBytes();
-        
-        // get the max required memory so we don't spend resources growing
-        maxGroupUncompressedByteSize = calculateGroupMaxUncompressedByteSize();
-        valuesRec.resize((int)(maxGroupUncompressedByteSize * MEMORY_OVERHEAD_FACTOR));
-        tempVal.resize((int)(maxGroupUncompressedByteSize * MEMORY_OVERHEAD_FACTOR));
 
         // so the count field matches the group field name, e.g. child, childCount
         // if mapDB where we have no child, use origCount
         String countField = String.format("%sCount", onePerKey ? "orig" : groupOut.getName());
-        
-        while (i <  elems.size()) {
-            curr = elems.get(i);
+        boolean bloom = bloomFpp > 0;
+        KeyHashes hashes = hashIndex || bloom ? new KeyHashes(dbDir, bucketNo) : null;
+
+        while (heapSize > 0) {
+            TempBlockReader top = runs[heap[0]];
+            int keyLen = top.keyLength();
+            long prefix = top.keyPrefix();
+            if (groupKey.length < keyLen) {
+                groupKey = new byte[keyLen * 2];
+            }
+            System.arraycopy(top.buffer(), top.keyOffset(), groupKey, 0, keyLen);
+
+            // the group of the key, in order of arrival
+            int groupSize = 0;
+            int groupLen = 0;
+            int uncomp = 0;
+            do {
+                int valueLen = top.valueLength();
+                if (groupSize + 1 == groupValueOffs.length) {
+                    groupValueOffs = Arrays.copyOf(groupValueOffs, groupValueOffs.length * 2);
+                }
+
+                if (groupBytes.length < groupLen + valueLen) {
+                    groupBytes = Arrays.copyOf(groupBytes, Math.max(groupBytes.length * 2, groupLen + valueLen));
+                    groupBuf = ByteBuffer.wrap(groupBytes);
+                }
+
+                System.arraycopy(top.buffer(), top.valueOffset(), groupBytes, groupLen, valueLen);
+                groupValueOffs[groupSize++] = groupLen;
+                groupLen += valueLen;
+                groupValueOffs[groupSize] = groupLen; // end of the last
+                uncomp += getUncompressedValueByteSize(groupValueOffs[groupSize - 1], groupLen);
+
+                advanceTop();
+                top = heapSize > 0 ? runs[heap[0]] : null;
+            } while (top != null &&
+                    compare(top.buffer(), top.keyOffset(), top.keyLength(), top.keyPrefix(), groupKey, 0, keyLen, prefix) == 0);
 
-            int groupSize = getGroupSize(elems, i);
             maxGroupSize = Math.max(maxGroupSize, groupSize);
-            
+
+            // grow to the biggest group once rather than while adding to it
+            valuesRec.resetButKeepCapacity();
+            tempVal.resetButKeepCapacity();
+            if (uncomp > maxGroupUncompressedByteSize) {
+                maxGroupUncompressedByteSize = uncomp;
+                valuesRec.resize((int)(maxGroupUncompressedByteSize * MEMORY_OVERHEAD_FACTOR));
+                tempVal.resize((int)(maxGroupUncompressedByteSize * MEMORY_OVERHEAD_FACTOR));
+            }
+
             // format to disk:
             // [keyFields][compressedValueField]
-            offStream.writeInt(stream.size()); // offset to beginning of key fields
-            
-            curr.writeKeyField(stream);
-            valuesRec.resetButKeepCapacity();
+            offStream.writeLong(counter.getCount()); // offset to beginning of key fields
+
+            stream.write(groupKey, 0, keyLen);
+            if (hashes != null) {
+                hashes.add(BucketHashIndex.hash(groupKey, 0, keyLen));
+            }
+
             if (addCount) {
                 valuesRec.addField(countField, groupSize);
             }
-            
+
             if (onePerKey) {
-                tempVal.resetButKeepCapacity();
-                elems.get(i).writeValueBytesTo(tempVal);
+                writeValueBytesTo(groupValueOffs[0], groupValueOffs[1], tempVal);
                 ThreadDefs.get().inflate(tempVal, valuesRec);
             }
 
             else {
                 for (int j = 0; j < groupSize; j++) {
                     tempVal.resetButKeepCapacity();
-                    elems.get(i+j).writeValueBytesTo(tempVal);
+                    writeValueBytesTo(groupValueOffs[j], groupValueOffs[j + 1], tempVal);
                     valuesRec.addBytesAsRecordField(groupOut, tempVal, true);
                 }
             }
 
-            // AWKWARD fragment that must stay in sync with Record
-            // and FieldIterator mechanics. This is done in order to 
-            // not have to compose this in a Record (in memory)
-            ThreadDefs.get().deflate(valuesRec, tempVal);
-            stream.writeShort(FieldDefs.INTERNAL_FIELD_ID);
-            stream.writeByte((byte)FieldType.BYTES_ID); // type
-            VarLenNumberHelp.writeVarLenUnsignedInt(stream, tempVal.length()); // payload len
-            stream.write(tempVal.buffer(), 0, tempVal.length());
-            // end fragment
-            
+            ThreadDefs.get().deflate(valuesRec, tempVal, compressLevel);
+            writeValueField(stream, tempVal);
+
             numWritten++;
-            i += groupSize;
         }
 
         stream.close();
         offStream.close();
-        
-        // delete temp files
-        String name = String.format("temp.%02d", bucketNo);
-        File tempFile = new File(dbDir, name);
-        tempFile.delete();
-    }
-    
-    /**
-     * 
-     * @return the memory needed to hold the biggest group in bytes  
-     * @throws IOException 
-     */
-    private int calculateGroupMaxUncompressedByteSize() throws IOException {
-        int maxUncomp = 0;
-        int i = 0;
-        
-        while (i < elems.size()) {
-            int groupSize = getGroupSize(elems, i);
 
-            int uncomp = 0;
-            for (int j = 0; j < groupSize; j++) {
-                uncomp += elems.get(i+j).getUncompressedValueByteSize();    
-            }
+        if (hashes != null) {
+            try (KeyHashes spooled = hashes) {
+                if (hashIndex) {
+                    BucketHashIndex.write(dbDir, bucketNo, spooled);
+                }
 
-            maxUncomp = Math.max(maxUncomp, uncomp);
-            i += groupSize;
+                if (bloom) {
+                    BucketBloomFilter.write(dbDir, bucketNo, spooled, bloomFpp, bloomMaxBytes);
+                }
+            }
         }
-
-        return maxUncomp;
     }
 
     /**
-     * 
-     * @param elems
-     * @param currIdx
-     * @return
+     * writes the compressed value field of a record file entry
+     *
+     * @param stream
+     * @param compressedValue
+     * @throws IOException
      */
-    private int getGroupSize(List<SortElem> elems, int currIdx) {
-        SortElem curr = elems.get(currIdx);
-
-        int size = 1;
-        for (int i = currIdx + 1; i < elems.size(); i++) {
-            if (curr.compareTo(elems.get(i)) != 0) {
-                return size;
-            }
-            
-            size++;
-        }
-    
-        return size;
+    static void writeValueField(DataOutputStream stream, IOBytes compressedValue) throws IOException {
+        // AWKWARD fragment that must stay in sync with Record
+        // and FieldIterator mechanics. This is done in order to
+        // not have to compose this in a Record (in memory)
+        stream.writeShort(FieldDefs.INTERNAL_FIELD_ID);
+        stream.writeByte((byte)FieldType.BYTES_ID); // type
+        VarLenNumberHelp.writeVarLenUnsignedInt(stream, compressedValue.length()); // payload len
+        stream.write(compressedValue.buffer(), 0, compressedValue.length());
+        // end fragment
     }
 
     /**
-     * sort element based on keybytes not key types.
-     * the value coming from the temp files is compressed
      *
+     * @param valueOff offset of a compressed value field within the group bytes
+     * @param valueEnd
+     * @return the uncompressed size of the value
+     * @throws IOException
      */
-    public class SortElem implements Comparable<SortElem> {
-        public int keyOff;
-        public int keyLen;
-        public int valLen;
-        
-        // keyOff --------V
-        //format:         [keyFields][valueFields]
-        public SortElem(int keyOff, int keyLen, int valLen) {
-            this.keyOff = keyOff;
-            this.keyLen = keyLen;
-            this.valLen = valLen;
-        }
-        
-        public int getUncompressedValueByteSize() throws IOException {
-            // keyOff + keyLen --> is the beginning of the compressed bytes value field
-            // then we reach 3 bytes deeper to get at the postion where the varLenUnsignedInt reflecting
-            // the size of the compressed bytes of this field.  BUT we want the UNCOMPRESSED size which
-            // comes right after that.
-            int bytesOff = keyOff + keyLen + FieldIterator.FIELD_ID_LEN + FieldIterator.FIELD_TYPE_LEN;
-            
-            try {
-                buffer.position(bytesOff);
-                VarLenNumberHelp.getVarLenUnsignedInt(buffer); // compressed
-                return VarLenNumberHelp.getVarLenUnsignedInt(buffer); // uncompressed
-            }
-            
-            catch (BufferUnderflowException e) {
-                String msg = String.format("bucketNo=%d buffer.limit=%d bytesOff=%d", bucketNo, buffer.limit(), bytesOff); 
-                logger.error(msg);
-                throw new IOException(msg, e);
-            }
-        }
+    private int getUncompressedValueByteSize(int valueOff, int valueEnd) throws IOException {
+        // valueOff --> is the beginning of the compressed bytes value field
+        // then we reach 3 bytes deeper to get at the postion where the varLenUnsignedInt reflecting
+        // the size of the compressed bytes of this field.  BUT we want the UNCOMPRESSED size which
+        // comes right after that.
+        int bytesOff = valueOff + FieldIterator.FIELD_ID_LEN + FieldIterator.FIELD_TYPE_LEN;
 
-        public void writeKeyField(DataOutputStream stream) throws IOException {
-            buffer.position(keyOff);
-            for (int i = 0; i < keyLen; i++) {
-                stream.write(buffer.get());
-            }
-        }
-        
-        public void writeValueBytes(DataOutputStream stream) throws IOException {
-            buffer.position(keyOff + keyLen);
-            for (int i = 0; i < valLen; i++) {
-                stream.write(buffer.get());
-            }
+        try {
+            readHeader(bytesOff, valueEnd);
+            VarLenNumberHelp.getVarLenUnsignedInt(groupBuf); // compressed
+            return VarLenNumberHelp.getVarLenUnsignedInt(groupBuf); // uncompressed
         }
 
-        public void writeKeyAndValueFields(DataOutputStream stream) throws IOException {
-            int len = keyLen + valLen;
-            buffer.position(keyOff);
-            for (int i = 0; i < len; i++) {
-                stream.write(buffer.get());
-            }
+        catch (BufferUnderflowException e) {
+            String msg = String.format("bucketNo=%d valueOff=%d valueEnd=%d", bucketNo, valueOff, valueEnd);
+            logger.error(msg);
+            throw new IOException(msg, e);
         }
-        
-        public void writeKeyFieldTo(IORecord out) {
-            buffer.position(keyOff);
-            for (int i = 0; i < keyLen; i++) {
-                out.putByte(buffer.get());
-            }
-        }
-        
-        public void writeValueBytesTo(IOBytes out) {
-            // keyOff + keyLen --> is the beginning of the value field
-            int bytesOff = keyOff + keyLen + FieldIterator.FIELD_ID_LEN + FieldIterator.FIELD_TYPE_LEN;
-            buffer.position(bytesOff);
-            int compressedLen = VarLenNumberHelp.getVarLenUnsignedInt(buffer); // compressed
-            for (int i = 0; i < compressedLen; i++) {
-                out.putByte(buffer.get());
-            }
-        }
-        
-        /*
-        public void writeValueFieldTo(IOBytes out) {
-            // keyOff + keyLen --> is the beginning of the value field
-            // here we want the value field bytes
-            int bytesOff = keyOff + keyLen; // fid=2, type=1, len=4
-            buffer.position(bytesOff);
-            for (int i = 0; i < valLen; i++) {
-                out.putByte(buffer.get());
-            }
-        }*/
-
-        @Override
-        public int compareTo(SortElem o2) {
-            if (o2 == null) return -1;
-            int lim = Math.min(keyLen, o2.keyLen);
-
-            int i = 0;
-            while (i < lim) {
-                byte a = buffer.get(keyOff + i);
-                byte b = buffer.get(o2.keyOff + i);
-                if (a != b) {
-                    return (a & 0xFF) - (b & 0xFF);
-                }
+    }
 
-                i++;
-            }
-            
-            return keyLen - o2.keyLen;
-        }
+    private void writeValueBytesTo(int valueOff, int valueEnd, IOBytes out) {
+        // valueOff --> is the beginning of the value field
+        int bytesOff = valueOff + FieldIterator.FIELD_ID_LEN + FieldIterator.FIELD_TYPE_LEN;
+        readHeader(bytesOff, valueEnd);
+        int compressedLen = VarLenNumberHelp.getVarLenUnsignedInt(groupBuf); // compressed
+        out.putBytes(groupBytes, groupBuf.position(), compressedLen);
     }
 
     /**
-     * gets the maximum file size of all the temp files.
-     * 
-     * @param dbDir
-     * @return
-     */
-    private static long getMaxTempFileSize(File dbDir) {
-        TempFileFilter tff = new TempFileFilter();
-        File[] files = dbDir.listFiles(tff);
-        long max = Long.MIN_VALUE;
-        for (File temp : files) {
-            max = Math.max(max, temp.length());
-        }
-
-        return max;
-    }
-    
-    /**                                                                                                                                                                   
-     * filter for the temp files of a bucket                                                                                                                                   
+     * positions the group buffer on the value field bytes following its field header
+     *
+     * @param pos
+     * @param end of the value field
      */
-    private static class TempFileFilter implements FileFilter {
-        @Override
-        public boolean accept(File pathname) {
-            String path = pathname.toString();
-            return path.contains("temp");
-        }
+    private void readHeader(int pos, int end) {
+        groupBuf.limit(end);
+        groupBuf.position(pos);
     }
 }
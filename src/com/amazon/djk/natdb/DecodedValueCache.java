@@ -0,0 +1,106 @@
+package com.amazon.djk.natdb;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size bounded LRU cache of decoded natdb values, keyed by bucket and record
+ * number, so that repeated lookups of hot keys skip inflating and translating
+ * the stored value.  Shared by the replicas of a keyed source, it is striped
+ * into independently locked LRU maps to limit contention.
+ */
+class DecodedValueCache {
+    private static final int NUM_STRIPES = 32;
+    private static final int ENTRY_OVERHEAD = 64; // bytes per entry beyond the value
+    private final Stripe[] stripes = new Stripe[NUM_STRIPES];
+    private final LongAdder numHits = new LongAdder();
+    private final LongAdder numMisses = new LongAdder();
+
+    /**
+     * an access ordered map evicting beyond its byte budget
+     */
+    private static class Stripe extends LinkedHashMap<Long,byte[]> {
+        private static final long serialVersionUID = 1L;
+        private final long maxBytes;
+        private long numBytes = 0;
+
+        Stripe(long maxBytes) {
+            super(16, 0.75f, true);
+            this.maxBytes = maxBytes;
+        }
+
+        void add(Long key, byte[] value) {
+            byte[] prev = put(key, value);
+            numBytes += value.length + ENTRY_OVERHEAD;
+            if (prev != null) {
+                numBytes -= prev.length + ENTRY_OVERHEAD;
+            }
+
+            while (numBytes > maxBytes && !isEmpty()) {
+                byte[] eldest = remove(keySet().iterator().next());
+                numBytes -= eldest.length + ENTRY_OVERHEAD;
+            }
+        }
+    }
+
+    /**
+     *
+     * @param maxBytes
+     */
+    public DecodedValueCache(long maxBytes) {
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            stripes[i] = new Stripe(maxBytes / NUM_STRIPES);
+        }
+    }
+
+    private static long getKey(int bucketNo, int recNo) {
+        return ((long)bucketNo << 32) | recNo;
+    }
+
+    private Stripe getStripe(long key) {
+        return stripes[(int)((key * 0x9E3779B97F4A7C15L) >>> 59)]; // top 5 bits
+    }
+
+    /**
+     *
+     * @param bucketNo
+     * @param recNo
+     * @return the decoded value bytes or null if not cached
+     */
+    public byte[] get(int bucketNo, int recNo) {
+        long key = getKey(bucketNo, recNo);
+        Stripe stripe = getStripe(key);
+        byte[] value;
+        synchronized (stripe) {
+            value = stripe.get(key);
+        }
+
+        if (value != null) numHits.increment();
+        else numMisses.increment();
+        return value;
+    }
+
+    /**
+     *
+     * @param bucketNo
+     * @param recNo
+     * @param value decoded value bytes, not to be modified afterwards
+     */
+    public void put(int bucketNo, int recNo, byte[] value) {
+        long key = getKey(bucketNo, recNo);
+        Stripe stripe = getStripe(key);
+        if (value.length + ENTRY_OVERHEAD > stripe.maxBytes) return;
+
+        synchronized (stripe) {
+            stripe.add(key, value);
+        }
+    }
+
+    public long getNumHits() {
+        return numHits.sum();
+    }
+
+    public long getNumMisses() {
+        return numMisses.sum();
+    }
+}
@@ -0,0 +1,202 @@
+package com.amazon.djk.natdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.amazon.djk.expression.ParseToken;
+import com.amazon.djk.expression.SyntaxError;
+import com.amazon.djk.file.FormatArgs;
+import com.amazon.djk.file.LocalFileSystem;
+import com.amazon.djk.file.SourceProperties;
+
+/**
+ * The segments of a natdb.  A delta is a natdb of its own within a numbered
+ * subdirectory of the base natdb, written by mapDB/groupDB with delta=true.
+ * Its keys are hashed to the buckets of the base, i.e. by the stored field ids
+ * of the base, so that lookups and NativeDBCompactor can treat bucket N of
+ * every segment alike.  The entry of a key in a newer segment replaces those
+ * of older segments.
+ *
+ * A delta is complete once its source.properties exists.
+ *
+ * The base buckets are those of the natdb directory itself until compacted.
+ * NativeDBCompactor writes the merged buckets as a natdb of their own within a
+ * numbered base subdirectory, then switches to it by renaming over the
+ * source.properties of the natdb a copy of its own, naming the base directory
+ * and the last delta merged into it.  Readers take the base and the deltas
+ * newer than that one from the properties they read, so they never mix the
+ * files of two compactions.
+ */
+class DeltaSegments {
+    private static final String PREFIX = "delta.";
+    private static final String BASE_PREFIX = "base.";
+    public static final String BASE_DIR_EXTRA = "baseDir";
+    public static final String MERGED_DELTAS_EXTRA = "mergedDeltas";
+
+    /**
+     *
+     * @param dbDir the natdb
+     * @param props the properties of the natdb
+     * @return the directory of the base buckets
+     */
+    public static File getBaseDir(File dbDir, SourceProperties props) {
+        String name = props.getExtra(BASE_DIR_EXTRA);
+        return name != null ? new File(dbDir, name) : dbDir;
+    }
+
+    /**
+     *
+     * @param props the properties of the natdb
+     * @return the number of the newest delta merged into the base, 0 for none
+     */
+    public static int getMergedDeltas(SourceProperties props) {
+        String value = props.getExtra(MERGED_DELTAS_EXTRA);
+        return value != null ? Integer.parseInt(value) : 0;
+    }
+
+    /**
+     *
+     * @param dbDir the natdb
+     * @param props the properties of the natdb
+     * @return the complete delta directories not merged into the base, oldest first
+     */
+    public static List<File> list(File dbDir, SourceProperties props) {
+        return list(dbDir, props, false);
+    }
+
+    /**
+     *
+     * @param dbDir the natdb
+     * @param props the properties of the natdb
+     * @return the deltas to merge into a new base, those complete up to the first
+     * incomplete one, so that every delta numbered up to the last merged is merged.
+     */
+    public static List<File> listMergeable(File dbDir, SourceProperties props) {
+        return list(dbDir, props, true);
+    }
+
+    private static List<File> list(File dbDir, SourceProperties props, boolean untilIncomplete) {
+        List<File> deltas = new ArrayList<>();
+        File[] files = dbDir.listFiles();
+        if (files == null) return deltas;
+
+        int merged = getMergedDeltas(props);
+        Arrays.sort(files);
+        for (File file : files) {
+            if (getNumber(file, PREFIX) <= merged) continue;
+
+            if (new File(file, FormatArgs.SOURCE_PROP_FILE).exists()) {
+                deltas.add(file);
+            } else if (untilIncomplete) {
+                break;
+            }
+        }
+
+        return deltas;
+    }
+
+    /**
+     *
+     * @param dbDir the natdb
+     * @param props the properties of the natdb
+     * @return a new empty directory for the next delta
+     * @throws IOException
+     */
+    public static File create(File dbDir, SourceProperties props) throws IOException {
+        // numbers of merged deltas are not reused, even once deleted
+        return create(dbDir, PREFIX, getMergedDeltas(props));
+    }
+
+    /**
+     *
+     * @param dbDir the natdb
+     * @return a new empty directory for the next base
+     * @throws IOException
+     */
+    public static File createBase(File dbDir) throws IOException {
+        return create(dbDir, BASE_PREFIX, 0);
+    }
+
+    private static File create(File dbDir, String prefix, int min) throws IOException {
+        int max = min;
+        File[] files = dbDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                max = Math.max(max, getNumber(file, prefix));
+            }
+        }
+
+        // mkdir fails if a concurrent writer took the number
+        for (int number = max + 1; ; number++) {
+            File dir = new File(dbDir, String.format("%s%05d", prefix, number));
+            if (dir.mkdir()) return dir;
+            if (!dir.exists()) {
+                throw new IOException("unable to create directory: " + dir);
+            }
+        }
+    }
+
+    /**
+     *
+     * @param dbDir the natdb
+     * @return the base directories of the natdb, complete or not
+     */
+    public static List<File> listBases(File dbDir) {
+        List<File> bases = new ArrayList<>();
+        File[] files = dbDir.listFiles();
+        if (files == null) return bases;
+
+        for (File file : files) {
+            if (getNumber(file, BASE_PREFIX) != -1) {
+                bases.add(file);
+            }
+        }
+
+        return bases;
+    }
+
+    /**
+     *
+     * @param file
+     * @return the number of a delta directory, -1 for other files
+     */
+    public static int getNumber(File file) {
+        return getNumber(file, PREFIX);
+    }
+
+    /**
+     *
+     * @param file
+     * @param prefix
+     * @return the number of a directory of the prefix, -1 for other files
+     */
+    private static int getNumber(File file, String prefix) {
+        String name = file.getName();
+        if (!name.startsWith(prefix) || !file.isDirectory()) return -1;
+
+        try {
+            return Integer.parseInt(name.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     *
+     * @param dir of a natdb
+     * @return the properties of the natdb
+     * @throws IOException
+     */
+    public static SourceProperties getProperties(File dir) throws IOException {
+        String uri = String.format("%s://%s", LocalFileSystem.LOCAL_SCHEME, dir.getAbsolutePath());
+        SourceProperties props = FormatArgs.createLocal(new ParseToken(uri)).getSourceProperties();
+        if (props.getKeyFields().length < 1) {
+            throw new SyntaxError(dir + " not valid native DB path");
+        }
+
+        return props;
+    }
+}
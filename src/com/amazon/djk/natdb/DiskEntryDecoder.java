@@ -47,6 +47,28 @@ public class DiskEntryDecoder {
         return recordIO;
     }
     
+    /**
+     * decodes the key fields only, leaving the value compressed
+     * 
+     * @param inrec
+     * @param outrec
+     * @throws IOException
+     */
+    public void decodeKey(IORecord inrec, Record outrec) throws IOException {
+        outrec.reset();
+
+        fiter.init(inrec);
+        for (int i = 0; i < numKeyFields; i++) {
+            if (!fiter.next()) {
+                throw new IOException("format error missing key field number=" + i);
+            }
+
+            outrec.addField(fiter);
+        }
+
+        recordIO.translate(outrec, Direction.STORED_TO_LIVE);
+    }
+
     public void decode(IORecord inrec, Record outrec, boolean withKey) throws IOException {
         outrec.reset();
         
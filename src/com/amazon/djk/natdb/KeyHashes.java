@@ -0,0 +1,80 @@
+package com.amazon.djk.natdb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The key hashes of the records of a bucket in record number order, spooled to
+ * a temp file while the bucket is written rather than held on-heap, then read
+ * back to build its BucketHashIndex and BucketBloomFilter.
+ */
+class KeyHashes implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final File file;
+    private DataOutputStream stream;
+    private int size = 0;
+
+    /**
+     *
+     * @param dir the directory of the temp file
+     * @param bucketNo
+     * @throws IOException
+     */
+    public KeyHashes(File dir, int bucketNo) throws IOException {
+        this.file = File.createTempFile("hashes-" + bucketNo + ".", ".tmp", dir);
+        this.stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+    }
+
+    /**
+     *
+     * @param hash the key hash of the next record
+     * @throws IOException
+     */
+    public void add(long hash) throws IOException {
+        stream.writeLong(hash);
+        size++;
+    }
+
+    /**
+     *
+     * @return the number of hashes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * ends adding
+     *
+     * @return a stream of the hashes in the order added
+     * @throws IOException
+     */
+    public DataInputStream open() throws IOException {
+        if (stream != null) {
+            stream.close();
+            stream = null;
+        }
+
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+    }
+
+    /**
+     * deletes the temp file
+     */
+    @Override
+    public void close() throws IOException {
+        if (stream != null) {
+            stream.close();
+            stream = null;
+        }
+
+        file.delete();
+    }
+}
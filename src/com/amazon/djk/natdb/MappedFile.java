@@ -0,0 +1,183 @@
+package com.amazon.djk.natdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.amazon.djk.record.RecordIO.IOBytes;
+import com.amazon.djk.record.RecordIO.IORecord;
+
+/**
+ * A memory mapping of a file of any size, read only unless created.  A single
+ * MappedByteBuffer is limited to 2GB, so the file is mapped as consecutive
+ * segments addressed by long positions.  Reads that straddle two segments are
+ * assembled.
+ *
+ * Positional reads are not thread safe, use replicate() per thread.
+ */
+class MappedFile {
+    private static final int SEGMENT_BITS = 30; // 1GB
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private final ByteBuffer[] segments;
+    private final long size;
+
+    /**
+     *
+     * @param file
+     * @return the mapped file
+     * @throws IOException
+     */
+    public static MappedFile map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel(); ) {
+            long size = channel.size();
+            int numSegments = (int)((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+            ByteBuffer[] segments = new ByteBuffer[numSegments];
+            for (int i = 0; i < numSegments; i++) {
+                long start = (long)i << SEGMENT_BITS;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+
+            return new MappedFile(segments, size);
+        }
+    }
+
+    /**
+     * creates a zero filled file mapped for writing
+     *
+     * @param file
+     * @param size
+     * @return the mapped file
+     * @throws IOException
+     */
+    public static MappedFile create(File file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel(); ) {
+            raf.setLength(size);
+            int numSegments = (int)((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+            ByteBuffer[] segments = new ByteBuffer[numSegments];
+            for (int i = 0; i < numSegments; i++) {
+                long start = (long)i << SEGMENT_BITS;
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+
+            return new MappedFile(segments, size);
+        }
+    }
+
+    private MappedFile(ByteBuffer[] segments, long size) {
+        this.segments = segments;
+        this.size = size;
+    }
+
+    /**
+     *
+     * @return a view of the same mapping with independent positions
+     */
+    public MappedFile replicate() {
+        ByteBuffer[] views = new ByteBuffer[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            views[i] = segments[i].asReadOnlyBuffer();
+        }
+
+        return new MappedFile(views, size);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public byte get(long pos) {
+        return segments[(int)(pos >>> SEGMENT_BITS)].get((int)(pos & SEGMENT_MASK));
+    }
+
+    public int getInt(long pos) {
+        int off = (int)(pos & SEGMENT_MASK);
+        if (off + 4 <= SEGMENT_SIZE) {
+            return segments[(int)(pos >>> SEGMENT_BITS)].getInt(off);
+        }
+
+        // big endian as ByteBuffer
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (get(pos + i) & 0xFF);
+        }
+
+        return value;
+    }
+
+    public long getLong(long pos) {
+        int off = (int)(pos & SEGMENT_MASK);
+        if (off + 8 <= SEGMENT_SIZE) {
+            return segments[(int)(pos >>> SEGMENT_BITS)].getLong(off);
+        }
+
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (get(pos + i) & 0xFF);
+        }
+
+        return value;
+    }
+
+    /**
+     * writes a long of a created file
+     *
+     * @param pos a multiple of 8, never straddling segments
+     * @param value
+     */
+    public void putLong(long pos, long value) {
+        segments[(int)(pos >>> SEGMENT_BITS)].putLong((int)(pos & SEGMENT_MASK), value);
+    }
+
+    /**
+     * copies bytes of the file
+     *
+     * @param pos position within the file
+     * @param dst
+     * @param dstOff
+     * @param len
+     */
+    public void get(long pos, byte[] dst, int dstOff, int len) {
+        while (len > 0) {
+            ByteBuffer segment = segments[(int)(pos >>> SEGMENT_BITS)];
+            int off = (int)(pos & SEGMENT_MASK);
+            int num = Math.min(len, segment.limit() - off);
+            segment.position(off);
+            segment.get(dst, dstOff, num);
+            pos += num;
+            dstOff += num;
+            len -= num;
+        }
+    }
+
+    /**
+     * sets the record to bytes of the file
+     *
+     * @param pos
+     * @param len
+     * @param out
+     */
+    public void get(long pos, int len, IORecord out) {
+        out.reset();
+        out.resize(len);
+        get(pos, out.buffer(), 0, len);
+        out.setLength(len);
+    }
+
+    /**
+     * appends bytes of the file
+     *
+     * @param pos
+     * @param len
+     * @param out
+     */
+    public void append(long pos, int len, IOBytes out) {
+        out.resize(len);
+        get(pos, out.buffer(), out.length(), len);
+        out.setLength(out.length() + len);
+    }
+}
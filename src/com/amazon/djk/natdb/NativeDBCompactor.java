@@ -0,0 +1,578 @@
+package com.amazon.djk.natdb;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazon.djk.core.BaseRecordSource;
+import com.amazon.djk.core.RecordSource;
+import com.amazon.djk.expression.Arg;
+import com.amazon.djk.expression.ArgType;
+import com.amazon.djk.expression.OpArgs;
+import com.amazon.djk.expression.Param;
+import com.amazon.djk.expression.SourceOperator;
+import com.amazon.djk.expression.SyntaxError;
+import com.amazon.djk.file.FormatArgs;
+import com.amazon.djk.file.SourceProperties;
+import com.amazon.djk.manual.Description;
+import com.amazon.djk.processor.CoreDefs;
+import com.amazon.djk.record.Record;
+import com.amazon.djk.record.RecordIO;
+import com.amazon.djk.record.RecordIO.Direction;
+import com.amazon.djk.record.RecordIO.IOBytes;
+import com.amazon.djk.record.RecordIO.IORecord;
+import com.amazon.djk.record.ThreadDefs;
+import com.amazon.djk.report.ReportFormats;
+import com.amazon.djk.report.ScalarProgress;
+import com.amazon.djk.report.ScalarResolver.AggType;
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * Merges the delta segments of a natdb back into its base buckets.  Bucket N of
+ * every segment holds the same keys, sorted alike (see DeltaSegments), so each
+ * bucket is merged on its own keeping the entry of the newest segment per key.
+ * The merged field list extends that of the base, so base entries are copied
+ * as is and only delta entries are translated.
+ *
+ * The merged buckets are written to a new base directory, which a rename of
+ * the source.properties of the natdb switches to (see DeltaSegments).  Lookups
+ * opened before the switch keep reading the previous base and deltas, which
+ * are only deleted by the next compaction.  A lock file serializes compactions
+ * of the same natdb.
+ */
+@ReportFormats(headerFormat="<dir>%s", lineFormats={"segments=%d recsMerged=%,d"})
+public class NativeDBCompactor extends BaseRecordSource {
+    private static final Logger logger = LoggerFactory.getLogger(NativeDBCompactor.class);
+    public static final String NAME = "compactDB";
+    private static final String LOCK_FILE = "compact.lock";
+    private static final String POINTER_DIR = "pointer.tmp";
+    private final Record rec = new Record();
+    private final boolean hashIndex;
+    private final double bloomFpp;
+    private final long bloomMaxBytes;
+    private final CoreDefs coreDefs; // for the merge threads
+    private boolean done = false;
+
+    @ScalarProgress(name="dir")
+    private final File dbDir;
+
+    @ScalarProgress(name="segments", aggregate=AggType.NONE)
+    private volatile int numSegments = 0;
+
+    @ScalarProgress(name="recsMerged", aggregate=AggType.NONE)
+    private volatile long numMerged = 0;
+
+    public NativeDBCompactor(OpArgs args) throws IOException {
+        dbDir = new File((String)args.getArg("PATH"));
+        coreDefs = CoreDefs.get();
+        hashIndex = (Boolean)args.getParam(NativeDBSink.HASH_INDEX);
+        bloomFpp = (Double)args.getParam(NativeDBSink.BLOOM_FPP);
+        bloomMaxBytes = (Long)args.getParam(NativeDBSink.BLOOM_MAX_BYTES);
+        if (bloomFpp < 0 || bloomFpp >= 1) {
+            throw new SyntaxError(NativeDBSink.BLOOM_FPP + " must be in [0,1)");
+        }
+    }
+
+    /**
+     * compacts, then returns a record of the result
+     */
+    @Override
+    public Record next() throws IOException {
+        if (done) return null;
+        done = true;
+
+        compact();
+        rec.reset();
+        rec.addField("dir", dbDir.getAbsolutePath());
+        rec.addField("segments", (long)numSegments);
+        rec.addField("recsMerged", numMerged);
+        reportSourcedRecord(rec);
+        return rec;
+    }
+
+    /**
+     * merges the delta segments existing at the time of the call into a new base
+     *
+     * @throws IOException
+     */
+    public void compact() throws IOException {
+        // concurrent compactions would merge the same deltas and delete each other's bases
+        try (FileChannel lockChannel = FileChannel.open(new File(dbDir, LOCK_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = tryLock(lockChannel);
+            try {
+                compactLocked();
+            }
+
+            finally {
+                lock.release();
+            }
+        }
+    }
+
+    private FileLock tryLock(FileChannel channel) throws IOException {
+        FileLock lock = null;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // held within this process
+        }
+
+        if (lock == null) {
+            throw new IOException("compaction already in progress: " + dbDir);
+        }
+
+        return lock;
+    }
+
+    private void compactLocked() throws IOException {
+        SourceProperties baseProps = DeltaSegments.getProperties(dbDir);
+        File baseDir = DeltaSegments.getBaseDir(dbDir, baseProps);
+        List<File> deltas = DeltaSegments.listMergeable(dbDir, baseProps);
+        numSegments = deltas.size() + 1;
+        if (deltas.isEmpty()) {
+            numMerged = baseProps.totalRecs();
+            return;
+        }
+
+        // oldest first
+        List<File> segDirs = new ArrayList<>();
+        List<SourceProperties> segProps = new ArrayList<>();
+        segDirs.add(baseDir);
+        segProps.add(baseProps);
+        for (File delta : deltas) {
+            segDirs.add(delta);
+            segProps.add(DeltaSegments.getProperties(delta));
+        }
+
+        // the base fields followed by those new in deltas
+        List<String> fields = new ArrayList<>(Arrays.asList(baseProps.getSourceFields()));
+        Set<String> known = new HashSet<>(fields);
+        for (SourceProperties props : segProps) {
+            for (String name : props.getSourceFields()) {
+                if (known.add(name)) {
+                    fields.add(name);
+                }
+            }
+        }
+
+        int numBuckets = Integer.parseInt(baseProps.getExtra("numBuckets"));
+        int mergedDeltas = DeltaSegments.getNumber(deltas.get(deltas.size() - 1));
+        File newBase = DeltaSegments.createBase(dbDir);
+        File pointer = new File(newBase, POINTER_DIR);
+        try {
+            merge(segDirs, segProps, fields, newBase, numBuckets);
+            writeProperties(newBase, baseProps, segProps, fields, numBuckets, mergedDeltas, null);
+            if (!pointer.mkdir()) {
+                throw new IOException("unable to create directory: " + pointer);
+            }
+
+            writeProperties(pointer, baseProps, segProps, fields, numBuckets, mergedDeltas, newBase.getName());
+        }
+
+        catch (IOException | RuntimeException e) {
+            deleteDir(newBase);
+            throw e;
+        }
+
+        // the single switch, readers take either the old base and deltas or the new
+        Files.move(new File(pointer, FormatArgs.SOURCE_PROP_FILE).toPath(), new File(dbDir, FormatArgs.SOURCE_PROP_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        deleteDir(pointer);
+        deleteSuperseded(baseProps, baseDir, newBase, numBuckets);
+        logger.info(String.format("compacted dir=%s base=%s recs=%d", dbDir, newBase.getName(), numMerged));
+    }
+
+    private void merge(List<File> segDirs, List<SourceProperties> segProps, List<String> fields, File newBase, int numBuckets) throws IOException {
+        AtomicInteger nextBucket = new AtomicInteger(0);
+        AtomicLong merged = new AtomicLong(0);
+        int numThreads = Math.min(numBuckets, ThreadDefs.get().getNumSortThreads());
+        logger.info(String.format("compacting dir=%s segments=%d threads=%d", dbDir, numSegments, numThreads));
+
+        BucketMerger[] mergers = new BucketMerger[numThreads];
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            mergers[i] = new BucketMerger(segDirs, segProps, fields, newBase, numBuckets, nextBucket, merged);
+            threads[i] = new Thread(mergers[i], NAME + "-" + i);
+            threads[i].start();
+        }
+
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("compaction interrupted", e);
+        }
+
+        for (BucketMerger merger : mergers) {
+            if (merger.exception != null) throw merger.exception;
+        }
+
+        numMerged = merged.get();
+    }
+
+    /**
+     * deletes the segments superseded by the previous compaction.  Those of the
+     * previous base are kept for readers that read the properties before the switch.
+     *
+     * @param prevProps the properties before the switch
+     * @param prevBase the base directory before the switch
+     * @param newBase
+     * @param numBuckets
+     * @throws IOException
+     */
+    private void deleteSuperseded(SourceProperties prevProps, File prevBase, File newBase, int numBuckets) throws IOException {
+        // including those of failed compactions
+        for (File base : DeltaSegments.listBases(dbDir)) {
+            if (!base.equals(prevBase) && !base.equals(newBase)) {
+                deleteDir(base);
+            }
+        }
+
+        // the buckets of the natdb directory itself until first compacted
+        if (!prevBase.equals(dbDir)) {
+            for (int i = 0; i < numBuckets; i++) {
+                delete(BucketAccess.getRecordsFileName(i));
+                delete(BucketAccess.getOffsetsFileName(i));
+                delete(BucketHashIndex.getFileName(i));
+                delete(BucketBloomFilter.getFileName(i));
+            }
+        }
+
+        int prevMerged = DeltaSegments.getMergedDeltas(prevProps);
+        File[] files = dbDir.listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            int number = DeltaSegments.getNumber(file);
+            if (number != -1 && number <= prevMerged) {
+                deleteDir(file);
+            }
+        }
+    }
+
+    private void delete(String name) throws IOException {
+        File file = new File(dbDir, name);
+        if (file.exists() && !file.delete()) {
+            throw new IOException("unable to delete " + file);
+        }
+    }
+
+    private static void deleteDir(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                deleteDir(file);
+            } else if (!file.delete()) {
+                throw new IOException("unable to delete " + file);
+            }
+        }
+
+        if (!dir.delete()) {
+            throw new IOException("unable to delete " + dir);
+        }
+    }
+
+    /**
+     *
+     * @param dir
+     * @param baseProps
+     * @param segProps
+     * @param fields
+     * @param numBuckets
+     * @param mergedDeltas the number of the newest delta merged
+     * @param baseDir the name of the base directory for the properties of the natdb, null for those of the base
+     * @throws IOException
+     */
+    private void writeProperties(File dir, SourceProperties baseProps, List<SourceProperties> segProps,
+            List<String> fields, int numBuckets, int mergedDeltas, String baseDir) throws IOException {
+        Map<String,String> extras = new HashMap<>();
+        extras.put("groupOut", baseProps.getExtra("groupOut"));
+        extras.put(BucketAccess.VERSION_EXTRA, Integer.toString(BucketAccess.CURRENT_VERSION));
+        extras.put("numBuckets", Integer.toString(numBuckets));
+        extras.put("bucketMaxGroupSizes", maxOfIntArrays(segProps, "bucketMaxGroupSizes", numBuckets));
+        extras.put("bucketMaxByteSizes", maxOfIntArrays(segProps, "bucketMaxByteSizes", numBuckets));
+        extras.put(DeltaSegments.MERGED_DELTAS_EXTRA, Integer.toString(mergedDeltas));
+        if (baseDir != null) {
+            extras.put(DeltaSegments.BASE_DIR_EXTRA, baseDir);
+        }
+
+        SourceProperties.write(dir, numMerged, NativeDBSink.FORMAT, NativeDBFileParser.STREAM_FILE_REGEX,
+                Arrays.asList(baseProps.getKeyFields()), extras, null, fields);
+    }
+
+    /**
+     *
+     * @param segProps
+     * @param extra name of a comma separated int per bucket
+     * @param numBuckets
+     * @return the maximum per bucket across segments
+     */
+    private static String maxOfIntArrays(List<SourceProperties> segProps, String extra, int numBuckets) {
+        int[] max = new int[numBuckets];
+        for (SourceProperties props : segProps) {
+            String value = props.getExtra(extra);
+            if (value == null || value.isEmpty()) continue;
+
+            String[] values = value.split(",");
+            for (int i = 0; i < values.length && i < numBuckets; i++) {
+                max[i] = Math.max(max[i], Integer.parseInt(values[i]));
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int i : max) {
+            if (sb.length() != 0) {
+                sb.append(',');
+            }
+            sb.append(i);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * the records of a bucket of one segment in key order
+     */
+    private static class Cursor {
+        final BucketAccess access;
+        final DiskEntryDecoder decoder;
+        final boolean asIs; // stored field ids are those of the merge
+        final IORecord entry = new IORecord();
+        final Record key = new Record(); // live field ids
+        boolean valid = false;
+
+        Cursor(BucketAccess access, DiskEntryDecoder decoder, boolean asIs) {
+            this.access = access;
+            this.decoder = decoder;
+            this.asIs = asIs;
+        }
+
+        boolean advance() throws IOException {
+            valid = access.nextUndecoded(entry);
+            if (valid) {
+                decoder.decodeKey(entry, key);
+            }
+
+            return valid;
+        }
+    }
+
+    /**
+     * merges buckets until none are left
+     */
+    private class BucketMerger implements Runnable {
+        private final List<File> segDirs;
+        private final List<SourceProperties> segProps;
+        private final String[] fields;
+        private final File outDir;
+        private final int numBuckets;
+        private final AtomicInteger nextBucket;
+        private final AtomicLong merged;
+        private final Record outKey = new Record();
+        private final Record value = new Record();
+        private final IOBytes compressed = new IOBytes();
+        private volatile IOException exception = null;
+
+        BucketMerger(List<File> segDirs, List<SourceProperties> segProps, List<String> fields, File outDir,
+                int numBuckets, AtomicInteger nextBucket, AtomicLong merged) {
+            this.segDirs = segDirs;
+            this.segProps = segProps;
+            this.fields = fields.toArray(new String[0]);
+            this.outDir = outDir;
+            this.numBuckets = numBuckets;
+            this.nextBucket = nextBucket;
+            this.merged = merged;
+        }
+
+        @Override
+        public void run() {
+            ThreadDefs.initialize(coreDefs);
+            try {
+                RecordIO mergedIO = new RecordIO(fields);
+                DiskEntryDecoder[] decoders = new DiskEntryDecoder[segProps.size()];
+                boolean[] asIs = new boolean[segProps.size()];
+                for (int s = 0; s < decoders.length; s++) {
+                    decoders[s] = new DiskEntryDecoder(segProps.get(s));
+                    String[] segFields = segProps.get(s).getSourceFields();
+                    asIs[s] = Arrays.asList(fields).subList(0, Math.min(fields.length, segFields.length)).equals(Arrays.asList(segFields));
+                }
+
+                while (true) {
+                    int bucketNo = nextBucket.getAndIncrement();
+                    if (bucketNo >= numBuckets) break;
+                    merged.addAndGet(merge(bucketNo, decoders, asIs, mergedIO));
+                }
+            }
+
+            catch (Exception e) {
+                logger.error("compaction failure", e);
+                exception = e instanceof IOException ? (IOException)e : new IOException(e);
+                nextBucket.set(numBuckets); // stop the others
+            }
+        }
+
+        /**
+         *
+         * @param bucketNo
+         * @param decoders by segment
+         * @param asIs by segment
+         * @param mergedIO
+         * @return the number of records written
+         * @throws IOException
+         */
+        private int merge(int bucketNo, DiskEntryDecoder[] decoders, boolean[] asIs, RecordIO mergedIO) throws IOException {
+            List<Cursor> cursors = new ArrayList<>(); // oldest first
+            for (int s = 0; s < segDirs.size(); s++) {
+                int offsetBytes = BucketAccess.getOffsetBytes(segProps.get(s));
+                BucketAccess access = BucketAccess.create(bucketNo, segDirs.get(s), offsetBytes);
+                if (access == null) continue;
+
+                Cursor cursor = new Cursor(access, decoders[s], asIs[s]);
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                }
+            }
+
+            if (cursors.isEmpty()) return 0;
+
+            KeyHashes hashes = new KeyHashes(outDir, bucketNo);
+            int numWritten = 0;
+            CountingOutputStream counter = new CountingOutputStream(getOutStream(BucketAccess.getRecordsFileName(bucketNo)));
+            try (DataOutputStream stream = new DataOutputStream(counter);
+                 DataOutputStream offStream = new DataOutputStream(getOutStream(BucketAccess.getOffsetsFileName(bucketNo)))) {
+
+                while (true) {
+                    // the smallest key, the newest segment for equal keys
+                    Cursor min = null;
+                    for (Cursor cursor : cursors) {
+                        if (cursor.valid && (min == null || compare(cursor.key, min.key) <= 0)) {
+                            min = cursor;
+                        }
+                    }
+
+                    if (min == null) break;
+
+                    offStream.writeLong(counter.getCount());
+                    hashes.add(write(min, stream, mergedIO));
+                    numWritten++;
+
+                    // skip the entries of older segments
+                    for (Cursor cursor : cursors) {
+                        if (cursor != min && cursor.valid && compare(cursor.key, min.key) == 0) {
+                            cursor.advance();
+                        }
+                    }
+
+                    min.advance();
+                }
+            }
+
+            try (KeyHashes spooled = hashes) {
+                if (hashIndex) {
+                    BucketHashIndex.write(outDir, bucketNo, spooled);
+                }
+
+                if (bloomFpp > 0) {
+                    BucketBloomFilter.write(outDir, bucketNo, spooled, bloomFpp, bloomMaxBytes);
+                }
+            }
+
+            return numWritten;
+        }
+
+        /**
+         * writes the current entry of the cursor with the stored field ids of the merge
+         *
+         * @param cursor
+         * @param stream
+         * @param mergedIO
+         * @return the key hash for the BucketHashIndex
+         * @throws IOException
+         */
+        private long write(Cursor cursor, DataOutputStream stream, RecordIO mergedIO) throws IOException {
+            IORecord entry = cursor.entry;
+            outKey.reset();
+            outKey.addFields(cursor.key);
+            mergedIO.translate(outKey, Direction.LIVE_TO_STORED);
+            if (cursor.asIs) {
+                stream.write(entry.buffer(), entry.offset(), entry.length());
+                return BucketHashIndex.hash(outKey);
+            }
+
+            stream.write(outKey.buffer(), outKey.offset(), outKey.length());
+
+            cursor.decoder.decode(entry, value, false);
+            mergedIO.translate(value, Direction.LIVE_TO_STORED);
+            ThreadDefs.get().deflate(value, compressed);
+            BucketSorter.writeValueField(stream, compressed);
+
+            return BucketHashIndex.hash(outKey);
+        }
+
+        private BufferedOutputStream getOutStream(String name) throws IOException {
+            return new BufferedOutputStream(new FileOutputStream(new File(outDir, name)), 1024 * 1024);
+        }
+    }
+
+    /**
+     * compares keys as BucketSorter sorts them
+     *
+     * @param a
+     * @param b
+     * @return
+     */
+    private static int compare(Record a, Record b) {
+        byte[] abytes = a.buffer();
+        byte[] bbytes = b.buffer();
+        int lim = Math.min(a.length(), b.length());
+        for (int i = 0; i < lim; i++) {
+            byte x = abytes[a.offset() + i];
+            byte y = bbytes[b.offset() + i];
+            if (x != y) {
+                return (x & 0xFF) - (y & 0xFF);
+            }
+        }
+
+        return a.length() - b.length();
+    }
+
+    @Description(text={"Merges the delta segments of a natdb, see mapDB/groupDB delta=true, into its base buckets.",
+            "Outputs a single record of the result.  Lookups opened during compaction read the natdb as it was before."})
+    @Arg(name="PATH", gloss="natdb directory path", type=ArgType.STRING, eg="/tmp/mydb")
+    @Param(name = NativeDBSink.HASH_INDEX, gloss = "If true, writes a hash index per bucket.", type = ArgType.BOOLEAN, defaultValue = "true")
+    @Param(name = NativeDBSink.BLOOM_FPP, gloss = "false positive probability of the bloom filter per bucket.  0 for none.", type = ArgType.DOUBLE, defaultValue = "0.01")
+    @Param(name = NativeDBSink.BLOOM_MAX_BYTES, gloss = "maximum size of the bloom filter of a bucket.", type = ArgType.LONG, defaultValue = "8388608")
+    public static class Op extends SourceOperator {
+        public Op() {
+            super(NAME + ":PATH", Type.USAGE);
+        }
+
+        @Override
+        public RecordSource getSource(OpArgs args) throws IOException {
+            return new NativeDBCompactor(args);
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package com.amazon.djk.natdb;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import com.amazon.djk.file.FileQueue.LazyFile;
 import com.amazon.djk.file.SourceProperties;
 import com.amazon.djk.format.FileFormatParser;
+import com.amazon.djk.record.FieldPredicate;
 import com.amazon.djk.record.Record;
 import com.amazon.djk.record.RecordFIFO;
 import com.amazon.djk.record.RecordIO.IORecord;
@@ -18,6 +20,8 @@ public class NativeDBFileParser extends FileFormatParser {
     private final Record outRec = new Record();
     
     private BucketAccess accessor = null;
+    private FieldPredicate predicate = null;
+    private boolean predicateOnKeys = false;
     
 	public NativeDBFileParser(SourceProperties props) throws IOException {
 		this.props = props;
@@ -26,7 +30,7 @@ public class NativeDBFileParser extends FileFormatParser {
 
     @Override
     public void initialize(LazyFile file) throws IOException {
-        accessor = BucketAccess.create(file.getLeafArgs());
+        accessor = BucketAccess.create(file.getLeafArgs(), BucketAccess.getOffsetBytes(props));
     }
     
 	@Override
@@ -34,11 +38,25 @@ public class NativeDBFileParser extends FileFormatParser {
 	    if (accessor == null) return false;
 	    fifo.reset();
 
+	    FieldPredicate current = props.getAccessArgs().getPredicate();
+	    if (current != predicate) {
+	        predicate = current;
+	        predicateOnKeys = current != null && Arrays.asList(props.getKeyFields()).containsAll(current.getFieldNames());
+	    }
+
 	    do {
 	    	if (!accessor.nextUndecoded(undecodedRec)) {
 	    		break;
 	    	}
+
+	    	// key fields are stored uncompressed, reject before inflating the value
+	    	if (predicateOnKeys) {
+	    	    decoder.decodeKey(undecodedRec, outRec);
+	    	    if (!predicate.accepts(outRec)) continue;
+	    	}
+
 	    	decoder.decode(undecodedRec, outRec, true);
+	    	if (predicate != null && !predicateOnKeys && !predicate.accepts(outRec)) continue;
 	        fifo.add(outRec);
 	    } while (fifo.byteSize() < 1024 * 64);
 	        
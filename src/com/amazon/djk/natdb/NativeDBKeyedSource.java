@@ -1,8 +1,13 @@
 package com.amazon.djk.natdb;
 
+import com.amazon.djk.core.RecordSource;
+import com.amazon.djk.expression.ArgType;
 import com.amazon.djk.expression.OpArgs;
+import com.amazon.djk.expression.Param;
+import com.amazon.djk.expression.ParseToken;
 import com.amazon.djk.expression.SyntaxError;
 import com.amazon.djk.file.FormatArgs;
+import com.amazon.djk.file.LocalFileSystem;
 import com.amazon.djk.file.SourceProperties;
 import com.amazon.djk.format.FormatOperator;
 import com.amazon.djk.format.FormatParser;
@@ -11,21 +16,26 @@ import com.amazon.djk.keyed.OuterKeyedSource;
 import com.amazon.djk.manual.Description;
 import com.amazon.djk.record.KeyMaker;
 import com.amazon.djk.record.Record;
+import com.amazon.djk.report.ProgressData;
 import com.amazon.djk.report.ReportFormats2;
 import com.amazon.djk.report.ScalarProgress;
+import com.amazon.djk.report.ScalarResolver.AggType;
 
 import org.apache.commons.lang.StringUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 @ReportFormats2(headerFormat="<args>%s?keys=%s",
-	lineFormats={"numRecs=%,d"}
+	lineFormats={"numRecs=%,d", "valueCacheHits=%,d valueCacheHitPct=%.1f"}
 )
 public class NativeDBKeyedSource extends OuterKeyedSource {
     private static final String FORMAT = "natdb";
+    public static final String VALUE_CACHE_MB = "valueCacheMB";
     private final File dbDir;
     private final BucketAccessSet bucketAccess;
+    private final BucketAccessSet[] deltaAccess; // newest first, see DeltaSegments
     private final int numBuckets;
     private final DiskEntryDecoder decoder;
     
@@ -37,9 +47,17 @@ public class NativeDBKeyedSource extends OuterKeyedSource {
     
     @ScalarProgress(name="numRecs")
     private final long totalRecs;
+    
+    // the cache is shared by replicas, so not aggregated
+    @ScalarProgress(name="valueCacheHits", aggregate=AggType.NONE)
+    private long valueCacheHits = 0;
+    
+    @ScalarProgress(name="valueCacheHitPct", aggregate=AggType.NONE)
+    private double valueCacheHitPct = 0;
 
     private final KeyMaker keyMaker;
     private final Record keyRecord = new Record();
+    private Record[] keyRecords = null; // of a batch
 
     public NativeDBKeyedSource(OpArgs args) throws IOException {
         super(args, getKeyFields(args));
@@ -47,18 +65,34 @@ public class NativeDBKeyedSource extends OuterKeyedSource {
         accessArgs = (FormatArgs)args;
         dbDir = new File(accessArgs.getPath());
         SourceProperties props = accessArgs.getSourceProperties();
-        totalRecs = props.totalRecs();
         
         String temp = props.getExtra("numBuckets");
         numBuckets = Integer.parseInt(temp);
         decoder = new DiskEntryDecoder(props);
-        bucketAccess = BucketAccessSet.create(dbDir, numBuckets, decoder);
+        
+        // segments divide the cache
+        List<File> deltas = DeltaSegments.list(dbDir, props);
+        long valueCacheBytes = (Integer)args.getParam(VALUE_CACHE_MB) * 1024L * 1024L / (deltas.size() + 1);
+        bucketAccess = BucketAccessSet.create(DeltaSegments.getBaseDir(dbDir, props), numBuckets, decoder, BucketAccess.getOffsetBytes(props), valueCacheBytes, null);
+        
+        deltaAccess = new BucketAccessSet[deltas.size()];
+        long deltaRecs = 0;
+        for (int i = 0; i < deltaAccess.length; i++) {
+            File deltaDir = deltas.get(deltas.size() - 1 - i);
+            SourceProperties deltaProps = DeltaSegments.getProperties(deltaDir);
+            deltaAccess[i] = BucketAccessSet.create(deltaDir, numBuckets, new DiskEntryDecoder(deltaProps),
+                    BucketAccess.getOffsetBytes(deltaProps), valueCacheBytes, props.getSourceFields());
+            deltaRecs += deltaProps.totalRecs();
+        }
+        
+        // at most, keys may be in several segments
+        totalRecs = props.totalRecs() + deltaRecs;
         
         keys = props != null ? StringUtils.join(keyFieldNames, ",") : "";
         keyMaker = new KeyMaker(getKeyFieldNames());
     }
     
-    public NativeDBKeyedSource(OpArgs args, BucketAccessSet bucketAccess) throws IOException {
+    public NativeDBKeyedSource(OpArgs args, BucketAccessSet bucketAccess, BucketAccessSet[] deltaAccess, long totalRecs) throws IOException {
         super(args, getKeyFields(args));
         accessArgs = (FormatArgs)args;
         dbDir = new File(accessArgs.getPath());
@@ -66,10 +100,11 @@ public class NativeDBKeyedSource extends OuterKeyedSource {
         String temp = props.getExtra("numBuckets");
         numBuckets = Integer.parseInt(temp);
         decoder = new DiskEntryDecoder(props);
-        totalRecs = props.totalRecs();
+        this.totalRecs = totalRecs;
         
         keys = props != null ? StringUtils.join(keyFieldNames, ",") : "";
         this.bucketAccess = bucketAccess;
+        this.deltaAccess = deltaAccess;
         keyMaker = new KeyMaker(getKeyFieldNames());
     }
     
@@ -79,6 +114,23 @@ public class NativeDBKeyedSource extends OuterKeyedSource {
         return props.getKeyFields();
     }
     
+    @Override
+    public ProgressData getProgressData() {
+        long hits = 0;
+        long misses = 0;
+        for (int i = -1; i < deltaAccess.length; i++) {
+            DecodedValueCache cache = (i == -1 ? bucketAccess : deltaAccess[i]).getValueCache();
+            if (cache == null) continue;
+            hits += cache.getNumHits();
+            misses += cache.getNumMisses();
+        }
+        
+        valueCacheHits = hits;
+        valueCacheHitPct = hits + misses != 0 ? 100.0 * hits / (hits + misses) : 0;
+        
+        return super.getProgressData();
+    }
+    
     @Override
     public long getNumRecords() {
     	return totalRecs;
@@ -87,25 +139,73 @@ public class NativeDBKeyedSource extends OuterKeyedSource {
 
     @Override
     public Object replicateKeyed() throws IOException {
-        return new NativeDBKeyedSource(args, bucketAccess.replicate());
+        BucketAccessSet[] deltas = new BucketAccessSet[deltaAccess.length];
+        for (int i = 0; i < deltas.length; i++) {
+            deltas[i] = deltaAccess[i].replicate();
+        }
+        
+        return new NativeDBKeyedSource(args, bucketAccess.replicate(), deltas, totalRecs);
     }
     
     @Override
     public Record getValue(Record lookupRecord) throws IOException {
+        // newest segment first, the translation to stored ids is in place
+        for (BucketAccessSet delta : deltaAccess) {
+            keyRecord.reset();
+            keyMaker.copyTo(lookupRecord, keyRecord);
+            Record value = delta.getValue(keyRecord, false);
+            if (value != null) return value;
+        }
+        
         keyRecord.reset();
         keyMaker.copyTo(lookupRecord, keyRecord);
         return bucketAccess.getValue(keyRecord, false);
     }
     
+    @Override
+    public void getValues(Record[] lookupRecords, int numKeys, Record[] values, boolean[] hits) throws IOException {
+        if (deltaAccess.length != 0) {
+            super.getValues(lookupRecords, numKeys, values, hits);
+            return;
+        }
+        
+        if (keyRecords == null || keyRecords.length < numKeys) {
+            keyRecords = new Record[numKeys];
+            for (int i = 0; i < numKeys; i++) {
+                keyRecords[i] = new Record();
+            }
+        }
+        
+        for (int i = 0; i < numKeys; i++) {
+            keyRecords[i].reset();
+            keyMaker.copyTo(lookupRecords[i], keyRecords[i]);
+        }
+        
+        bucketAccess.getValues(keyRecords, numKeys, values, hits);
+    }
+    
     @Override
     public Record getValueOnce(Record lookupRecord) throws IOException {
+        // the accessed entries are tracked by the base only
+        if (deltaAccess.length != 0) {
+            throw new IOException("outer access of a natdb with delta segments requires compactDB first: " + dbDir);
+        }
+        
         keyRecord.reset();
         keyMaker.copyTo(lookupRecord, keyRecord);
     	return bucketAccess.getValue(keyRecord, true);
     }
 
+    /**
+     * @throws SyntaxError if the natdb has delta segments, whose entries are
+     * neither tracked as accessed nor streamed by next()
+     */
     @Override
-	public void enableOuterAccess() {
+	public void enableOuterAccess() throws SyntaxError {
+        if (deltaAccess.length != 0) {
+            throw new SyntaxError("outer access of a natdb with delta segments requires compactDB first: " + dbDir);
+        }
+        
     	bucketAccess.enableOuterAccess();
 	}
 
@@ -120,6 +220,7 @@ public class NativeDBKeyedSource extends OuterKeyedSource {
     
     @Description(text={"Allows streaming or joining of records by the keys."},
             contexts={"PATH ...", "... PATH join"})
+    @Param(name = VALUE_CACHE_MB, gloss = "megabytes of decoded values cached for repeated lookups of the same keys, 0 for none.", type = ArgType.INTEGER, defaultValue = "0")
     public static class Op extends FormatOperator {
         public Op() {
             super(FORMAT, NativeDBFileParser.STREAM_FILE_REGEX);
@@ -131,6 +232,37 @@ public class NativeDBKeyedSource extends OuterKeyedSource {
             return new NativeDBFileParser(props);
         }
         
+        /**
+         * streams the base buckets, see DeltaSegments
+         */
+        @Override
+        public RecordSource getSource(OpArgs args) throws IOException, SyntaxError {
+            validateArgs(args);
+            FormatArgs fargs = (FormatArgs)args;
+            File dbDir = new File(fargs.getPath());
+            SourceProperties props = fargs.getSourceProperties();
+            if (!DeltaSegments.list(dbDir, props).isEmpty()) {
+                throw new SyntaxError("streaming a natdb with delta segments requires compactDB first: " + dbDir);
+            }
+
+            File baseDir = DeltaSegments.getBaseDir(dbDir, props);
+            if (baseDir.equals(dbDir)) {
+                return super.getSource(args);
+            }
+
+            // a compacted base is a natdb of its own, read with the same params
+            String uri = String.format("%s://%s", LocalFileSystem.LOCAL_SCHEME, baseDir.getAbsolutePath());
+            FormatArgs baseArgs = FormatArgs.createLocal(new ParseToken(uri));
+            for (String name : fargs.getParamNames()) {
+                Object value = fargs.getParam(name);
+                if (value != null) {
+                    baseArgs.addAnnotationLessParam(name, value);
+                }
+            }
+
+            return super.getSource(baseArgs);
+        }
+
         @Override
         public KeyedSource getKeyedSource(OpArgs accessArgs) throws IOException {
             validateArgs(accessArgs);
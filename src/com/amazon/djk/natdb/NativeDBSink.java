@@ -2,6 +2,7 @@ package com.amazon.djk.natdb;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -29,10 +30,13 @@ import com.amazon.djk.manual.Description;
 import com.amazon.djk.manual.Gloss;
 import com.amazon.djk.misc.Hashing;
 import com.amazon.djk.processor.FieldDefs;
+import com.amazon.djk.record.Bytes;
 import com.amazon.djk.record.Field;
+import com.amazon.djk.record.Fields;
 import com.amazon.djk.record.Record;
 import com.amazon.djk.record.RecordFIFO;
-import com.amazon.djk.record.RecordIO.IOBytes;
+import com.amazon.djk.record.RecordIO;
+import com.amazon.djk.record.RecordIO.Direction;
 import com.amazon.djk.record.ThreadDefs;
 import com.amazon.djk.report.GraphDisplay;
 import com.amazon.djk.report.ProgressData;
@@ -47,16 +51,34 @@ import com.amazon.djk.sink.FileSinkHelper;
  * 
  */
 @ReportFormats2(headerFormat="file://<dir>%s?keys=%s&format=ndb&child=%s",
-    lineFormats={"waiting=%d loading=%d sorting=%d writing=%d"})
+    lineFormats={"waiting=%d loading=%d merging=%d"})
 public class NativeDBSink extends KeyedSink implements ReportConsumer {
     private static final Logger logger = LoggerFactory.getLogger(NativeDBSink.class);
     public final static int DEFAULT_NUM_BUCKETS = 80;
     public static final String DEFAULT_COUNT_PARAM = "false";
     public static final String COUNT = "count";
+    public static final String HASH_INDEX = "hashIndex";
+    public static final String BLOOM_FPP = "bloomFpp";
+    public static final String BLOOM_MAX_BYTES = "bloomMaxBytes";
+    public static final String DELTA = "delta";
+    public static final String SORT_MB = "sortMB";
+    public static final String COMPRESS_TEMP = "compressTemp";
+    public static final String COMPRESS_LEVEL = "compressLevel";
+    private static final long MAX_RUN_BYTES = 1024L * 1024 * 1024;
+    // share of the max heap sorted while ingesting if sortMB is 0, since runs may grow to twice their budget
+    private static final double SORT_HEAP_FRACTION = 0.25;
     public static final String FORMAT = "natdb";
 
     private final boolean addCount;
+    private final boolean hashIndex;
+    private final double bloomFpp;
+    private final long bloomMaxBytes;
+    private final int compressLevel;
+    private final boolean compressTemp;
     private final TempFileWriter[] writers;
+    private final String[] bucketFields; // of the base natdb of a delta, else null
+    private final RecordIO bucketIO;
+    private final Record bucketKey = new Record();
     private final RecordFIFO[] transFIFOs;
     protected final BlockingQueue<Integer> bucketQueue;
     
@@ -69,10 +91,8 @@ public class NativeDBSink extends KeyedSink implements ReportConsumer {
     protected volatile int numWaiting = 0;
     @ScalarProgress(name="loading")
     protected volatile int numLoading = 0;
-    @ScalarProgress(name="sorting")
-    protected volatile int numSorting = 0;
-    @ScalarProgress(name="writing")
-    protected volatile int numWriting = 0;
+    @ScalarProgress(name="merging")
+    protected volatile int numMerging = 0;
 
     @ScalarProgress(name="dir")
     protected final File dbDir;
@@ -84,26 +104,58 @@ public class NativeDBSink extends KeyedSink implements ReportConsumer {
     private final int[] bucketMaxGroupSize;
     private final int[] bucketMaxByteSize;
     
-    private final IOBytes tempBytes = new IOBytes();
-    
     private final int numSortThreads;
     
     // set in drain
     private AtomicBoolean forceDone = new AtomicBoolean(false);
     
-    public NativeDBSink(OpArgs args, FileSinkHelper info) throws IOException {
+    /**
+     * 
+     * @param args
+     * @param info
+     * @param baseProps properties of the base natdb if writing a delta segment, else null
+     * @throws IOException
+     */
+    public NativeDBSink(OpArgs args, FileSinkHelper info, SourceProperties baseProps) throws IOException {
         super(null, args);
         this.dbDir = new File(info.absolutePath());
         
-        writers = getWriterThreads(dbDir);
+        // a delta keeps the buckets of its base
+        numBuckets = baseProps != null ? Integer.parseInt(baseProps.getExtra("numBuckets")) : ThreadDefs.get().getNumSortBuckets();
+        bucketFields = baseProps != null ? baseProps.getSourceFields() : null;
+        bucketIO = bucketFields != null ? new RecordIO(bucketFields) : null;
+        
+        // buckets sort their share of the budget while ingesting
+        int sortMB = (Integer)args.getParam(SORT_MB);
+        if (sortMB < 0) {
+            throw new SyntaxError(SORT_MB + " must not be negative");
+        }
+        
+        long sortBytes = sortMB != 0 ? sortMB * 1024L * 1024L :
+            (long)(Runtime.getRuntime().maxMemory() * SORT_HEAP_FRACTION);
+        long maxRunBytes = Math.min(sortBytes / numBuckets, MAX_RUN_BYTES);
+        logger.info(String.format("sortBytes=%d numBuckets=%d maxRunBytes=%d", sortBytes, numBuckets, maxRunBytes));
+        compressTemp = (Boolean)args.getParam(COMPRESS_TEMP);
+        compressLevel = (Integer)args.getParam(COMPRESS_LEVEL);
+        if (compressLevel < -1 || compressLevel > 9) {
+            throw new SyntaxError(COMPRESS_LEVEL + " must be in [-1,9]");
+        }
+        
+        writers = getWriterThreads(dbDir, numBuckets, keys.getAsFieldList().size(), maxRunBytes, compressTemp,
+                compressLevel);
         keyString = StringUtils.join(keys.getFieldNames(), ",");
-        numBuckets = ThreadDefs.get().getNumSortBuckets();
         bucketQueue = new LinkedBlockingQueue<>();
         numUniq = new AtomicLong(0);
         subName = (Field)args.getParam(MemDBSource.SUBNAME_PARAM);
         onePerKey = subName.getName().equals("NONE");
 
         addCount = (Boolean)args.getParam(COUNT);
+        hashIndex = (Boolean)args.getParam(HASH_INDEX);
+        bloomFpp = (Double)args.getParam(BLOOM_FPP);
+        bloomMaxBytes = (Long)args.getParam(BLOOM_MAX_BYTES);
+        if (bloomFpp < 0 || bloomFpp >= 1) {
+            throw new SyntaxError(BLOOM_FPP + " must be in [0,1)");
+        }
         
         transFIFOs = new RecordFIFO[numBuckets];
         bucketMaxGroupSize = new int[numBuckets];
@@ -118,9 +170,16 @@ public class NativeDBSink extends KeyedSink implements ReportConsumer {
         keyString = StringUtils.join(keys.getFieldNames(), ",");
         subName = (Field)args.getParam(MemDBSource.SUBNAME_PARAM);
         numBuckets = root.numBuckets;
+        bucketFields = root.bucketFields;
+        bucketIO = bucketFields != null ? new RecordIO(bucketFields) : null;
         transFIFOs = new RecordFIFO[numBuckets];
         onePerKey = root.onePerKey;
         addCount = (Boolean)args.getParam(COUNT);
+        hashIndex = root.hashIndex;
+        bloomFpp = root.bloomFpp;
+        bloomMaxBytes = root.bloomMaxBytes;
+        compressLevel = root.compressLevel;
+        compressTemp = root.compressTemp;
         
         // shared with root, threadsafe
         writers = root.writers;
@@ -132,11 +191,11 @@ public class NativeDBSink extends KeyedSink implements ReportConsumer {
         numSortThreads = ThreadDefs.get().getNumSortThreads();
     }
     
-    private static TempFileWriter[] getWriterThreads(File dbDir) throws IOException {
-    	int numSortBuckets = ThreadDefs.get().getNumSortBuckets();
+    private static TempFileWriter[] getWriterThreads(File dbDir, int numSortBuckets, int numKeyFields, long maxRunBytes,
+            boolean compressTemp, int compressLevel) throws IOException {
         TempFileWriter[] writers = new TempFileWriter[numSortBuckets];
         for (int i = 0; i < numSortBuckets; i++) {
-            writers[i] = new TempFileWriter(dbDir, i);
+            writers[i] = new TempFileWriter(dbDir, i, numKeyFields, maxRunBytes, compressTemp, compressLevel);
             writers[i].start();
         }
         
@@ -173,7 +232,7 @@ public class NativeDBSink extends KeyedSink implements ReportConsumer {
     
     @Override
     public void store(Record keyRecord, Record valueRecord) throws IOException {
-        int bucketNo = (int)(Hashing.hash63(keyRecord) % numBuckets);
+        int bucketNo = getBucketNo(keyRecord);
         TempFileWriter writer = writers[bucketNo];
         
         RecordFIFO fifo = transFIFOs[bucketNo];
@@ -182,8 +241,8 @@ public class NativeDBSink extends KeyedSink implements ReportConsumer {
             transFIFOs[bucketNo] = fifo;
         }
 
-        valueRecord.writeCompressedTo(tempBytes);
-        keyRecord.addField(FieldDefs.INTERNAL_FIELD_NAME, tempBytes); 
+        // raw, the writer of the bucket compresses the value
+        keyRecord.addField(FieldDefs.INTERNAL_FIELD_NAME, (Bytes)valueRecord); 
         
         fifo.add(keyRecord);        
         if (fifo.byteSize() > 1024 * 1024) {
@@ -197,6 +256,23 @@ public class NativeDBSink extends KeyedSink implements ReportConsumer {
         }
     }
     
+    /**
+     * 
+     * @param keyRecord
+     * @return the bucket of the key, by the stored field ids of the base natdb for a delta
+     * @throws IOException
+     */
+    private int getBucketNo(Record keyRecord) throws IOException {
+        if (bucketIO == null) {
+            return (int)(Hashing.hash63(keyRecord) % numBuckets);
+        }
+        
+        bucketKey.reset();
+        bucketKey.addFields(keyRecord);
+        bucketIO.translate(bucketKey, Direction.LIVE_TO_STORED);
+        return (int)(Hashing.hash63(bucketKey) % numBuckets);
+    }
+    
     /**
      * each thread finishes transfering non-empty fifos
      * @throws IOException 
@@ -220,11 +296,11 @@ public class NativeDBSink extends KeyedSink implements ReportConsumer {
     }
 
     /**
-     * the last thread prepares for sorting
+     * the last thread prepares for merging
      * @throws IOException 
      */
     private void prepareSorting() throws IOException {
-        logger.info("instanceNo=" + getInstanceNo() + " preparing sorting");
+        logger.info("instanceNo=" + getInstanceNo() + " preparing merging");
         for (TempFileWriter writer : writers) {
             try {
                 writer.finish();
@@ -282,7 +358,6 @@ public class NativeDBSink extends KeyedSink implements ReportConsumer {
     @Override
     public void close() throws IOException {
         finishTransfers();
-        int numKeyFields = keys.getAsFieldList().size();
         
         if (isLastSync1.arriveAndIsLast()) {
            prepareSorting();
@@ -295,19 +370,16 @@ public class NativeDBSink extends KeyedSink implements ReportConsumer {
                     break; // we're done
                 }
 
-                logger.info("instanceNo=" + getInstanceNo() + " sorting bucketNo=" + bucketNo);
+                logger.info("instanceNo=" + getInstanceNo() + " merging bucketNo=" + bucketNo);
                 
                 numLoading++;
-                BucketSorter  sorter = new BucketSorter(dbDir, subName, numKeyFields, addCount, bucketNo);
+                BucketSorter  sorter = new BucketSorter(dbDir, subName, addCount, hashIndex, bloomFpp, bloomMaxBytes,
+                        compressLevel, compressTemp, bucketNo, writers[bucketNo].getRunEnds());
                 numLoading--;
 
-                numSorting++;
-                sorter.sort();
-                numSorting--;
-                
-                numWriting++;
+                numMerging++;
                 sorter.write();
-                numWriting--;
+                numMerging--;
                 
                 numUniq.addAndGet(sorter.getNumWritten());                
                 ((NativeDBSink)root()).bucketMaxByteSize[bucketNo] = sorter.getMaxGroupUncompressedByteSize();
@@ -333,6 +405,7 @@ public class NativeDBSink extends KeyedSink implements ReportConsumer {
         // the last sync writes the properties 
         Map<String,String> extras = new HashMap<>();
         extras.put("groupOut", subName.getName());
+        extras.put(BucketAccess.VERSION_EXTRA, Integer.toString(BucketAccess.CURRENT_VERSION));
         extras.put("numBuckets", Integer.toString(numBuckets));
         extras.put("bucketMaxGroupSizes", intArrayToString(bucketMaxGroupSize));
         extras.put("bucketMaxByteSizes", intArrayToString(bucketMaxByteSize));
@@ -357,7 +430,14 @@ public class NativeDBSink extends KeyedSink implements ReportConsumer {
     @Arg(name = "KEYS", gloss = "comma separated list of key fields.", type = ArgType.FIELDS, eg="id")
     @Param(name = COUNT, gloss = "If true, adds a child count field with the number of original entries of this KEY.", type = ArgType.BOOLEAN, defaultValue = DEFAULT_COUNT_PARAM)
     @Param(name= WriterOperator.OVERWRITE_PARAM, gloss="If true, previous data will be overwritten.", type=ArgType.BOOLEAN, defaultValue = "false")
-    @Gloss(entry = "numSortBuckets", def = "System.property. default=80.  Try upping this number if sort files grow greater than 2GB")
+    @Param(name = HASH_INDEX, gloss = "If true, writes a hash index per bucket so that lookups by KEYS probe the index instead of binary searching the records.", type = ArgType.BOOLEAN, defaultValue = "true")
+    @Param(name = BLOOM_FPP, gloss = "false positive probability of the bloom filter per bucket that lets lookups of absent KEYS skip the records.  0 for none.", type = ArgType.DOUBLE, defaultValue = "0.01")
+    @Param(name = BLOOM_MAX_BYTES, gloss = "maximum size of the bloom filter of a bucket, held in memory by readers.  Limits the false positive probability of large buckets.", type = ArgType.LONG, defaultValue = "8388608")
+    @Param(name = SORT_MB, gloss = "megabytes of records sorted in memory while ingesting, shared by the buckets, 0 for a quarter of the maximum heap.  A bucket spills a sorted run to its temp file whenever its share is used, and the runs are merged once ingest ends, at most 64 at a time.  Buckets of more runs take extra merge passes over their temp file.", type = ArgType.INTEGER, defaultValue = "0")
+    @Param(name = COMPRESS_TEMP, gloss = "If true, deflates the blocks of the temp sort files at the fastest level, for builds limited by temp file I/O.", type = ArgType.BOOLEAN, defaultValue = "false")
+    @Param(name = COMPRESS_LEVEL, gloss = "Deflater level of the values, 1 (fastest) to 9 (smallest), 0 for none or -1 for the default.  Values are compressed by the bucket writer threads.", type = ArgType.INTEGER, defaultValue = "-1")
+    @Param(name = DELTA, gloss = "If true, PATH must be an existing natdb, to which the records are added as a delta segment.  Lookups return the entry of the newest segment holding the KEY.  See compactDB.", type = ArgType.BOOLEAN, defaultValue = "false")
+    @Gloss(entry = "numSortBuckets", def = "System.property. default=80.  Try upping this number to reduce the size of each bucket sort")
     @Gloss(entry = "numSortThreads", def = "System.property. default=32.  Adjust this number to accommodate memory constraints")
     public static class MapOp extends PipeOperator {
         private final boolean isMap;
@@ -384,6 +464,13 @@ public class NativeDBSink extends KeyedSink implements ReportConsumer {
 
             String path = (String)args.getArg("PATH");
             boolean overwrite = (Boolean)args.getParam(WriterOperator.OVERWRITE_PARAM);
+            SourceProperties baseProps = null;
+            if ((Boolean)args.getParam(DELTA)) {
+                File baseDir = new File(path);
+                baseProps = getDeltaBaseProperties(baseDir, args);
+                path = DeltaSegments.create(baseDir, baseProps).getAbsolutePath();
+            }
+            
             FileSinkHelper info = new FileSinkHelper(path, FORMAT, overwrite);
             File dir = new File(info.absolutePath());
             if (!dir.exists()) {
@@ -393,7 +480,33 @@ public class NativeDBSink extends KeyedSink implements ReportConsumer {
             }
             
             //File dir = help.getPath();
-            return new NativeDBSink(args, info).addSource(operands.pop());
+            return new NativeDBSink(args, info, baseProps).addSource(operands.pop());
+        }
+        
+        /**
+         * 
+         * @param baseDir
+         * @param args
+         * @return the properties of the natdb to which a delta is added
+         * @throws IOException
+         */
+        private static SourceProperties getDeltaBaseProperties(File baseDir, OpArgs args) throws IOException {
+            if (!baseDir.isDirectory()) {
+                throw new SyntaxError("delta requires an existing natdb: " + baseDir);
+            }
+            
+            SourceProperties props = DeltaSegments.getProperties(baseDir);
+            Fields keys = (Fields)args.getArg("KEYS");
+            if (!Arrays.asList(props.getKeyFields()).equals(keys.getFieldNames())) {
+                throw new SyntaxError("delta KEYS differ from those of " + baseDir);
+            }
+            
+            Field subName = (Field)args.getParam(MemDBSource.SUBNAME_PARAM);
+            if (!subName.getName().equals(props.getExtra("groupOut"))) {
+                throw new SyntaxError("delta grouping differs from that of " + baseDir);
+            }
+            
+            return props;
         }
     }
     
@@ -0,0 +1,256 @@
+package com.amazon.djk.natdb;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.amazon.djk.record.FieldIterator;
+import com.amazon.djk.record.Record;
+
+/**
+ * An in-memory run of the temp records of a bucket, sorted by key while the
+ * natdb is still ingesting and then spilled to the temp file of the bucket.
+ * BucketSorter merges the sorted runs of the temp file.
+ *
+ * run record format, as in the blocks of the temp file:
+ * [recLen][keyLen][keyFields][compressedValueField]
+ */
+class SortRun {
+    // an element is [keyOff][keyLen][first 8 key bytes, big endian, zero padded]
+    private static final int ELEM_LONGS = 3;
+    static final int PREFIX_BYTES = 8;
+    static final int RECORD_HEADER_BYTES = 8; // recLen, keyLen
+    private static final int INSERTION_SORT_ELEMS = 16;
+    private static final int PARALLEL_SORT_ELEMS = 64 * 1024; // per fork
+    private final int numKeyFields;
+    private final FieldIterator fiter = new FieldIterator();
+    private byte[] bytes = new byte[64 * 1024];
+    private int length = 0;
+    private long[] elems = new long[ELEM_LONGS * 1024];
+    private long[] aux = new long[0];
+    private int numElems = 0;
+
+    /**
+     *
+     * @param numKeyFields
+     */
+    public SortRun(int numKeyFields) {
+        this.numKeyFields = numKeyFields;
+    }
+
+    public int numRecs() {
+        return numElems;
+    }
+
+    /**
+     *
+     * @return the memory held by the records and their sort elements
+     */
+    public long byteSize() {
+        return length + 2L * numElems * ELEM_LONGS * 8; // elems + aux
+    }
+
+    public void reset() {
+        length = 0;
+        numElems = 0;
+    }
+
+    /**
+     *
+     * @param rec [keyFields][compressedValueField]
+     * @throws IOException
+     */
+    public void add(Record rec) throws IOException {
+        fiter.init(rec);
+        for (int i = 0; i < numKeyFields; i++) {
+            if (!fiter.next()) {
+                throw new IOException("format error");
+            }
+        }
+
+        int keyLen = fiter.offset() + fiter.length() - rec.offset();
+        int recLen = rec.length();
+        if (bytes.length < length + RECORD_HEADER_BYTES + recLen) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + RECORD_HEADER_BYTES + recLen));
+        }
+
+        putInt(recLen);
+        putInt(keyLen);
+        int keyOff = length;
+        System.arraycopy(rec.buffer(), rec.offset(), bytes, length, recLen);
+        length += recLen;
+
+        if (elems.length < (numElems + 1) * ELEM_LONGS) {
+            elems = Arrays.copyOf(elems, elems.length * 2);
+        }
+
+        long prefix = 0;
+        for (int i = 0; i < PREFIX_BYTES && i < keyLen; i++) {
+            prefix |= (bytes[keyOff + i] & 0xFFL) << (56 - 8 * i);
+        }
+
+        int e = numElems++ * ELEM_LONGS;
+        elems[e] = keyOff;
+        elems[e + 1] = keyLen;
+        elems[e + 2] = prefix;
+    }
+
+    private void putInt(int value) {
+        bytes[length++] = (byte)(value >>> 24);
+        bytes[length++] = (byte)(value >>> 16);
+        bytes[length++] = (byte)(value >>> 8);
+        bytes[length++] = (byte)value;
+    }
+
+    /**
+     * writes the records in key order
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(TempBlockWriter out) throws IOException {
+        for (int i = 0; i < numElems; i++) {
+            int keyOff = (int)elems[i * ELEM_LONGS];
+            int recOff = keyOff - RECORD_HEADER_BYTES;
+            int recLen = ((bytes[recOff] & 0xFF) << 24) | ((bytes[recOff + 1] & 0xFF) << 16) |
+                    ((bytes[recOff + 2] & 0xFF) << 8) | (bytes[recOff + 3] & 0xFF);
+            out.add(bytes, recOff, RECORD_HEADER_BYTES + recLen);
+        }
+    }
+
+    /**
+     * A stable merge sort, so that records of equal keys keep their order of
+     * arrival, forking halves of large runs.
+     */
+    public void sort() {
+        if (numElems < 2) return;
+
+        if (aux.length < numElems * ELEM_LONGS) {
+            aux = new long[elems.length];
+        }
+
+        if (numElems <= PARALLEL_SORT_ELEMS) {
+            mergeSort(0, numElems);
+        }
+
+        else {
+            ForkJoinPool.commonPool().invoke(new SortTask(0, numElems));
+        }
+    }
+
+    /**
+     * sorts a range of a large run, forking its halves
+     */
+    private class SortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+
+        SortTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_SORT_ELEMS) {
+                mergeSort(from, to);
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new SortTask(from, mid), new SortTask(mid, to));
+            merge(from, mid, to);
+        }
+    }
+
+    /**
+     *
+     * @param from first element
+     * @param to last element + 1
+     */
+    private void mergeSort(int from, int to) {
+        if (to - from <= INSERTION_SORT_ELEMS) {
+            insertionSort(from, to);
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+        mergeSort(from, mid);
+        mergeSort(mid, to);
+        merge(from, mid, to);
+    }
+
+    private void insertionSort(int from, int to) {
+        long[] elem = new long[ELEM_LONGS];
+        for (int i = from + 1; i < to; i++) {
+            if (compare(elems, i - 1, elems, i) <= 0) continue;
+
+            System.arraycopy(elems, i * ELEM_LONGS, elem, 0, ELEM_LONGS);
+            int j = i;
+            while (j > from && compare(elems, j - 1, elem, 0) > 0) {
+                j--;
+            }
+
+            System.arraycopy(elems, j * ELEM_LONGS, elems, (j + 1) * ELEM_LONGS, (i - j) * ELEM_LONGS);
+            System.arraycopy(elem, 0, elems, j * ELEM_LONGS, ELEM_LONGS);
+        }
+    }
+
+    /**
+     * merges the sorted ranges [from, mid) and [mid, to), left first for equal keys
+     */
+    private void merge(int from, int mid, int to) {
+        if (compare(elems, mid - 1, elems, mid) <= 0) return; // already in order
+
+        System.arraycopy(elems, from * ELEM_LONGS, aux, from * ELEM_LONGS, (to - from) * ELEM_LONGS);
+        int left = from;
+        int right = mid;
+        for (int k = from; k < to; k++) {
+            int src;
+            if (right >= to || (left < mid && compare(aux, left, aux, right) <= 0)) {
+                src = left++;
+            }
+
+            else {
+                src = right++;
+            }
+
+            System.arraycopy(aux, src * ELEM_LONGS, elems, k * ELEM_LONGS, ELEM_LONGS);
+        }
+    }
+
+    /**
+     * compares the key bytes of elements by their prefixes, comparing the
+     * remaining bytes only when those are equal
+     *
+     * @param a elements holding elemA
+     * @param elemA
+     * @param b elements holding elemB
+     * @param elemB
+     * @return
+     */
+    private int compare(long[] a, int elemA, long[] b, int elemB) {
+        int ea = elemA * ELEM_LONGS;
+        int eb = elemB * ELEM_LONGS;
+        int cmp = Long.compareUnsigned(a[ea + 2], b[eb + 2]);
+        if (cmp != 0) return cmp;
+
+        int offA = (int)a[ea];
+        int offB = (int)b[eb];
+        int lenA = (int)a[ea + 1];
+        int lenB = (int)b[eb + 1];
+        int lim = Math.min(lenA, lenB);
+
+        for (int i = Math.min(PREFIX_BYTES, lim); i < lim; i++) {
+            byte x = bytes[offA + i];
+            byte y = bytes[offB + i];
+            if (x != y) {
+                return (x & 0xFF) - (y & 0xFF);
+            }
+        }
+
+        return lenA - lenB;
+    }
+}
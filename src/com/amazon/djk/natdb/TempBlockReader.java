@@ -0,0 +1,188 @@
+package com.amazon.djk.natdb;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the records of one sorted run of a natdb temp file block by block,
+ * inflating deflated blocks, see TempBlockWriter.  The current record stays
+ * valid until the next call to next().
+ *
+ * record format, see SortRun:
+ * [recLen][keyLen][keyFields][compressedValueField]
+ */
+class TempBlockReader implements Closeable {
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+    private final ByteBuffer header = ByteBuffer.allocate(TempBlockWriter.HEADER_SIZE);
+    private final Inflater inflater = new Inflater(true);
+    private byte[] stored = new byte[0];
+    private byte[] block = new byte[TempBlockWriter.BLOCK_BYTES];
+    private int blockLen = 0;
+    private int nextOff = 0;
+
+    // the current record
+    private int keyOff;
+    private int keyLen;
+    private int recEnd;
+    private long prefix;
+
+    /**
+     *
+     * @param channel of the temp file
+     * @param start offset of the run
+     * @param end offset of the run
+     */
+    public TempBlockReader(FileChannel channel, long start, long end) {
+        this.channel = channel;
+        this.position = start;
+        this.end = end;
+    }
+
+    /**
+     * advances to the next record of the run
+     *
+     * @return false if the run is exhausted
+     * @throws IOException
+     */
+    public boolean next() throws IOException {
+        if (nextOff >= blockLen) {
+            if (position >= end) return false;
+            readBlock();
+        }
+
+        int recLen = getInt(nextOff);
+        keyLen = getInt(nextOff + 4);
+        keyOff = nextOff + SortRun.RECORD_HEADER_BYTES;
+        recEnd = keyOff + recLen;
+        nextOff = recEnd;
+
+        prefix = 0;
+        for (int i = 0; i < SortRun.PREFIX_BYTES && i < keyLen; i++) {
+            prefix |= (block[keyOff + i] & 0xFFL) << (56 - 8 * i);
+        }
+
+        return true;
+    }
+
+    /**
+     *
+     * @return the offset of the current record, starting with its header
+     */
+    public int recordOffset() {
+        return keyOff - SortRun.RECORD_HEADER_BYTES;
+    }
+
+    public int recordLength() {
+        return recEnd - recordOffset();
+    }
+
+    public byte[] buffer() {
+        return block;
+    }
+
+    public int keyOffset() {
+        return keyOff;
+    }
+
+    public int keyLength() {
+        return keyLen;
+    }
+
+    /**
+     *
+     * @return the first 8 key bytes, big endian, zero padded
+     */
+    public long keyPrefix() {
+        return prefix;
+    }
+
+    /**
+     *
+     * @return the offset of the compressed value field
+     */
+    public int valueOffset() {
+        return keyOff + keyLen;
+    }
+
+    public int valueLength() {
+        return recEnd - keyOff - keyLen;
+    }
+
+    private int getInt(int off) {
+        return ((block[off] & 0xFF) << 24) | ((block[off + 1] & 0xFF) << 16) |
+                ((block[off + 2] & 0xFF) << 8) | (block[off + 3] & 0xFF);
+    }
+
+    private void readBlock() throws IOException {
+        header.clear();
+        readFully(header);
+        header.flip();
+        int storedLen = header.getInt();
+        int rawLen = header.getInt();
+        byte codec = header.get();
+
+        if (block.length < rawLen) {
+            block = new byte[rawLen];
+        }
+
+        if (codec == TempBlockWriter.CODEC_NONE) {
+            readFully(ByteBuffer.wrap(block, 0, rawLen));
+        }
+
+        else {
+            if (stored.length < storedLen) {
+                stored = new byte[storedLen];
+            }
+
+            readFully(ByteBuffer.wrap(stored, 0, storedLen));
+            inflate(storedLen, rawLen);
+        }
+
+        blockLen = rawLen;
+        nextOff = 0;
+    }
+
+    private void inflate(int storedLen, int rawLen) throws IOException {
+        inflater.reset();
+        inflater.setInput(stored, 0, storedLen);
+        try {
+            int num = 0;
+            while (num < rawLen) {
+                int count = inflater.inflate(block, num, rawLen - num);
+                if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                num += count;
+            }
+
+            if (num != rawLen) {
+                throw new IOException("truncated temp block at position=" + position);
+            }
+        }
+
+        catch (DataFormatException e) {
+            throw new IOException("corrupt temp block at position=" + position, e);
+        }
+    }
+
+    private void readFully(ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            int num = channel.read(dst, position);
+            if (num == -1) {
+                throw new IOException("unexpected end of temp file at position=" + position);
+            }
+            position += num;
+        }
+    }
+
+    @Override
+    public void close() {
+        inflater.end();
+    }
+}
@@ -0,0 +1,170 @@
+package com.amazon.djk.natdb;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the sorted runs of a natdb temp file as blocks of whole records
+ * through gathering writes of direct buffers to a FileChannel.  Blocks are
+ * optionally deflated at BEST_SPEED, trading sort CPU for temp file I/O.
+ * TempBlockReader reads the blocks of a run.
+ *
+ * <pre>
+ *  block  := storedLen(int) rawLen(int) codec(byte) payload
+ * </pre>
+ *
+ * A record larger than BLOCK_BYTES makes a block of its own.
+ */
+class TempBlockWriter implements Closeable {
+    static final int BLOCK_BYTES = 128 * 1024;
+    static final int HEADER_SIZE = 4 + 4 + 1;
+    static final byte CODEC_NONE = 0;
+    static final byte CODEC_DEFLATE = 1;
+    private final FileChannel channel;
+    private final Deflater deflater; // null if not compressing
+    private final ByteBuffer header = ByteBuffer.allocateDirect(HEADER_SIZE);
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+    private ByteBuffer payload = ByteBuffer.allocateDirect(BLOCK_BYTES);
+    private byte[] raw; // records of the block to be deflated
+    private byte[] deflated;
+    private int rawLen = 0;
+    private long position = 0;
+
+    /**
+     *
+     * @param file
+     * @param compress if true, deflate the blocks
+     * @throws IOException
+     */
+    public TempBlockWriter(File file, boolean compress) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        deflater = compress ? new Deflater(Deflater.BEST_SPEED, true) : null;
+        raw = compress ? new byte[BLOCK_BYTES] : null;
+        deflated = compress ? new byte[BLOCK_BYTES] : null;
+        gather[0] = header;
+    }
+
+    /**
+     * adds a record to the current block
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    public void add(byte[] bytes, int offset, int length) throws IOException {
+        if (rawLen != 0 && rawLen + length > BLOCK_BYTES) {
+            flushBlock();
+        }
+
+        if (deflater != null) {
+            if (raw.length < rawLen + length) {
+                raw = Arrays.copyOf(raw, rawLen + length);
+            }
+
+            System.arraycopy(bytes, offset, raw, rawLen, length);
+        }
+
+        else {
+            ensurePayload(rawLen + length);
+            payload.put(bytes, offset, length);
+        }
+
+        rawLen += length;
+    }
+
+    /**
+     * ends the current run
+     *
+     * @return the end offset of the run within the file
+     * @throws IOException
+     */
+    public long endRun() throws IOException {
+        flushBlock();
+        return position;
+    }
+
+    private void ensurePayload(int size) {
+        if (payload.capacity() >= size) return;
+
+        ByteBuffer bigger = ByteBuffer.allocateDirect(size);
+        payload.flip();
+        bigger.put(payload);
+        payload = bigger;
+    }
+
+    private void flushBlock() throws IOException {
+        if (rawLen == 0) return;
+
+        byte codec = CODEC_NONE;
+        int storedLen = rawLen;
+        if (deflater != null) {
+            int num = deflate();
+            payload.clear();
+            if (num < rawLen) {
+                codec = CODEC_DEFLATE;
+                storedLen = num;
+                ensurePayload(num);
+                payload.put(deflated, 0, num);
+            }
+
+            else { // incompressible
+                ensurePayload(rawLen);
+                payload.put(raw, 0, rawLen);
+            }
+        }
+
+        header.clear();
+        header.putInt(storedLen);
+        header.putInt(rawLen);
+        header.put(codec);
+        header.flip();
+        payload.flip();
+
+        gather[1] = payload;
+        while (payload.hasRemaining()) {
+            channel.write(gather);
+        }
+
+        position += HEADER_SIZE + storedLen;
+        payload.clear();
+        rawLen = 0;
+    }
+
+    private int deflate() {
+        deflater.reset();
+        deflater.setInput(raw, 0, rawLen);
+        deflater.finish();
+
+        int num = 0;
+        while (!deflater.finished()) {
+            if (num == deflated.length) {
+                deflated = Arrays.copyOf(deflated, deflated.length * 2);
+            }
+            num += deflater.deflate(deflated, num, deflated.length - num);
+        }
+
+        return num;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBlock();
+        }
+
+        finally {
+            channel.close();
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+}
@@ -1,39 +1,71 @@
 package com.amazon.djk.natdb;
 
-import java.io.BufferedOutputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.SynchronousQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.amazon.djk.processor.CoreDefs;
+import com.amazon.djk.processor.FieldDefs;
+import com.amazon.djk.record.FieldIterator;
 import com.amazon.djk.record.Record;
 import com.amazon.djk.record.RecordFIFO;
+import com.amazon.djk.record.RecordIO.IOBytes;
+import com.amazon.djk.record.ThreadDefs;
 
 /**
- * class for writing temporary sort files to disk 
+ * class for writing temporary sort files to disk.  Records are gathered into
+ * a SortRun, sorted and spilled whenever the run reaches its memory budget,
+ * so that sorting overlaps ingest and BucketSorter merely merges the runs.
+ * Values arrive raw from the sink threads and are compressed here, so that
+ * the buckets compress in parallel rather than on the sink threads.
  */
 public class TempFileWriter extends Thread {
     private static final Logger logger = LoggerFactory.getLogger(TempFileWriter.class);
-    private final DataOutputStream outStream;
+    private final TempBlockWriter outBlocks;
     private final BlockingQueue<RecordFIFO> writeQueue = new SynchronousQueue<>();
     private final int bucketNo;
+    private SortRun run; // released once the temp file is complete
+    private final long maxRunBytes;
+    private final int numKeyFields;
+    private final int compressLevel;
+    private final CoreDefs coreDefs; // for this thread
+    private final FieldIterator fiter = new FieldIterator();
+    private final IOBytes rawValue = new IOBytes();
+    private final IOBytes compressedValue = new IOBytes();
+    private final Record compressedRec = new Record();
+    private final List<Long> runEnds = new ArrayList<>();
+    private volatile IOException failure = null;
 
-    public TempFileWriter(File dbDir, int bucketNo) throws IOException {
-        this.outStream = getTempOutStream(dbDir, bucketNo);
+    /**
+     * 
+     * @param dbDir
+     * @param bucketNo
+     * @param numKeyFields
+     * @param maxRunBytes memory budget of the sorted runs of the bucket
+     * @param compress if true, deflate the blocks of the temp file
+     * @param compressLevel Deflater level of the values
+     * @throws IOException
+     */
+    public TempFileWriter(File dbDir, int bucketNo, int numKeyFields, long maxRunBytes, boolean compress,
+            int compressLevel) throws IOException {
+        this.outBlocks = new TempBlockWriter(getTempFile(dbDir, bucketNo), compress);
         this.bucketNo = bucketNo;
+        this.run = new SortRun(numKeyFields);
+        this.maxRunBytes = maxRunBytes;
+        this.numKeyFields = numKeyFields;
+        this.compressLevel = compressLevel;
+        this.coreDefs = CoreDefs.get();
     }
     
-    private static DataOutputStream getTempOutStream(File dbDir, int bucketNo) throws IOException {
+    static File getTempFile(File dbDir, int bucketNo) {
         String name = String.format("temp.%02d", bucketNo);
-        OutputStream os = new FileOutputStream(new File(dbDir, name));
-        os = new BufferedOutputStream(os, 1024 * 5);
-        return new DataOutputStream(os);
+        return new File(dbDir, name);
     }
     
     public static class PoisonFIFO extends RecordFIFO {
@@ -50,8 +82,64 @@ public class TempFileWriter extends Thread {
         writeQueue.put(fifo);
     }
     
+    /**
+     * call after join()
+     * 
+     * @return the end offsets of the sorted runs of the temp file
+     * @throws IOException if writing failed
+     */
+    public long[] getRunEnds() throws IOException {
+        if (failure != null) {
+            throw new IOException("temp file of bucketNo=" + bucketNo + " incomplete", failure);
+        }
+        
+        long[] ends = new long[runEnds.size()];
+        for (int i = 0; i < ends.length; i++) {
+            ends[i] = runEnds.get(i);
+        }
+        
+        return ends;
+    }
+    
+    /**
+     * 
+     * @param rec [keyFields][rawValueField]
+     * @return [keyFields][compressedValueField], valid until the next call
+     * @throws IOException
+     */
+    private Record compressValue(Record rec) throws IOException {
+        compressedRec.reset();
+        fiter.init(rec);
+        for (int i = 0; i < numKeyFields; i++) {
+            if (!fiter.next()) {
+                throw new IOException("format error");
+            }
+            compressedRec.addField(fiter);
+        }
+        
+        if (!fiter.next()) {
+            throw new IOException("format error");
+        }
+        
+        rawValue.resetButKeepCapacity();
+        fiter.getValueAsBytesBROKENnatdb(rawValue);
+        ThreadDefs.get().deflate(rawValue, compressedValue, compressLevel);
+        compressedRec.addField(FieldDefs.INTERNAL_FIELD_NAME, compressedValue);
+        return compressedRec;
+    }
+    
+    private void spill() throws IOException {
+        if (run.numRecs() == 0) return;
+        
+        run.sort();
+        run.writeTo(outBlocks);
+        runEnds.add(outBlocks.endRun());
+        run.reset();
+    }
+    
     @Override
     public void run() {
+        ThreadDefs.initialize(coreDefs);
         while (true) {
             try {
                 // fifo holds key,value record pairs 
@@ -61,28 +149,36 @@ public class TempFileWriter extends Thread {
                 }
                 
                 // fifo record composition:
-                // [keyFields][compressedValueField]
+                // [keyFields][rawValueField]
                 
-                // temp file format:
-                // [recLen][keyFields][compressedValueField]
+                // temp file format, sorted runs of blocks of:
+                // [recLen][keyLen][keyFields][compressedValueField]
                 while (true) {
                     Record rec = fifo.next();
                     if (rec == null) break; // emptied
-                    outStream.writeInt(rec.length());
-                    outStream.write(rec.buffer(), rec.offset(), rec.length());
+                    run.add(compressValue(rec));
+                    if (run.byteSize() >= maxRunBytes) {
+                        spill();
+                    }
                 }
 
             } catch (InterruptedException | IOException e) {
-                logger.error("write thread error");
+                logger.error("write thread error", e);
+                if (e instanceof IOException) {
+                    failure = (IOException)e;
+                }
             }
         }
             
         try {
-            outStream.close();
+            spill();
+            run = null; // the merge needs the memory
+            outBlocks.close();
         } catch (IOException e) {
-            logger.error("write thread error");
+            logger.error("write thread error", e);
+            failure = e;
         }
         
-        logger.info("bucketNo="+bucketNo + " temp file complete");
+        logger.info("bucketNo="+bucketNo + " temp file complete runs=" + runEnds.size());
     }
 }
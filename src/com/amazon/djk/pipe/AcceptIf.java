@@ -1,6 +1,8 @@
 package com.amazon.djk.pipe;
 
+import com.amazon.djk.core.FilterableSource;
 import com.amazon.djk.core.RecordPipe;
+import com.amazon.djk.core.RecordSource;
 import com.amazon.djk.expression.Arg;
 import com.amazon.djk.expression.ArgType;
 import com.amazon.djk.expression.OpArgs;
@@ -11,7 +13,9 @@ import com.amazon.djk.expression.SyntaxError;
 import com.amazon.djk.manual.Description;
 import com.amazon.djk.manual.Example;
 import com.amazon.djk.manual.ExampleType;
+import com.amazon.djk.record.FieldPredicate;
 import com.amazon.djk.record.Record;
+import com.amazon.djk.record.Value;
 import com.amazon.djk.report.ReportFormats;
 
 import java.io.IOException;
@@ -53,7 +57,8 @@ public class AcceptIf extends RejectIf {
     
     @Description(text={"Keeps records for which VALUE evaluates to BOOLEAN true.",
             "If a field does not evaluate to BOOLEAN or is nonexistent, the conditional evaluates to false (and nonBoolean count increments).",
-            "in this way it's possible to evaluate sources where not every record contains a field.  See 'rejectIf'"})
+            "in this way it's possible to evaluate sources where not every record contains a field.  See 'rejectIf'",
+            "Conjunctions of simple comparisons of l., d. or s. fields with literals (e.g. '{l.status == 200 && d.price < 9.5;}') are also evaluated by tsv and natdb sources directly below, before records are built."})
     @Arg(name="CONDITIONAL", gloss="a conditional expression evaluates to a boolean (see 'man VALUE')", type=ArgType.VALUE)
     @Param(name="logEach", gloss="LEVEL, where LEVEL = {ERROR|INFO|WARN|OFF}. Causes a log entry for each rejected record.", type=ArgType.STRING, defaultValue = DEFAULT_LOG_LEVEL)
     @Example(expr="[ id:1,color:red id:2,color:blue ] acceptIf:'{l.id == 2;}'", type=ExampleType.EXECUTABLE)
@@ -68,7 +73,13 @@ public class AcceptIf extends RejectIf {
         
         @Override
         public RecordPipe getAsPipe(ParserOperands operands, OpArgs args) throws IOException, SyntaxError {
-        	return new AcceptIf(args).addSource(operands.pop()); 
+            RecordSource source = operands.pop();
+            FieldPredicate predicate = FieldPredicate.get((Value)args.getArg("CONDITIONAL"));
+            if (predicate != null && source instanceof FilterableSource) {
+                ((FilterableSource)source).pushPredicate(predicate);
+            }
+
+        	return new AcceptIf(args).addSource(source); 
         }
     }
 }
@@ -7,6 +7,7 @@ import com.amazon.djk.core.RecordPipe;
 import com.amazon.djk.expression.Arg;
 import com.amazon.djk.expression.ArgType;
 import com.amazon.djk.expression.OpArgs;
+import com.amazon.djk.expression.Param;
 import com.amazon.djk.expression.ParserOperands;
 import com.amazon.djk.expression.PipeOperator;
 import com.amazon.djk.expression.SyntaxError;
@@ -42,6 +43,7 @@ public class FilterPipe extends RecordPipe implements Keyword {
     @Example(expr="[ id:1,color:blue,x:y ] [ x:y,id:1,size:big,color:green ] map:id filter:+diff", type=ExampleType.EXECUTABLE)
     
     @Arg(name="HOW", gloss="+ | - | once", type = ArgType.STRING, eg = "+")
+    @Param(name=JoinPipe.BATCH_SIZE, gloss="number of left records probed together, in the order best for the right source (e.g. of a natdb on disk). 0 probes one at a time.", type=ArgType.INTEGER, defaultValue=JoinPipe.DEFAULT_BATCH_SIZE)
     public static class Op extends PipeOperator {
     	public Op() {
     		super(NAME + ":HOW");
@@ -8,6 +8,7 @@ import com.amazon.djk.core.RecordSource;
 import com.amazon.djk.expression.Arg;
 import com.amazon.djk.expression.ArgType;
 import com.amazon.djk.expression.OpArgs;
+import com.amazon.djk.expression.Param;
 import com.amazon.djk.expression.ParserOperands;
 import com.amazon.djk.expression.PipeOperator;
 import com.amazon.djk.expression.SyntaxError;
@@ -33,6 +34,8 @@ import com.amazon.djk.report.ScalarResolver.AggType;
 })
 public class JoinPipe extends RecordPipe implements WithKeyedSource, Keyword {
     public final static String NAME = "join";
+    public final static String BATCH_SIZE = "batchSize";
+    final static String DEFAULT_BATCH_SIZE = "0";
     
     public enum JoinHow { 
     	LEFT_OUTER("left"), 
@@ -78,6 +81,13 @@ public class JoinPipe extends RecordPipe implements WithKeyedSource, Keyword {
     private final KeyMaker keyMaker;
     private final KeyedSource right;
     private final Record diffRec = new Record();
+    private final int batchSize; // <= 1 for probing one left record at a time
+    private Record[] leftBatch = null;
+    private Record[] rightBatch = null;
+    private boolean[] rightHits = null;
+    private int batchNum = 0;
+    private int batchPos = 0;
+    private boolean leftDone = false;
 
     @ScalarProgress(name="leftRecs")
     private volatile long numLeftRecs = 0;
@@ -94,12 +104,17 @@ public class JoinPipe extends RecordPipe implements WithKeyedSource, Keyword {
     private final long numRightRecs;
 
     public JoinPipe(KeyedSource right, String howString) throws IOException {
-        this(null, right, howString);
+        this(null, right, howString, 0);
     }
     
-    public JoinPipe(RecordPipe root, KeyedSource right, String howString) throws IOException {
+    public JoinPipe(KeyedSource right, String howString, int batchSize) throws IOException {
+        this(null, right, howString, batchSize);
+    }
+    
+    public JoinPipe(RecordPipe root, KeyedSource right, String howString, int batchSize) throws IOException {
         super(root);
         this.howString = howString;
+        this.batchSize = batchSize;
         this.how = JoinHow.get(howString);
         this.howDisplay = how == JoinHow.ADD_BOOLEAN ? "add="+howString : howString;
         this.right = right;
@@ -119,7 +134,7 @@ public class JoinPipe extends RecordPipe implements WithKeyedSource, Keyword {
     public Object replicate() throws IOException {
         KeyedSource rt = (KeyedSource) right.replicateKeyed();
         if (rt == null) return null;
-        return new JoinPipe(this, rt, howString);
+        return new JoinPipe(this, rt, howString, batchSize);
     }
     
     @Override
@@ -135,66 +150,125 @@ public class JoinPipe extends RecordPipe implements WithKeyedSource, Keyword {
 
     @Override
     public Record next() throws IOException {
+        if (batchSize > 1) return nextBatched();
+        
         while (true) {
             Record leftRec = super.next();  // returns 'left' records
             if (leftRec == null) return null;
-	            
-            numLeftRecs++;
-            Record rightRec = right.getValue(leftRec);
             
-            if (rightRec != null) {
-                numRightHits++;
-                numRightHitsCopy++;
-
-                switch (how) {
-                case LEFT_OUTER: 
-                case INNER:
-                    // add right other fields to left
-                    leftRec.addFields(rightRec);
-                    return leftRec;
-                    
-                case NEG_FILTER:
-                    continue;
-                    
-                case POS_FILTER:
-                    return leftRec;
-                    
-                case POS_DIFF_FILTER:
-                	diffRec.reset();
-                	keyMaker.copyTo(leftRec, diffRec);
-                	keyMaker.removeFrom(leftRec);
-                	if (!SlowComparableRecord.diff(diffRec, leftRec, rightRec)) {
-                		continue; // identical records
-                	}
-                	
-                	return diffRec;
-                    
-                case ADD_BOOLEAN:
-                	leftRec.addField(howString, true);
-                	return leftRec;
-                	
-                default:
-                	// continue
-                }
+            Record joined = join(leftRec, right.getValue(leftRec));
+            if (joined != null) return joined;
+        }
+    }
+    
+    /**
+     * probes the right source a batch of left records at a time, letting it
+     * order the probes for locality, and joins them in the left order.
+     * 
+     * @return
+     * @throws IOException
+     */
+    private Record nextBatched() throws IOException {
+        while (true) {
+            if (batchPos == batchNum && !fillBatch()) return null;
+            
+            int i = batchPos++;
+            Record joined = join(leftBatch[i], rightHits[i] ? rightBatch[i] : null);
+            if (joined != null) return joined;
+        }
+    }
+    
+    /**
+     * 
+     * @return false if the left is exhausted
+     * @throws IOException
+     */
+    private boolean fillBatch() throws IOException {
+        if (leftBatch == null) {
+            leftBatch = new Record[batchSize];
+            rightBatch = new Record[batchSize];
+            rightHits = new boolean[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                leftBatch[i] = new Record();
+                rightBatch[i] = new Record();
             }
-	        
-            else { // rightRec == null
-                switch (how) {
-                case INNER:
-                case POS_FILTER:
-                    continue;
+        }
+        
+        batchPos = 0;
+        batchNum = 0;
+        while (!leftDone && batchNum < batchSize) {
+            Record leftRec = super.next();
+            if (leftRec == null) {
+                leftDone = true;
+                break;
+            }
+            
+            Record copy = leftBatch[batchNum++];
+            copy.reset();
+            copy.addFields(leftRec);
+        }
+        
+        if (batchNum == 0) return false;
+        
+        right.getValues(leftBatch, batchNum, rightBatch, rightHits);
+        return true;
+    }
+    
+    /**
+     * 
+     * @param leftRec
+     * @param rightRec the value of the left key or null if none
+     * @return the joined record or null if the left record is dropped
+     * @throws IOException
+     */
+    private Record join(Record leftRec, Record rightRec) throws IOException {
+        numLeftRecs++;
+        
+        if (rightRec != null) {
+            numRightHits++;
+            numRightHitsCopy++;
 
-                case NEG_FILTER:
-                case LEFT_OUTER:
-                    return leftRec;
+            switch (how) {
+            case LEFT_OUTER: 
+            case INNER:
+                // add right other fields to left
+                leftRec.addFields(rightRec);
+                return leftRec;
                 
-                case ADD_BOOLEAN:
-                	leftRec.addField(howString, false);
-                	return leftRec;
-                	
-                default:
-                	// continue
-                }
+            case POS_FILTER:
+                return leftRec;
+                
+            case POS_DIFF_FILTER:
+            	diffRec.reset();
+            	keyMaker.copyTo(leftRec, diffRec);
+            	keyMaker.removeFrom(leftRec);
+            	if (!SlowComparableRecord.diff(diffRec, leftRec, rightRec)) {
+            		return null; // identical records
+            	}
+            	
+            	return diffRec;
+                
+            case ADD_BOOLEAN:
+            	leftRec.addField(howString, true);
+            	return leftRec;
+            	
+            default: // NEG_FILTER
+            	return null;
+            }
+        }
+        
+        else { // rightRec == null
+            switch (how) {
+            case NEG_FILTER:
+            case LEFT_OUTER:
+                return leftRec;
+            
+            case ADD_BOOLEAN:
+            	leftRec.addField(howString, false);
+            	return leftRec;
+            	
+            default: // INNER, POS_FILTER, POS_DIFF_FILTER
+            	return null;
             }
         }
 	}
@@ -215,6 +289,7 @@ public class JoinPipe extends RecordPipe implements WithKeyedSource, Keyword {
     @Example(expr="[ id:1,tx:0 id:2,tx:1 ] [ id:1 ] map:id join:keyExists", type=ExampleType.EXECUTABLE)
 
     @Arg(name="HOW", gloss="left | right | inner | outer | FIELD", type = ArgType.STRING, eg = "left")
+    @Param(name=BATCH_SIZE, gloss="number of left records probed together, in the order best for the right source (e.g. of a natdb on disk). 0 probes one at a time.", type=ArgType.INTEGER, defaultValue=DEFAULT_BATCH_SIZE)
     public static class Op extends PipeOperator {
     	public Op() {
     		super(NAME + ":HOW");
@@ -264,7 +339,8 @@ public class JoinPipe extends RecordPipe implements WithKeyedSource, Keyword {
     		
     		if (right instanceof KeyedSource) {
     			KeyedSource ksource = (KeyedSource) right;
-    			RecordPipe joiner =	new JoinPipe(ksource, howString);
+    			int batchSize = (Integer)args.getParam(BATCH_SIZE);
+    			RecordPipe joiner =	new JoinPipe(ksource, howString, batchSize);
     			joiner.addSource(left);
     			return joiner;
     		}
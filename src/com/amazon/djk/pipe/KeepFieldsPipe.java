@@ -9,10 +9,15 @@ import com.amazon.djk.expression.Operator;
 import com.amazon.djk.expression.ParserOperands;
 import com.amazon.djk.expression.PipeOperator;
 import com.amazon.djk.expression.SyntaxError;
+import com.amazon.djk.core.FilterableSource;
+import com.amazon.djk.core.ProjectableSource;
 import com.amazon.djk.core.RecordPipe;
+import com.amazon.djk.core.RecordSource;
 import com.amazon.djk.manual.Description;
 import com.amazon.djk.manual.Example;
 import com.amazon.djk.manual.ExampleType;
+import com.amazon.djk.record.FieldPredicate;
+import com.amazon.djk.record.FieldProjection;
 import com.amazon.djk.record.Fields;
 import com.amazon.djk.record.NotIterator;
 import com.amazon.djk.record.Record;
@@ -24,7 +29,7 @@ import com.amazon.djk.report.ScalarProgress;
  *
  */
 @ReportFormats(headerFormat="<fields>%s")
-public class KeepFieldsPipe extends RecordPipe {
+public class KeepFieldsPipe extends RecordPipe implements ProjectableSource, FilterableSource {
 	public static final String NAME = "keep";
     @ScalarProgress(name="fields")
 	private final Fields fields;
@@ -44,6 +49,28 @@ public class KeepFieldsPipe extends RecordPipe {
     public Object replicate() throws IOException {
     	return new KeepFieldsPipe(fields);
     }
+
+    /**
+     * fields removed above are also removed here, so pass the projection on
+     */
+    @Override
+    public void pushProjection(FieldProjection projection) throws IOException {
+        RecordSource source = getSource();
+        if (source instanceof ProjectableSource) {
+            ((ProjectableSource)source).pushProjection(projection);
+        }
+    }
+
+    /**
+     * records rejected below never reach acceptIf: above, so pass the predicate on
+     */
+    @Override
+    public void pushPredicate(FieldPredicate predicate) throws IOException {
+        RecordSource source = getSource();
+        if (source instanceof FilterableSource) {
+            ((FilterableSource)source).pushPredicate(predicate);
+        }
+    }
     
     @Override
     public Record next() throws IOException {
@@ -80,7 +107,13 @@ public class KeepFieldsPipe extends RecordPipe {
             if (fields.isSpecifiedAsNegative()) {
                 throw new SyntaxError("Illegal to specify negative fields. Use 'rm' predicate");
             }
-            return new KeepFieldsPipe(fields).addSource(operands.pop());
+            RecordSource source = operands.pop();
+            FieldProjection projection = FieldProjection.get(fields, true);
+            if (projection != null && source instanceof ProjectableSource) {
+                ((ProjectableSource)source).pushProjection(projection);
+            }
+
+            return new KeepFieldsPipe(fields).addSource(source);
         }
     }
 }
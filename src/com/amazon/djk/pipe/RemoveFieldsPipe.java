@@ -1,6 +1,9 @@
 package com.amazon.djk.pipe;
 
+import com.amazon.djk.core.FilterableSource;
+import com.amazon.djk.core.ProjectableSource;
 import com.amazon.djk.core.RecordPipe;
+import com.amazon.djk.core.RecordSource;
 import com.amazon.djk.expression.Arg;
 import com.amazon.djk.expression.ArgType;
 import com.amazon.djk.expression.OpArgs;
@@ -11,6 +14,8 @@ import com.amazon.djk.manual.Description;
 import com.amazon.djk.manual.Example;
 import com.amazon.djk.manual.ExampleType;
 import com.amazon.djk.record.FieldIterator;
+import com.amazon.djk.record.FieldPredicate;
+import com.amazon.djk.record.FieldProjection;
 import com.amazon.djk.record.Fields;
 import com.amazon.djk.record.Record;
 import com.amazon.djk.report.ReportFormats;
@@ -20,7 +25,7 @@ import java.io.IOException;
 
 
 @ReportFormats(headerFormat="<fields>%s")
-public class RemoveFieldsPipe extends RecordPipe {
+public class RemoveFieldsPipe extends RecordPipe implements ProjectableSource, FilterableSource {
     private static final String INPUTS = "INPUTS";
     @ScalarProgress(name="fields")
 	final Fields fields;
@@ -54,6 +59,28 @@ public class RemoveFieldsPipe extends RecordPipe {
     	return new RemoveFieldsPipe(this, args);
     }
 
+    /**
+     * fields removed above are also removed here, so pass the projection on
+     */
+    @Override
+    public void pushProjection(FieldProjection projection) throws IOException {
+        RecordSource source = getSource();
+        if (source instanceof ProjectableSource) {
+            ((ProjectableSource)source).pushProjection(projection);
+        }
+    }
+
+    /**
+     * records rejected below never reach acceptIf: above, so pass the predicate on
+     */
+    @Override
+    public void pushPredicate(FieldPredicate predicate) throws IOException {
+        RecordSource source = getSource();
+        if (source instanceof FilterableSource) {
+            ((FilterableSource)source).pushPredicate(predicate);
+        }
+    }
+
     @Override
     public Record next() throws IOException {
         Record rec = super.next();
@@ -77,7 +104,13 @@ public class RemoveFieldsPipe extends RecordPipe {
            
        @Override
        public RecordPipe getAsPipe(ParserOperands operands, OpArgs args) throws IOException, SyntaxError {
-           return new RemoveFieldsPipe(args).addSource(operands.pop());
+           RecordSource source = operands.pop();
+           FieldProjection projection = FieldProjection.get((Fields)args.getArg(INPUTS), false);
+           if (projection != null && source instanceof ProjectableSource) {
+               ((ProjectableSource)source).pushProjection(projection);
+           }
+
+           return new RemoveFieldsPipe(args).addSource(source);
        }
    }
 }
@@ -20,6 +20,7 @@ import com.amazon.djk.format.TSVFormatWriter;
 import com.amazon.djk.legacy.DJFFileParser;
 import com.amazon.djk.legacy.NVPFormatParser;
 import com.amazon.djk.natdb.MemDBKeyedSource;
+import com.amazon.djk.natdb.NativeDBCompactor;
 import com.amazon.djk.natdb.NativeDBKeyedSource;
 import com.amazon.djk.natdb.NativeDBSink;
 import com.amazon.djk.pipe.AcceptIf;
@@ -83,6 +84,7 @@ public class DataJackKnife extends JackKnife {
         registerOp(IfNotPipe.Op.class);
         registerOp(NativeDBSink.GroupOp.class);
         registerOp(NativeDBSink.MapOp.class);
+        registerOp(NativeDBCompactor.Op.class);
         registerOp(TailPipe.Op.class);
         registerOp(JoinPipe.Op.class);
         registerOp(FilterPipe.Op.class);
@@ -0,0 +1,220 @@
+package com.amazon.djk.record;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A conjunction of simple comparisons of the first value of a field with a
+ * literal, recognized in an acceptIf: conditional such as
+ * '{l.status == 200 &amp;&amp; d.price &lt; 9.5;}' or '{s.color.equals("blue");}'.
+ * Parsers evaluate it on the few fields it references before building the rest
+ * of a record and skip the records it rejects.  A record is rejected only if the
+ * conditional would not evaluate to true for it, so the acceptIf: pipe remains
+ * in place and has the final say.
+ */
+public class FieldPredicate {
+    private final static Pattern numericPat = Pattern.compile("^(?<type>[ld])\\.(?<name>\\w+)\\s*(?<op>==|!=|<=|>=|<|>)\\s*(?<literal>-?\\d+(\\.\\d+)?)$");
+    private final static Pattern equalsPat = Pattern.compile("^s\\.(?<name>\\w+)\\.equals\\(\"(?<literal>[^\"\\\\]*)\"\\)$");
+    private final static Pattern reverseEqualsPat = Pattern.compile("^\"(?<literal>[^\"\\\\]*)\"\\.equals\\(s\\.(?<name>\\w+)\\)$");
+    private enum Op {EQ, NE, LT, LE, GT, GE};
+
+    private final List<Term> terms;
+    private final LongAdder numRejected;
+
+    /**
+     * a comparison on one field
+     */
+    private static class Term {
+        private final String name;
+        private final char type; // l, d or s
+        private final Op op;
+        private final String stringLiteral;
+        private final double doubleLiteral;
+        private final long longLiteral;
+        private final boolean isLongLiteral;
+
+        Term(String name, char type, Op op, String literal) {
+            this.name = name;
+            this.type = type;
+            this.op = op;
+            this.stringLiteral = literal;
+            this.isLongLiteral = type != 's' && literal.indexOf('.') == -1;
+            this.longLiteral = isLongLiteral ? Long.parseLong(literal) : 0;
+            this.doubleLiteral = type != 's' ? Double.parseDouble(literal) : 0;
+        }
+
+        /**
+         * as java would evaluate the conditional, null values fail
+         */
+        boolean accepts(Record rec) throws IOException {
+            switch (type) {
+            case 's':
+                String s = rec.getFirstAsString(name);
+                return s != null && s.equals(stringLiteral);
+
+            case 'l':
+                Long l = rec.getFirstAsLong(name);
+                if (l == null) return false;
+                return isLongLiteral ? compare(Long.compare(l, longLiteral)) : compare((double)l, doubleLiteral);
+
+            default:
+                Double d = rec.getFirstAsDouble(name);
+                if (d == null) return false;
+                return compare(d, doubleLiteral);
+            }
+        }
+
+        private boolean compare(double value, double literal) {
+            switch (op) {
+            case EQ: return value == literal;
+            case NE: return value != literal;
+            case LT: return value < literal;
+            case LE: return value <= literal;
+            case GT: return value > literal;
+            default: return value >= literal;
+            }
+        }
+
+        private boolean compare(int cmp) {
+            switch (op) {
+            case EQ: return cmp == 0;
+            case NE: return cmp != 0;
+            case LT: return cmp < 0;
+            case LE: return cmp <= 0;
+            case GT: return cmp > 0;
+            default: return cmp >= 0;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return type == 's' ? String.format("s.%s.equals(\"%s\")", name, stringLiteral) :
+                String.format("%c.%s %s %s", type, name, op, stringLiteral);
+        }
+    }
+
+    private FieldPredicate(List<Term> terms, LongAdder numRejected) {
+        this.terms = terms;
+        this.numRejected = numRejected;
+    }
+
+    /**
+     *
+     * @param value the conditional of acceptIf:
+     * @return the predicate or null if the conditional is not a conjunction of simple comparisons
+     */
+    public static FieldPredicate get(Value value) {
+        if (value.getType() != Value.ValueType.DJK_JAVA) return null;
+
+        String code = value.getDisplayString().trim();
+        if (code.contains("||") || code.contains(";")) return null;
+
+        List<Term> terms = new ArrayList<>();
+        for (String part : code.split("&&")) {
+            Term term = getTerm(part.trim());
+            if (term == null) return null;
+            terms.add(term);
+        }
+
+        return new FieldPredicate(terms, new LongAdder());
+    }
+
+    private static Term getTerm(String part) {
+        Matcher m = numericPat.matcher(part);
+        if (m.matches()) {
+            try {
+                return new Term(m.group("name"), m.group("type").charAt(0), getOp(m.group("op")), m.group("literal"));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        m = equalsPat.matcher(part);
+        if (!m.matches()) {
+            m = reverseEqualsPat.matcher(part);
+            if (!m.matches()) return null;
+        }
+
+        return new Term(m.group("name"), 's', Op.EQ, m.group("literal"));
+    }
+
+    private static Op getOp(String op) {
+        switch (op) {
+        case "==": return Op.EQ;
+        case "!=": return Op.NE;
+        case "<": return Op.LT;
+        case "<=": return Op.LE;
+        case ">": return Op.GT;
+        default: return Op.GE;
+        }
+    }
+
+    /**
+     *
+     * @param other
+     * @return the predicate accepting records accepted by both
+     */
+    public FieldPredicate and(FieldPredicate other) {
+        List<Term> both = new ArrayList<>(terms);
+        both.addAll(other.terms);
+        return new FieldPredicate(both, numRejected);
+    }
+
+    /**
+     *
+     * @return the names of the fields referenced
+     */
+    public Set<String> getFieldNames() {
+        Set<String> names = new LinkedHashSet<>();
+        for (Term term : terms) {
+            names.add(term.name);
+        }
+
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * evaluates the predicate on a record holding at least the referenced fields,
+     * counting rejections.
+     *
+     * @param rec
+     * @return false if the conditional would not evaluate to true
+     * @throws IOException
+     */
+    public boolean accepts(Record rec) throws IOException {
+        for (Term term : terms) {
+            if (!term.accepts(rec)) {
+                numRejected.increment();
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     *
+     * @return the number of records rejected by parsers
+     */
+    public long getNumRejected() {
+        return numRejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Term term : terms) {
+            if (sb.length() != 0) sb.append(" && ");
+            sb.append(term);
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,87 @@
+package com.amazon.djk.record;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The top level fields a consumer of a source needs, as derived from keep: and
+ * rm: directly above the source.  Sources may omit the other fields.
+ */
+public class FieldProjection {
+    private final Set<String> keep; // null for all
+    private final Set<String> drop;
+
+    private FieldProjection(Set<String> keep, Set<String> drop) {
+        this.keep = keep;
+        this.drop = drop;
+    }
+
+    /**
+     *
+     * @param names
+     * @return the projection of only the named fields
+     */
+    public static FieldProjection keep(Collection<String> names) {
+        return new FieldProjection(new HashSet<>(names), new HashSet<>());
+    }
+
+    /**
+     *
+     * @param names
+     * @return the projection of all but the named fields
+     */
+    public static FieldProjection drop(Collection<String> names) {
+        return new FieldProjection(null, new HashSet<>(names));
+    }
+
+    /**
+     *
+     * @param fields the fields argument of keep: or rm:
+     * @param isKeep true for keep:, false for rm:
+     * @return the projection or null if the fields cannot be projected (e.g. wildcards)
+     */
+    public static FieldProjection get(Fields fields, boolean isKeep) {
+        if (fields.isAllFields() || fields.hasWildcards()) return null;
+
+        // rm:-a,b removes all but a and b
+        boolean keeping = isKeep != fields.isSpecifiedAsNegative();
+        return keeping ? keep(fields.getFieldNames()) : drop(fields.getFieldNames());
+    }
+
+    /**
+     *
+     * @param other
+     * @return the projection of the fields wanted by both
+     */
+    public FieldProjection and(FieldProjection other) {
+        Set<String> newDrop = new HashSet<>(drop);
+        newDrop.addAll(other.drop);
+
+        Set<String> newKeep = null;
+        if (keep != null && other.keep != null) {
+            newKeep = new HashSet<>(keep);
+            newKeep.retainAll(other.keep);
+        } else if (keep != null) {
+            newKeep = new HashSet<>(keep);
+        } else if (other.keep != null) {
+            newKeep = new HashSet<>(other.keep);
+        }
+
+        return new FieldProjection(newKeep, newDrop);
+    }
+
+    /**
+     *
+     * @param name of a top level field
+     * @return true if the field is wanted
+     */
+    public boolean wants(String name) {
+        return !drop.contains(name) && (keep == null || keep.contains(name));
+    }
+
+    @Override
+    public String toString() {
+        return keep != null ? "keep" + keep + " drop" + drop : "drop" + drop;
+    }
+}
@@ -5,6 +5,7 @@ import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import com.amazon.djk.expression.SyntaxError;
 import com.amazon.djk.processor.FieldDefs;
@@ -20,6 +21,8 @@ public class RecordIO {
     private final short[] fidsStoredToLive;
     private final short[] fidsLiveToStored;
     private final String[] storedFieldNames;
+    private boolean[] storedDrops = null; // by stored fid, null for none
+    private int[] subEnds = new int[8];
     
     /**
      * Record subclass to expose Byte() methods 
@@ -161,6 +164,26 @@ public class RecordIO {
 		}
 	}
 	
+	/**
+	 * restricts the records filled to the top level fields wanted by the projection.
+	 * Unwanted fields are marked deleted while translating.
+	 * 
+	 * @param projection the projection or null for all fields
+	 */
+	public void setProjection(FieldProjection projection) {
+	    if (projection == null) {
+	        storedDrops = null;
+	        return;
+	    }
+
+	    boolean[] drops = new boolean[storedFieldNames.length];
+	    for (int storedFid = FieldDefs.INTERNAL_FIELD_ID + 1; storedFid < drops.length; storedFid++) {
+	        drops[storedFid] = !projection.wants(storedFieldNames[storedFid]);
+	    }
+
+	    storedDrops = drops;
+	}
+
 	/**
 	 * translates the field ids written to disk to the currently active mappings
 	 * 
@@ -168,9 +191,22 @@ public class RecordIO {
 	 * @throws IOException 
 	 */
     public void translate(Record keyMakerMadeRecord, Direction dir) throws IOException {
+        translate(keyMakerMadeRecord, dir, -1);
+    }
+
+    /**
+     * 
+     * @param keyMakerMadeRecord
+     * @param dir
+     * @param projectDepth subrecord depth of the fields subject to the projection, -1 for none
+     * @throws IOException
+     */
+    private void translate(Record keyMakerMadeRecord, Direction dir, int projectDepth) throws IOException {
         int inputEndPos = keyMakerMadeRecord.length;
         int length = 0;
         int offset = keyMakerMadeRecord.offset;
+        boolean[] drops = dir == Direction.STORED_TO_LIVE && projectDepth != -1 ? storedDrops : null;
+        int depth = 0;
         
         short[] fidLookup = dir == Direction.STORED_TO_LIVE ? 
                 fidsStoredToLive : fidsLiveToStored;
@@ -178,6 +214,12 @@ public class RecordIO {
         do {
             offset += length;
             if (offset >= inputEndPos) break;
+
+            if (drops != null) {
+                while (depth > 0 && offset >= subEnds[depth - 1]) {
+                    depth--;
+                }
+            }
         
             short fid = keyMakerMadeRecord.getShortAt(offset);
             offset += Record.FIELD_ID_LEN;
@@ -193,8 +235,20 @@ public class RecordIO {
             case FieldType.RECORD_ID:
                 // length set to var field payload prefix causes recursion into the subrecord
                 //length = Record.VAR_FIELD_PAYLOAD_PREFIX;
-                keyMakerMadeRecord.getVarLenUnsignedIntAt(offset + FIELD_TYPE_LEN);
+                int subLength = keyMakerMadeRecord.getVarLenUnsignedIntAt(offset + FIELD_TYPE_LEN);
                 length = FIELD_TYPE_LEN + keyMakerMadeRecord.lastNumVarLenBytes;
+                if (drops != null) {
+                    if (depth == projectDepth && fid < drops.length && drops[fid]) {
+                        length += subLength; // dropped, no need to translate its fields
+                    }
+
+                    else {
+                        if (depth == subEnds.length) {
+                            subEnds = Arrays.copyOf(subEnds, depth * 2);
+                        }
+                        subEnds[depth++] = offset + length + subLength;
+                    }
+                }
                 break;
 
             case FieldType.DOUBLE_ID:
@@ -222,6 +276,10 @@ public class RecordIO {
             }
             
             short newFid = fidLookup[fid];
+            if (drops != null && depth == projectDepth && drops[fid]) {
+                newFid = FieldDefs.DELETED_FIELD_ID;
+            }
+
             if (fid != newFid) {
                 keyMakerMadeRecord.putShortAt(offset-Record.FIELD_ID_LEN, newFid);
             }
@@ -243,7 +301,7 @@ public class RecordIO {
 	
     public boolean fill(DataInputStream stream, RecordFIFO out) throws IOException {
         out.reset();
-        return fill(stream, out.storage);
+        return fill(stream, out.storage, 1);
     }
     
 	/**
@@ -254,6 +312,10 @@ public class RecordIO {
 	 * @throws IOException
 	 */
     public boolean fill(DataInputStream stream, IORecord out) throws IOException {
+        return fill(stream, out, -1);
+    }
+
+    private boolean fill(DataInputStream stream, IORecord out, int projectDepth) throws IOException {
 	    int reclen = 0;
 	    out.reset();
 
@@ -279,10 +341,26 @@ public class RecordIO {
 	    }
 	    
 		out.length = reclen;
-		translate(out, Direction.STORED_TO_LIVE);
+		translate(out, Direction.STORED_TO_LIVE, projectDepth);
 		return true;
 	}
 	
+    /**
+     * fills the fifo from the stored bytes of an entire fifo, e.g. the payload
+     * of a native v2 block.
+     * 
+     * @param bytes
+     * @param offset
+     * @param length
+     * @param out
+     * @throws IOException
+     */
+    public void fill(byte[] bytes, int offset, int length, RecordFIFO out) throws IOException {
+        out.reset();
+        out.storage.putBytes(bytes, offset, length);
+        translate(out.storage, Direction.STORED_TO_LIVE, 1);
+    }
+	
     public static void write(DataOutputStream outstream, RecordFIFO fifo) throws IOException {
         write(outstream, fifo.storage);
     }
@@ -38,6 +38,7 @@ public class ThreadDefs {
 
 	private final Inflater inflater = new Inflater();
 	private final Deflater deflater = new Deflater();
+	private int deflaterLevel = Deflater.DEFAULT_COMPRESSION;
 	private final Bytes cachedBytes = new Bytes();
 
 	// below for recursive contexts
@@ -344,6 +345,18 @@ public class ThreadDefs {
 	 * @throws IOException
 	 */
 	public void deflate(Bytes in, Bytes out) throws IOException {
+	    deflate(in, out, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * see deflate(Bytes, Bytes)
+	 *
+	 * @param in
+	 * @param out
+	 * @param level the Deflater compression level, 0-9 or -1 for the default
+	 * @throws IOException
+	 */
+	public void deflate(Bytes in, Bytes out, int level) throws IOException {
 	    out.reset();
 	    
 	    out.putVarLenUnsignedInt(in.size());
@@ -353,6 +366,10 @@ public class ThreadDefs {
 	    }
 	    
 	    deflater.reset();
+	    if (level != deflaterLevel) {
+	        deflater.setLevel(level);
+	        deflaterLevel = level;
+	    }
         deflater.setInput(in.bytes, 0, in.length);
         deflater.finish();
         
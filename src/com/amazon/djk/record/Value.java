@@ -2,7 +2,9 @@ package com.amazon.djk.record;
 
 import com.amazon.djk.expression.SyntaxError;
 import com.amazon.djk.format.ReaderFormatParser;
+import com.amazon.djk.java.InterpretedValueFunction;
 import com.amazon.djk.java.ValueFunction;
+import com.amazon.djk.java.ValueFunctionBatch;
 import com.amazon.djk.java.ValueFunctionClassFactory;
 import com.amazon.djk.manual.Description;
 import com.amazon.djk.manual.Example;
@@ -20,9 +22,10 @@ public class Value {
 	private final String inputString;
 	private final Field indirectField;
 	private final ValueType type;
-    private final Class<?> valueFunctionClass;
+    private final ValueFunctionBatch.Pending pendingClass; // null unless compiled in a batch
+    private Class<?> valueFunctionClass;
     private final String valueFunctionCode;
-    private final ValueFunction valueFunction;
+    private ValueFunction valueFunction;
     
 	public Value(String inputValueAsString) throws SyntaxError, IOException {
 		this.inputString = inputValueAsString;
@@ -34,9 +37,18 @@ public class Value {
 		    String djkJava = inputString.substring(1, inputString.length()-1);
 
 		    try {
-		        valueFunctionCode = ValueFunctionClassFactory.getCode(djkJava);
-                valueFunctionClass = ValueFunctionClassFactory.getClass(valueFunctionCode);
-                valueFunction = (ValueFunction)valueFunctionClass.newInstance();
+		        // simple expressions need no compiler
+		        valueFunction = InterpretedValueFunction.create(djkJava);
+		        if (valueFunction != null) {
+		            valueFunctionCode = djkJava;
+		            pendingClass = null;
+		        }
+
+		        else {
+		            valueFunctionCode = ValueFunctionClassFactory.getCode(djkJava);
+		            // bound to the class when the batch of the parsing expression is compiled
+		            pendingClass = ValueFunctionClassFactory.getPendingClass(valueFunctionCode);
+		        }
             } catch (Exception e) {
                 //logger.warn(valueFunctionCode); // composition time
                 throw new SyntaxError(e.getMessage());
@@ -46,6 +58,7 @@ public class Value {
 		else if (inputString.length() > 1 && inputString.charAt(0) == '@') {
 		    indirectField = new Field(inputString.substring(1));
             type = ValueType.INDIRECT_FIELD;
+            pendingClass = null;
             valueFunctionClass = null;
             valueFunctionCode = null;
             valueFunction = null;
@@ -54,6 +67,7 @@ public class Value {
 		else {
             indirectField = null;
             type = ValueType.PRIMITIVE;
+            pendingClass = null;
             valueFunctionClass = null;
             valueFunctionCode = null;
             valueFunction = null;
@@ -71,13 +85,25 @@ public class Value {
 	    this.valueFunction = valueFunction;
 	    this.valueFunctionCode = code;
         this.valueFunctionClass = valueFunctionClass;
+        this.pendingClass = null;
 	    this.indirectField = null;
         this.type = ValueType.DJK_JAVA;
 	}
+
+    private Value(Value root) {
+        this.inputString = root.inputString;
+        this.valueFunction = null;
+        this.valueFunctionCode = root.valueFunctionCode;
+        this.valueFunctionClass = null;
+        this.pendingClass = root.pendingClass;
+        this.indirectField = null;
+        this.type = ValueType.DJK_JAVA;
+    }
 	
     private Value(String inputString, ValueType nonDjkJavaType) throws IOException {
         this.inputString = inputString;
         this.type = nonDjkJavaType;
+        this.pendingClass = null;
         this.valueFunctionClass = null; 
         this.valueFunction = null; 
         this.valueFunctionCode = null; 
@@ -91,6 +117,15 @@ public class Value {
      * @throws IOException
      */
     public Object replicate() throws IOException {
+        if (pendingClass != null) {
+            return new Value(this);
+        }
+
+        // stateless
+        if (valueFunction instanceof InterpretedValueFunction) {
+            return new Value(inputString, valueFunction, null, valueFunctionCode);
+        }
+
         if (valueFunctionClass != null) {
             ValueFunction function;
             try {
@@ -113,6 +148,10 @@ public class Value {
 	public Object getValue(Record rec) throws IOException {
 	    Object value = null;
 
+	    if (valueFunction == null && pendingClass != null) {
+	        bindFunction();
+	    }
+
 		if (valueFunction != null) {
 		    try {
 		        value = valueFunction.get(rec);
@@ -147,6 +186,20 @@ public class Value {
 	    return value;
 	}
 	
+	/**
+	 * instantiates the function of the compiled class
+	 * 
+	 * @throws IOException
+	 */
+	private void bindFunction() throws IOException {
+	    try {
+	        valueFunctionClass = pendingClass.get();
+	        valueFunction = (ValueFunction)valueFunctionClass.newInstance();
+	    } catch (Exception e) {
+	        throw new IOException(e);
+	    }
+	}
+
 	public String getValueAsString(Record rec) throws IOException {
 	    Object value = getValue(rec);
 	    if (value == null) return null;
@@ -0,0 +1,185 @@
+package com.amazon.djk.sink;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.amazon.djk.format.FormatWriter;
+import com.amazon.djk.processor.DJKRunnable;
+import com.amazon.djk.record.Record;
+import com.amazon.djk.record.RecordFIFO;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Double buffered hand-off of records from a sink thread to a dedicated writer
+ * thread, so that formatting, compression and I/O overlap with record processing.
+ * The sink thread fills one buffer while the writer thread writes the other.
+ * Must be constructed in the main thread of the JackKnife (see DJKRunnable).
+ */
+public class AsyncFormatWriter extends DJKRunnable {
+    private static final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+            .setNameFormat(AsyncFormatWriter.class.getSimpleName() + "-%d").setDaemon(true).build();
+    public static final int BUFFER_SIZE = 512 * 1024;
+    private static final long WAIT_MILLIS = 100; // between checks that the writer thread is still running
+
+    private final FormatWriter writer;
+    private final BlockingQueue<RecordFIFO> full = new ArrayBlockingQueue<>(1);
+    private final BlockingQueue<RecordFIFO> empty = new ArrayBlockingQueue<>(2);
+    private final RecordFIFO done = new RecordFIFO(); // poison
+    private RecordFIFO filling = new RecordFIFO();
+    private Thread thread = null;
+    private volatile IOException writeException = null;
+    private volatile long blockedHandoffs = 0;
+
+    public AsyncFormatWriter(FormatWriter writer) throws IOException {
+        this.writer = writer;
+        empty.add(new RecordFIFO());
+    }
+
+    /**
+     * starts the writer thread
+     */
+    public void start() {
+        thread = threadFactory.newThread(this);
+        thread.start();
+    }
+
+    /**
+     *
+     * @param rec
+     * @throws IOException
+     */
+    public void write(Record rec) throws IOException {
+        filling.add(rec);
+        if (filling.byteSize() >= BUFFER_SIZE) {
+            handoff();
+        }
+    }
+
+    private void handoff() throws IOException {
+        checkException();
+
+        try {
+            putFull(filling);
+            filling = empty.poll();
+            if (filling == null) { // writer is behind
+                blockedHandoffs++;
+                while ((filling = empty.poll(WAIT_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                    checkWriterRunning();
+                }
+            }
+        }
+
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     *
+     * @return number of times the sink thread waited on the writer thread
+     */
+    public long getBlockedHandoffs() {
+        return blockedHandoffs;
+    }
+
+    /**
+     * writes the remaining records, waits for the writer thread and closes the writer
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if (thread == null) {
+            writer.close();
+            return;
+        }
+
+        try {
+            // the writer thread keeps taking after an exception, so these only block if it exited
+            if (filling.byteSize() > 0) {
+                putFull(filling);
+            }
+            putFull(done);
+            thread.join();
+        }
+
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+
+        finally {
+            thread = null;
+        }
+
+        checkException();
+    }
+
+    private void checkException() throws IOException {
+        if (writeException != null) {
+            throw writeException;
+        }
+    }
+
+    /**
+     * hands a buffer to the writer thread without blocking forever if it has exited
+     *
+     * @param fifo
+     * @throws IOException if the writer thread failed or exited
+     * @throws InterruptedException
+     */
+    private void putFull(RecordFIFO fifo) throws IOException, InterruptedException {
+        while (!full.offer(fifo, WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+            checkWriterRunning();
+        }
+    }
+
+    private void checkWriterRunning() throws IOException {
+        checkException();
+        if (!thread.isAlive()) {
+            checkException(); // set just before exiting
+            throw new IOException(thread.getName() + " exited before writing all records");
+        }
+    }
+
+    @Override
+    public void innerRun() {
+        try {
+            while (true) {
+                RecordFIFO fifo = full.take();
+                if (fifo == done) break;
+
+                // after an exception keep taking so that the sink thread never blocks
+                if (writeException == null) {
+                    try {
+                        Record rec;
+                        while ((rec = fifo.next()) != null) {
+                            writer.write(rec);
+                        }
+                    } catch (Exception e) {
+                        writeException = (e instanceof IOException) ? (IOException)e : new IOException(e);
+                    }
+                }
+
+                fifo.reset();
+                empty.put(fifo);
+            }
+        }
+
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writeException = new IOException(e);
+        }
+
+        finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (writeException == null) writeException = e;
+            }
+        }
+    }
+}
@@ -2,10 +2,14 @@ package com.amazon.djk.sink;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 import com.amazon.djk.core.RecordSink;
 import com.amazon.djk.file.SourceProperties;
+import com.amazon.djk.format.FieldTypeSchema;
 import com.amazon.djk.manual.Display.DisplayType;
+import com.amazon.djk.record.FieldType;
 import com.amazon.djk.record.Record;
 import com.amazon.djk.report.GraphDisplay;
 import com.amazon.djk.report.ProgressReport;
@@ -49,7 +53,13 @@ public abstract class FileSink extends RecordSink implements ReportConsumer {
     @Override
     public void close() throws IOException {
         if (!info.asFile() && isLastSync1.arriveAndIsLast()) {
-            SourceProperties.write(sinkPath, totalRecsSunk(), info.format(), getStreamFileRegex(), null);
+            Map<String,String> extras = new HashMap<>();
+            Map<String,FieldType> fieldTypes = info.getFieldTypes();
+            if (!fieldTypes.isEmpty()) {
+                extras.put(SourceProperties.SOURCE_PROP_FIELD_TYPES, FieldTypeSchema.format(fieldTypes));
+            }
+            
+            SourceProperties.write(sinkPath, totalRecsSunk(), info.format(), getStreamFileRegex(), null, extras, info.getFileRecordCounts());
         }
         
         // check if we have a zero length file, in which case delete it.
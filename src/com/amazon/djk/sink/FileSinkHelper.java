@@ -8,12 +8,16 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.apache.commons.lang.StringUtils;
 
 import com.amazon.djk.expression.SyntaxError;
 import com.amazon.djk.file.FileSystem;
 import com.amazon.djk.file.FormatArgs;
+import com.amazon.djk.format.FieldTypeSchema;
+import com.amazon.djk.record.FieldType;
 import com.amazon.djk.record.Record;
 import com.amazon.djk.record.RecordFIFO;
 import com.amazon.djk.record.RecordIO;
@@ -33,6 +37,8 @@ public class FileSinkHelper {
 
     private int numFiles = 0;
     private final File sinkPath;
+    private final Map<String,Long> fileRecordCounts = new TreeMap<>();
+    private final FieldTypeSchema fieldTypes = new FieldTypeSchema(0);
 
     /**
      * constructor for Sink (e.g. MapDB)
@@ -130,14 +136,47 @@ public class FileSinkHelper {
     }
 
     /**
-     * @return
+     * @return the next numbered data file.  Strands may roll files concurrently.
      */
-    public File getNextFile() {
+    public synchronized File getNextFile() {
         String suffix = useGzip() ? String.format("%s.gz", format()) : String.format("%s", format());
         String name = FileSystem.getNumberedFileName(FILE_NAME, numFiles++, suffix);
         return new File(sinkPath, name);
     }
 
+    /**
+     * 
+     * @param dataFile a closed data file
+     * @param numRecs number of records written to it
+     */
+    public synchronized void addFileRecordCount(File dataFile, long numRecs) {
+        fileRecordCounts.put(dataFile.getName(), numRecs);
+    }
+
+    /**
+     * 
+     * @return data file name to number of records, see SourceProperties
+     */
+    public synchronized Map<String,Long> getFileRecordCounts() {
+        return new TreeMap<>(fileRecordCounts);
+    }
+
+    /**
+     * 
+     * @param sampled field types sampled by a strand
+     */
+    public void addFieldTypes(FieldTypeSchema sampled) {
+        fieldTypes.merge(sampled);
+    }
+
+    /**
+     * 
+     * @return the field types sampled by all strands, see SourceProperties
+     */
+    public Map<String,FieldType> getFieldTypes() {
+        return fieldTypes.getTypes();
+    }
+
     /**
      * persists the report record to a file in the directory in a quasi-native format.
      * (allows multi-line strings to be stored)
@@ -12,10 +12,12 @@ import com.amazon.djk.report.ScalarProgress;
  * 
  *
  */
-@ReportFormats2(headerFormat="file://<path>%s?<params>%s")
+@ReportFormats2(headerFormat="file://<path>%s?<params>%s",
+	lineFormats={"blockedHandoffs=%d"})
 public class FormatFileSink extends FileSink {
     private final FormatFileSinkHelper finfo;
     protected final FormatWriter writer;
+    private final AsyncFormatWriter asyncWriter; // null if synchronous
     
     @ScalarProgress(name="path")
     private final String path; // for display only
@@ -23,6 +25,9 @@ public class FormatFileSink extends FileSink {
     @ScalarProgress(name="params")
     protected final String params;
     
+    @ScalarProgress(name="blockedHandoffs")
+    private volatile long blockedHandoffs = 0;
+    
     /**
      * main constructor
      * 
@@ -35,19 +40,24 @@ public class FormatFileSink extends FileSink {
         this.finfo = finfo;
         this.path = finfo.absolutePath();
         this.params = finfo.getArgs().getParamsAsString();
-        this.writer = finfo.getWriter(dataFile);
+        this.writer = new RollingFormatWriter(finfo, dataFile, finfo.getRollBytes());
+        this.asyncWriter = finfo.asyncWrite() ? new AsyncFormatWriter(writer) : null;
     }
     
     @Override
     public void drain(AtomicBoolean forceDone) throws IOException {
     	super.drain(forceDone);
+    	if (asyncWriter != null) {
+    		drainAsync(forceDone);
+    		return;
+    	}
     	
         try {
         	while (!forceDone.get()) {
         		Record rec = super.next();
         		if (rec == null) break;
             
-        		writer.writeRecord(rec);
+        		writer.write(rec);
         		reportSunkRecord(1);
         	}
         }
@@ -59,6 +69,31 @@ public class FormatFileSink extends FileSink {
         }
     }
     
+    /**
+     * hands records to the writer thread
+     * 
+     * @param forceDone
+     * @throws IOException
+     */
+    private void drainAsync(AtomicBoolean forceDone) throws IOException {
+    	asyncWriter.start();
+    	
+        try {
+        	while (!forceDone.get()) {
+        		Record rec = super.next();
+        		if (rec == null) break;
+            
+        		asyncWriter.write(rec);
+        		reportSunkRecord(1);
+        		blockedHandoffs = asyncWriter.getBlockedHandoffs();
+        	}
+        }
+        
+        finally {
+        	asyncWriter.close();
+        }
+    }
+    
     /**
      * 
      * @return the absolute path of the sink
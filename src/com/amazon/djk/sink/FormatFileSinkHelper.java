@@ -22,7 +22,7 @@ public class FormatFileSinkHelper extends FileSinkHelper {
 			 fargs.getFormat(),
 			 (Boolean)fargs.getParam("overwrite", false),
 			 (Boolean)fargs.getParam("asFile", false),
-			 (Boolean)fargs.getParam("gzip", true));
+			 writeOp.useFileGzip(fargs));
 		this.writeOp = writeOp;
 		this.fargs = fargs;
 	}
@@ -31,6 +31,29 @@ public class FormatFileSinkHelper extends FileSinkHelper {
 		return writeOp.getWriter(fargs, dataFile);
 	}
 
+	/**
+	 * 
+	 * @return true if records are to be written by a separate writer thread
+	 * @throws IOException
+	 */
+	public boolean asyncWrite() throws IOException {
+		return (Boolean)fargs.getParam(WriterOperator.ASYNC_WRITE_PARAM, false);
+	}
+
+	/**
+	 * 
+	 * @return the file size in bytes at which to roll to the next data file, 0 for never
+	 * @throws IOException
+	 */
+	public long getRollBytes() throws IOException {
+		Integer rollMB = (Integer)fargs.getParam(WriterOperator.ROLL_MB_PARAM, 0);
+		if (rollMB < 0) {
+			throw new IOException(WriterOperator.ROLL_MB_PARAM + " must not be negative");
+		}
+		
+		return rollMB * 1024L * 1024L;
+	}
+
 	public String getStreamFileRegex() {
 		return writeOp.getStreamFileRegex();
 	}
@@ -0,0 +1,75 @@
+package com.amazon.djk.sink;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.amazon.djk.format.FieldTypeSchema;
+import com.amazon.djk.format.FormatWriter;
+import com.amazon.djk.record.Record;
+
+/**
+ * Writes the records of a sink strand to numbered data files, closing the current
+ * file and continuing with the next when it reaches the roll size.  The number of
+ * records in each file and the field types of the first records are registered
+ * with the FileSinkHelper for source.properties.
+ */
+public class RollingFormatWriter extends FormatWriter {
+    private final FormatFileSinkHelper finfo;
+    private final long rollBytes;
+    private FormatWriter current;
+    private File currentFile;
+    private long currentRecs = 0;
+    private final FieldTypeSchema fieldTypes = new FieldTypeSchema(FieldTypeSchema.DEFAULT_SAMPLE_RECS);
+
+    /**
+     *
+     * @param finfo
+     * @param firstFile
+     * @param rollBytes the stored size at which files are rolled, 0 for never
+     * @throws IOException
+     */
+    public RollingFormatWriter(FormatFileSinkHelper finfo, File firstFile, long rollBytes) throws IOException {
+        super(firstFile);
+        this.finfo = finfo;
+        this.rollBytes = finfo.asFile() ? 0 : rollBytes;
+        this.currentFile = firstFile;
+        this.current = finfo.getWriter(firstFile);
+    }
+
+    @Override
+    public void writeRecord(Record rec) throws IOException {
+        if (current == null) { // rolled
+            currentFile = finfo.getNextFile();
+            current = finfo.getWriter(currentFile);
+        }
+
+        current.write(rec);
+        currentRecs++;
+
+        if (fieldTypes.isSampling()) {
+            fieldTypes.sample(rec);
+        }
+
+        if (rollBytes > 0 && current.getBytesWritten() >= rollBytes) {
+            closeCurrent();
+        }
+    }
+
+    private void closeCurrent() throws IOException {
+        current.close();
+        current = null;
+        if (currentRecs != 0) {
+            finfo.addFileRecordCount(currentFile, currentRecs);
+        }
+        currentRecs = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            closeCurrent();
+        }
+
+        finfo.addFieldTypes(fieldTypes);
+    }
+}
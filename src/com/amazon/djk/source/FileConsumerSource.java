@@ -3,31 +3,64 @@ package com.amazon.djk.source;
 import java.io.IOException;
 import java.util.List;
 
+import com.amazon.djk.core.FilterableSource;
+import com.amazon.djk.core.ProjectableSource;
+import com.amazon.djk.file.FormatArgs;
 import com.amazon.djk.file.SourceProperties;
+import com.amazon.djk.record.FieldPredicate;
+import com.amazon.djk.record.FieldProjection;
 import com.amazon.djk.report.ProgressData;
 import com.amazon.djk.report.ReportFormats3;
 import com.amazon.djk.report.ScalarProgress;
 import com.amazon.djk.report.ScalarResolver.AggType;
 
 
-@ReportFormats3(lineFormats ={"formatErrors=%,d versionId=%s"})
-public class FileConsumerSource extends ConsumerSource {
+@ReportFormats3(lineFormats ={"formatErrors=%,d versionId=%s", "projectedStragglerSecs=%.1f predicateRejected=%,d"})
+public class FileConsumerSource extends ConsumerSource implements ProjectableSource, FilterableSource {
 	 @ScalarProgress(name="formatErrors", aggregate=AggType.NONE)
 	    private long numFormatExceptions = 0;
 
 	    @ScalarProgress(name="versionId", aggregate = AggType.NONE)
 		private final String versionId;
+
+	    @ScalarProgress(name="projectedStragglerSecs", aggregate = AggType.NONE)
+	    private double projectedStragglerSecs = -1;
+
+	    @ScalarProgress(name="predicateRejected", aggregate = AggType.NONE)
+	    private long predicateRejected = 0;
+	    
+	    private final FormatArgs accessArgs;
 			
 	public FileConsumerSource(String url, List<RecordProducer> producers, SourceProperties props) throws IOException {
 		super(url, producers);
 		FileRecordProducer producer = (FileRecordProducer) producers.get(0);
 		versionId = producer.getVersionId();
+		accessArgs = props.getAccessArgs();
 		reportTotalRecords(props.totalRecs());
 	}
 
 	private FileConsumerSource(FileConsumerSource root) throws IOException {
 		super(root);
 		versionId = root.versionId;
+		accessArgs = root.accessArgs;
+	}
+
+	/**
+	 * parsers pick up the projection with their next fill.  Records already read
+	 * are still complete, the pushing pipe removes their fields.
+	 */
+	@Override
+	public void pushProjection(FieldProjection projection) throws IOException {
+		accessArgs.addProjection(projection);
+	}
+
+	/**
+	 * parsers pick up the predicate with their next record.  Records already read
+	 * are evaluated by the pushing acceptIf: only.
+	 */
+	@Override
+	public void pushPredicate(FieldPredicate predicate) throws IOException {
+		accessArgs.addPredicate(predicate);
 	}
 
 	@Override
@@ -43,6 +76,15 @@ public class FileConsumerSource extends ConsumerSource {
             numFormatExceptions += ((FileRecordProducer)producer).getNumFormatExceptions();
         }
 
+        try {
+            projectedStragglerSecs = ((FileRecordProducer)producers.get(0)).getFileQueue().getProjectedStragglerSecs();
+        } catch (IOException e) {
+            projectedStragglerSecs = -1;
+        }
+
+        FieldPredicate predicate = accessArgs.getPredicate();
+        predicateRejected = predicate != null ? predicate.getNumRejected() : 0;
+
         return super.getProgressData();
     }
 }
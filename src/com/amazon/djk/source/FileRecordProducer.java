@@ -23,6 +23,8 @@ public class FileRecordProducer extends RecordProducer {
 	private final LazyFileProducer producer;
 	private final FormatArgs accessArgs;
 	private final int numAllowErrors;
+	private LazyFile current = null;
+	private boolean closed = false;
 
 	private interface LazyFileProducer {
 		void initialize(LazyFile file) throws IOException, InterruptedException;
@@ -120,6 +122,7 @@ public class FileRecordProducer extends RecordProducer {
 		this.versionId = files.getVersionId();
 		this.accessArgs = accessArgs;
 		numAllowErrors = (int)accessArgs.getParam(FormatOperator.ALLOW_ERRORS);
+		files.openReader();
 		
 		producer = (parser instanceof ReaderFormatParser) ?
 				new ReaderFormatProducer((ReaderFormatParser)parser) :
@@ -141,6 +144,7 @@ public class FileRecordProducer extends RecordProducer {
 		this.versionId = files.getVersionId();
 		this.accessArgs = accessArgs;
 		numAllowErrors = (int)accessArgs.getParam(FormatOperator.ALLOW_ERRORS);
+		files.openReader();
 
 		producer = (parser instanceof ReaderFormatParser) ?
 				new ReaderFormatProducer((ReaderFormatParser)parser) :
@@ -152,10 +156,10 @@ public class FileRecordProducer extends RecordProducer {
 		RecordSource source = producer.getNextQueueableSource();
 		
 		while (source == null) {
-			LazyFile file = files.next();
-			if (file == null) return null;
+			current = files.next(current);
+			if (current == null) return null;
 			
-			producer.initialize(file);
+			producer.initialize(current);
 			source = producer.getNextQueueableSource();
 		}
 		
@@ -169,8 +173,14 @@ public class FileRecordProducer extends RecordProducer {
 	}
 
 	@Override
-	public void close() throws IOException {
-		// TODO Auto-generated method stub
+	public synchronized void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		files.closeReader();
+	}
+
+	public FileQueue getFileQueue() {
+		return files;
 	}
 
 	public String getVersionId() {
@@ -6,6 +6,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 
 import com.amazon.djk.core.BaseRecordSource;
+import com.amazon.djk.core.FilterableSource;
+import com.amazon.djk.core.ProjectableSource;
 import com.amazon.djk.core.Splittable;
 import com.amazon.djk.file.FileQueue;
 import com.amazon.djk.file.FileQueue.LazyFile;
@@ -16,6 +18,8 @@ import com.amazon.djk.format.FormatOperator;
 import com.amazon.djk.format.FormatParser;
 import com.amazon.djk.format.PushbackLineReader;
 import com.amazon.djk.format.ReaderFormatParser;
+import com.amazon.djk.record.FieldPredicate;
+import com.amazon.djk.record.FieldProjection;
 import com.amazon.djk.record.Record;
 import com.amazon.djk.record.RecordFIFO;
 import com.amazon.djk.record.ThreadDefs;
@@ -26,7 +30,7 @@ import com.amazon.djk.report.ScalarResolver.AggType;
  * class for reading format parser sources without enqueuing one per stream
  */
 @ReportFormats2(headerFormat="<uri>%s?format=%s" , lineFormats = { "numStreams=%d" })
-public class FormatParserSource extends BaseRecordSource implements Splittable {
+public class FormatParserSource extends BaseRecordSource implements Splittable, ProjectableSource, FilterableSource {
 	private final FormatParser parser;
 	private final FileQueue files;
     @ScalarProgress(name="numStreams", aggregate=AggType.NONE)
@@ -36,12 +40,14 @@ public class FormatParserSource extends BaseRecordSource implements Splittable {
 
 	private int numReps = 1;
 	private PushbackLineReader reader = null;
+	private LazyFile current = null;
     private DataInputStream dataStream = null;
     @ScalarProgress(name="format")
     private final String format;
     @ScalarProgress(name="uri")
     private final String uri;
     private final int numAllowErrors;
+    private boolean closed = false;
 
 	public FormatParserSource(FormatParser parser, FileQueue files, SourceProperties props)
 			throws IOException {
@@ -51,6 +57,7 @@ public class FormatParserSource extends BaseRecordSource implements Splittable {
 		this.numStreams = files.initialSize();
 		FormatArgs args = props.getAccessArgs();
 		numAllowErrors = (int)args.getParam(FormatOperator.ALLOW_ERRORS);
+		files.openReader();
 		
 		if (props != null) {
 		    reportTotalRecords(props.totalRecs());
@@ -61,6 +68,16 @@ public class FormatParserSource extends BaseRecordSource implements Splittable {
 
 	}
 	
+    @Override
+    public void pushProjection(FieldProjection projection) throws IOException {
+        props.getAccessArgs().addProjection(projection);
+    }
+
+    @Override
+    public void pushPredicate(FieldPredicate predicate) throws IOException {
+        props.getAccessArgs().addPredicate(predicate);
+    }
+
     @Override
 	public Object split() throws IOException {
 		if (numReps >= ThreadDefs.get().getNumSinkThreads()) {
@@ -73,6 +90,16 @@ public class FormatParserSource extends BaseRecordSource implements Splittable {
 		return rep;
 	}
 	
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			files.closeReader();
+		}
+
+		super.close();
+	}
+
 	@Override
 	public Record next() throws IOException {
 		return (parser instanceof ReaderFormatParser) ? 
@@ -88,10 +115,10 @@ public class FormatParserSource extends BaseRecordSource implements Splittable {
 	        while (!rParser.fill(reader, fifo, numAllowErrors)) {
 	            if (reader != null) reader.close();
 	            
-	            LazyFile file = files.next();
-	            if (file == null) return null;
+	            current = files.next(current);
+	            if (current == null) return null;
 	            
-	            InputStream is = file.getStream();
+	            InputStream is = current.getStream();
 	            InputStreamReader isr = new InputStreamReader(is);
 	            reader = new PushbackLineReader(isr);
 	            rParser.doInitialize(reader);
@@ -114,10 +141,10 @@ public class FormatParserSource extends BaseRecordSource implements Splittable {
             while (!fParser.outerFill(fifo, numAllowErrors)) {
                 if (dataStream != null) dataStream.close();
                 
-                LazyFile file = files.next();
-                if (file == null) return null;
+                current = files.next(current);
+                if (current == null) return null;
 
-                fParser.doInitialize(file);
+                fParser.doInitialize(current);
             }
 	        
             rec = fifo.next();
@@ -102,7 +102,7 @@ public abstract class RecordProducer extends DJKRunnable {
     public abstract void initialize() throws Exception;
 
     /**
-     * close the producer
+     * close the producer, called when its run ends
      * 
      * @throws Exception
      */
@@ -130,6 +130,12 @@ public abstract class RecordProducer extends DJKRunnable {
         } 
 		
 		finally {
+			try {
+				close();
+			} catch (IOException e) {
+				LOG.error("", e);
+			}
+
     		if (numActiveProducers.decrementAndGet() != 0) { 
     			isDone = true;
     		    return; // this producer not last
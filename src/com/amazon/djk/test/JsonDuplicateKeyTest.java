@@ -0,0 +1,74 @@
+package com.amazon.djk.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import com.amazon.djk.expression.SyntaxError;
+import com.amazon.djk.processor.JackKnife;
+import com.amazon.djk.record.Record;
+import com.amazon.djk.record.SlowComparableRecord;
+
+/**
+ * Reads json records with repeated keys through a pushed down keep: projection.
+ * Fails unless a repeated key keeps its last value and the records following
+ * the repeat are read.
+ */
+public class JsonDuplicateKeyTest implements ExpressionTest {
+    public static final String basePath = LocalSourceTestSupport.basePath + "/json-duplicate-key.json";
+    private static final String[] OBJECTS = {
+        "{\"id\":1,\"a\":\"x\",\"b\":\"skip\"}",
+        "{\"id\":2,\"a\":\"x\",\"b\":\"skip\",\"a\":\"y\",\"m\":{\"k\":1,\"k\":2}}",
+        "{\"id\":3,\"a\":\"z\",\"id\":4}",
+        "{\"id\":5,\"a\":[\"p\",\"q\"],\"a\":\"r\"}",
+        "{\"id\":6,\"a\":\"s\"}"
+    };
+    private static final String EXPECTED = "[ id:1,a:x id:2,a:y,m:[k:2] id:4,a:z id:5,a:r id:6,a:s ]";
+    private final JackKnife knife;
+    private final boolean jsonLines;
+
+    /**
+     *
+     * @param knife
+     * @param jsonLines if true, write and read the records as json lines, else as a json array
+     */
+    public JsonDuplicateKeyTest(JackKnife knife, boolean jsonLines) {
+        this.knife = knife;
+        this.jsonLines = jsonLines;
+    }
+
+    @Override
+    public boolean isSuccessful() throws IOException, SyntaxError {
+        File dir = new File(basePath);
+        writeFile(dir);
+
+        String exp = String.format("%s?jsonLines=%s keep:id,a,m", dir.getAbsolutePath(), jsonLines);
+        List<Record> recs = knife.collectMain(exp);
+        if (!SlowComparableRecord.areEqual(knife.collectMain(EXPECTED), recs)) {
+            System.err.println("incorrect response for: " + exp);
+            return false;
+        }
+
+        return true;
+    }
+
+    private void writeFile(File dir) throws IOException {
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+
+        try (PrintWriter out = new PrintWriter(new File(dir, "part00000.json"), "UTF-8")) {
+            if (jsonLines) {
+                for (String object : OBJECTS) {
+                    out.println(object);
+                }
+            } else {
+                out.println("[");
+                out.println(String.join(",\n", OBJECTS));
+                out.println("]");
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.amazon.djk.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import com.amazon.djk.expression.Expression;
+import com.amazon.djk.expression.SyntaxError;
+import com.amazon.djk.processor.CoreDefs;
+import com.amazon.djk.processor.JackKnife;
+import com.amazon.djk.record.FieldIterator;
+import com.amazon.djk.record.Record;
+import com.amazon.djk.source.QueueSource;
+import com.amazon.djk.test.RandomTestRecords.RandomStringType;
+
+/**
+ * Builds a single bucket groupDB with a sort budget of 1 MB, so that the bucket
+ * spills more than BucketSorter.MAX_FAN_IN runs and is merged in several passes.
+ * Fails if records are lost, land in the wrong group, or lose their order of
+ * arrival within a group, or if temp files are left behind.
+ */
+public class NatDBMergePassTest implements ExpressionTest {
+    public static final String basePath = LocalSourceTestSupport.basePath + "/natdb-merge-pass";
+    private final int numRecs;
+    private final int numKeys;
+    private final int padChars;
+
+    /**
+     * e.g. new NatDBMergePassTest(450000, 10000, 300) spills about 150 runs
+     *
+     * @param numRecs number of records to build
+     * @param numKeys number of groups
+     * @param padChars length of a random padding field of each record
+     */
+    public NatDBMergePassTest(int numRecs, int numKeys, int padChars) {
+        this.numRecs = numRecs;
+        this.numKeys = numKeys;
+        this.padChars = padChars;
+    }
+
+    @Override
+    public boolean isSuccessful() throws IOException, SyntaxError {
+        File dir = new File(basePath);
+        FileUtils.deleteDirectory(dir);
+
+        JackKnife knife = TestJackKnife.create();
+        CoreDefs.get().setCoreIntProperty(CoreDefs.NUM_SORT_BUCKETS, 1);
+
+        QueueSource queue = new QueueSource();
+        for (int i = 0; i < numRecs; i++) {
+            Record rec = new Record();
+            rec.addField("id", (long)(i % numKeys));
+            rec.addField("seq", (long)i);
+            rec.addField("pad", RandomTestRecords.randomString(padChars, RandomStringType.ASCII));
+            queue.add(rec, false);
+        }
+
+        knife.execute(queue, Expression.create("groupDB:id:" + dir.getAbsolutePath() + "?sortMB=1&child=sub"));
+
+        List<Record> groups = knife.collectMain(dir.getAbsolutePath());
+        Record sub = new Record();
+        FieldIterator fields = new FieldIterator();
+        long numRead = 0;
+        for (Record group : groups) {
+            long id = group.getFirstAsLong("id");
+            long prev = -1;
+            fields.init(group);
+            while (fields.next()) {
+                if (!fields.getName().equals("sub")) continue;
+
+                fields.getValueAsRecord(sub);
+                long seq = sub.getFirstAsLong("seq");
+                if (seq % numKeys != id || seq <= prev) {
+                    System.err.println(String.format("seq=%d out of place in group id=%d after seq=%d", seq, id, prev));
+                    return false;
+                }
+
+                prev = seq;
+                numRead++;
+            }
+        }
+
+        if (groups.size() != numKeys || numRead != numRecs) {
+            System.err.println(String.format("read %d of %d groups and %d of %d records", groups.size(), numKeys,
+                    numRead, numRecs));
+            return false;
+        }
+
+        String[] temps = dir.list((parent, name) -> name.startsWith("temp."));
+        if (temps == null || temps.length != 0) {
+            System.err.println("temp files left behind in " + dir);
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,118 @@
+package com.amazon.djk.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.FileUtils;
+
+import com.amazon.djk.expression.SyntaxError;
+import com.amazon.djk.processor.CoreDefs;
+import com.amazon.djk.processor.JackKnife;
+import com.amazon.djk.record.Record;
+
+/**
+ * Reads many small files through a SlowLocalFileSystem with several readers
+ * and prefetching.  Fails if records are lost, or if the read does not finish
+ * within the timeout, e.g. readers waiting on prefetches that never run.
+ */
+public class SlowFileSystemReadTest implements ExpressionTest {
+    public static final String basePath = LocalSourceTestSupport.basePath + "/slow-fs-read.tsv";
+    private static final int RECS_PER_FILE = 10;
+    private final int numFiles;
+    private final long openDelayMillis;
+    private final int prefetchFiles;
+    private final int numReaders;
+    private final long timeoutMillis;
+
+    /**
+     * e.g. new SlowFileSystemReadTest(200, 20, 2, 6, 60000)
+     *
+     * @param numFiles number of files to read
+     * @param openDelayMillis latency of each file open
+     * @param prefetchFiles the prefetchFiles param of the read
+     * @param numReaders number of source threads
+     * @param timeoutMillis
+     */
+    public SlowFileSystemReadTest(int numFiles, long openDelayMillis, int prefetchFiles, int numReaders,
+            long timeoutMillis) {
+        this.numFiles = numFiles;
+        this.openDelayMillis = openDelayMillis;
+        this.prefetchFiles = prefetchFiles;
+        this.numReaders = numReaders;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public boolean isSuccessful() throws IOException, SyntaxError {
+        File dir = new File(basePath);
+        writeFiles(dir);
+
+        // read with a knife of its own thread, which is abandoned if it hangs
+        AtomicLong numRecs = new AtomicLong();
+        AtomicLong idSum = new AtomicLong();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                JackKnife knife = TestJackKnife.create();
+                knife.registerFileSystem(SlowLocalFileSystem.class);
+                CoreDefs.get().setCoreIntProperty(CoreDefs.NUM_SOURCE_THREADS, numReaders);
+                SlowLocalFileSystem.setOpenDelay(openDelayMillis);
+
+                String exp = String.format("%s://%s?prefetchFiles=%d", SlowLocalFileSystem.SLOW_SCHEME,
+                        dir.getAbsolutePath(), prefetchFiles);
+                List<Record> recs = knife.collectMain(exp);
+                for (Record rec : recs) {
+                    idSum.addAndGet(rec.getFirstAsLong("id"));
+                }
+                numRecs.set(recs.size());
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        });
+
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            reader.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+
+        if (reader.isAlive()) {
+            System.err.println(String.format("read of %d files did not finish within %d millis", numFiles, timeoutMillis));
+            return false;
+        }
+
+        if (failure.get() != null) {
+            throw new IOException(failure.get());
+        }
+
+        long expected = (long)numFiles * RECS_PER_FILE;
+        if (numRecs.get() != expected || idSum.get() != expected * (expected - 1) / 2) {
+            System.err.println(String.format("read %d of %d records from %d files", numRecs.get(), expected, numFiles));
+            return false;
+        }
+
+        return true;
+    }
+
+    private void writeFiles(File dir) throws IOException {
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+
+        for (int f = 0; f < numFiles; f++) {
+            File file = new File(dir, String.format("part%05d.tsv", f));
+            try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+                out.println("id");
+                for (int i = 0; i < RECS_PER_FILE; i++) {
+                    out.println(f * RECS_PER_FILE + i);
+                }
+            }
+        }
+    }
+}
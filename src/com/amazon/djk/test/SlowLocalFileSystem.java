@@ -0,0 +1,61 @@
+package com.amazon.djk.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.amazon.djk.expression.Arg;
+import com.amazon.djk.expression.ArgType;
+import com.amazon.djk.file.FileArgs;
+import com.amazon.djk.file.FileOperator;
+import com.amazon.djk.file.LocalFileSystem;
+import com.amazon.djk.manual.Description;
+
+/**
+ * A local filesystem with a fixed latency per file open, standing in for
+ * remote filesystems when testing prefetching and scheduling.  Register
+ * with InnerKnife.registerFileSystem(SlowLocalFileSystem.class).
+ */
+public class SlowLocalFileSystem extends LocalFileSystem {
+	public final static String SLOW_SCHEME = "slow";
+	private static volatile long openDelayMillis = 100;
+
+	/**
+	 *
+	 * @param millis latency of each subsequent file open
+	 */
+	public static void setOpenDelay(long millis) {
+		openDelayMillis = millis;
+	}
+
+	@Override
+	public InputStream getStream(FileArgs leafArgs) throws IOException {
+		try {
+			Thread.sleep(openDelayMillis);
+		}
+
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+
+		return super.getStream(leafArgs);
+	}
+
+	@Override
+	public String scheme() {
+		return SLOW_SCHEME;
+	}
+
+	@Override
+	public FileSystemPathOperator getPathOperator() {
+	    return new Op();
+	}
+
+	@Description(text = {"Local Filesystem with a fixed open latency, for testing."}, contexts={"slow://PATH"})
+	@Arg(name=FileOperator.PATH_ARG, gloss="path to local format source.", type=ArgType.STRING)
+    public static class Op extends FileSystemPathOperator {
+		public Op() {
+			super(SLOW_SCHEME);
+		}
+	}
+}